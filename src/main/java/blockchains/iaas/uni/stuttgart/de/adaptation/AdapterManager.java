@@ -59,7 +59,10 @@ public class AdapterManager {
             if (result.getRight().equals(connectionProfile)) {
                 return map.get(blockchainId).getLeft();
             }
-            // no we need to create it!
+            // no we need to create it! The outdated adapter releases its resources first, since the new one uses the
+            // same thread pools and files.
+            map.remove(blockchainId);
+            result.getLeft().close();
         }
 
         try {
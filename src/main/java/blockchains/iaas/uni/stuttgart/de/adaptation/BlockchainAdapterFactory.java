@@ -12,11 +12,14 @@
 package blockchains.iaas.uni.stuttgart.de.adaptation;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import blockchains.iaas.uni.stuttgart.de.adaptation.adapters.bitcoin.BitcoinAdapter;
 import blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum.EthereumAdapter;
 import blockchains.iaas.uni.stuttgart.de.adaptation.adapters.fabric.FabricAdapter;
 import blockchains.iaas.uni.stuttgart.de.adaptation.interfaces.BlockchainAdapter;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.BlockTimestampIndex;
 import blockchains.iaas.uni.stuttgart.de.adaptation.utils.PoWConfidenceCalculator;
 import blockchains.iaas.uni.stuttgart.de.connectionprofiles.AbstractConnectionProfile;
 import blockchains.iaas.uni.stuttgart.de.connectionprofiles.profiles.BitcoinConnectionProfile;
@@ -42,7 +45,7 @@ public class BlockchainAdapterFactory {
     public BlockchainAdapter createBlockchainAdapter(AbstractConnectionProfile connectionProfile, String blockchainId) throws Exception {
         try {
             if (connectionProfile instanceof EthereumConnectionProfile) {
-                return createEthereumAdapter((EthereumConnectionProfile) connectionProfile);
+                return createEthereumAdapter((EthereumConnectionProfile) connectionProfile, blockchainId);
             } else if (connectionProfile instanceof BitcoinConnectionProfile) {
                 return createBitcoinAdapter((BitcoinConnectionProfile) connectionProfile);
             } else if (connectionProfile instanceof FabricConnectionProfile) {
@@ -58,9 +61,18 @@ public class BlockchainAdapterFactory {
         }
     }
 
-    private EthereumAdapter createEthereumAdapter(EthereumConnectionProfile gateway) throws IOException, CipherException {
-        final EthereumAdapter result = new EthereumAdapter(gateway.getNodeUrl(), gateway.getPollingTimeSeconds());
+    private EthereumAdapter createEthereumAdapter(EthereumConnectionProfile gateway, String blockchainId) throws IOException, CipherException {
+        final EthereumAdapter result = new EthereumAdapter(gateway, blockchainId);
         result.setCredentials(gateway.getKeystorePassword(), gateway.getKeystorePath());
+        final Path indexDirectory = getTimestampIndexDirectory(gateway.getTimestampIndexDirectory());
+
+        try {
+            result.setTimestampIndex(BlockTimestampIndex.open(BlockTimestampIndex.getPath(indexDirectory, blockchainId)));
+        } catch (IOException e) {
+            // time frames are resolved on the chain only
+            log.warn("Failed to open the block timestamp index of {}. Continuing without it. Reason: {}", blockchainId, e.getMessage());
+        }
+
         final PoWConfidenceCalculator cCalc = new PoWConfidenceCalculator();
         cCalc.setAdversaryRatio(gateway.getAdversaryVotingRatio());
         result.setConfidenceCalculator(cCalc);
@@ -84,6 +96,11 @@ public class BlockchainAdapterFactory {
     private FabricAdapter createFabricAdapter(FabricConnectionProfile gateway, String blockchainId) {
         return FabricAdapter.builder()
                 .blockchainId(blockchainId)
+                .timestampIndexDirectory(getTimestampIndexDirectory(gateway.getTimestampIndexDirectory()))
                 .build();
     }
+
+    private static Path getTimestampIndexDirectory(String configured) {
+        return configured == null ? BlockTimestampIndex.DEFAULT_DIRECTORY : Paths.get(configured);
+    }
 }
@@ -24,11 +24,13 @@ import blockchains.iaas.uni.stuttgart.de.exceptions.BlockchainNodeUnreachableExc
 import blockchains.iaas.uni.stuttgart.de.exceptions.InvalidTransactionException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.NotSupportedException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.ParameterException;
+import blockchains.iaas.uni.stuttgart.de.model.BatchInvocationResult;
 import blockchains.iaas.uni.stuttgart.de.model.Block;
 import blockchains.iaas.uni.stuttgart.de.model.LinearChainTransaction;
 import blockchains.iaas.uni.stuttgart.de.model.Occurrence;
 import blockchains.iaas.uni.stuttgart.de.model.Parameter;
 import blockchains.iaas.uni.stuttgart.de.model.QueryResult;
+import blockchains.iaas.uni.stuttgart.de.model.SmartContractCall;
 import blockchains.iaas.uni.stuttgart.de.model.TimeFrame;
 import blockchains.iaas.uni.stuttgart.de.model.Transaction;
 import blockchains.iaas.uni.stuttgart.de.model.TransactionState;
@@ -278,6 +280,11 @@ public class BitcoinAdapter extends AbstractAdapter {
         throw new NotSupportedException("Bitcoin does not support smart contract function invocations!");
     }
 
+    @Override
+    public CompletableFuture<BatchInvocationResult> invokeSmartContracts(List<SmartContractCall> calls, boolean useCache) throws NotSupportedException {
+        throw new NotSupportedException("Bitcoin does not support smart contract function invocations!");
+    }
+
     @Override
     public Observable<Occurrence> subscribeToEvent(String smartContractAddress, String eventIdentifier, List<Parameter> outputParameters, double degreeOfConfidence, String filter) throws BalException {
         return null;
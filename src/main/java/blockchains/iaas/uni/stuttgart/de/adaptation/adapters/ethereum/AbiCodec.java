@@ -0,0 +1,580 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.ParameterException;
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.Utils;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.Bytes;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Int;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Uint;
+import org.web3j.abi.datatypes.Utf8String;
+
+/**
+ * Converts between the string values of parameters and their ABI encoding for a fixed list of types, reading and
+ * writing the 32-byte words of the encoding directly instead of creating web3j types, big integers and intermediate
+ * hex strings for every value.
+ * <p>
+ * The results are the same as the ones of {@link ParameterEncoder} with {@link FunctionEncoder}, and of
+ * {@link FunctionReturnDecoder} with {@link ParameterDecoder}. Values the codec does not handle itself, such as
+ * numbers that do not fit into a long or malformed arguments and encodings, are passed to these classes, so they also
+ * produce the same errors.
+ */
+public class AbiCodec {
+    private static final int WORD_LENGTH = 32;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private final List<Class<? extends Type>> types;
+    private final List<TypeReference<Type>> typeReferences;
+    private final Kind[] kinds;
+    // the number of bytes of numbers and static byte arrays
+    private final int[] sizes;
+
+    private enum Kind {
+        BOOL, ADDRESS, UINT, INT, STATIC_BYTES, DYNAMIC_BYTES, STRING
+    }
+
+    public AbiCodec(List<Class<? extends Type>> types) {
+        this.types = new ArrayList<>(types);
+        this.kinds = new Kind[types.size()];
+        this.sizes = new int[types.size()];
+        final List<TypeReference<?>> references = new ArrayList<>();
+
+        for (int i = 0; i < types.size(); i++) {
+            final Class<? extends Type> type = types.get(i);
+            final String name = type.getSimpleName();
+            references.add(TypeReference.create(type));
+
+            if (type == Bool.class) {
+                kinds[i] = Kind.BOOL;
+            } else if (type == Address.class) {
+                kinds[i] = Kind.ADDRESS;
+            } else if (type == Utf8String.class) {
+                kinds[i] = Kind.STRING;
+            } else if (type == DynamicBytes.class) {
+                kinds[i] = Kind.DYNAMIC_BYTES;
+            } else if (type.getSuperclass() == Uint.class) {
+                kinds[i] = Kind.UINT;
+                sizes[i] = Integer.parseInt(name.substring("Uint".length())) / 8;
+            } else if (type.getSuperclass() == Int.class) {
+                kinds[i] = Kind.INT;
+                sizes[i] = Integer.parseInt(name.substring("Int".length())) / 8;
+            } else if (type.getSuperclass() == Bytes.class) {
+                kinds[i] = Kind.STATIC_BYTES;
+                sizes[i] = Integer.parseInt(name.substring("Bytes".length()));
+            }
+            // other types are always passed to the web3j encoders and decoders
+        }
+
+        this.typeReferences = Utils.convert(references);
+    }
+
+    public List<TypeReference<Type>> getTypeReferences() {
+        return typeReferences;
+    }
+
+    /**
+     * @param selector  the selector of the function including the hex prefix
+     * @param arguments the arguments having the types of the codec
+     * @return the call data of the function with the given arguments
+     */
+    public String encodeCall(String selector, List<Parameter> arguments) throws ParameterException {
+        final int count = kinds.length;
+        byte[][] strings = null;
+        int length = count * WORD_LENGTH;
+
+        // the first pass validates the dynamic values and determines the length of the encoding
+        for (int i = 0; i < count; i++) {
+            final String value = arguments.get(i).getValue();
+
+            if (kinds[i] == null || value == null) {
+                return encodeCallWithWeb3j(selector, arguments);
+            }
+
+            if (kinds[i] == Kind.STRING) {
+                if (strings == null) {
+                    strings = new byte[count][];
+                }
+
+                strings[i] = value.getBytes(StandardCharsets.UTF_8);
+                length += WORD_LENGTH + padded(strings[i].length);
+            } else if (kinds[i] == Kind.DYNAMIC_BYTES) {
+                if (value.length() % 2 != 0 || !isHex(value, 0)) {
+                    return encodeCallWithWeb3j(selector, arguments);
+                }
+
+                length += WORD_LENGTH + padded(value.length() / 2);
+            }
+        }
+
+        final byte[] encoded = new byte[length];
+        int tailOffset = count * WORD_LENGTH;
+
+        for (int i = 0; i < count; i++) {
+            final String value = arguments.get(i).getValue();
+            final int headOffset = i * WORD_LENGTH;
+
+            switch (kinds[i]) {
+                case STRING:
+                case DYNAMIC_BYTES:
+                    // the head refers to the length and content in the tail
+                    writeLong(encoded, headOffset, tailOffset);
+                    final int contentLength;
+
+                    if (kinds[i] == Kind.STRING) {
+                        contentLength = strings[i].length;
+                        System.arraycopy(strings[i], 0, encoded, tailOffset + WORD_LENGTH, contentLength);
+                    } else {
+                        contentLength = value.length() / 2;
+                        parseHex(value, 0, encoded, tailOffset + WORD_LENGTH, contentLength);
+                    }
+
+                    writeLong(encoded, tailOffset, contentLength);
+                    tailOffset += WORD_LENGTH + padded(contentLength);
+                    break;
+                case BOOL:
+                    encoded[headOffset + WORD_LENGTH - 1] = (byte) (Boolean.parseBoolean(value) ? 1 : 0);
+                    break;
+                case ADDRESS:
+                    final int digits = value.length() - 2;
+
+                    if (!value.startsWith("0x") || digits < 1 || digits > 40 || !isHex(value, 2)) {
+                        return encodeCallWithWeb3j(selector, arguments);
+                    }
+
+                    // the number is right aligned, and an odd number of digits leaves the first half byte empty
+                    final int start = headOffset + WORD_LENGTH - (digits + 1) / 2;
+
+                    if (digits % 2 != 0) {
+                        encoded[start] = (byte) hexDigit(value.charAt(2));
+                        parseHex(value, 3, encoded, start + 1, digits / 2);
+                    } else {
+                        parseHex(value, 2, encoded, start, digits / 2);
+                    }
+                    break;
+                case UINT:
+                case INT:
+                    if (!isShortDecimal(value)) {
+                        return encodeCallWithWeb3j(selector, arguments);
+                    }
+
+                    final long number = Long.parseLong(value);
+
+                    // the values web3j rejects or may reject are left to it
+                    if (kinds[i] == Kind.UINT && number < 0 || bitLength(number) > sizes[i] * 8) {
+                        return encodeCallWithWeb3j(selector, arguments);
+                    }
+
+                    writeLong(encoded, headOffset, number);
+                    break;
+                case STATIC_BYTES:
+                    if (value.length() != sizes[i] * 2 || !isHex(value, 0)) {
+                        return encodeCallWithWeb3j(selector, arguments);
+                    }
+
+                    // byte arrays are left aligned
+                    parseHex(value, 0, encoded, headOffset, sizes[i]);
+                    break;
+            }
+        }
+
+        final char[] result = new char[selector.length() + length * 2];
+        selector.getChars(0, selector.length(), result, 0);
+        formatHex(encoded, 0, length, result, selector.length());
+
+        return new String(result);
+    }
+
+    /**
+     * @param data the encoded values, e.g., the data of a log or the result of a call
+     * @return the values having the types of the codec, or an empty list if the data is empty
+     */
+    public List<String> decode(String data) throws ParameterException {
+        final int start = data != null && data.startsWith("0x") ? 2 : 0;
+
+        if (data == null || data.length() == start) {
+            return Collections.emptyList();
+        }
+
+        if ((data.length() - start) % 2 != 0) {
+            return decodeWithWeb3j(data);
+        }
+
+        final byte[] encoded = new byte[(data.length() - start) / 2];
+
+        if (!parseHex(data, start, encoded, 0, encoded.length)) {
+            return decodeWithWeb3j(data);
+        }
+
+        final List<String> result = new ArrayList<>(kinds.length);
+
+        for (int i = 0; i < kinds.length; i++) {
+            final int headOffset = i * WORD_LENGTH;
+
+            if (kinds[i] == null || headOffset + WORD_LENGTH > encoded.length) {
+                return decodeWithWeb3j(data);
+            }
+
+            final String value;
+
+            if (kinds[i] == Kind.STRING || kinds[i] == Kind.DYNAMIC_BYTES) {
+                final int contentOffset = readLength(encoded, headOffset, encoded.length - WORD_LENGTH);
+                final int contentLength = contentOffset < 0 ? -1 :
+                        readLength(encoded, contentOffset, encoded.length - contentOffset - WORD_LENGTH);
+
+                if (contentLength < 0) {
+                    return decodeWithWeb3j(data);
+                }
+
+                value = decodeDynamic(kinds[i], encoded, contentOffset + WORD_LENGTH, contentLength);
+            } else {
+                value = decodeStatic(kinds[i], sizes[i], encoded, headOffset);
+            }
+
+            if (value == null) {
+                return decodeWithWeb3j(data);
+            }
+
+            result.add(value);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param index the index of the type of the value
+     * @param topic a topic of a log holding a value of a static type
+     * @return the value held by the topic
+     */
+    public String decodeTopic(int index, String topic) throws ParameterException {
+        final int start = topic.startsWith("0x") ? 2 : 0;
+
+        if (kinds[index] == null || kinds[index] == Kind.STRING || kinds[index] == Kind.DYNAMIC_BYTES ||
+                topic.length() - start != WORD_LENGTH * 2) {
+            return decodeTopicWithWeb3j(index, topic);
+        }
+
+        final byte[] word = new byte[WORD_LENGTH];
+
+        if (!parseHex(topic, start, word, 0, WORD_LENGTH)) {
+            return decodeTopicWithWeb3j(index, topic);
+        }
+
+        final String result = decodeStatic(kinds[index], sizes[index], word, 0);
+
+        return result != null ? result : decodeTopicWithWeb3j(index, topic);
+    }
+
+    private String encodeCallWithWeb3j(String selector, List<Parameter> arguments) throws ParameterException {
+        final List<Type> values = new ArrayList<>(arguments.size());
+
+        for (int i = 0; i < arguments.size(); i++) {
+            values.add(ParameterEncoder.encode(types.get(i), arguments.get(i).getValue()));
+        }
+
+        return selector + FunctionEncoder.encodeConstructor(values);
+    }
+
+    private List<String> decodeWithWeb3j(String data) throws ParameterException {
+        final List<Type> values = FunctionReturnDecoder.decode(data, typeReferences);
+        final List<String> result = new ArrayList<>(values.size());
+
+        for (Type value : values) {
+            result.add(ParameterDecoder.decode(value));
+        }
+
+        return result;
+    }
+
+    private String decodeTopicWithWeb3j(int index, String topic) throws ParameterException {
+        return ParameterDecoder.decode(FunctionReturnDecoder.decodeIndexedValue(topic, typeReferences.get(index)));
+    }
+
+    /**
+     * @return the value of the word at the given offset, or null if web3j has to decode it.
+     */
+    private static String decodeStatic(Kind kind, int size, byte[] encoded, int offset) {
+        switch (kind) {
+            case BOOL:
+                // web3j only decodes the number one as true
+                for (int i = offset; i < offset + WORD_LENGTH - 1; i++) {
+                    if (encoded[i] != 0) {
+                        return "false";
+                    }
+                }
+
+                return encoded[offset + WORD_LENGTH - 1] == 1 ? "true" : "false";
+            case ADDRESS:
+                final char[] address = new char[42];
+                address[0] = '0';
+                address[1] = 'x';
+                formatHex(encoded, offset + WORD_LENGTH - 20, 20, address, 2);
+
+                return new String(address);
+            case UINT:
+                return toUnsignedDecimal(encoded, offset + WORD_LENGTH - size, size);
+            case INT:
+                return toSignedDecimal(encoded, offset, size);
+            case STATIC_BYTES:
+                return toSignedHex(encoded, offset, size);
+            default:
+                return null;
+        }
+    }
+
+    private static String decodeDynamic(Kind kind, byte[] encoded, int offset, int length) {
+        if (kind == Kind.STRING) {
+            return new String(encoded, offset, length, StandardCharsets.UTF_8);
+        }
+
+        return length == 0 ? "empty" : toSignedHex(encoded, offset, length);
+    }
+
+    /**
+     * @return the word at the given offset as a number not greater than the given maximum, or -1 if it is greater.
+     */
+    private static int readLength(byte[] encoded, int offset, int maximum) {
+        for (int i = offset; i < offset + WORD_LENGTH - 4; i++) {
+            if (encoded[i] != 0) {
+                return -1;
+            }
+        }
+
+        final long result = readUnsigned(encoded, offset + WORD_LENGTH - 4, 4);
+
+        return result <= maximum ? (int) result : -1;
+    }
+
+    private static long readUnsigned(byte[] encoded, int offset, int length) {
+        long result = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            result = result << 8 | encoded[i] & 0xff;
+        }
+
+        return result;
+    }
+
+    private static String toUnsignedDecimal(byte[] encoded, int offset, int length) {
+        int start = offset;
+
+        while (start < offset + length && encoded[start] == 0) {
+            start++;
+        }
+
+        final int remaining = offset + length - start;
+
+        if (remaining < 8 || remaining == 8 && encoded[start] >= 0) {
+            return Long.toString(readUnsigned(encoded, start, remaining));
+        }
+
+        return new BigInteger(1, Arrays.copyOfRange(encoded, start, offset + length)).toString();
+    }
+
+    /**
+     * Decodes an integer of the given number of bytes like web3j, which takes the sign from the first byte of the word
+     * and the value from the last bytes, and rejects the result if it has more bits than the type.
+     *
+     * @return the decimal value, or null if web3j rejects it.
+     */
+    private static String toSignedDecimal(byte[] word, int offset, int size) {
+        final int valueOffset = offset + WORD_LENGTH - size;
+        final long result;
+
+        if (size < 8) {
+            result = (long) word[offset] << size * 8 | readUnsigned(word, valueOffset, size);
+        } else {
+            // the value fits into a long if all bytes before the last eight ones are sign bytes
+            final byte sign = word[offset + WORD_LENGTH - 8] < 0 ? (byte) -1 : 0;
+            boolean fits = word[offset] == sign;
+
+            for (int i = valueOffset; fits && i < offset + WORD_LENGTH - 8; i++) {
+                fits = word[i] == sign;
+            }
+
+            if (!fits) {
+                final byte[] bytes = new byte[size + 1];
+                bytes[0] = word[offset];
+                System.arraycopy(word, valueOffset, bytes, 1, size);
+                final BigInteger value = new BigInteger(bytes);
+
+                return value.bitLength() <= size * 8 ? value.toString() : null;
+            }
+
+            result = readUnsigned(word, offset + WORD_LENGTH - 8, 8);
+        }
+
+        return bitLength(result) <= size * 8 ? Long.toString(result) : null;
+    }
+
+    /**
+     * @return the byte array as a signed hexadecimal number without leading zeros, like {@link BigInteger#toString(int)}.
+     */
+    private static String toSignedHex(byte[] bytes, int offset, int length) {
+        if (bytes[offset] >= 0) {
+            return toHexNumber(bytes, offset, length, false);
+        }
+
+        // the magnitude of a negative number is its two's complement
+        final byte[] magnitude = new byte[length];
+        int carry = 1;
+
+        for (int i = length - 1; i >= 0; i--) {
+            final int digit = (~bytes[offset + i] & 0xff) + carry;
+            magnitude[i] = (byte) digit;
+            carry = digit >> 8;
+        }
+
+        return toHexNumber(magnitude, 0, length, true);
+    }
+
+    private static String toHexNumber(byte[] bytes, int offset, int length, boolean negative) {
+        int start = offset;
+        final int end = offset + length;
+
+        while (start < end && bytes[start] == 0) {
+            start++;
+        }
+
+        if (start == end) {
+            return "0";
+        }
+
+        final boolean oddDigits = (bytes[start] & 0xf0) == 0;
+        final char[] result = new char[(negative ? 1 : 0) + (end - start) * 2 - (oddDigits ? 1 : 0)];
+        int position = 0;
+
+        if (negative) {
+            result[position++] = '-';
+        }
+
+        if (oddDigits) {
+            result[position++] = HEX_DIGITS[bytes[start++] & 0xf];
+        }
+
+        formatHex(bytes, start, end - start, result, position);
+
+        return new String(result);
+    }
+
+    private static void formatHex(byte[] bytes, int offset, int length, char[] destination, int position) {
+        for (int i = offset; i < offset + length; i++) {
+            destination[position++] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            destination[position++] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+    }
+
+    /**
+     * @return false if the string contains characters that are not hexadecimal digits.
+     */
+    private static boolean parseHex(String hex, int start, byte[] destination, int position, int length) {
+        for (int i = 0; i < length; i++) {
+            final int high = hexDigit(hex.charAt(start + 2 * i));
+            final int low = hexDigit(hex.charAt(start + 2 * i + 1));
+
+            if (high < 0 || low < 0) {
+                return false;
+            }
+
+            destination[position + i] = (byte) (high << 4 | low);
+        }
+
+        return true;
+    }
+
+    private static boolean isHex(String value, int start) {
+        for (int i = start; i < value.length(); i++) {
+            if (hexDigit(value.charAt(i)) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Unlike {@link Character#digit(char, int)}, only ASCII characters are accepted, since the parsers of web3j and
+     * {@link javax.xml.bind.DatatypeConverter} differ in the other ones.
+     *
+     * @return the value of the hexadecimal digit, or -1 if the character is not one.
+     */
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return whether the value is a decimal number that fits into a long and is parsed the same way by
+     * {@link Long#parseLong(String)} and {@link BigInteger#BigInteger(String, int)}.
+     */
+    private static boolean isShortDecimal(String value) {
+        final int start = value.startsWith("-") ? 1 : 0;
+
+        if (value.length() == start || value.length() - start > 18) {
+            return false;
+        }
+
+        for (int i = start; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of bits of the value without the sign bit, like {@link BigInteger#bitLength()}.
+     */
+    private static int bitLength(long value) {
+        return 64 - Long.numberOfLeadingZeros(value < 0 ? ~value : value);
+    }
+
+    private static void writeLong(byte[] encoded, int offset, long value) {
+        final byte padding = value < 0 ? (byte) -1 : 0;
+
+        for (int i = offset; i < offset + WORD_LENGTH - 8; i++) {
+            encoded[i] = padding;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            encoded[offset + WORD_LENGTH - 1 - i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    private static int padded(int length) {
+        return (length + WORD_LENGTH - 1) / WORD_LENGTH * WORD_LENGTH;
+    }
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.core.methods.response.EthBlock;
+
+/**
+ * Schedules the polls for the latest block of an adapter according to the cadence of the chain. The interval between
+ * blocks is learned from the timestamps of the polled blocks, starting with the configured average block time. After a
+ * new block is seen, the next poll is scheduled shortly before the next block is expected. From then on, the polls are a
+ * tenth of the block interval apart, and back off up to twice the block interval the longer the block is overdue (e.g.,
+ * since the chain stalls or only mines blocks on demand). While nobody follows the chain head, no polls are sent at all.
+ * <p>
+ * The polls and the handling of new blocks run on a single thread of the scheduler.
+ */
+public class AdaptivePollScheduler {
+    private static final Logger log = LoggerFactory.getLogger(AdaptivePollScheduler.class);
+    // the weight of the latest block interval in the learned block interval
+    private static final double INTERVAL_WEIGHT = 0.2;
+    // the number of polls per block interval while a block is due
+    private static final int POLLS_PER_INTERVAL = 10;
+    // how long the effective polling rate is measured over
+    private static final long RATE_WINDOW_MILLIS = 60_000;
+    private final long minPollIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+    // the times of the polls within the rate window
+    private final Deque<Long> recentPolls = new ArrayDeque<>();
+    private double blockIntervalMillis;
+    private long lastBlockNumber = -1;
+    private long lastBlockTimestamp = -1;
+    private String lastBlockHash;
+    // when the latest block was seen (-1 if none is yet)
+    private long lastBlockMillis = -1;
+    // the polls since the latest block became overdue
+    private int overduePolls;
+    private boolean active;
+    // distinguishes the poll loops of successive starts
+    private long generation;
+    private long pollCount;
+
+    /**
+     * @param initialBlockIntervalMillis the expected interval between blocks until it is learned
+     * @param minPollIntervalMillis      the minimum interval between polls
+     */
+    public AdaptivePollScheduler(long initialBlockIntervalMillis, long minPollIntervalMillis) {
+        this.blockIntervalMillis = Math.max(initialBlockIntervalMillis, minPollIntervalMillis);
+        this.minPollIntervalMillis = minPollIntervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("eth-head-poll-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Starts polling unless it is already started.
+     *
+     * @param poll      retrieves the latest block
+     * @param onNewHead receives every polled block that differs from the previous one
+     */
+    public synchronized void start(Supplier<CompletableFuture<EthBlock.Block>> poll, Consumer<EthBlock.Block> onNewHead) {
+        if (active) {
+            return;
+        }
+
+        active = true;
+        final long current = ++generation;
+        scheduler.execute(() -> this.poll(current, poll, onNewHead));
+    }
+
+    public synchronized void stop() {
+        active = false;
+        generation++;
+    }
+
+    /**
+     * Stops polling and releases the thread of the scheduler. The scheduler cannot be started again.
+     */
+    public synchronized void shutdown() {
+        this.stop();
+        scheduler.shutdownNow();
+    }
+
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    public synchronized long getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * @return the number of polls sent within the last minute.
+     */
+    public synchronized int getEffectivePollsPerMinute() {
+        this.forgetPollsBefore(System.currentTimeMillis() - RATE_WINDOW_MILLIS);
+
+        return recentPolls.size();
+    }
+
+    /**
+     * @return the learned interval between blocks.
+     */
+    public synchronized long getBlockIntervalMillis() {
+        return (long) blockIntervalMillis;
+    }
+
+    /**
+     * Learns from the result of a poll.
+     *
+     * @param head the polled block, or null if the poll failed
+     * @return true if the block is new
+     */
+    synchronized boolean onPolled(EthBlock.Block head, long nowMillis) {
+        if (head == null || head.getHash() == null || head.getHash().equals(lastBlockHash)) {
+            if (lastBlockMillis >= 0 && nowMillis >= lastBlockMillis + this.getPollingBlockInterval()) {
+                overduePolls++;
+            }
+
+            return false;
+        }
+
+        final long number = head.getNumber().longValue();
+        final long timestamp = head.getTimestamp().longValue();
+
+        // blocks replacing known ones (reorganizations) tell nothing about the interval
+        if (lastBlockNumber >= 0 && number > lastBlockNumber && timestamp >= lastBlockTimestamp) {
+            final double interval = (timestamp - lastBlockTimestamp) * 1000.0 / (number - lastBlockNumber);
+            blockIntervalMillis = INTERVAL_WEIGHT * interval + (1 - INTERVAL_WEIGHT) * blockIntervalMillis;
+        }
+
+        lastBlockNumber = number;
+        lastBlockTimestamp = timestamp;
+        lastBlockHash = head.getHash();
+        lastBlockMillis = nowMillis;
+        overduePolls = 0;
+
+        return true;
+    }
+
+    /**
+     * @return how long to wait before the next poll
+     */
+    synchronized long nextDelayMillis(long nowMillis) {
+        final long interval = this.getPollingBlockInterval();
+        final long dueInterval = Math.max(minPollIntervalMillis, interval / POLLS_PER_INTERVAL);
+
+        if (lastBlockMillis < 0) {
+            return dueInterval;
+        }
+
+        final long untilExpected = lastBlockMillis + interval - nowMillis;
+
+        if (untilExpected > dueInterval) {
+            return untilExpected - dueInterval;
+        }
+
+        // the polls of the first interval the block is overdue are not backed off
+        final int backoff = Math.min(20, Math.max(0, overduePolls - POLLS_PER_INTERVAL));
+
+        return Math.min(Math.max(2 * interval, dueInterval), dueInterval << backoff);
+    }
+
+    private long getPollingBlockInterval() {
+        return Math.max(minPollIntervalMillis, (long) blockIntervalMillis);
+    }
+
+    private void poll(long pollGeneration, Supplier<CompletableFuture<EthBlock.Block>> poll, Consumer<EthBlock.Block> onNewHead) {
+        synchronized (this) {
+            if (!active || pollGeneration != generation) {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            pollCount++;
+            recentPolls.addLast(now);
+            this.forgetPollsBefore(now - RATE_WINDOW_MILLIS);
+        }
+
+        CompletableFuture<EthBlock.Block> result;
+
+        try {
+            result = poll.get();
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        result.whenCompleteAsync((head, error) -> {
+            final long now = System.currentTimeMillis();
+
+            if (error != null) {
+                log.warn("Failed to poll for the latest block. Reason: {}", error.getMessage());
+            }
+
+            if (this.onPolled(error != null ? null : head, now)) {
+                try {
+                    onNewHead.accept(head);
+                } catch (RuntimeException e) {
+                    log.error("Failed to handle block {}. Reason: {}", head.getNumber(), e.getMessage());
+                }
+            }
+
+            final long delay;
+
+            synchronized (this) {
+                if (!active || pollGeneration != generation) {
+                    return;
+                }
+
+                delay = this.nextDelayMillis(now);
+            }
+
+            scheduler.schedule(() -> this.poll(pollGeneration, poll, onNewHead), delay, TimeUnit.MILLISECONDS);
+        }, scheduler);
+    }
+
+    private void forgetPollsBefore(long millis) {
+        while (!recentPolls.isEmpty() && recentPolls.peekFirst() < millis) {
+            recentPolls.pollFirst();
+        }
+    }
+}
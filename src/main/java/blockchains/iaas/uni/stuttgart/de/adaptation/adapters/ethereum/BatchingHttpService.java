@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.Bulkhead;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.http.HttpService;
+
+/**
+ * An {@link HttpService} that coalesces the requests issued within a short linger window into a single JSON-RPC batch
+ * array, and routes the responses back to their callers using the request ids. A batch is sent as soon as it reaches
+ * the maximum size, when the linger time passes, or when {@link #flush()} is called (e.g., at the end of a
+ * block-processing cycle). A maximum batch size of 1 or less disables batching.
+ * <p>
+ * At most a configured number of HTTP requests (a batch counts as one) are sent to the node at the same time; further
+ * requests wait in a queue. Since web3j executes the calls of the {@link OkHttpClient} synchronously, the request limits
+ * of its dispatcher do not apply, so the limit is enforced here. The requests are sent by the threads of a
+ * {@link Bulkhead}, so that a bounded queue can be used; if it is full, further requests fail right away.
+ * <p>
+ * If an {@link EndpointPool} is given, the HTTP requests are sent to its nodes instead of a single url.
+ */
+public class BatchingHttpService extends HttpService {
+    private static final Logger log = LoggerFactory.getLogger(BatchingHttpService.class);
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+    // whether the current thread sends requests to the node
+    private static final ThreadLocal<Boolean> onIoThread = ThreadLocal.withInitial(() -> false);
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final ScheduledExecutorService lingerScheduler;
+    private final Bulkhead ioBulkhead;
+    private final EndpointPool endpointPool;
+    private final Object lock = new Object();
+    private List<PendingRequest<?>> pendingRequests = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong batchedRequestCount = new AtomicLong();
+    private final AtomicInteger largestBatchSize = new AtomicInteger();
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+    public BatchingHttpService(String url, OkHttpClient httpClient, int maxBatchSize, long lingerMillis) {
+        this(url, httpClient, maxBatchSize, lingerMillis, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * @param maxConcurrentRequests the maximum number of HTTP requests sent to the node at the same time
+     */
+    public BatchingHttpService(String url, OkHttpClient httpClient, int maxBatchSize, long lingerMillis, int maxConcurrentRequests) {
+        this(url, httpClient, maxBatchSize, lingerMillis, createBulkhead(maxConcurrentRequests));
+    }
+
+    /**
+     * @param ioBulkhead the threads sending the HTTP requests, whose number limits the requests sent at the same time
+     */
+    public BatchingHttpService(String url, OkHttpClient httpClient, int maxBatchSize, long lingerMillis, Bulkhead ioBulkhead) {
+        this(url, null, httpClient, maxBatchSize, lingerMillis, ioBulkhead);
+    }
+
+    /**
+     * @param endpointPool the nodes the requests are sent to
+     */
+    public BatchingHttpService(EndpointPool endpointPool, OkHttpClient httpClient, int maxBatchSize, long lingerMillis, int maxConcurrentRequests) {
+        this(endpointPool, httpClient, maxBatchSize, lingerMillis, createBulkhead(maxConcurrentRequests));
+    }
+
+    public BatchingHttpService(EndpointPool endpointPool, OkHttpClient httpClient, int maxBatchSize, long lingerMillis, Bulkhead ioBulkhead) {
+        this(endpointPool.getPrimaryUrl(), endpointPool, httpClient, maxBatchSize, lingerMillis, ioBulkhead);
+    }
+
+    private BatchingHttpService(String url, EndpointPool endpointPool, OkHttpClient httpClient, int maxBatchSize,
+                                long lingerMillis, Bulkhead ioBulkhead) {
+        super(url, httpClient, false);
+        this.endpointPool = endpointPool;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.lingerScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("eth-batch-linger-%d").setDaemon(true).build());
+        this.ioBulkhead = ioBulkhead;
+    }
+
+    /**
+     * @return the nodes the requests are sent to, or null if they are sent to a single url.
+     */
+    public EndpointPool getEndpointPool() {
+        return endpointPool;
+    }
+
+    public Bulkhead getIoBulkhead() {
+        return ioBulkhead;
+    }
+
+    public boolean isBatching() {
+        return maxBatchSize > 1;
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        if (onIoThread.get()) {
+            // waiting for a queued request here could exhaust the threads that send requests
+            return super.send(request, responseType);
+        }
+
+        try {
+            return sendAsync(request, responseType).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a batched response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        if (!isBatching()) {
+            final PendingRequest<T> pendingRequest = new PendingRequest<>(request, responseType);
+            this.execute(Collections.singletonList(pendingRequest), () -> sendIndividually(pendingRequest));
+
+            return pendingRequest.future;
+        }
+
+        final PendingRequest<T> pendingRequest = new PendingRequest<>(request, responseType);
+        List<PendingRequest<?>> fullBatch = null;
+
+        synchronized (lock) {
+            pendingRequests.add(pendingRequest);
+
+            if (pendingRequests.size() >= maxBatchSize) {
+                fullBatch = drainPendingRequests();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = lingerScheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (fullBatch != null) {
+            dispatch(fullBatch);
+        }
+
+        return pendingRequest.future;
+    }
+
+    /**
+     * Sends all pending requests right away without waiting for the linger time to pass.
+     */
+    public void flush() {
+        final List<PendingRequest<?>> batch;
+
+        synchronized (lock) {
+            batch = drainPendingRequests();
+        }
+
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getBatchedRequestCount() {
+        return batchedRequestCount.get();
+    }
+
+    public int getLargestBatchSize() {
+        return largestBatchSize.get();
+    }
+
+    public double getAverageRequestsPerBatch() {
+        final long batches = batchCount.get();
+
+        return batches == 0 ? 0.0 : (double) batchedRequestCount.get() / batches;
+    }
+
+    /**
+     * @return the number of JSON-RPC requests waiting for a free slot to be sent to the node.
+     */
+    public int getQueuedRequestCount() {
+        return queuedRequests.get();
+    }
+
+    /**
+     * @return the number of JSON-RPC requests sent to the node that are not answered yet.
+     */
+    public int getInFlightRequestCount() {
+        return inFlightRequests.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lingerScheduler.shutdownNow();
+        ioBulkhead.shutdown();
+
+        if (endpointPool != null) {
+            endpointPool.close();
+        }
+
+        super.close();
+    }
+
+    @Override
+    protected InputStream performIO(String request) throws IOException {
+        return endpointPool == null ? super.performIO(request) : endpointPool.performIO(request);
+    }
+
+    private List<PendingRequest<?>> drainPendingRequests() {
+        final List<PendingRequest<?>> result = pendingRequests;
+        pendingRequests = new ArrayList<>();
+
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        return result;
+    }
+
+    private void dispatch(List<PendingRequest<?>> batch) {
+        batchCount.incrementAndGet();
+        batchedRequestCount.addAndGet(batch.size());
+        largestBatchSize.accumulateAndGet(batch.size(), Math::max);
+        this.execute(batch, () -> executeBatch(batch));
+    }
+
+    private void execute(List<? extends PendingRequest<?>> requests, Runnable task) {
+        final int requestCount = requests.size();
+        queuedRequests.addAndGet(requestCount);
+
+        try {
+            ioBulkhead.execute(() -> {
+                queuedRequests.addAndGet(-requestCount);
+                inFlightRequests.addAndGet(requestCount);
+                onIoThread.set(true);
+
+                try {
+                    task.run();
+                } finally {
+                    onIoThread.set(false);
+                    inFlightRequests.addAndGet(-requestCount);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queuedRequests.addAndGet(-requestCount);
+            final IOException exception = new IOException("Too many requests are waiting to be sent to the Ethereum node", e);
+            requests.forEach(pendingRequest -> pendingRequest.future.completeExceptionally(exception));
+        }
+    }
+
+    private static Bulkhead createBulkhead(int maxConcurrentRequests) {
+        return new Bulkhead("eth-batch-io", maxConcurrentRequests, Integer.MAX_VALUE);
+    }
+
+    private void executeBatch(List<PendingRequest<?>> batch) {
+        if (batch.size() == 1) {
+            sendEachIndividually(batch);
+
+            return;
+        }
+
+        try {
+            final String payload = objectMapper.writeValueAsString(
+                    batch.stream().map(pendingRequest -> pendingRequest.request).collect(Collectors.toList()));
+            final JsonNode responses;
+
+            try (InputStream result = performIO(payload)) {
+                responses = objectMapper.readTree(result);
+            }
+
+            if (responses == null || !responses.isArray()) {
+                // some nodes do not support batches and answer with a single error object instead
+                log.warn("The Ethereum node did not answer the JSON-RPC batch with an array. Sending requests individually.");
+                sendEachIndividually(batch);
+
+                return;
+            }
+
+            final Map<Long, JsonNode> responsesById = new HashMap<>();
+            responses.forEach(response -> responsesById.put(response.path("id").asLong(), response));
+
+            for (PendingRequest<?> pendingRequest : batch) {
+                final JsonNode response = responsesById.get(pendingRequest.request.getId());
+
+                if (response == null) {
+                    pendingRequest.future.completeExceptionally(
+                            new IOException("The JSON-RPC batch response lacks the response of request " + pendingRequest.request.getId()));
+                } else {
+                    pendingRequest.complete(response);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Sending a JSON-RPC batch of {} requests failed. Reason: {}", batch.size(), e.getMessage());
+            final IOException exception = e instanceof IOException ? (IOException) e : new IOException(e);
+            batch.forEach(pendingRequest -> pendingRequest.future.completeExceptionally(exception));
+        }
+    }
+
+    private void sendEachIndividually(List<PendingRequest<?>> batch) {
+        batch.forEach(this::sendIndividually);
+    }
+
+    private <T extends Response> void sendIndividually(PendingRequest<T> pendingRequest) {
+        try {
+            pendingRequest.future.complete(super.send(pendingRequest.request, pendingRequest.responseType));
+        } catch (Exception e) {
+            pendingRequest.future.completeExceptionally(e);
+        }
+    }
+
+    private class PendingRequest<T extends Response> {
+        private final Request request;
+        private final Class<T> responseType;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private PendingRequest(Request request, Class<T> responseType) {
+            this.request = request;
+            this.responseType = responseType;
+        }
+
+        private void complete(JsonNode response) {
+            try {
+                future.complete(objectMapper.treeToValue(response, responseType));
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.methods.response.EthBlock;
+
+/**
+ * A bounded LRU cache of block headers that can be looked up by hash or by number. Concurrent misses for the same key
+ * share a single RPC request (synchronous misses only share the requests of other synchronous misses).
+ * <p>
+ * Headers looked up by hash never change. Headers looked up by number are assumed to be canonical, so the entries
+ * above a reorganized height have to be dropped using {@link #invalidateFrom(long)}. Headers looked up by hash can
+ * belong to orphaned blocks, so they are not used for lookups by number.
+ */
+public class BlockHeaderCache {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    private final Web3j web3j;
+    private final Map<String, HeaderChain.Header> byHash;
+    private final Map<Long, HeaderChain.Header> byNumber;
+    private final Map<Object, CompletableFuture<HeaderChain.Header>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong coalescedMisses = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public BlockHeaderCache(Web3j web3j, int capacity) {
+        this.web3j = web3j;
+        this.byHash = createLruMap(capacity);
+        this.byNumber = createLruMap(capacity);
+    }
+
+    /**
+     * @return a future that completes with the header of the given block, or with null if the node does not know it.
+     */
+    public CompletableFuture<HeaderChain.Header> getByHash(String blockHash) {
+        final String key = blockHash.toLowerCase();
+        final HeaderChain.Header cached;
+
+        synchronized (byHash) {
+            cached = byHash.get(key);
+        }
+
+        return cached != null ? hit(cached) :
+                load(key, () -> web3j.ethGetBlockByHash(blockHash, false).sendAsync());
+    }
+
+    /**
+     * @return a future that completes with the header of the given canonical block, or with null if the node does not
+     * know it (yet).
+     */
+    public CompletableFuture<HeaderChain.Header> getByNumber(long blockNumber) {
+        final HeaderChain.Header cached;
+
+        synchronized (byNumber) {
+            cached = byNumber.get(blockNumber);
+        }
+
+        return cached != null ? hit(cached) :
+                load(blockNumber, () -> web3j.ethGetBlockByNumber(new DefaultBlockParameterNumber(blockNumber), false).sendAsync());
+    }
+
+    /**
+     * Synchronously retrieves the header of a canonical block. A miss is fetched using a blocking request rather than
+     * waiting for a batched one, so that it cannot wait for the threads sending requests if it runs on one. Concurrent
+     * synchronous misses for the same block share this request.
+     *
+     * @throws IOException if the block cannot be retrieved
+     */
+    public HeaderChain.Header getHeader(long blockNumber) throws IOException {
+        final HeaderChain.Header cached;
+
+        synchronized (byNumber) {
+            cached = byNumber.get(blockNumber);
+        }
+
+        if (cached != null) {
+            hits.incrementAndGet();
+
+            return cached;
+        }
+
+        return loadBlocking(blockNumber, () -> web3j.ethGetBlockByNumber(new DefaultBlockParameterNumber(blockNumber), false).send(),
+                "number " + blockNumber);
+    }
+
+    /**
+     * Synchronously retrieves the timestamp of a canonical block (in seconds since the epoch).
+     *
+     * @throws IOException if the block cannot be retrieved
+     */
+    public long getTimestamp(long blockNumber) throws IOException {
+        return getHeader(blockNumber).getTimestamp();
+    }
+
+    /**
+     * Synchronously retrieves the timestamp of a block (in seconds since the epoch). Misses are fetched like in
+     * {@link #getHeader(long)}.
+     *
+     * @throws IOException if the block cannot be retrieved
+     */
+    public long getTimestamp(String blockHash) throws IOException {
+        final HeaderChain.Header cached;
+
+        synchronized (byHash) {
+            cached = byHash.get(blockHash.toLowerCase());
+        }
+
+        if (cached != null) {
+            hits.incrementAndGet();
+
+            return cached.getTimestamp();
+        }
+
+        return loadBlocking(blockHash.toLowerCase(), () -> web3j.ethGetBlockByHash(blockHash, false).send(),
+                "hash " + blockHash).getTimestamp();
+    }
+
+    /**
+     * @return a future that completes with the timestamp of the given block (in seconds since the epoch), or fails with
+     * an {@link IOException} if the block cannot be retrieved.
+     */
+    public CompletableFuture<Long> getTimestampAsync(String blockHash) {
+        return getByHash(blockHash).thenApply(header -> {
+            if (header == null) {
+                throw new CompletionException(new IOException("The block with the hash " + blockHash + " is not known to the node"));
+            }
+
+            return header.getTimestamp();
+        });
+    }
+
+    /**
+     * Caches the header of a block known to be canonical.
+     */
+    public void put(HeaderChain.Header header) {
+        synchronized (byHash) {
+            byHash.put(header.getHash().toLowerCase(), header);
+        }
+
+        synchronized (byNumber) {
+            byNumber.put(header.getNumber(), header);
+        }
+    }
+
+    /**
+     * Drops the number-keyed entries of the given height and above, since they might not be canonical anymore.
+     */
+    public void invalidateFrom(long blockNumber) {
+        synchronized (byNumber) {
+            byNumber.keySet().removeIf(number -> number >= blockNumber);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that joined an RPC request already issued for the same key.
+     */
+    public long getCoalescedMissCount() {
+        return coalescedMisses.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the ratio of lookups that were answered without issuing a new RPC request.
+     */
+    public double getHitRatio() {
+        final long saved = hits.get() + coalescedMisses.get();
+        final long total = saved + misses.get();
+
+        return total == 0 ? 0.0 : (double) saved / total;
+    }
+
+    public int size() {
+        synchronized (byHash) {
+            return byHash.size();
+        }
+    }
+
+    private CompletableFuture<HeaderChain.Header> hit(HeaderChain.Header header) {
+        hits.incrementAndGet();
+
+        return CompletableFuture.completedFuture(header);
+    }
+
+    private CompletableFuture<HeaderChain.Header> load(Object key, Supplier<CompletableFuture<EthBlock>> request) {
+        final CompletableFuture<HeaderChain.Header> created = new CompletableFuture<>();
+        final CompletableFuture<HeaderChain.Header> existing = inFlight.putIfAbsent(key, created);
+
+        if (existing != null) {
+            coalescedMisses.incrementAndGet();
+
+            return existing;
+        }
+
+        misses.incrementAndGet();
+        request.get().whenComplete((ethBlock, error) -> {
+            inFlight.remove(key);
+
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                try {
+                    created.complete(toHeader(key, ethBlock));
+                } catch (IOException e) {
+                    created.completeExceptionally(e);
+                }
+            }
+        });
+
+        return created;
+    }
+
+    /**
+     * Fetches a header using a blocking request, which concurrent synchronous misses for the same key wait for. A
+     * pending asynchronous request is not waited for, since it might be batched.
+     */
+    private HeaderChain.Header loadBlocking(Object key, BlockRequest request, String blockDescription) throws IOException {
+        final BlockingLoad created = new BlockingLoad();
+        final CompletableFuture<HeaderChain.Header> existing = inFlight.putIfAbsent(key, created);
+
+        if (existing instanceof BlockingLoad) {
+            coalescedMisses.incrementAndGet();
+
+            try {
+                return requireKnown(existing.join(), blockDescription);
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        misses.incrementAndGet();
+
+        try {
+            final HeaderChain.Header header = toHeader(key, request.send());
+            created.complete(header);
+
+            return requireKnown(header, blockDescription);
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * Caches the retrieved header. Headers retrieved by hash are not cached by number, since the block might not be
+     * canonical (anymore).
+     *
+     * @return the header, or null if the node does not know the block.
+     */
+    private HeaderChain.Header toHeader(Object key, EthBlock ethBlock) throws IOException {
+        if (ethBlock.hasError()) {
+            throw new IOException(ethBlock.getError().getMessage());
+        }
+
+        if (ethBlock.getBlock() == null) {
+            return null;
+        }
+
+        final HeaderChain.Header header = HeaderChain.Header.of(ethBlock.getBlock());
+
+        if (key instanceof Long) {
+            put(header);
+        } else {
+            synchronized (byHash) {
+                byHash.put(header.getHash().toLowerCase(), header);
+            }
+        }
+
+        return header;
+    }
+
+    private static HeaderChain.Header requireKnown(HeaderChain.Header header, String blockDescription) throws IOException {
+        if (header == null) {
+            throw new IOException("The block with the " + blockDescription + " is not known to the node");
+        }
+
+        return header;
+    }
+
+    private static <K> Map<K, HeaderChain.Header> createLruMap(int capacity) {
+        return new LinkedHashMap<K, HeaderChain.Header>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, HeaderChain.Header> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private interface BlockRequest {
+        EthBlock send() throws IOException;
+    }
+
+    // marks the requests that are sent without batching
+    private static class BlockingLoad extends CompletableFuture<HeaderChain.Header> {
+    }
+}
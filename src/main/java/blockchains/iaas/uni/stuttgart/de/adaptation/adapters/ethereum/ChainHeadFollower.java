@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.reactivex.disposables.Disposable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthBlock;
+
+/**
+ * Follows the head of the chain with a single block poller per adapter and fans every new head out to the registered
+ * listeners. The poller is only active while at least one listener is registered. Before a head is published, it is
+ * added to the {@link HeaderChain}, so listeners can rely on it to know which blocks are canonical. Heads are published
+ * one after the other in the order they arrive, but the threads reporting them do not wait for missing ancestors to be
+ * fetched.
+ * <p>
+ * If a {@link PushSubscriptionClient} is given, the heads are pushed by the node ({@code newHeads}) instead of being
+ * polled. After a reconnect, the latest block is published right away, and the {@link HeaderChain} links it to the
+ * heads published before the connection was lost.
+ * <p>
+ * If an {@link AdaptivePollScheduler} is given instead, the latest block is polled according to the cadence of the chain
+ * rather than at the fixed polling interval of web3j. Failed polls are retried instead of terminating the poller.
+ */
+public class ChainHeadFollower {
+    private static final Logger log = LoggerFactory.getLogger(ChainHeadFollower.class);
+    private static final ObjectMapper mapper = ObjectMapperFactory.getObjectMapper();
+    private final Web3j web3j;
+    private final HeaderChain headerChain;
+    private final PushSubscriptionClient pushClient;
+    private final AdaptivePollScheduler pollScheduler;
+    private final Set<Listener> listeners = ConcurrentHashMap.newKeySet();
+    private final List<LongConsumer> reorganizationHandlers = new CopyOnWriteArrayList<>();
+    private final List<Consumer<EthBlock.Block>> headHandlers = new CopyOnWriteArrayList<>();
+    private final Object publishLock = new Object();
+    // completes when the last head that arrived is published
+    private CompletableFuture<Void> publishing = CompletableFuture.completedFuture(null);
+    private Disposable subscription;
+    private PushSubscriptionClient.Subscription pushSubscription;
+
+    public ChainHeadFollower(Web3j web3j, HeaderChain headerChain) {
+        this(web3j, headerChain, null);
+    }
+
+    /**
+     * @param pushClient the client receiving the heads pushed by the node, or null to poll for new heads
+     */
+    public ChainHeadFollower(Web3j web3j, HeaderChain headerChain, PushSubscriptionClient pushClient) {
+        this(web3j, headerChain, pushClient, null);
+    }
+
+    /**
+     * @param pollScheduler schedules the polls for new heads if they are not pushed, or null to poll at the fixed
+     *                      polling interval of web3j
+     */
+    public ChainHeadFollower(Web3j web3j, HeaderChain headerChain, PushSubscriptionClient pushClient, AdaptivePollScheduler pollScheduler) {
+        this.web3j = web3j;
+        this.headerChain = headerChain;
+        this.pushClient = pushClient;
+        this.pollScheduler = pollScheduler;
+    }
+
+    public HeaderChain getHeaderChain() {
+        return headerChain;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+
+        if (pushClient != null && pushSubscription == null) {
+            log.info("Starting to follow the chain head using {}", pushClient.getEndpoint());
+            pushSubscription = pushClient.subscribe("newHeads", null, this::publishPushedHead, this::publishLatestBlock);
+        } else if (pushClient == null && pollScheduler != null) {
+            if (!pollScheduler.isActive()) {
+                log.info("Starting to follow the chain head");
+                pollScheduler.start(this::pollLatestBlock, this::publishHead);
+            }
+        } else if (pushClient == null && subscription == null) {
+            log.info("Starting to follow the chain head");
+            subscription = web3j.blockFlowable(false).subscribe(ethBlock -> this.publishHead(ethBlock.getBlock()), this::publishError);
+        }
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+
+        if (listeners.isEmpty() && subscription != null) {
+            log.info("No more chain head listeners. Stopping to follow the chain head");
+            subscription.dispose();
+            subscription = null;
+        }
+
+        if (listeners.isEmpty() && pollScheduler != null && pollScheduler.isActive()) {
+            log.info("No more chain head listeners. Stopping to follow the chain head");
+            pollScheduler.stop();
+        }
+
+        if (listeners.isEmpty() && pushSubscription != null) {
+            log.info("No more chain head listeners. Stopping to follow the chain head");
+            pushSubscription.cancel();
+            pushSubscription = null;
+        }
+
+        if (listeners.isEmpty()) {
+            // linking the next head to the window would need the headers of all blocks mined meanwhile, so the blocks
+            // within the window of the next head are reported as reorganized instead (see HeaderChain#clear)
+            headerChain.clear();
+        }
+    }
+
+    /**
+     * Registers a handler that receives the lowest block number whose canonical hash changed whenever a chain
+     * reorganization is detected. Registering a handler does not start following the chain head.
+     */
+    public void addReorganizationHandler(LongConsumer handler) {
+        reorganizationHandlers.add(handler);
+    }
+
+    /**
+     * Registers a handler that receives every new head after it is added to the {@link HeaderChain}. Unlike listeners,
+     * handlers only observe the chain head while it is followed on behalf of some listener.
+     */
+    public void addHeadHandler(Consumer<EthBlock.Block> handler) {
+        headHandlers.add(handler);
+    }
+
+    public int getListenerCount() {
+        return listeners.size();
+    }
+
+    private void publishPushedHead(JsonNode header) {
+        try {
+            this.publishHead(mapper.treeToValue(header, EthBlock.Block.class));
+        } catch (JsonProcessingException e) {
+            log.error("Received a malformed head notification. Reason: {}", e.getMessage());
+        }
+    }
+
+    private CompletableFuture<EthBlock.Block> pollLatestBlock() {
+        return web3j.ethGetBlockByNumber(DefaultBlockParameterName.LATEST, false)
+                .sendAsync()
+                .thenApply(EthBlock::getBlock);
+    }
+
+    private void publishLatestBlock() {
+        web3j.ethGetBlockByNumber(DefaultBlockParameterName.LATEST, false)
+                .sendAsync()
+                .thenAccept(ethBlock -> this.publishHead(ethBlock.getBlock()))
+                .exceptionally(e -> {
+                    log.warn("Failed to retrieve the latest block after reconnecting. Reason: {}", e.getMessage());
+                    return null;
+                });
+    }
+
+    private void publishHead(EthBlock.Block head) {
+        // pushed heads and the latest block published after a reconnect can arrive on different threads
+        synchronized (publishLock) {
+            publishing = publishing.thenCompose(published -> this.publishHeadInOrder(head));
+        }
+    }
+
+    private CompletableFuture<Void> publishHeadInOrder(EthBlock.Block head) {
+        if (head == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return headerChain.update(head).handle((reorganizedFrom, error) -> {
+            if (error != null) {
+                log.warn("Failed to link block {} to the known chain. Reason: {}", head.getNumber(), error.getMessage());
+            } else if (reorganizedFrom >= 0) {
+                for (LongConsumer handler : reorganizationHandlers) {
+                    try {
+                        handler.accept(reorganizedFrom);
+                    } catch (Exception e) {
+                        log.error("A chain reorganization handler failed to handle block {}. Reason: {}", reorganizedFrom, e.getMessage());
+                    }
+                }
+            }
+
+            for (Consumer<EthBlock.Block> handler : headHandlers) {
+                try {
+                    handler.accept(head);
+                } catch (Exception e) {
+                    log.error("A chain head handler failed to handle block {}. Reason: {}", head.getNumber(), e.getMessage());
+                }
+            }
+
+            for (Listener listener : listeners) {
+                try {
+                    listener.onNewHead(head);
+                } catch (Exception e) {
+                    log.error("A chain head listener failed to handle block {}. Reason: {}", head.getNumber(), e.getMessage());
+                }
+            }
+
+            return null;
+        });
+    }
+
+    private void publishError(Throwable error) {
+        log.error("Following the chain head failed. Reason: {}", error.getMessage());
+
+        synchronized (this) {
+            // the flowable is terminated now, so the next listener has to start a new one
+            subscription = null;
+        }
+
+        for (Listener listener : listeners) {
+            listener.onError(error);
+        }
+    }
+
+    public interface Listener {
+        void onNewHead(EthBlock.Block head);
+
+        void onError(Throwable error);
+    }
+}
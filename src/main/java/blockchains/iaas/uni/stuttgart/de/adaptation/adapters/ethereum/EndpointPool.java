@@ -0,0 +1,424 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.SignedRawTransaction;
+import org.web3j.crypto.TransactionDecoder;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.utils.Numeric;
+
+/**
+ * Distributes the JSON-RPC requests of an adapter among several nodes of the same chain. The nodes are probed
+ * periodically for their head block and latency ({@code eth_blockNumber}). Requests go to the node with the lowest
+ * latency among the available nodes that are in sync, i.e., whose head is at most a configured number of blocks behind
+ * the highest head. If sending a request fails, the node is considered unavailable until it answers again, and the
+ * request is sent to the next node. Transactions are only sent to the next node if the failed node could not even be
+ * connected to, since a node that received a transaction might still execute it.
+ * <p>
+ * Requests that depend on state kept by a single node are pinned to that node: the transactions of an account and the
+ * queries of its pending nonce (for nonce consistency and since a node might hold the key of the account), and the log
+ * and block filters. The requests observing the chain head and the state of transactions (the latest block, blocks by
+ * hash, transactions by hash and receipts) are pinned to the node of the filters, since nodes a few blocks apart would
+ * otherwise make the head seem to go back, which looks like a reorganization, and a transaction that was just sent
+ * might not be known yet. Calls at a given block number are pinned to this node as well, since the block number is
+ * read from it, and a node lagging behind would not know the block yet. The first transaction of an account is sent to
+ * this node as well. A pinned node is only replaced if it is unavailable. A JSON-RPC batch containing such a request is
+ * pinned as a whole.
+ */
+public class EndpointPool implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(EndpointPool.class);
+    private static final String PROBE_REQUEST = "{\"jsonrpc\":\"2.0\",\"method\":\"eth_blockNumber\",\"params\":[],\"id\":0}";
+    // the pin of the requests using the filters installed on a node or observing the chain head
+    private static final String CHAIN = "chain";
+    // the requests containing none of these are not pinned, so they are not parsed
+    private static final String[] PIN_MARKERS = {"eth_send", "pending", "Filter", "latest", "eth_blockNumber",
+            "eth_getBlockByHash", "eth_getTransactionByHash", "Receipt", "eth_call"};
+    // the requests that must not be sent twice
+    private static final String[] WRITE_METHODS = {"\"eth_sendTransaction\"", "\"eth_sendRawTransaction\""};
+    // the weight of the latest probe in the latency estimate of a node
+    private static final double LATENCY_WEIGHT = 0.3;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final long maxLagBlocks;
+    private final ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private final ScheduledExecutorService prober;
+    // account (or filters) -> the node the requests depending on its state are sent to
+    private final Map<String, Endpoint> pins = new HashMap<>();
+    private final AtomicLong failoverCount = new AtomicLong();
+
+    /**
+     * @param urls                the urls of the nodes in the order of preference while their latencies are unknown
+     * @param probeIntervalMillis how often the nodes are probed (0 to probe them only using {@link #probe()})
+     * @param maxLagBlocks        how many blocks the head of a node may be behind the highest head to be in sync
+     */
+    public EndpointPool(List<String> urls, OkHttpClient httpClient, long probeIntervalMillis, long maxLagBlocks) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("An endpoint pool needs at least one node url!");
+        }
+
+        for (String url : urls) {
+            endpoints.add(new Endpoint(url, httpClient));
+        }
+
+        this.maxLagBlocks = maxLagBlocks;
+
+        if (probeIntervalMillis > 0) {
+            this.prober = Executors.newScheduledThreadPool(urls.size(),
+                    new ThreadFactoryBuilder().setNameFormat("eth-endpoint-probe-%d").setDaemon(true).build());
+            // every node is probed by its own task, so that a hanging node does not delay the probes of the others
+            endpoints.forEach(endpoint -> prober.scheduleWithFixedDelay(() -> this.probe(endpoint), 0,
+                    probeIntervalMillis, TimeUnit.MILLISECONDS));
+        } else {
+            this.prober = null;
+        }
+    }
+
+    public String getPrimaryUrl() {
+        return endpoints.get(0).url;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * @return the node read requests are currently sent to first.
+     */
+    public synchronized Endpoint getReadEndpoint() {
+        return this.rank(null).get(0);
+    }
+
+    /**
+     * @return the node the transactions of the given account are pinned to, or null if none is yet.
+     */
+    public synchronized Endpoint getWriteEndpoint(String account) {
+        return pins.get(account.toLowerCase());
+    }
+
+    /**
+     * @return the number of requests that failed on a node and were sent to another one.
+     */
+    public long getFailoverCount() {
+        return failoverCount.get();
+    }
+
+    /**
+     * Probes all nodes once.
+     */
+    public void probe() {
+        endpoints.forEach(this::probe);
+    }
+
+    /**
+     * Sends a JSON-RPC request or batch to the best node, and fails over to the others in order. Requests sending
+     * transactions only fail over if the node could not be connected to.
+     *
+     * @return the response of the first node that answers
+     * @throws IOException if no node answers, or a node might have received a transaction without answering
+     */
+    InputStream performIO(String payload) throws IOException {
+        final String pin = this.pinOf(payload);
+        final boolean write = Arrays.stream(WRITE_METHODS).anyMatch(payload::contains);
+        final List<Endpoint> candidates;
+
+        synchronized (this) {
+            candidates = this.rank(pin);
+        }
+
+        IOException failure = null;
+
+        for (Endpoint endpoint : candidates) {
+            if (failure != null) {
+                failoverCount.incrementAndGet();
+            }
+
+            try {
+                final InputStream result = endpoint.service.performIO(payload);
+                this.onAnswered(endpoint, pin);
+
+                return result;
+            } catch (IOException e) {
+                log.warn("The Ethereum node at {} failed to answer a request. Reason: {}", endpoint.url, e.getMessage());
+                this.onFailed(endpoint);
+
+                if (write && !isNotSent(e)) {
+                    log.warn("Not sending the transaction to another Ethereum node, since {} might have received it.", endpoint.url);
+
+                    throw e;
+                }
+
+                failure = e;
+            }
+        }
+
+        throw failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+
+        for (Endpoint endpoint : endpoints) {
+            endpoint.service.close();
+        }
+    }
+
+    /**
+     * @return true if the request surely did not reach the node
+     */
+    private static boolean isNotSent(IOException e) {
+        return e instanceof ConnectException || e instanceof UnknownHostException;
+    }
+
+    private void probe(Endpoint endpoint) {
+        final long start = System.nanoTime();
+
+        try (InputStream response = endpoint.service.performIO(PROBE_REQUEST)) {
+            final JsonNode result = response == null ? null : objectMapper.readTree(response).get("result");
+
+            if (result == null || !result.isTextual()) {
+                throw new IOException("The node did not report its head block.");
+            }
+
+            final long headNumber = Numeric.decodeQuantity(result.asText()).longValue();
+            final double latencyMillis = (System.nanoTime() - start) / 1e6;
+
+            synchronized (this) {
+                if (!endpoint.available) {
+                    log.info("The Ethereum node at {} is available again.", endpoint.url);
+                }
+
+                endpoint.available = true;
+                endpoint.headNumber = headNumber;
+                endpoint.latencyMillis = Double.isNaN(endpoint.latencyMillis) ? latencyMillis :
+                        LATENCY_WEIGHT * latencyMillis + (1 - LATENCY_WEIGHT) * endpoint.latencyMillis;
+            }
+        } catch (Exception e) {
+            log.debug("Probing the Ethereum node at {} failed. Reason: {}", endpoint.url, e.getMessage());
+            this.onFailed(endpoint);
+        }
+    }
+
+    private synchronized void onAnswered(Endpoint endpoint, String pin) {
+        endpoint.available = true;
+        endpoint.requestCount++;
+
+        if (pin != null) {
+            final Endpoint previous = pins.put(pin, endpoint);
+
+            if (previous != null && previous != endpoint) {
+                log.info("Pinned the requests of {} to the Ethereum node at {} instead of {}.", pin, endpoint.url, previous.url);
+            }
+        }
+    }
+
+    private synchronized void onFailed(Endpoint endpoint) {
+        if (endpoint.available) {
+            log.warn("The Ethereum node at {} is unavailable.", endpoint.url);
+        }
+
+        endpoint.available = false;
+        endpoint.failureCount++;
+    }
+
+    /**
+     * @return the nodes in the order they are tried for a request with the given pin (null if it is not pinned)
+     */
+    private List<Endpoint> rank(String pin) {
+        final long highestHead = endpoints.stream()
+                .filter(endpoint -> endpoint.available)
+                .mapToLong(endpoint -> endpoint.headNumber)
+                .max()
+                .orElse(-1);
+        final List<Endpoint> result = new ArrayList<>(endpoints);
+        // unknown latencies compare as the highest ones, and ties keep the configured order
+        result.sort(Comparator.<Endpoint, Boolean>comparing(endpoint -> !endpoint.available)
+                .thenComparing(endpoint -> endpoint.headNumber < highestHead - maxLagBlocks)
+                .thenComparingDouble(endpoint -> Double.isNaN(endpoint.latencyMillis) ? Double.MAX_VALUE : endpoint.latencyMillis));
+        Endpoint pinned = pin == null ? null : pins.get(pin);
+
+        if (pinned == null && pin != null) {
+            // the first transaction of an account goes to the node its state is read from
+            pinned = pins.get(CHAIN);
+        }
+
+        if (pinned != null && pinned.available) {
+            result.remove(pinned);
+            result.add(0, pinned);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the pin of the node-local state the payload depends on, or null if any node can answer it
+     */
+    private String pinOf(String payload) {
+        if (Arrays.stream(PIN_MARKERS).noneMatch(payload::contains)) {
+            return null;
+        }
+
+        try {
+            final JsonNode requests = objectMapper.readTree(payload);
+
+            if (!requests.isArray()) {
+                return pinOf(requests);
+            }
+
+            for (JsonNode request : requests) {
+                final String pin = pinOf(request);
+
+                if (pin != null) {
+                    return pin;
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Failed to parse a JSON-RPC request. Not pinning it. Reason: {}", e.getMessage());
+        }
+
+        return null;
+    }
+
+    private static String pinOf(JsonNode request) {
+        final JsonNode params = request.path("params");
+
+        switch (request.path("method").asText()) {
+            case "eth_sendTransaction":
+                return account(params.path(0).path("from").asText(null));
+            case "eth_sendRawTransaction":
+                return account(senderOf(params.path(0).asText()));
+            case "eth_getTransactionCount":
+                return "pending".equals(params.path(1).asText()) ? account(params.path(0).asText(null)) : null;
+            case "eth_getBlockByNumber":
+                return "latest".equals(params.path(0).asText()) || "pending".equals(params.path(0).asText()) ? CHAIN : null;
+            case "eth_call":
+                // the block number of the call was read from the chain node
+                return params.path(1).asText().startsWith("0x") ? CHAIN : null;
+            case "eth_newFilter":
+            case "eth_newBlockFilter":
+            case "eth_newPendingTransactionFilter":
+            case "eth_getFilterChanges":
+            case "eth_getFilterLogs":
+            case "eth_uninstallFilter":
+            case "eth_blockNumber":
+            case "eth_getBlockByHash":
+            case "eth_getTransactionByHash":
+            case "eth_getTransactionReceipt":
+            case "eth_getBlockReceipts":
+                return CHAIN;
+            default:
+                return null;
+        }
+    }
+
+    private static String senderOf(String signedTransaction) {
+        try {
+            final RawTransaction transaction = TransactionDecoder.decode(signedTransaction);
+
+            if (transaction instanceof SignedRawTransaction) {
+                return ((SignedRawTransaction) transaction).getFrom();
+            }
+        } catch (Exception e) {
+            log.debug("Failed to recover the sender of a raw transaction. Reason: {}", e.getMessage());
+        }
+
+        return null;
+    }
+
+    // transactions whose sender is unknown share a pin
+    private static String account(String address) {
+        return address == null ? "" : address.toLowerCase();
+    }
+
+    /**
+     * A node of the pool and the state observed by probing it.
+     */
+    public static class Endpoint {
+        private final String url;
+        private final EndpointService service;
+        // the state is changed while holding the lock of the pool
+        private volatile boolean available = true;
+        private volatile long headNumber = -1;
+        // the moving average of the probe latencies (NaN if the node was not probed yet)
+        private volatile double latencyMillis = Double.NaN;
+        private volatile long requestCount;
+        private volatile long failureCount;
+
+        private Endpoint(String url, OkHttpClient httpClient) {
+            this.url = url;
+            this.service = new EndpointService(url, httpClient);
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        public long getHeadNumber() {
+            return headNumber;
+        }
+
+        public double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        public long getFailureCount() {
+            return failureCount;
+        }
+    }
+
+    /**
+     * Exposes the plain HTTP transport of web3j to the pool.
+     */
+    private static class EndpointService extends HttpService {
+        private EndpointService(String url, OkHttpClient httpClient) {
+            super(url, httpClient, false);
+        }
+
+        @Override
+        protected InputStream performIO(String request) throws IOException {
+            return super.performIO(request);
+        }
+    }
+}
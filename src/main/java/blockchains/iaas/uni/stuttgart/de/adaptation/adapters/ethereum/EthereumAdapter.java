@@ -13,27 +13,33 @@ package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 import javax.naming.OperationNotSupportedException;
 
 import blockchains.iaas.uni.stuttgart.de.adaptation.adapters.AbstractAdapter;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.BlockTimestampIndex;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.BlockTimestampSearch;
 import blockchains.iaas.uni.stuttgart.de.adaptation.utils.BooleanExpressionEvaluator;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.Bulkhead;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.Bulkheads;
 import blockchains.iaas.uni.stuttgart.de.adaptation.utils.PoWConfidenceCalculator;
-import blockchains.iaas.uni.stuttgart.de.adaptation.utils.SmartContractPathParser;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.ReadResultCache;
+import blockchains.iaas.uni.stuttgart.de.connectionprofiles.profiles.EthereumConnectionProfile;
 import blockchains.iaas.uni.stuttgart.de.exceptions.BalException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.BlockchainNodeUnreachableException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.InvalidScipParameterException;
@@ -41,74 +47,216 @@ import blockchains.iaas.uni.stuttgart.de.exceptions.InvalidTransactionException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.InvokeSmartContractFunctionFailure;
 import blockchains.iaas.uni.stuttgart.de.exceptions.NotSupportedException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.ParameterException;
-import blockchains.iaas.uni.stuttgart.de.exceptions.SmartContractNotFoundException;
-import blockchains.iaas.uni.stuttgart.de.exceptions.TimeoutException;
-import blockchains.iaas.uni.stuttgart.de.model.Block;
+import blockchains.iaas.uni.stuttgart.de.model.BatchInvocationResult;
+import blockchains.iaas.uni.stuttgart.de.model.InvocationResult;
 import blockchains.iaas.uni.stuttgart.de.model.LinearChainTransaction;
 import blockchains.iaas.uni.stuttgart.de.model.Occurrence;
 import blockchains.iaas.uni.stuttgart.de.model.Parameter;
 import blockchains.iaas.uni.stuttgart.de.model.QueryResult;
+import blockchains.iaas.uni.stuttgart.de.model.SmartContractCall;
 import blockchains.iaas.uni.stuttgart.de.model.TimeFrame;
 import blockchains.iaas.uni.stuttgart.de.model.Transaction;
 import blockchains.iaas.uni.stuttgart.de.model.TransactionState;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
+import okhttp3.ConnectionPool;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.web3j.abi.EventEncoder;
-import org.web3j.abi.EventValues;
-import org.web3j.abi.FunctionEncoder;
-import org.web3j.abi.FunctionReturnDecoder;
-import org.web3j.abi.TypeReference;
-import org.web3j.abi.datatypes.Event;
-import org.web3j.abi.datatypes.Function;
-import org.web3j.abi.datatypes.Type;
 import org.web3j.crypto.CipherException;
 import org.web3j.crypto.Credentials;
 import org.web3j.crypto.WalletUtils;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.DefaultBlockParameter;
-import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.DefaultBlockParameterNumber;
 import org.web3j.protocol.core.JsonRpc2_0Web3j;
 import org.web3j.protocol.core.methods.request.EthFilter;
 import org.web3j.protocol.core.methods.response.EthBlock;
-import org.web3j.protocol.core.methods.response.EthGetTransactionCount;
-import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
-import org.web3j.protocol.core.methods.response.EthLog;
-import org.web3j.protocol.core.methods.response.EthTransaction;
 import org.web3j.protocol.core.methods.response.Log;
-import org.web3j.protocol.core.methods.response.TransactionReceipt;
-import org.web3j.protocol.http.HttpService;
-import org.web3j.tx.Contract;
 import org.web3j.tx.Transfer;
-import org.web3j.tx.gas.DefaultGasProvider;
-import org.web3j.utils.Async;
 import org.web3j.utils.Convert;
 
 public class EthereumAdapter extends AbstractAdapter {
     private Credentials credentials;
     private final String nodeUrl;
+    private final BatchingHttpService httpService;
     private final Web3j web3j;
     private final DateTimeFormatter formatter;
     private static final Logger log = LoggerFactory.getLogger(EthereumAdapter.class);
+    // the number of nonces tried by a transaction whose nonce conflicts with another transaction
+    private static final int MAX_SEND_ATTEMPTS = 3;
+    // the number of events whose decoders are kept
+    private static final int EVENT_DECODER_CACHE_SIZE = 1_000;
+    // the number of invoked functions whose invocation plans are kept
+    private static final int INVOCATION_PLAN_CACHE_SIZE = 1_000;
+    // the number of results of read-only invocations kept for the latest block
+    private static final int READ_RESULT_CACHE_SIZE = 10_000;
+    // the number of receipts of transactions in blocks deeper than the reorganization window kept
+    private static final int RECEIPT_CACHE_SIZE = 10_000;
+    // the blockchain id of adapters that are not created for a configured blockchain
+    private static final String DEFAULT_BLOCKCHAIN_ID = "ethereum";
+    private final String blockchainId;
     private final int averageBlockTimeSeconds;
+    private final AdaptivePollScheduler pollScheduler;
+    private final ChainHeadFollower headFollower;
+    private final TransactionMonitor transactionMonitor;
+    private final BlockHeaderCache headerCache;
+    private BlockTimestampIndex timestampIndex;
+    private final LogRangeScanner logScanner;
+    private final LogFilterMultiplexer logMultiplexer;
+    private final TransactionMultiplexer transactionMultiplexer;
+    private final NonceManager nonceManager;
+    private final GasOracle gasOracle;
+    private final PushSubscriptionClient pushClient;
+    private final EventDecoder.Cache eventDecoders = new EventDecoder.Cache(EVENT_DECODER_CACHE_SIZE);
+    private final InvocationPlan.Cache invocationPlans = new InvocationPlan.Cache(INVOCATION_PLAN_CACHE_SIZE);
+    private final ReadCallBatcher readBatcher;
+    private final ReadResultCache readResultCache;
 
     public EthereumAdapter(final String nodeUrl, final int averageBlockTimeSeconds) {
-        this.nodeUrl = nodeUrl;
-        this.averageBlockTimeSeconds = averageBlockTimeSeconds;
+        this(new EthereumConnectionProfile(nodeUrl, null, null, averageBlockTimeSeconds));
+    }
+
+    public EthereumAdapter(final EthereumConnectionProfile connectionProfile) {
+        this(connectionProfile, DEFAULT_BLOCKCHAIN_ID);
+    }
+
+    /**
+     * @param blockchainId the id of the blockchain, which names the bulkheads the work of the adapter is executed in
+     */
+    public EthereumAdapter(final EthereumConnectionProfile connectionProfile, final String blockchainId) {
+        this.nodeUrl = connectionProfile.getNodeUrl();
+        this.blockchainId = blockchainId;
+        this.averageBlockTimeSeconds = connectionProfile.getPollingTimeSeconds();
+        this.httpService = createWeb3HttpService(connectionProfile, Bulkheads.getInstance()
+                .get(blockchainId, Bulkheads.Stage.RPC_IO, connectionProfile.getMaxConcurrentRequests()));
         // We use a specific implementation so we can change the polling period (useful for prototypes).
-        this.web3j = new JsonRpc2_0Web3j(createWeb3HttpService(this.nodeUrl), this.averageBlockTimeSeconds, Async.defaultExecutorService());
+        // The polls of web3j run on threads of this blockchain instead of the ones shared by all web3j instances.
+        this.web3j = new JsonRpc2_0Web3j(this.httpService, this.averageBlockTimeSeconds,
+                Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(),
+                        new ThreadFactoryBuilder().setNameFormat(blockchainId + "-web3j-%d").setDaemon(true).build()));
         this.formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+        this.pushClient = PushSubscriptionClient.isPushEndpoint(connectionProfile.getPushEndpoint()) ?
+                new PushSubscriptionClient(connectionProfile.getPushEndpoint()) : null;
+        this.pollScheduler = new AdaptivePollScheduler(TimeUnit.SECONDS.toMillis(this.averageBlockTimeSeconds),
+                connectionProfile.getMinPollIntervalMillis());
+        this.headFollower = new ChainHeadFollower(this.web3j, new HeaderChain(this.web3j, HeaderChain.DEFAULT_WINDOW_SIZE),
+                this.pushClient, this.pollScheduler);
+        this.transactionMonitor = new TransactionMonitor(this.web3j, this.headFollower, this.httpService::flush,
+                new ReceiptFetcher(this.web3j, this.httpService, HeaderChain.DEFAULT_WINDOW_SIZE, RECEIPT_CACHE_SIZE));
+        this.headerCache = new BlockHeaderCache(this.web3j, connectionProfile.getHeaderCacheSize());
+        this.headFollower.addReorganizationHandler(this.headerCache::invalidateFrom);
+        this.headFollower.addHeadHandler(this::indexFinalizedBlock);
+        // the logs of queries are processed on the decoding threads, so the threads sending requests are never blocked
+        this.logScanner = new LogRangeScanner(this.web3j, this.httpService::flush, connectionProfile.getLogQueryChunkSize(),
+                connectionProfile.getLogQueryParallelism(), Bulkheads.getInstance().get(blockchainId, Bulkheads.Stage.DECODING));
+        this.logMultiplexer = new LogFilterMultiplexer(this.web3j, this.headFollower, this.httpService::flush);
+        this.transactionMultiplexer = new TransactionMultiplexer(this.web3j, this.headFollower, this.httpService::flush);
+        this.nonceManager = new NonceManager(this.web3j);
+        this.gasOracle = new GasOracle(this.web3j, this.httpService, connectionProfile.getGasPricePercentile(),
+                connectionProfile.getGasLimitMarginPercent(), TimeUnit.SECONDS.toMillis(this.averageBlockTimeSeconds));
+        this.headFollower.addHeadHandler(this.gasOracle::onNewHead);
+        this.readBatcher = new ReadCallBatcher(this.web3j, this.httpService::flush, connectionProfile.getMulticallAddress());
+        this.readResultCache = new ReadResultCache(READ_RESULT_CACHE_SIZE, TimeUnit.SECONDS.toMillis(this.averageBlockTimeSeconds));
+        this.headFollower.addHeadHandler(head -> this.readResultCache.onNewBlock(head.getNumber().longValue()));
+
+        if (this.pushClient != null) {
+            this.pushClient.start();
+        }
     }
 
     public Web3j getWeb3j() {
         return web3j;
     }
 
+    public BatchingHttpService getHttpService() {
+        return httpService;
+    }
+
+    public NonceManager getNonceManager() {
+        return nonceManager;
+    }
+
+    /**
+     * @return the client receiving the heads and logs pushed by the node, or null if they are polled for.
+     */
+    public PushSubscriptionClient getPushClient() {
+        return pushClient;
+    }
+
+    /**
+     * @return the scheduler of the polls for new heads (inactive if the heads are pushed or nobody follows them).
+     */
+    public AdaptivePollScheduler getPollScheduler() {
+        return pollScheduler;
+    }
+
+    public GasOracle getGasOracle() {
+        return gasOracle;
+    }
+
+    public LogFilterMultiplexer getLogMultiplexer() {
+        return logMultiplexer;
+    }
+
+    public TransactionMultiplexer getTransactionMultiplexer() {
+        return transactionMultiplexer;
+    }
+
+    public EventDecoder.Cache getEventDecoders() {
+        return eventDecoders;
+    }
+
+    public InvocationPlan.Cache getInvocationPlans() {
+        return invocationPlans;
+    }
+
+    public ReadCallBatcher getReadBatcher() {
+        return readBatcher;
+    }
+
+    public ReadResultCache getReadResultCache() {
+        return readResultCache;
+    }
+
+    public HeaderChain getHeaderChain() {
+        return headFollower.getHeaderChain();
+    }
+
+    public BlockHeaderCache getHeaderCache() {
+        return headerCache;
+    }
+
+    public BlockTimestampIndex getTimestampIndex() {
+        return timestampIndex;
+    }
+
+    /**
+     * Sets the persistent index used to resolve dates to block numbers after validating it against the chain of the
+     * node. An index that cannot be validated is cleared.
+     */
+    public void setTimestampIndex(BlockTimestampIndex timestampIndex) {
+        try {
+            final long latestBlockNumber = web3j.ethBlockNumber().send().getBlockNumber().longValue();
+            timestampIndex.validate(latestBlockNumber, number -> headerCache.getHeader(number).getHash());
+        } catch (IOException e) {
+            log.warn("Failed to validate the block timestamp index. Clearing it. Reason: {}", e.getMessage());
+            timestampIndex.clear();
+        }
+
+        this.timestampIndex = timestampIndex;
+    }
+
     Credentials getCredentials() {
         return credentials;
     }
@@ -144,6 +292,7 @@ public class EthereumAdapter extends AbstractAdapter {
      * (ii) not having a containing block (orphaned): PENDING: ,
      * (iii) reporting an error although mined into a block (e.g., SC function threw an error): ERRORED
      * (iii) having received enough block-confirmations (durably committed): CONFIRMED.
+     * All watched transactions share a single chain-head follower (see {@link TransactionMonitor}).
      *
      * @param txHash         the hash of the transaction to monitor
      * @param waitFor        the number of block-confirmations to wait until the transaction is considered persisted (-1 if the
@@ -152,59 +301,7 @@ public class EthereumAdapter extends AbstractAdapter {
      * @return a future which is used to handle the subscription and receive the callback
      */
     private CompletableFuture<Transaction> subscribeForTxEvent(String txHash, long waitFor, TransactionState... observedStates) {
-        final CompletableFuture<Transaction> result = new CompletableFuture<>();
-        final Disposable subscription = web3j.blockFlowable(false).subscribe(ethBlock -> {
-            try {
-                // make sure the transaction exists
-                final EthTransaction transaction = web3j.ethGetTransactionByHash(txHash).send();
-                // if not, then it is either invalidated or did not exist in the first place
-                if (!transaction.getTransaction().isPresent()) {
-                    final String msg = String.format("The transaction of the hash %s is not found!", txHash);
-                    log.info(msg);
-                    handleDetectedState(transaction.getTransaction(), TransactionState.NOT_FOUND, observedStates, result);
-
-                    return;
-                }
-
-                // determine if the transaction reported an error
-                EthGetTransactionReceipt receipt = web3j.ethGetTransactionReceipt(txHash).send();
-
-                if (!receipt.getResult().isStatusOK()) {
-                    if (handleDetectedState(transaction.getTransaction(), TransactionState.ERRORED, observedStates, result))
-                        return;
-                }
-
-                // make sure the transaction is still contained in a block, i.e., it was not orphaned
-                final String retrievedBlockHash = transaction.getTransaction().get().getBlockHash();
-
-                if (retrievedBlockHash == null || retrievedBlockHash.isEmpty()) {
-                    final String msg = String.format("The transaction of the hash %s has no block (orphaned?)", txHash);
-                    log.info(msg);
-
-                    handleDetectedState(transaction.getTransaction(), TransactionState.PENDING, observedStates, result);
-                    return;
-                }
-                // check if enough block-confirmations have occurred.
-                if (waitFor >= 0 && ethBlock.getBlock() != null) {
-                    if (ethBlock.getBlock().getNumber()
-                            .subtract(transaction.getTransaction().get().getBlockNumber())
-                            .intValue() >= waitFor) {
-                        final String msg = String.format("The transaction of the hash %s has been confirmed",
-                                txHash);
-                        log.info(msg);
-
-                        handleDetectedState(transaction.getTransaction(), TransactionState.CONFIRMED, observedStates, result);
-                    }
-                }
-            } catch (IOException e) {
-                result.completeExceptionally(e);
-            }
-        });
-
-        //dispose the flowable when the CompletableFuture completes (either when detecting an event, or manually)
-        result.whenComplete((v, e) -> subscription.dispose());
-
-        return result;
+        return transactionMonitor.watch(txHash, waitFor, observedStates);
     }
 
     private static CompletionException wrapEthereumExceptions(Throwable e) {
@@ -268,18 +365,14 @@ public class EthereumAdapter extends AbstractAdapter {
         final long waitFor = ((PoWConfidenceCalculator) this.confidenceCalculator).getEquivalentBlockDepth(requiredConfidence);
         final String myAddress = credentials.getAddress();
         final PublishSubject<Transaction> result = PublishSubject.create();
-        final Disposable newTransactionObservable = web3j.transactionFlowable().subscribe(tx -> {
-            if (myAddress.equalsIgnoreCase(tx.getTo())) {
-                if (senderId == null || senderId.trim().length() == 0 || senderId.equalsIgnoreCase(tx.getFrom())) {
-                    log.info("New transaction received from:" + tx.getFrom());
-                    subscribeForTxEvent(tx.getHash(), waitFor, TransactionState.CONFIRMED)
-                            .thenAccept(result::onNext)
-                            .exceptionally(error -> {
-                                result.onError(wrapEthereumExceptions(error));
-                                return null;
-                            });
-                }
-            }
+        final Disposable newTransactionObservable = transactionMultiplexer.transactionFlowable(myAddress, senderId).subscribe(tx -> {
+            log.info("New transaction received from:" + tx.getFrom());
+            subscribeForTxEvent(tx.getHash(), waitFor, TransactionState.CONFIRMED)
+                    .thenAccept(result::onNext)
+                    .exceptionally(error -> {
+                        result.onError(wrapEthereumExceptions(error));
+                        return null;
+                    });
         }, e -> result.onError(wrapEthereumExceptions(e)));
 
         return result.doFinally(newTransactionObservable::dispose);
@@ -314,6 +407,24 @@ public class EthereumAdapter extends AbstractAdapter {
             List<Parameter> outputs,
             double requiredConfidence,
             long timeoutMillis
+    ) throws NotSupportedException, ParameterException {
+        return this.invokeSmartContract(smartContractPath, functionIdentifier, inputs, outputs, requiredConfidence,
+                timeoutMillis, true);
+    }
+
+    /**
+     * Read-only functions are answered from the {@link ReadResultCache} if they were invoked with the same inputs since
+     * the latest block, unless the cache is not to be used.
+     */
+    @Override
+    public CompletableFuture<Transaction> invokeSmartContract(
+            String smartContractPath,
+            String functionIdentifier,
+            List<Parameter> inputs,
+            List<Parameter> outputs,
+            double requiredConfidence,
+            long timeoutMillis,
+            boolean useCache
     ) throws NotSupportedException, ParameterException {
         if (credentials == null) {
             log.error("Credentials are not set for the Ethereum user");
@@ -327,44 +438,22 @@ public class EthereumAdapter extends AbstractAdapter {
 
         try {
             long waitFor = ((PoWConfidenceCalculator) this.confidenceCalculator).getEquivalentBlockDepth(requiredConfidence);
-            final String[] pathSegments = SmartContractPathParser.parse(smartContractPath).getSmartContractPathSegments();
-
-            if (pathSegments.length != 1) {
-                throw new SmartContractNotFoundException("Malformed Ethereum path!");
-            }
-
-            if (!pathSegments[0].matches("^0x[a-fA-F0-9]{40}$")) {
-                throw new SmartContractNotFoundException("Malformed Ethereum address!");
-            }
-
-            final String smartContractAddress = pathSegments[0];
-            List<TypeReference<?>> outputParameters = new ArrayList<>();
-            Class<? extends Type> currentReturnType;
-
-            for (Parameter output : outputs) {
-                currentReturnType = EthereumTypeMapper.getEthereumType(output.getType());
-                outputParameters.add(TypeReference.create(currentReturnType));
-            }
-
-            final Function function = new Function(
-                    functionIdentifier,  // function we're calling
-                    this.convertToSolidityTypes(inputs),  // Parameters to pass as Solidity Types
-                    outputParameters); //Type of returned value
-
-            final String encodedFunction = FunctionEncoder.encode(function);
+            // the path and the types are only parsed the first time the function is invoked
+            final InvocationPlan plan = this.invocationPlans.get(smartContractPath, functionIdentifier, inputs, outputs);
+            final String encodedFunction = plan.encode(inputs);
 
             // if we are expecting a return value, we try to invoke as a method call, otherwise, we try a transaction
-            if (outputParameters.size() > 0) {
+            if (plan.isReadOnly()) {
                 return this.invokeFunctionByMethodCall(
                         encodedFunction,
-                        smartContractAddress,
+                        plan,
                         outputs,
-                        function.getOutputParameters());
+                        useCache);
             } else {
                 return this.invokeFunctionByTransaction(
                         waitFor,
                         encodedFunction,
-                        smartContractAddress,
+                        plan.getContractAddress(),
                         timeoutMillis);
             }
         } catch (Exception e) {
@@ -373,28 +462,132 @@ public class EthereumAdapter extends AbstractAdapter {
         }
     }
 
+    /**
+     * Invokes the read-only functions as a single batch executed on the same block (see {@link ReadCallBatcher}). The
+     * batch is answered from the {@link ReadResultCache} if all invocations were read at the same block since then,
+     * unless the cache is not to be used.
+     */
+    @Override
+    public CompletableFuture<BatchInvocationResult> invokeSmartContracts(List<SmartContractCall> calls, boolean useCache) throws BalException {
+        final String from = credentials == null ? null : credentials.getAddress();
+        final InvocationPlan[] plans = new InvocationPlan[calls.size()];
+        final String[] encodedFunctions = new String[calls.size()];
+        final BalException[] errors = new BalException[calls.size()];
+        final List<String> contracts = new ArrayList<>();
+        final List<String> encodedCalls = new ArrayList<>();
+
+        for (int i = 0; i < calls.size(); i++) {
+            final SmartContractCall call = calls.get(i);
+
+            try {
+                final InvocationPlan plan = this.invocationPlans.get(call.getSmartContractPath(), call.getFunctionIdentifier(),
+                        call.getInputs(), call.getOutputs());
+                encodedFunctions[i] = plan.encode(call.getInputs());
+                plans[i] = plan;
+                contracts.add(plan.getContractAddress());
+                encodedCalls.add(encodedFunctions[i]);
+            } catch (Exception e) {
+                // the invocations that cannot be encoded fail without affecting the others
+                errors[i] = mapEthereumException(e);
+            }
+        }
+
+        // the results of a batch executed by the Multicall contract are cached for it as the caller
+        final String caller = this.readBatcher.getMulticallAddress() != null ? this.readBatcher.getMulticallAddress() : from;
+        final List<ReadResultCache.Entry> cached = useCache && !contracts.isEmpty() ?
+                this.readResultCache.getAll(contracts, caller, encodedCalls) : null;
+        final List<ReadCallBatcher.Call> batch = new ArrayList<>();
+        final List<CompletableFuture<InvocationResult>> results = new ArrayList<>();
+        int cachedIndex = 0;
+
+        for (int i = 0; i < calls.size(); i++) {
+            if (errors[i] != null) {
+                results.add(CompletableFuture.completedFuture(InvocationResult.failure(errors[i])));
+                continue;
+            }
+
+            final CompletableFuture<String> value;
+
+            if (cached != null) {
+                value = CompletableFuture.completedFuture(cached.get(cachedIndex++).getValue());
+            } else {
+                final ReadCallBatcher.Call read = new ReadCallBatcher.Call(from, plans[i].getContractAddress(), encodedFunctions[i]);
+                batch.add(read);
+                value = read.getResult();
+            }
+
+            final InvocationPlan plan = plans[i];
+            final List<Parameter> outputs = calls.get(i).getOutputs();
+            results.add(value
+                    .thenApply(returnData -> InvocationResult.success(decodeReturnValues(plan, outputs, returnData)))
+                    .exceptionally(e -> InvocationResult.failure(mapEthereumException(e))));
+        }
+
+        final CompletableFuture<Long> blockNumber;
+
+        if (cached != null) {
+            blockNumber = CompletableFuture.completedFuture(cached.get(0).getBlock());
+        } else if (batch.isEmpty()) {
+            blockNumber = CompletableFuture.completedFuture(null);
+        } else {
+            blockNumber = this.readBatcher.callAll(batch).thenApply(number -> {
+                for (ReadCallBatcher.Call read : batch) {
+                    if (!read.getResult().isCompletedExceptionally()) {
+                        this.readResultCache.put(read.getContractAddress(), read.getSender(), read.getData(), number, read.getResult().join());
+                    }
+                }
+
+                return number;
+            });
+        }
+
+        return blockNumber
+                .thenCompose(number -> CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                        .thenApply(done -> {
+                            final List<InvocationResult> invocationResults = new ArrayList<>();
+                            results.forEach(result -> invocationResults.add(result.join()));
+
+                            return BatchInvocationResult.builder().blockNumber(number).results(invocationResults).build();
+                        }))
+                .exceptionally(e -> {
+                    throw wrapEthereumExceptions(e);
+                });
+    }
+
     @Override
     public Observable<Occurrence> subscribeToEvent(String smartContractAddress, String eventIdentifier,
                                                    List<Parameter> outputParameters, double degreeOfConfidence, String filter) throws BalException {
         long waitFor = ((PoWConfidenceCalculator) this.confidenceCalculator).getEquivalentBlockDepth(degreeOfConfidence);
-        List<TypeReference<?>> types = this.convertTypes(outputParameters);
-        final Event event = new Event(eventIdentifier, types);
-        final EthFilter ethFilter = this.generateSubscriptionFilter(smartContractAddress, event, types.size());
+        final EventDecoder decoder = this.eventDecoders.get(eventIdentifier, outputParameters);
+        final List<List<String>> indexedTopics = IndexedTopicFilter.build(outputParameters, filter);
         final PublishSubject<Occurrence> result = PublishSubject.create();
-
-        Disposable newEventObservable = web3j.ethLogFlowable(ethFilter).subscribe(log -> {
-            Occurrence occurrence = this.handleLog(log, event, outputParameters, filter);
-
-            // if the result is null, then the filter has evaluated to false.
-            if (occurrence != null) {
-                this.subscribeForTxEvent(log.getTransactionHash(), waitFor, TransactionState.CONFIRMED)
-                        .thenAccept(tx -> result.onNext(occurrence))
-                        .exceptionally(error -> {
-                            result.onError(wrapEthereumExceptions(error));
-                            return null;
-                        });
-            }
-        }, e -> result.onError(wrapEthereumExceptions(e)));
+        final Bulkheads bulkheads = Bulkheads.getInstance();
+        // the bulkheads are shared by all subscriptions of the blockchain. A rejected task would stall the subscription,
+        // since the operators of RxJava do not schedule it again, so it is executed by the thread emitting the logs.
+        final Scheduler decoding = Schedulers.from(bulkheads.get(blockchainId, Bulkheads.Stage.DECODING).callerRunsIfRejected());
+        final Scheduler filterEvaluation = Schedulers.from(
+                bulkheads.get(blockchainId, Bulkheads.Stage.FILTER_EVALUATION).callerRunsIfRejected());
+
+        Disposable newEventObservable = this.logFlowable(smartContractAddress, decoder, indexedTopics)
+                .observeOn(decoding)
+                // logs that do not belong to the event are skipped
+                .flatMapMaybe(log -> Maybe.fromCallable(() -> this.decodeParameters(log, decoder, outputParameters))
+                        .map(parameters -> ImmutablePair.of(log, parameters)))
+                .observeOn(filterEvaluation)
+                .filter(decoded -> BooleanExpressionEvaluator.evaluate(filter, decoded.getRight()))
+                .subscribe(decoded -> {
+                    final Log log = decoded.getLeft();
+                    // the header is not waited for, since it might be requested in a batch that is not sent yet
+                    this.headerCache.getTimestampAsync(log.getBlockHash())
+                            .thenApply(blockTimestamp -> this.toOccurrence(decoded.getRight(), blockTimestamp))
+                            .thenCompose(occurrence -> this.subscribeForTxEvent(log.getTransactionHash(), waitFor, TransactionState.CONFIRMED)
+                                    .thenApply(tx -> occurrence))
+                            .thenAccept(result::onNext)
+                            .exceptionally(error -> {
+                                result.onError(wrapEthereumExceptions(error));
+                                return null;
+                            });
+                }, e -> result.onError(wrapEthereumExceptions(e)));
 
         return result.doFinally(newEventObservable::dispose);
     }
@@ -402,30 +595,41 @@ public class EthereumAdapter extends AbstractAdapter {
     @Override
     public CompletableFuture<QueryResult> queryEvents(String smartContractAddress, String eventIdentifier,
                                                       List<Parameter> outputParameters, String filter, TimeFrame timeFrame) throws BalException {
-        List<TypeReference<?>> types = this.convertTypes(outputParameters);
-        final Event event = new Event(eventIdentifier, types);
-        try {
-            final EthFilter ethFilter = this.generateQueryFilter(smartContractAddress, event, types.size(), timeFrame);
-            return web3j.ethGetLogs(ethFilter)
-                    .sendAsync()
-                    .thenApply(result -> {
-                        try {
-                            List<Occurrence> finalResult = new ArrayList<>();
+        final List<Occurrence> occurrences = new ArrayList<>();
 
-                            for (EthLog.LogResult logResult : result.getLogs()) {
-                                Log log = (Log) logResult.get();
-                                Occurrence occurrence = this.handleLog(log, event, outputParameters, filter);
+        return this.queryEvents(smartContractAddress, eventIdentifier, outputParameters, filter, timeFrame, occurrences::add)
+                .thenApply(done -> QueryResult.builder().occurrences(occurrences).build());
+    }
 
-                                if (occurrence != null) {
-                                    finalResult.add(occurrence);
-                                }
+    @Override
+    public CompletableFuture<Void> queryEvents(String smartContractAddress, String eventIdentifier,
+                                               List<Parameter> outputParameters, String filter, TimeFrame timeFrame,
+                                               Consumer<Occurrence> consumer) throws BalException {
+        final EventDecoder decoder = this.eventDecoders.get(eventIdentifier, outputParameters);
+        final List<List<String>> indexedTopics = IndexedTopicFilter.build(outputParameters, filter);
+        final Executor decoding = Bulkheads.getInstance().get(blockchainId, Bulkheads.Stage.DECODING);
+
+        try {
+            final long[] blockRange = this.resolveQueryRange(timeFrame);
+
+            // the logs are handled a chunk at a time, so only the logs of the chunks being scanned are kept in memory
+            return logScanner.scanChunksAsync((from, to) -> this.generateFilter(smartContractAddress, decoder, indexedTopics,
+                            new DefaultBlockParameterNumber(from), new DefaultBlockParameterNumber(to)),
+                    blockRange[0], blockRange[1], logs -> this.prefetchBlockHeaders(logs).thenRunAsync(() -> {
+                        for (Log log : logs) {
+                            final Occurrence occurrence;
+
+                            try {
+                                occurrence = this.handleLog(log, decoder, outputParameters, filter);
+                            } catch (Exception e) {
+                                throw new CompletionException(new InvalidScipParameterException("The filter script is invalid: " + e.getMessage()));
                             }
 
-                            return QueryResult.builder().occurrences(finalResult).build();
-                        } catch (Exception e) {
-                            throw new CompletionException(new InvalidScipParameterException("The filter script is invalid: " + e.getMessage()));
+                            if (occurrence != null) {
+                                consumer.accept(occurrence);
+                            }
                         }
-                    });
+                    }, decoding));
         } catch (IOException e) {
             throw new BlockchainNodeUnreachableException(e.getMessage());
         }
@@ -436,284 +640,405 @@ public class EthereumAdapter extends AbstractAdapter {
         return this.testConnectionToNode();
     }
 
-    private List<TypeReference<?>> convertTypes(List<Parameter> parameters) {
-        return parameters
-                .stream()
-                .map(param -> (EthereumTypeMapper.getEthereumType(param.getType())))
-                .map(TypeReference::create)
-                .collect(Collectors.toList());
+    /**
+     * Stops following the chain, and releases the threads polling it, the push connection, the threads and connections
+     * sending requests (also of the endpoint pool), and the block timestamp index.
+     */
+    @Override
+    public void close() {
+        this.pollScheduler.shutdown();
+
+        if (this.pushClient != null) {
+            this.pushClient.close();
+        }
+
+        // also closes the http service
+        this.web3j.shutdown();
+
+        if (this.timestampIndex != null) {
+            try {
+                this.timestampIndex.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the block timestamp index. Reason: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Occurrence handleLog(Log log, EventDecoder decoder, List<Parameter> outputParameters, String filter) throws Exception {
+        final List<Parameter> parameters = this.decodeParameters(log, decoder, outputParameters);
+
+        if (parameters != null && BooleanExpressionEvaluator.evaluate(filter, parameters)) {
+            return this.toOccurrence(log, parameters);
+        }
+
+        return null;
     }
 
-    private Occurrence handleLog(Log log, Event event, List<Parameter> outputParameters, String filter) throws Exception {
-        final EventValues values = Contract.staticExtractEventParameters(event, log);
+    /**
+     * @return the values of the event parameters in the given log, or null if the log does not belong to the event.
+     */
+    private List<Parameter> decodeParameters(Log log, EventDecoder decoder, List<Parameter> outputParameters) {
+        final List<String> values = decoder.decodeValues(log);
+
+        // the log does not belong to the event, e.g., since another event of the contract has the same topic
+        if (values == null) {
+            return null;
+        }
+
         List<Parameter> parameters = new ArrayList<>();
 
         for (int i = 0; i < outputParameters.size(); i++) {
+            final Parameter outputParameter = outputParameters.get(i);
             parameters.add(Parameter.builder()
-                    .name(outputParameters.get(i).getName())
-                    .type(outputParameters.get(i).getType())
-                    .value(ParameterDecoder.decode(values.getNonIndexedValues().get(i)))
+                    .name(outputParameter.getName())
+                    .type(outputParameter.getType())
+                    .value(values.get(i))
+                    .indexed(outputParameter.isIndexed())
                     .build());
         }
 
-        if (BooleanExpressionEvaluator.evaluate(filter, parameters)) {
-            EthBlock block = this.web3j.ethGetBlockByHash(log.getBlockHash(), false).send();
-            LocalDateTime timestamp = LocalDateTime.ofEpochSecond(block.getBlock().getTimestamp().longValue(), 0, ZoneOffset.UTC);
-            String timestampS = formatter.format(timestamp);
+        return parameters;
+    }
 
-            return Occurrence.builder().parameters(parameters).isoTimestamp(timestampS).build();
-        }
+    private Occurrence toOccurrence(Log log, List<Parameter> parameters) throws IOException {
+        return this.toOccurrence(parameters, this.headerCache.getTimestamp(log.getBlockHash()));
+    }
 
-        return null;
+    private Occurrence toOccurrence(List<Parameter> parameters, long blockTimestamp) {
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(blockTimestamp, 0, ZoneOffset.UTC);
+        String timestampS = formatter.format(timestamp);
+
+        return Occurrence.builder().parameters(parameters).isoTimestamp(timestampS).build();
     }
 
-    private EthFilter generateSubscriptionFilter(String smartContractAddress, Event event, int parameterCount) {
-        return this.generateFilter(smartContractAddress, event, parameterCount, DefaultBlockParameterName.LATEST, DefaultBlockParameterName.LATEST);
+    /**
+     * Requests the headers of all blocks containing the given logs at once, so that they share JSON-RPC batches and
+     * every block is fetched only once.
+     *
+     * @return a future that completes when all headers are fetched or failed to be fetched
+     */
+    private CompletableFuture<Void> prefetchBlockHeaders(List<Log> logs) {
+        final CompletableFuture<?>[] headers = logs
+                .stream()
+                .map(Log::getBlockHash)
+                .distinct()
+                .map(this.headerCache::getByHash)
+                .toArray(CompletableFuture[]::new);
+        this.httpService.flush();
+        // failures are reported when the individual timestamps are looked up
+        return CompletableFuture.allOf(headers).exceptionally(e -> null);
     }
 
-    private EthFilter generateQueryFilter(String smartContractAddress, Event event, int parameterCount, TimeFrame timeFrame) throws IOException {
-        DefaultBlockParameter from;
-        DefaultBlockParameter to;
+    /**
+     * @return the logs of the given event emitted from now on, either pushed by the node or polled for. Polling skips
+     * the blocks whose logs blooms match none of the subscriptions (see {@link LogFilterMultiplexer}).
+     */
+    private Flowable<Log> logFlowable(String smartContractAddress, EventDecoder decoder, List<List<String>> indexedTopics) {
+        if (pushClient == null) {
+            return logMultiplexer.logFlowable(smartContractAddress, decoder.getTopic(), indexedTopics);
+        }
 
-        if (timeFrame == null) {
-            from = DefaultBlockParameterName.EARLIEST;
-            to = DefaultBlockParameterName.LATEST;
-        } else {
+        return Flowable.create(emitter -> {
+            final PushLogSubscription subscription = new PushLogSubscription(pushClient, web3j, logScanner,
+                    (from, to) -> this.generateFilter(smartContractAddress, decoder, indexedTopics,
+                            new DefaultBlockParameterNumber(from), new DefaultBlockParameterNumber(to)),
+                    emitter::onNext, emitter::onError);
+            emitter.setCancellable(subscription::cancel);
+            subscription.start();
+        }, BackpressureStrategy.BUFFER);
+    }
 
-            if (Strings.isNullOrEmpty(timeFrame.getFrom())) {
-                from = DefaultBlockParameterName.EARLIEST;
-            } else {
+    /**
+     * Resolves the time frame of a query to the numbers of the first and last blocks to scan. If the first block number
+     * is greater than the last one, there is nothing to scan.
+     */
+    private long[] resolveQueryRange(TimeFrame timeFrame) throws IOException {
+        long from = 0;
+        long to = web3j.ethBlockNumber().send().getBlockNumber().longValue();
+
+        if (timeFrame != null) {
+            if (!Strings.isNullOrEmpty(timeFrame.getFrom())) {
                 LocalDateTime fromDateTime = LocalDateTime.parse(timeFrame.getFrom(), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-                long fromBlockNumber = this.getBlockAfterIsoDate(fromDateTime);
-                from = new DefaultBlockParameterNumber(fromBlockNumber);
+                from = this.getBlockAfterIsoDate(fromDateTime);
             }
 
-            if (Strings.isNullOrEmpty(timeFrame.getTo())) {
-                to = DefaultBlockParameterName.LATEST;
-            } else {
+            if (!Strings.isNullOrEmpty(timeFrame.getTo())) {
                 LocalDateTime toDateTime = LocalDateTime.parse(timeFrame.getTo(), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
                 long toBlockNumber = this.getBlockAfterIsoDate(toDateTime);
 
-                // this indicates the specified date is after the last block
-                if (toBlockNumber == Long.MAX_VALUE) {
-                    to = DefaultBlockParameterName.LATEST;
-                } else {
+                // Long.MAX_VALUE indicates the specified date is after the last block
+                if (toBlockNumber != Long.MAX_VALUE) {
                     if (toBlockNumber > 0)
                         toBlockNumber--;
                     else
                         throw new InvalidScipParameterException();
 
-                    to = new DefaultBlockParameterNumber(toBlockNumber);
+                    to = toBlockNumber;
                 }
             }
         }
 
-        return this.generateFilter(smartContractAddress, event, parameterCount, from, to);
+        return new long[]{from, to};
     }
 
+    /**
+     * @return the number of the first block mined at or after the given date (in UTC), 0 if all blocks are, or
+     * {@link Long#MAX_VALUE} if the date is after the latest block.
+     */
     long getBlockAfterIsoDate(final LocalDateTime dateTime) throws IOException {
-        final long seconds = Duration.between(dateTime, LocalDateTime.now()).getSeconds();
-        long estimatedBlockLag = seconds / averageBlockTimeSeconds;
+        final long latestBlockNumber = web3j.ethBlockNumber().send().getBlockNumber().longValue();
+        final BlockTimestampSearch search = new BlockTimestampSearch(number -> this.getBlockTimestamp(number, latestBlockNumber));
 
-        // if the block is in the future
-        if (estimatedBlockLag < 0) {
-            estimatedBlockLag = 0;
-        }
+        return search.findFirstBlockAtOrAfter(dateTime.toEpochSecond(ZoneOffset.UTC), latestBlockNumber);
+    }
 
-        final long latestBlockNumber = web3j.ethBlockNumber().send().getBlockNumber().longValue();
-        long blockNumber = latestBlockNumber - estimatedBlockLag;
+    /**
+     * Looks up the timestamp of a canonical block in the persistent index first. Blocks that are deep enough not to be
+     * reorganized anymore are added to the index when their header is fetched.
+     */
+    private long getBlockTimestamp(long blockNumber, long latestBlockNumber) throws IOException {
+        if (timestampIndex != null) {
+            final long indexed = timestampIndex.getTimestamp(blockNumber);
 
-        // if the estimated block is before the genesis
-        if (blockNumber < 0) {
-            blockNumber = 0;
+            if (indexed >= 0) {
+                return indexed;
+            }
         }
 
-        BigInteger blockTimeStamp = web3j.ethGetBlockByNumber(new DefaultBlockParameterNumber(blockNumber), false).send().getBlock().getTimestamp();
-        LocalDateTime blockDateTime = LocalDateTime.ofEpochSecond(blockTimeStamp.longValue(), 0, ZoneOffset.UTC);
+        final HeaderChain.Header header = headerCache.getHeader(blockNumber);
 
-        // decide on direction
-        if (blockDateTime.isAfter(dateTime)) {
-            while (--blockNumber >= 0) {
-                blockTimeStamp = web3j.ethGetBlockByNumber(new DefaultBlockParameterNumber(blockNumber), false).send().getBlock().getTimestamp();
-                blockDateTime = LocalDateTime.ofEpochSecond(blockTimeStamp.longValue(), 0, ZoneOffset.UTC);
+        if (timestampIndex != null && latestBlockNumber - blockNumber >= getFinalityDepth()) {
+            timestampIndex.put(blockNumber, header.getTimestamp(), header.getHash());
+        }
 
-                if (blockDateTime.isBefore(dateTime)) {
-                    return blockNumber + 1;
-                }
-            }
+        return header.getTimestamp();
+    }
 
-            return 0;
+    /**
+     * Extends the persistent index while the chain head is followed, using the oldest header known to be canonical.
+     */
+    private void indexFinalizedBlock(EthBlock.Block head) {
+        if (timestampIndex == null) {
+            return;
         }
 
-        while (++blockNumber <= latestBlockNumber) {
-            blockTimeStamp = web3j.ethGetBlockByNumber(new DefaultBlockParameterNumber(blockNumber), false).send().getBlock().getTimestamp();
-            blockDateTime = LocalDateTime.ofEpochSecond(blockTimeStamp.longValue(), 0, ZoneOffset.UTC);
+        final HeaderChain.Header finalized = headFollower.getHeaderChain().getHeader(head.getNumber().longValue() - getFinalityDepth());
 
-            if (blockDateTime.isAfter(dateTime)) {
-                return blockNumber;
+        if (finalized != null) {
+            try {
+                timestampIndex.put(finalized.getNumber(), finalized.getTimestamp(), finalized.getHash());
+            } catch (IOException e) {
+                log.warn("Failed to add block {} to the block timestamp index. Reason: {}", finalized.getNumber(), e.getMessage());
             }
         }
+    }
 
-        return Long.MAX_VALUE;
+    private long getFinalityDepth() {
+        // the header chain keeps the blocks that can still be reorganized
+        return headFollower.getHeaderChain().getWindowSize() - 1;
     }
 
-    private EthFilter generateFilter(String smartContractAddress, Event event, int parameterCount, DefaultBlockParameter from, DefaultBlockParameter to) {
+    /**
+     * @param indexedTopics the alternative values of the topics of the indexed parameters (null matches any value)
+     */
+    private EthFilter generateFilter(String smartContractAddress, EventDecoder decoder, List<List<String>> indexedTopics,
+                                     DefaultBlockParameter from, DefaultBlockParameter to) {
         EthFilter filter = new EthFilter(
                 from,
                 to,
                 smartContractAddress).
-                addSingleTopic(EventEncoder.encode(event));
-        // for each parameter, we add a null topic
-        for (int i = 0; i < parameterCount; i++) {
-            filter = filter.addNullTopic();
+                addSingleTopic(decoder.getTopic());
+
+        for (List<String> topic : indexedTopics) {
+            if (topic == null) {
+                filter = filter.addNullTopic();
+            } else if (topic.size() == 1) {
+                filter = filter.addSingleTopic(topic.get(0));
+            } else {
+                filter = filter.addOptionalTopics(topic.toArray(new String[0]));
+            }
         }
 
         return filter;
     }
 
-    private CompletableFuture<Transaction> invokeFunctionByMethodCall(String encodedFunction, String scAddress, List<Parameter> outputs,
-                                                                      List<TypeReference<Type>> returnTypes) {
-        org.web3j.protocol.core.methods.request.Transaction transaction = org.web3j.protocol.core.methods.request.Transaction
-                .createEthCallTransaction(credentials.getAddress(), scAddress, encodedFunction);
+    /**
+     * Executes the call together with the concurrent read-only invocations (see {@link ReadCallBatcher}). Results read
+     * at the latest block are cached, also if the call itself does not use the cache.
+     */
+    private CompletableFuture<Transaction> invokeFunctionByMethodCall(String encodedFunction, InvocationPlan plan,
+                                                                      List<Parameter> outputs, boolean useCache) {
+        final ReadResultCache.Entry cached = useCache ?
+                this.readResultCache.get(plan.getContractAddress(), credentials.getAddress(), encodedFunction) : null;
+        final CompletableFuture<String> result;
+
+        if (cached != null) {
+            result = CompletableFuture.completedFuture(cached.getValue());
+        } else {
+            final long latestBlock = this.readResultCache.getLatestBlock();
+            result = this.readBatcher.call(credentials.getAddress(), plan.getContractAddress(), encodedFunction)
+                    .thenApply(value -> {
+                        this.readResultCache.putLatest(plan.getContractAddress(), credentials.getAddress(), encodedFunction, latestBlock, value);
 
-        return web3j.ethCall(transaction, DefaultBlockParameterName.LATEST)
-                .sendAsync()
-                .thenApply(ethCall -> FunctionReturnDecoder.decode(ethCall.getValue(), returnTypes))
-                .thenApply(decoded -> {
-                    if (returnTypes.size() != decoded.size())
-                        throw new InvokeSmartContractFunctionFailure("Failed to invoke read-only Ethereum smart contract function");
+                        return value;
+                    });
+        }
 
+        return result
+                .thenApply(value -> {
                     Transaction tx = new LinearChainTransaction();
                     tx.setState(TransactionState.RETURN_VALUE);
-                    List<Parameter> returnedValues = new ArrayList<>();
-
-                    for (int i = 0; i < decoded.size(); i++) {
-                        returnedValues.add(Parameter
-                                .builder()
-                                .name(outputs.get(i).getName())
-                                .value(ParameterDecoder.decode(decoded.get(i)))
-                                .build());
-                    }
-
-                    tx.setReturnValues(returnedValues);
+                    tx.setReturnValues(decodeReturnValues(plan, outputs, value));
 
                     return tx;
                 });
     }
 
+    private static List<Parameter> decodeReturnValues(InvocationPlan plan, List<Parameter> outputs, String value) {
+        final List<String> decoded = plan.decodeResult(value);
+
+        if (plan.getOutputTypes().size() != decoded.size())
+            throw new InvokeSmartContractFunctionFailure("Failed to invoke read-only Ethereum smart contract function");
+
+        List<Parameter> returnedValues = new ArrayList<>();
+
+        for (int i = 0; i < decoded.size(); i++) {
+            returnedValues.add(Parameter
+                    .builder()
+                    .name(outputs.get(i).getName())
+                    .value(decoded.get(i))
+                    .build());
+        }
+
+        return returnedValues;
+    }
+
     private CompletableFuture<Transaction> invokeFunctionByTransaction(long waitFor, String encodedFunction, String scAddress, long timeoutMillis) {
         return this
-                .retrieveNewNonce()
-                .thenApply(nonce -> {
+                .sendFunctionCallTransaction(scAddress, encodedFunction, MAX_SEND_ATTEMPTS)
+                .thenCompose(txHash -> transactionMonitor.watchUntilMined(txHash, timeoutMillis, waitFor,
+                        TransactionState.CONFIRMED, TransactionState.NOT_FOUND, TransactionState.ERRORED))
+                .exceptionally((e) -> {
+                    throw wrapEthereumExceptions(e);
+                });
+    }
+
+    /**
+     * Sends a function call transaction using a locally allocated nonce, so that concurrent invocations do not wait for
+     * each other. Sends rejected because of a nonce conflict are retried with a new nonce after resynchronizing the
+     * nonces of the account.
+     *
+     * @return a future that completes with the hash of the sent transaction
+     */
+    private CompletableFuture<String> sendFunctionCallTransaction(String scAddress, String encodedFunction, int attempts) {
+        final String address = credentials.getAddress();
+        final CompletableFuture<BigInteger> gasPrice = gasOracle.getGasPrice();
+        final CompletableFuture<BigInteger> gasLimit = gasOracle.getGasLimit(address, scAddress, encodedFunction);
+        this.httpService.flush();
+
+        // the nonce is allocated last, so that a failure to retrieve the gas parameters does not leave a gap
+        return CompletableFuture.allOf(gasPrice, gasLimit)
+                .thenCompose(gas -> nonceManager.allocate(address))
+                .thenCompose(nonce -> {
+                    final org.web3j.protocol.core.methods.request.Transaction transaction;
+
                     try {
-                        return org.web3j.protocol.core.methods.request.Transaction.createFunctionCallTransaction(
-                                credentials.getAddress(),
+                        transaction = org.web3j.protocol.core.methods.request.Transaction.createFunctionCallTransaction(
+                                address,
                                 nonce,
-                                DefaultGasProvider.GAS_PRICE,
-                                DefaultGasProvider.GAS_LIMIT,
+                                gasPrice.join(),
+                                gasLimit.join(),
                                 scAddress,
                                 encodedFunction);
                     } catch (Exception e) {
+                        nonceManager.release(address, nonce);
                         log.error("An error occurred while trying to create a function signature!. Reason: {}", e.getMessage());
-                        throw new CompletionException(wrapEthereumExceptions(e));
+                        throw wrapEthereumExceptions(e);
                     }
-                })
-                .thenCompose(transaction -> web3j.ethSendTransaction(transaction).sendAsync())
-                .thenCompose(tx -> {
-                    final String txHash = tx.getTransactionHash();
-                    log.info("transaction hash is {}", txHash);
-                    return CompletableFuture.completedFuture(txHash);
-                })
-                .thenCompose(txHash -> waitUntilTransactionIsMined(txHash, timeoutMillis))
-                .thenCompose(txReceipt -> subscribeForTxEvent(txReceipt.getTransactionHash(), waitFor,
-                        TransactionState.CONFIRMED, TransactionState.NOT_FOUND, TransactionState.ERRORED))
-                .exceptionally((e) -> {
-                    throw wrapEthereumExceptions(e);
-                });
-    }
 
-    private CompletableFuture<TransactionReceipt> waitUntilTransactionIsMined(final String txHash, final long timeOutMillis)
-            throws CompletionException {
-        final CompletableFuture<TransactionReceipt> result = new CompletableFuture<>();
-        final long START_TIME_MILLIS = (new Date()).getTime();
+                    return web3j.ethSendTransaction(transaction)
+                            .sendAsync()
+                            .handle((sent, error) -> {
+                                if (error != null) {
+                                    // the node might have received the transaction, so only the node can tell whether the nonce is used
+                                    nonceManager.markSent(address, nonce);
+                                    nonceManager.resynchronize(address);
+                                    throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+                                }
 
-        final Disposable subscription = web3j.blockFlowable(false).subscribe(ethBlock -> {
-            try {
-                long currentTimeMillis = (new Date()).getTime();
-
-                // if the time passed since we started is longer than the timeout
-                if (currentTimeMillis - START_TIME_MILLIS >= timeOutMillis) {
-                    TimeoutException exception =
-                            new TimeoutException("Timeout is reached before transaction is mined!", txHash, 0.0);
-                    result.completeExceptionally(exception);
-                } else {
-                    EthGetTransactionReceipt receipt = web3j.ethGetTransactionReceipt(txHash).send();
-                    if (receipt != null && receipt.getTransactionReceipt().isPresent()) {
-                        result.complete(receipt.getResult());
-                    }
-                }
-            } catch (IOException e) {
-                result.completeExceptionally(e);
-            }
-        });
+                                if (!sent.hasError()) {
+                                    nonceManager.markSent(address, nonce);
+                                    log.info("transaction hash is {}", sent.getTransactionHash());
 
-        //dispose the flowable when the CompletableFuture completes (either when detecting an event, or manually)
-        result.whenComplete((v, e) -> subscription.dispose());
+                                    return CompletableFuture.completedFuture(sent.getTransactionHash());
+                                }
 
-        return result;
+                                final String message = sent.getError().getMessage();
+
+                                if (NonceManager.isNonceError(message)) {
+                                    nonceManager.markSent(address, nonce);
+                                    log.warn("The nonce {} of the account {} is out of sync. Reason: {}", nonce, address, message);
+
+                                    if (attempts > 1) {
+                                        return nonceManager.resynchronize(address)
+                                                .thenCompose(done -> this.sendFunctionCallTransaction(scAddress, encodedFunction, attempts - 1));
+                                    }
+
+                                    nonceManager.resynchronize(address);
+                                } else {
+                                    nonceManager.release(address, nonce);
+                                }
+
+                                throw new CompletionException(new InvokeSmartContractFunctionFailure(message));
+                            })
+                            .thenCompose(next -> next);
+                });
     }
 
-    // based on https://github.com/web3j/web3j/blob/master/abi/src/test/java/org/web3j/abi/FunctionEncoderTest.java
-    private List<Type> convertToSolidityTypes(List<Parameter> params) throws ParameterException {
-        List<Type> result = new ArrayList<>();
+    private static BatchingHttpService createWeb3HttpService(EthereumConnectionProfile connectionProfile, Bulkhead ioBulkhead) {
+        final OkHttpClient httpClient = createHttpClient(connectionProfile);
+        final List<String> nodeUrls = getNodeUrls(connectionProfile);
 
-        for (Parameter param : params) {
-            result.add(ParameterEncoder.encode(param));
+        if (nodeUrls.size() > 1) {
+            final EndpointPool endpointPool = new EndpointPool(nodeUrls, httpClient,
+                    connectionProfile.getEndpointProbeIntervalMillis(), connectionProfile.getMaxEndpointLagBlocks());
+
+            return new BatchingHttpService(endpointPool, httpClient, connectionProfile.getMaxBatchSize(),
+                    connectionProfile.getBatchLingerMillis(), ioBulkhead);
         }
 
-        return result;
+        return new BatchingHttpService(nodeUrls.get(0), httpClient, connectionProfile.getMaxBatchSize(),
+                connectionProfile.getBatchLingerMillis(), ioBulkhead);
     }
 
-    private CompletableFuture<BigInteger> retrieveNewNonce() {
-        return web3j.ethGetTransactionCount(
-                        credentials.getAddress(), DefaultBlockParameterName.LATEST)
-                .sendAsync()
-                .thenApply(EthGetTransactionCount::getTransactionCount);
-    }
-
-    private static boolean handleDetectedState(final Optional<org.web3j.protocol.core.methods.response.Transaction> transactionDetails,
-                                               final TransactionState detectedState, final TransactionState[] interesting,
-                                               CompletableFuture<Transaction> future) {
-        // Only complete the future if we are interested in this event
-        if (Arrays.asList(interesting).contains(detectedState)) {
-            final LinearChainTransaction result = new LinearChainTransaction();
-            result.setState(detectedState);
-            // it is important that this list is not null
-            result.setReturnValues(new ArrayList<>());
-
-            if (transactionDetails.isPresent()) {
-                result.setBlock(new Block(transactionDetails.get().getBlockNumber(), transactionDetails.get().getBlockHash()));
-                result.setFrom(transactionDetails.get().getFrom());
-                result.setTo(transactionDetails.get().getTo());
-                result.setTransactionHash(transactionDetails.get().getHash());
-                result.setValue(transactionDetails.get().getValue());
-            }
-
-            future.complete(result);
+    /**
+     * @return the url of the node followed by the urls of the further nodes (without duplicates)
+     */
+    static List<String> getNodeUrls(EthereumConnectionProfile connectionProfile) {
+        final Set<String> result = new LinkedHashSet<>();
 
-            return true;
+        if (connectionProfile.getNodeUrl() != null) {
+            result.add(connectionProfile.getNodeUrl());
         }
 
-        return false;
+        result.addAll(connectionProfile.getNodeUrls());
+
+        return result.isEmpty() ? Collections.singletonList(connectionProfile.getNodeUrl()) : new ArrayList<>(result);
     }
 
-    private static HttpService createWeb3HttpService(String url) {
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
-        OkHttpClient client = builder
-                .connectTimeout(0, TimeUnit.SECONDS)
+    static OkHttpClient createHttpClient(EthereumConnectionProfile connectionProfile) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(connectionProfile.getConnectionPoolSize(), 5, TimeUnit.MINUTES))
+                .connectTimeout(connectionProfile.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+                // the deadline covers the whole call, so reading and writing are only limited by it
+                .callTimeout(connectionProfile.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS)
                 .readTimeout(0, TimeUnit.SECONDS)
-                .writeTimeout(0, TimeUnit.SECONDS)
-                .build();
-        return new HttpService(url, client, false);
+                .writeTimeout(0, TimeUnit.SECONDS);
+
+        if (!connectionProfile.isHttp2Enabled()) {
+            builder.protocols(Collections.singletonList(Protocol.HTTP_1_1));
+        }
+
+        return builder.build();
     }
 }
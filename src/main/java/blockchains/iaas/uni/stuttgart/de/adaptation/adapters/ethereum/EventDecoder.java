@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.ParameterException;
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Bytes32;
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Decodes the logs of an event. The type references and the topic of the event (the hash of its signature) are
+ * computed once when the decoder is created, so decoding a log only parses its topics and data.
+ * <p>
+ * Decoders are obtained from a {@link Cache}, which keeps one decoder per event identifier and parameter types.
+ */
+public class EventDecoder {
+    private final Event event;
+    private final String topic;
+    private final boolean[] indexed;
+    private final List<TypeReference<Type>> indexedTypes;
+    private final List<TypeReference<Type>> nonIndexedTypes;
+    // the topics of indexed values of dynamic types hold their hashes
+    private final AbiCodec topicCodec;
+    private final AbiCodec dataCodec;
+
+    EventDecoder(String eventIdentifier, List<Parameter> parameters) throws ParameterException {
+        final List<TypeReference<?>> types = new ArrayList<>();
+        final List<Class<? extends Type>> topicTypes = new ArrayList<>();
+        final List<Class<? extends Type>> dataTypes = new ArrayList<>();
+        this.indexed = new boolean[parameters.size()];
+
+        for (int i = 0; i < parameters.size(); i++) {
+            final Class<? extends Type> type = EthereumTypeMapper.getEthereumType(parameters.get(i).getType());
+            indexed[i] = parameters.get(i).isIndexed();
+            types.add(TypeReference.create(type, indexed[i]));
+
+            if (!indexed[i]) {
+                dataTypes.add(type);
+            } else if (type == Utf8String.class || type == DynamicBytes.class) {
+                topicTypes.add(Bytes32.class);
+            } else {
+                topicTypes.add(type);
+            }
+        }
+
+        this.event = new Event(eventIdentifier, types);
+        this.topicCodec = new AbiCodec(topicTypes);
+        this.dataCodec = new AbiCodec(dataTypes);
+        this.topic = EventEncoder.encode(event);
+        this.indexedTypes = event.getIndexedParameters();
+        this.nonIndexedTypes = event.getNonIndexedParameters();
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the first topic of the logs of the event, i.e., the hash of its signature.
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the values of the event parameters in the order of their declaration, or null if the log was not emitted
+     * by the event.
+     */
+    public List<Type> decode(Log log) {
+        final List<String> topics = log.getTopics();
+
+        if (topics == null || topics.size() != indexedTypes.size() + 1 || !topic.equalsIgnoreCase(topics.get(0))) {
+            return null;
+        }
+
+        final List<Type> nonIndexedValues = nonIndexedTypes.isEmpty() ?
+                Collections.emptyList() : FunctionReturnDecoder.decode(log.getData(), nonIndexedTypes);
+
+        if (nonIndexedValues.size() != nonIndexedTypes.size()) {
+            return null;
+        }
+
+        final List<Type> result = new ArrayList<>(indexed.length);
+        int indexedCount = 0;
+        int nonIndexedCount = 0;
+
+        for (boolean isIndexed : indexed) {
+            // indexed values are decoded from the topics, the others from the data of the log
+            result.add(isIndexed ?
+                    FunctionReturnDecoder.decodeIndexedValue(topics.get(1 + indexedCount), indexedTypes.get(indexedCount++)) :
+                    nonIndexedValues.get(nonIndexedCount++));
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes the values of the event parameters directly into their string representation, which is the same as the
+     * one of {@link ParameterDecoder} for the values returned by {@link #decode(Log)}.
+     *
+     * @return the values of the event parameters in the order of their declaration, or null if the log was not emitted
+     * by the event.
+     */
+    public List<String> decodeValues(Log log) throws ParameterException {
+        final List<String> topics = log.getTopics();
+
+        if (topics == null || topics.size() != indexedTypes.size() + 1 || !topic.equalsIgnoreCase(topics.get(0))) {
+            return null;
+        }
+
+        final List<String> dataValues = nonIndexedTypes.isEmpty() ? Collections.emptyList() : dataCodec.decode(log.getData());
+
+        if (dataValues.size() != nonIndexedTypes.size()) {
+            return null;
+        }
+
+        final List<String> result = new ArrayList<>(indexed.length);
+        int indexedCount = 0;
+        int nonIndexedCount = 0;
+
+        for (boolean isIndexed : indexed) {
+            result.add(isIndexed ?
+                    topicCodec.decodeTopic(indexedCount, topics.get(1 + indexedCount++)) :
+                    dataValues.get(nonIndexedCount++));
+        }
+
+        return result;
+    }
+
+    /**
+     * Keeps the decoders of recently used events.
+     */
+    public static class Cache {
+        private final int maxSize;
+        private final Map<String, EventDecoder> decoders;
+        private long hitCount;
+        private long missCount;
+
+        public Cache(int maxSize) {
+            this.maxSize = maxSize;
+            this.decoders = new LinkedHashMap<String, EventDecoder>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, EventDecoder> eldest) {
+                    return size() > Cache.this.maxSize;
+                }
+            };
+        }
+
+        /**
+         * @return the decoder of the event with the given identifier and parameters. Only the types of the parameters
+         * and whether they are indexed matter, not their names or values.
+         */
+        public EventDecoder get(String eventIdentifier, List<Parameter> parameters) throws ParameterException {
+            final String key = getKey(eventIdentifier, parameters);
+
+            synchronized (this) {
+                final EventDecoder cached = decoders.get(key);
+
+                if (cached != null) {
+                    hitCount++;
+
+                    return cached;
+                }
+
+                missCount++;
+            }
+
+            final EventDecoder created = new EventDecoder(eventIdentifier, parameters);
+
+            synchronized (this) {
+                decoders.put(key, created);
+            }
+
+            return created;
+        }
+
+        public synchronized int size() {
+            return decoders.size();
+        }
+
+        public synchronized long getHitCount() {
+            return hitCount;
+        }
+
+        public synchronized long getMissCount() {
+            return missCount;
+        }
+
+        private static String getKey(String eventIdentifier, List<Parameter> parameters) {
+            final StringBuilder result = new StringBuilder(eventIdentifier).append('(');
+
+            for (Parameter parameter : parameters) {
+                result.append(parameter.getType()).append(parameter.isIndexed() ? " indexed" : "").append(',');
+            }
+
+            return result.append(')').toString();
+        }
+    }
+}
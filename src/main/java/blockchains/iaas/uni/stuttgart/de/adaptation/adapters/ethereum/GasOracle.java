@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.tx.gas.DefaultGasProvider;
+import org.web3j.utils.Numeric;
+
+/**
+ * Provides the gas price and gas limit of the transactions we send.
+ * <p>
+ * The gas price is derived from the fee history of the recent blocks ({@code eth_feeHistory}): it is twice the base fee
+ * of the next block plus the configured percentile of the priority fees paid in the recent blocks. Since the base fee
+ * rises by at most 12.5% per block, the price still covers it after six full blocks in a row, so transactions are not
+ * stuck when they are not included in the next block. Nodes that do not
+ * support the fee history are asked for their suggestion ({@code eth_gasPrice}) instead. The price is refreshed at most
+ * once per block: when a new head is reported using {@link #onNewHead(EthBlock.Block)}, or, when no heads are followed,
+ * once it is older than the block time.
+ * <p>
+ * The gas limit is the estimate of the node ({@code eth_estimateGas}) plus a safety margin. Estimates are cached per
+ * contract and function selector, since transactions calling the same function usually use a similar amount of gas.
+ */
+public class GasOracle {
+    private static final Logger log = LoggerFactory.getLogger(GasOracle.class);
+    // the number of recent blocks whose priority fees are considered
+    private static final int FEE_HISTORY_BLOCKS = 10;
+    // the multiple of the base fee of the next block that our transactions are able to pay
+    private static final int BASE_FEE_HEADROOM = 2;
+    private static final int MAX_CACHED_ESTIMATES = 1_000;
+    private static final long ESTIMATE_MAX_AGE_MILLIS = 10 * 60 * 1000;
+    private final Web3j web3j;
+    private final Web3jService web3jService;
+    private final int percentile;
+    private final int gasLimitMarginPercent;
+    private final long maxPriceAgeMillis;
+    private final Map<String, Estimate> estimates = new LinkedHashMap<String, Estimate>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Estimate> eldest) {
+            return size() > MAX_CACHED_ESTIMATES;
+        }
+    };
+    private CompletableFuture<BigInteger> gasPrice;
+    private long gasPriceMillis;
+    private long lastHeadMillis;
+    private boolean feeHistorySupported = true;
+    private long priceRefreshCount;
+
+    /**
+     * @param percentile            the percentile (0 to 100) of the recent priority fees our transactions pay
+     * @param gasLimitMarginPercent how much gas (in percent) transactions may use above the estimate of the node
+     * @param maxPriceAgeMillis     how long a gas price is used if no new heads are reported
+     */
+    public GasOracle(Web3j web3j, Web3jService web3jService, int percentile, int gasLimitMarginPercent, long maxPriceAgeMillis) {
+        this.web3j = web3j;
+        this.web3jService = web3jService;
+        this.percentile = percentile;
+        this.gasLimitMarginPercent = gasLimitMarginPercent;
+        this.maxPriceAgeMillis = maxPriceAgeMillis;
+    }
+
+    /**
+     * @return a future that completes with the gas price of the transactions sent now.
+     */
+    public synchronized CompletableFuture<BigInteger> getGasPrice() {
+        final long now = System.currentTimeMillis();
+        final boolean failed = gasPrice != null && gasPrice.isCompletedExceptionally();
+        // the age only matters if no heads are reported
+        final boolean headsReported = now - lastHeadMillis <= 2 * maxPriceAgeMillis;
+
+        if (gasPrice == null || failed || !headsReported && now - gasPriceMillis > maxPriceAgeMillis) {
+            priceRefreshCount++;
+            gasPriceMillis = now;
+            gasPrice = feeHistorySupported ? this.retrievePriceFromFeeHistory() : this.retrieveSuggestedPrice();
+        }
+
+        return gasPrice;
+    }
+
+    /**
+     * Makes the next request for the gas price retrieve a new one.
+     */
+    public synchronized void onNewHead(EthBlock.Block head) {
+        lastHeadMillis = System.currentTimeMillis();
+
+        if (gasPrice != null && gasPrice.isDone()) {
+            gasPrice = null;
+        }
+    }
+
+    /**
+     * @return a future that completes with the gas limit of a transaction calling a contract function. If the node
+     * cannot estimate the gas of the transaction (e.g., since it would fail), the default gas limit is used.
+     */
+    public CompletableFuture<BigInteger> getGasLimit(String from, String contractAddress, String encodedFunction) {
+        final String key = contractAddress.toLowerCase() + ":" + getSelector(encodedFunction);
+        final Estimate cached;
+
+        synchronized (estimates) {
+            cached = estimates.get(key);
+        }
+
+        if (cached != null && System.currentTimeMillis() - cached.createdMillis <= ESTIMATE_MAX_AGE_MILLIS) {
+            return CompletableFuture.completedFuture(cached.gasLimit);
+        }
+
+        final org.web3j.protocol.core.methods.request.Transaction transaction = org.web3j.protocol.core.methods.request.Transaction
+                .createEthCallTransaction(from, contractAddress, encodedFunction);
+
+        return web3j.ethEstimateGas(transaction)
+                .sendAsync()
+                .handle((estimate, error) -> {
+                    if (error != null || estimate.hasError()) {
+                        log.warn("The node could not estimate the gas of a call to {}. Using the default gas limit. Reason: {}",
+                                contractAddress, error != null ? error.getMessage() : estimate.getError().getMessage());
+
+                        return DefaultGasProvider.GAS_LIMIT;
+                    }
+
+                    final BigInteger gasLimit = estimate.getAmountUsed()
+                            .multiply(BigInteger.valueOf(100 + gasLimitMarginPercent))
+                            .divide(BigInteger.valueOf(100));
+
+                    synchronized (estimates) {
+                        estimates.put(key, new Estimate(gasLimit));
+                    }
+
+                    return gasLimit;
+                });
+    }
+
+    /**
+     * @return the number of times the gas price was retrieved from the node.
+     */
+    public synchronized long getPriceRefreshCount() {
+        return priceRefreshCount;
+    }
+
+    public int getCachedEstimateCount() {
+        synchronized (estimates) {
+            return estimates.size();
+        }
+    }
+
+    private CompletableFuture<BigInteger> retrievePriceFromFeeHistory() {
+        return new Request<>(
+                "eth_feeHistory",
+                Arrays.asList(Numeric.encodeQuantity(BigInteger.valueOf(FEE_HISTORY_BLOCKS)),
+                        DefaultBlockParameterName.LATEST.getValue(),
+                        Collections.singletonList(percentile)),
+                web3jService,
+                EthFeeHistory.class)
+                .sendAsync()
+                .handle((feeHistory, error) -> {
+                    if (error == null && !feeHistory.hasError() && feeHistory.getResult() != null) {
+                        final BigInteger price = computePrice(feeHistory.getResult());
+
+                        if (price != null) {
+                            return CompletableFuture.completedFuture(price);
+                        }
+                    } else if (error == null && feeHistory.hasError()) {
+                        // the fee history is not available (e.g., before the London fork), and will not become available
+                        log.info("The node does not provide the fee history. Using its gas price suggestions. Reason: {}",
+                                feeHistory.getError().getMessage());
+
+                        synchronized (this) {
+                            feeHistorySupported = false;
+                        }
+                    }
+
+                    return this.retrieveSuggestedPrice();
+                })
+                .thenCompose(price -> price);
+    }
+
+    private CompletableFuture<BigInteger> retrieveSuggestedPrice() {
+        return web3j.ethGasPrice()
+                .sendAsync()
+                .thenApply(suggestion -> {
+                    if (suggestion.hasError()) {
+                        throw new CompletionException(new IOException(suggestion.getError().getMessage()));
+                    }
+
+                    return suggestion.getGasPrice();
+                });
+    }
+
+    /**
+     * @return twice the base fee of the next block plus the median of the priority fee percentiles of the recent
+     * blocks, or null if the recent blocks contain no transactions.
+     */
+    static BigInteger computePrice(FeeHistory feeHistory) {
+        final List<BigInteger> rewards = new ArrayList<>();
+
+        if (feeHistory.getReward() != null) {
+            for (List<String> blockRewards : feeHistory.getReward()) {
+                // empty blocks report zero rewards
+                if (!blockRewards.isEmpty() && Numeric.decodeQuantity(blockRewards.get(0)).signum() > 0) {
+                    rewards.add(Numeric.decodeQuantity(blockRewards.get(0)));
+                }
+            }
+        }
+
+        if (rewards.isEmpty()) {
+            return null;
+        }
+
+        Collections.sort(rewards);
+        final BigInteger priorityFee = rewards.get(rewards.size() / 2);
+        final List<String> baseFees = feeHistory.getBaseFeePerGas();
+        // the last base fee is the one of the next block
+        final BigInteger nextBaseFee = baseFees == null || baseFees.isEmpty() ?
+                BigInteger.ZERO : Numeric.decodeQuantity(baseFees.get(baseFees.size() - 1));
+
+        return nextBaseFee.multiply(BigInteger.valueOf(BASE_FEE_HEADROOM)).add(priorityFee);
+    }
+
+    private static String getSelector(String encodedFunction) {
+        // 0x followed by the 4 bytes of the selector
+        return encodedFunction.length() >= 10 ? encodedFunction.substring(0, 10) : encodedFunction;
+    }
+
+    private static class Estimate {
+        private final BigInteger gasLimit;
+        private final long createdMillis = System.currentTimeMillis();
+
+        private Estimate(BigInteger gasLimit) {
+            this.gasLimit = gasLimit;
+        }
+    }
+
+    public static class EthFeeHistory extends Response<FeeHistory> {
+    }
+
+    public static class FeeHistory {
+        private String oldestBlock;
+        private List<String> baseFeePerGas;
+        private List<Double> gasUsedRatio;
+        private List<List<String>> reward;
+
+        public String getOldestBlock() {
+            return oldestBlock;
+        }
+
+        public void setOldestBlock(String oldestBlock) {
+            this.oldestBlock = oldestBlock;
+        }
+
+        public List<String> getBaseFeePerGas() {
+            return baseFeePerGas;
+        }
+
+        public void setBaseFeePerGas(List<String> baseFeePerGas) {
+            this.baseFeePerGas = baseFeePerGas;
+        }
+
+        public List<Double> getGasUsedRatio() {
+            return gasUsedRatio;
+        }
+
+        public void setGasUsedRatio(List<Double> gasUsedRatio) {
+            this.gasUsedRatio = gasUsedRatio;
+        }
+
+        public List<List<String>> getReward() {
+            return reward;
+        }
+
+        public void setReward(List<List<String>> reward) {
+            this.reward = reward;
+        }
+    }
+}
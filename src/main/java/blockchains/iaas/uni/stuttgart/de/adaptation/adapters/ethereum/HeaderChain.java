@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlock;
+
+/**
+ * An in-memory window of the most recent canonical block headers (number to hash, plus parent links). When a new head
+ * does not link to the known chain, the missing ancestors are fetched until the branch links again, and the headers of
+ * the losing branch are replaced. This allows detecting blocks that drop off the canonical chain without re-fetching
+ * the transactions they contain.
+ */
+public class HeaderChain {
+    public static final int DEFAULT_WINDOW_SIZE = 256;
+    private static final Logger log = LoggerFactory.getLogger(HeaderChain.class);
+    private final Web3j web3j;
+    private final int windowSize;
+    private final NavigableMap<Long, Header> headers = new ConcurrentSkipListMap<>();
+    // whether known headers were forgotten since the last update
+    private boolean cleared;
+
+    public HeaderChain(Web3j web3j, int windowSize) {
+        this.web3j = web3j;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Adds a new head to the window. Missing ancestors are fetched asynchronously, so updates must not overlap.
+     *
+     * @param head the new head reported by the node
+     * @return the number of the lowest block whose canonical hash changed (or got removed, or cannot be verified
+     * anymore since the head was not followed for a while), or -1 if the new head simply extends the known chain. The
+     * future fails if a missing ancestor cannot be fetched.
+     */
+    public CompletableFuture<Long> update(EthBlock.Block head) {
+        final Header newHead = Header.of(head);
+
+        synchronized (this) {
+            if (!headers.isEmpty() && newHead.getNumber() - headers.lastKey() >= windowSize) {
+                // no known header would remain in the window, so the new head is not linked to them
+                log.debug("Block {} is too far above the known chain. Starting a new window.", newHead.getNumber());
+                this.clear();
+            }
+        }
+
+        final List<Header> branch = new ArrayList<>();
+        branch.add(newHead);
+
+        return this.fetchMissingAncestors(branch).thenApply(fetched -> this.add(branch));
+    }
+
+    /**
+     * Walks back from the last header of the branch until it links to a known header or leaves the window.
+     */
+    private CompletableFuture<Void> fetchMissingAncestors(List<Header> branch) {
+        final Header newHead = branch.get(0);
+        final Header current = branch.get(branch.size() - 1);
+
+        synchronized (this) {
+            if (headers.isEmpty() || current.getNumber() == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            final long parentNumber = current.getNumber() - 1;
+
+            if (parentNumber < headers.firstKey() || newHead.getNumber() - parentNumber >= windowSize) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            final Header known = headers.get(parentNumber);
+
+            if (known != null && known.getHash().equalsIgnoreCase(current.getParentHash())) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        return web3j.ethGetBlockByHash(current.getParentHash(), false).sendAsync().thenCompose(ethBlock -> {
+            final EthBlock.Block parent = ethBlock.getBlock();
+
+            if (parent == null) {
+                log.warn("The parent block {} of block {} is not known to the node", current.getParentHash(), current.getNumber());
+
+                return CompletableFuture.completedFuture(null);
+            }
+
+            branch.add(Header.of(parent));
+
+            return this.fetchMissingAncestors(branch);
+        });
+    }
+
+    private synchronized long add(List<Header> branch) {
+        final Header newHead = branch.get(0);
+        long lowestChanged = -1;
+
+        if (headers.isEmpty() && cleared) {
+            // blocks mined while the head was not followed could have replaced the ones within the new window
+            lowestChanged = Math.max(0, newHead.getNumber() - windowSize + 1);
+            cleared = false;
+        }
+
+        for (Header header : branch) {
+            final Header replaced = headers.put(header.getNumber(), header);
+
+            if (replaced != null && !replaced.getHash().equalsIgnoreCase(header.getHash())) {
+                lowestChanged = lowestChanged < 0 ? header.getNumber() : Math.min(lowestChanged, header.getNumber());
+            }
+        }
+
+        // the new head could belong to a shorter branch
+        final NavigableMap<Long, Header> above = headers.tailMap(newHead.getNumber(), false);
+
+        if (!above.isEmpty()) {
+            lowestChanged = lowestChanged < 0 ? above.firstKey() : Math.min(lowestChanged, above.firstKey());
+            above.clear();
+        }
+
+        while (headers.size() > windowSize) {
+            headers.pollFirstEntry();
+        }
+
+        if (lowestChanged >= 0) {
+            log.info("Chain reorganization detected. The canonical chain changed starting from block {}", lowestChanged);
+        }
+
+        return lowestChanged;
+    }
+
+    /**
+     * Checks whether a block is still part of the canonical chain. Blocks older than the window are considered
+     * canonical, whereas blocks above the known head are not.
+     */
+    public boolean isCanonical(long number, String hash) {
+        final Map.Entry<Long, Header> head = headers.lastEntry();
+
+        if (head != null && number > head.getKey()) {
+            return false;
+        }
+
+        final Header header = headers.get(number);
+
+        return header == null || header.getHash().equalsIgnoreCase(hash);
+    }
+
+    /**
+     * Forgets all headers, e.g., when the chain head is not followed anymore, so that the next head starts a new
+     * window instead of being linked to an outdated one. Since the canonical chain within the new window cannot be
+     * verified then, the next head is reported as a reorganization of the blocks within the window.
+     */
+    public synchronized void clear() {
+        if (!headers.isEmpty()) {
+            cleared = true;
+        }
+
+        headers.clear();
+    }
+
+    public Header getHeader(long number) {
+        return headers.get(number);
+    }
+
+    public long getHeadNumber() {
+        final Map.Entry<Long, Header> head = headers.lastEntry();
+
+        return head == null ? -1 : head.getKey();
+    }
+
+    public long getLowestNumber() {
+        final Map.Entry<Long, Header> lowest = headers.firstEntry();
+
+        return lowest == null ? -1 : lowest.getKey();
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Header {
+        private final long number;
+        private final String hash;
+        private final String parentHash;
+        private final long timestamp;
+        // the bloom filter of the logs of the block (null if the node did not report it)
+        private final String logsBloom;
+
+        static Header of(EthBlock.Block block) {
+            return new Header(block.getNumber().longValue(), block.getHash(), block.getParentHash(),
+                    block.getTimestamp().longValue(), block.getLogsBloom());
+        }
+    }
+}
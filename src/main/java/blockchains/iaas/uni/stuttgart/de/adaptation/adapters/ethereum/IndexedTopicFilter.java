@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.ParameterException;
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import com.google.common.base.Strings;
+import org.web3j.abi.TypeEncoder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Int;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Uint;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.crypto.Hash;
+import org.web3j.utils.Numeric;
+
+/**
+ * Translates conditions on the indexed parameters of an event into the topics of a log filter, so the node only returns
+ * the logs that can satisfy them.
+ * <p>
+ * The value of an indexed parameter passed with the event parameters restricts the logs to the ones carrying exactly
+ * this value. In addition, equality conditions on indexed parameters are recognized in the filter expression: every
+ * condition of the form {@code name == literal}, possibly combined using {@code ||} and {@code &&}, that must hold for
+ * the expression to be true becomes a set of alternative topic values. Conditions that cannot be translated are left
+ * out, and the filter expression is still evaluated for every returned log, so the topics never exclude a log the
+ * expression would accept.
+ */
+public class IndexedTopicFilter {
+    private static final int MAX_INDEXED_PARAMETERS = 3;
+    private static final Set<String> UNSUPPORTED_TOKENS = new HashSet<>(Arrays.asList(";", ",", "?", ":", "=", "{", "}"));
+
+    /**
+     * @param parameters the parameters of the event
+     * @param expression the filter expression of the subscription or query, or null
+     * @return for every indexed parameter in order, the alternative topic values that a matching log can carry at its
+     * position, or null if it can carry any value. Trailing positions that can carry any value are left out.
+     */
+    public static List<List<String>> build(List<Parameter> parameters, String expression) throws ParameterException {
+        final Map<String, Set<Literal>> conditions = parseConditions(expression);
+        final List<List<String>> result = new ArrayList<>();
+
+        for (Parameter parameter : parameters) {
+            if (!parameter.isIndexed()) {
+                continue;
+            }
+
+            if (result.size() == MAX_INDEXED_PARAMETERS) {
+                throw new ParameterException("An event can have at most " + MAX_INDEXED_PARAMETERS + " indexed parameters");
+            }
+
+            final Class<? extends Type> type = EthereumTypeMapper.getEthereumType(parameter.getType());
+            final Set<String> topics;
+
+            if (!Strings.isNullOrEmpty(parameter.getValue())) {
+                // a passed value takes precedence over the conditions of the expression, which is evaluated anyway
+                topics = Collections.singleton(encodeValue(parameter, parameter.getValue()));
+            } else {
+                topics = encodeLiterals(parameter, type, conditions.get(parameter.getName()));
+            }
+
+            result.add(topics == null ? null : new ArrayList<>(topics));
+        }
+
+        while (!result.isEmpty() && result.get(result.size() - 1) == null) {
+            result.remove(result.size() - 1);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the topic of a log whose indexed parameter has the given value. Values of dynamic types are hashed.
+     */
+    static String encodeValue(Parameter parameter, String value) throws ParameterException {
+        final Parameter withValue = Parameter.builder().name(parameter.getName()).type(parameter.getType()).value(value).build();
+        final Type encoded = ParameterEncoder.encode(withValue);
+
+        if (encoded instanceof Utf8String) {
+            return Hash.sha3String(value);
+        }
+
+        if (encoded instanceof DynamicBytes) {
+            return Numeric.toHexString(Hash.sha3(((DynamicBytes) encoded).getValue()));
+        }
+
+        return "0x" + TypeEncoder.encode(encoded);
+    }
+
+    /**
+     * @return the topics of the given literals compared with the parameter in the filter expression, or null if some
+     * literal cannot be translated.
+     */
+    private static Set<String> encodeLiterals(Parameter parameter, Class<? extends Type> type, Set<Literal> literals) {
+        if (literals == null) {
+            return null;
+        }
+
+        final Set<String> result = new LinkedHashSet<>();
+
+        for (Literal literal : literals) {
+            final String value = toComparableValue(type, literal);
+
+            if (value == null) {
+                return null;
+            }
+
+            try {
+                result.add(encodeValue(parameter, value));
+            } catch (ParameterException e) {
+                return null;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The expression compares the literal with the value the parameter has in the script environment. Only literals
+     * whose equality with that value corresponds to the equality of the topics are translated.
+     */
+    private static String toComparableValue(Class<? extends Type> type, Literal literal) {
+        if (type == Address.class) {
+            return literal.quoted && literal.text.matches("^0x[a-fA-F0-9]{40}$") ? literal.text : null;
+        }
+
+        if (type == Bool.class) {
+            return !literal.quoted && (literal.text.equals("true") || literal.text.equals("false")) ? literal.text : null;
+        }
+
+        if (type.getSuperclass() == Uint.class || type.getSuperclass() == Int.class) {
+            // only plain decimals: scripts read e.g. 010 as octal, and 0x10, 1e1 or 10.0 in other notations
+            return literal.text.matches("^-?(0|[1-9][0-9]*)$") ? new BigInteger(literal.text).toString() : null;
+        }
+
+        // the values of indexed strings and byte arrays are not available in the logs
+        return null;
+    }
+
+    /**
+     * @return for every parameter name, the values of which the parameter must have one for the expression to be true.
+     */
+    static Map<String, Set<Literal>> parseConditions(String expression) {
+        if (Strings.isNullOrEmpty(expression)) {
+            return Collections.emptyMap();
+        }
+
+        final List<String> tokens = tokenize(expression);
+
+        // statements, sequences, conditional expressions and assignments could change the meaning of the conditions
+        if (tokens == null || tokens.stream().anyMatch(UNSUPPORTED_TOKENS::contains)) {
+            return Collections.emptyMap();
+        }
+
+        return parseConditions(tokens);
+    }
+
+    private static Map<String, Set<Literal>> parseConditions(List<String> tokens) {
+        tokens = stripParentheses(tokens);
+        final List<List<String>> alternatives = split(tokens, "||");
+
+        if (alternatives.size() > 1) {
+            // a parameter is only restricted if every alternative restricts it
+            Map<String, Set<Literal>> result = null;
+
+            for (List<String> alternative : alternatives) {
+                final Map<String, Set<Literal>> conditions = parseConditions(alternative);
+
+                if (result == null) {
+                    result = new HashMap<>(conditions);
+                } else {
+                    result.keySet().retainAll(conditions.keySet());
+                    result.replaceAll((name, values) -> union(values, conditions.get(name)));
+                }
+            }
+
+            return result;
+        }
+
+        final List<List<String>> conjuncts = split(tokens, "&&");
+
+        if (conjuncts.size() > 1) {
+            final Map<String, Set<Literal>> result = new HashMap<>();
+
+            for (List<String> conjunct : conjuncts) {
+                parseConditions(conjunct).forEach((name, values) -> result.merge(name, values, IndexedTopicFilter::intersection));
+            }
+
+            // contradicting conditions are left to the evaluation of the expression
+            result.values().removeIf(Set::isEmpty);
+
+            return result;
+        }
+
+        return parseComparison(tokens);
+    }
+
+    private static Map<String, Set<Literal>> parseComparison(List<String> tokens) {
+        if (tokens.size() != 3 || !tokens.get(1).equals("==") && !tokens.get(1).equals("===")) {
+            return Collections.emptyMap();
+        }
+
+        final boolean nameFirst = isIdentifier(tokens.get(0));
+        final String name = nameFirst ? tokens.get(0) : tokens.get(2);
+        final Literal literal = Literal.of(nameFirst ? tokens.get(2) : tokens.get(0));
+
+        if (!isIdentifier(name) || literal == null) {
+            return Collections.emptyMap();
+        }
+
+        return Collections.singletonMap(name, Collections.singleton(literal));
+    }
+
+    private static List<String> stripParentheses(List<String> tokens) {
+        while (tokens.size() >= 2 && tokens.get(0).equals("(") && closingParenthesis(tokens, 0) == tokens.size() - 1) {
+            tokens = tokens.subList(1, tokens.size() - 1);
+        }
+
+        return tokens;
+    }
+
+    private static int closingParenthesis(List<String> tokens, int opening) {
+        int depth = 0;
+
+        for (int i = opening; i < tokens.size(); i++) {
+            if (tokens.get(i).equals("(")) {
+                depth++;
+            } else if (tokens.get(i).equals(")") && --depth == 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Splits the tokens at the given operator outside of parentheses.
+     */
+    private static List<List<String>> split(List<String> tokens, String operator) {
+        final List<List<String>> result = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            final String token = tokens.get(i);
+
+            if (token.equals("(")) {
+                depth++;
+            } else if (token.equals(")")) {
+                depth--;
+            } else if (depth == 0 && token.equals(operator)) {
+                result.add(tokens.subList(start, i));
+                start = i + 1;
+            }
+        }
+
+        result.add(tokens.subList(start, tokens.size()));
+
+        return result;
+    }
+
+    /**
+     * @return the tokens of the expression, or null if it contains string literals with escape sequences.
+     */
+    private static List<String> tokenize(String expression) {
+        final List<String> result = new ArrayList<>();
+        int i = 0;
+
+        while (i < expression.length()) {
+            final char c = expression.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"' || c == '\'') {
+                final int end = expression.indexOf(c, i + 1);
+
+                if (end < 0 || expression.substring(i, end).indexOf('\\') >= 0) {
+                    return null;
+                }
+
+                result.add(expression.substring(i, end + 1));
+                i = end + 1;
+            } else if (Character.isJavaIdentifierPart(c)) {
+                int end = i;
+
+                while (end < expression.length() && (Character.isJavaIdentifierPart(expression.charAt(end)) || expression.charAt(end) == '.')) {
+                    end++;
+                }
+
+                result.add(expression.substring(i, end));
+                i = end;
+            } else {
+                final String operator = expression.startsWith("===", i) || expression.startsWith("!==", i) ?
+                        expression.substring(i, i + 3) :
+                        expression.startsWith("==", i) || expression.startsWith("!=", i) ||
+                                expression.startsWith("&&", i) || expression.startsWith("||", i) ?
+                                expression.substring(i, i + 2) : String.valueOf(c);
+                result.add(operator);
+                i += operator.length();
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isIdentifier(String token) {
+        return !token.isEmpty() && Character.isJavaIdentifierStart(token.charAt(0)) && token.indexOf('.') < 0 &&
+                !token.equals("true") && !token.equals("false");
+    }
+
+    private static <T> Set<T> union(Set<T> first, Set<T> second) {
+        final Set<T> result = new LinkedHashSet<>(first);
+        result.addAll(second);
+
+        return result;
+    }
+
+    private static <T> Set<T> intersection(Set<T> first, Set<T> second) {
+        final Set<T> result = new LinkedHashSet<>(first);
+        result.retainAll(second);
+
+        return result;
+    }
+
+    static class Literal {
+        private final String text;
+        private final boolean quoted;
+
+        private Literal(String text, boolean quoted) {
+            this.text = text;
+            this.quoted = quoted;
+        }
+
+        private static Literal of(String token) {
+            if (token.length() >= 2 && (token.charAt(0) == '"' || token.charAt(0) == '\'')) {
+                return new Literal(token.substring(1, token.length() - 1), true);
+            }
+
+            if (token.equals("true") || token.equals("false") || !token.isEmpty() && Character.isDigit(token.charAt(0))) {
+                return new Literal(token, false);
+            }
+
+            return null;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Literal && ((Literal) o).text.equals(text) && ((Literal) o).quoted == quoted;
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + (quoted ? 1 : 0);
+        }
+    }
+}
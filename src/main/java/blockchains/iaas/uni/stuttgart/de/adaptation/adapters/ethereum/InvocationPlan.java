@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.SmartContractPathParser;
+import blockchains.iaas.uni.stuttgart.de.exceptions.ParameterException;
+import blockchains.iaas.uni.stuttgart.de.exceptions.SmartContractNotFoundException;
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.crypto.Hash;
+
+/**
+ * Everything needed to invoke a smart contract function that does not depend on the values of the arguments: the
+ * address of the contract, the resolved types of the inputs and outputs, and the selector of the function. Encoding
+ * the arguments is all that is left to do for an invocation.
+ * <p>
+ * Plans are obtained from a {@link Cache}, which keeps one plan per path, function and parameter types.
+ */
+public class InvocationPlan {
+    private static final Pattern ADDRESS_PATTERN = Pattern.compile("^0x[a-fA-F0-9]{40}$");
+    private final String contractAddress;
+    private final String selector;
+    private final AbiCodec inputCodec;
+    private final AbiCodec outputCodec;
+
+    InvocationPlan(String smartContractPath, String functionIdentifier, List<Parameter> inputs, List<Parameter> outputs)
+            throws ParameterException {
+        final String[] pathSegments = SmartContractPathParser.parse(smartContractPath).getSmartContractPathSegments();
+
+        if (pathSegments.length != 1) {
+            throw new SmartContractNotFoundException("Malformed Ethereum path!");
+        }
+
+        if (!ADDRESS_PATTERN.matcher(pathSegments[0]).matches()) {
+            throw new SmartContractNotFoundException("Malformed Ethereum address!");
+        }
+
+        this.contractAddress = pathSegments[0];
+        final List<Class<? extends Type>> inputTypes = new ArrayList<>();
+        final List<Class<? extends Type>> outputTypes = new ArrayList<>();
+
+        for (Parameter input : inputs) {
+            inputTypes.add(EthereumTypeMapper.getEthereumType(input.getType()));
+        }
+
+        for (Parameter output : outputs) {
+            outputTypes.add(EthereumTypeMapper.getEthereumType(output.getType()));
+        }
+
+        this.inputCodec = new AbiCodec(inputTypes);
+        this.outputCodec = new AbiCodec(outputTypes);
+        final String signature = inputTypes
+                .stream()
+                .map(InvocationPlan::getTypeName)
+                .collect(Collectors.joining(",", functionIdentifier + "(", ")"));
+        this.selector = Hash.sha3String(signature).substring(0, 10);
+    }
+
+    public String getContractAddress() {
+        return contractAddress;
+    }
+
+    /**
+     * @return the first four bytes of the call data, which identify the function.
+     */
+    public String getSelector() {
+        return selector;
+    }
+
+    public List<TypeReference<Type>> getOutputTypes() {
+        return outputCodec.getTypeReferences();
+    }
+
+    /**
+     * @return whether the function returns values, so it is invoked by a call rather than a transaction.
+     */
+    public boolean isReadOnly() {
+        return !outputCodec.getTypeReferences().isEmpty();
+    }
+
+    /**
+     * @return the call data invoking the function with the given arguments, which have the types of the plan.
+     */
+    public String encode(List<Parameter> inputs) throws ParameterException {
+        return inputCodec.encodeCall(selector, inputs);
+    }
+
+    /**
+     * @return the values returned by a call of the function, or an empty list if the call returned nothing.
+     */
+    public List<String> decodeResult(String result) throws ParameterException {
+        return outputCodec.decode(result);
+    }
+
+    /**
+     * @return the name of the type in function signatures, e.g., uint256 for {@link org.web3j.abi.datatypes.generated.Uint256}
+     */
+    private static String getTypeName(Class<? extends Type> type) {
+        if (type == Utf8String.class) {
+            return "string";
+        }
+
+        if (type == DynamicBytes.class) {
+            return "bytes";
+        }
+
+        return type.getSimpleName().toLowerCase();
+    }
+
+    /**
+     * Keeps the plans of recently invoked functions.
+     */
+    public static class Cache {
+        private final int maxSize;
+        private final Map<String, InvocationPlan> plans;
+        private long hitCount;
+        private long missCount;
+
+        public Cache(int maxSize) {
+            this.maxSize = maxSize;
+            this.plans = new LinkedHashMap<String, InvocationPlan>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, InvocationPlan> eldest) {
+                    return size() > Cache.this.maxSize;
+                }
+            };
+        }
+
+        /**
+         * @return the plan of the given function. Only the types of the parameters matter, not their names or values.
+         */
+        public InvocationPlan get(String smartContractPath, String functionIdentifier, List<Parameter> inputs,
+                                  List<Parameter> outputs) throws ParameterException {
+            final String key = getKey(smartContractPath, functionIdentifier, inputs, outputs);
+
+            synchronized (this) {
+                final InvocationPlan cached = plans.get(key);
+
+                if (cached != null) {
+                    hitCount++;
+
+                    return cached;
+                }
+
+                missCount++;
+            }
+
+            final InvocationPlan created = new InvocationPlan(smartContractPath, functionIdentifier, inputs, outputs);
+
+            synchronized (this) {
+                plans.put(key, created);
+            }
+
+            return created;
+        }
+
+        public synchronized int size() {
+            return plans.size();
+        }
+
+        public synchronized long getHitCount() {
+            return hitCount;
+        }
+
+        public synchronized long getMissCount() {
+            return missCount;
+        }
+
+        private static String getKey(String smartContractPath, String functionIdentifier, List<Parameter> inputs,
+                                     List<Parameter> outputs) {
+            final StringBuilder result = new StringBuilder(smartContractPath).append('/').append(functionIdentifier).append('(');
+
+            for (Parameter input : inputs) {
+                result.append(input.getType()).append(',');
+            }
+
+            result.append(")(");
+
+            for (Parameter output : outputs) {
+                result.append(output.getType()).append(',');
+            }
+
+            return result.append(')').toString();
+        }
+    }
+}
@@ -0,0 +1,502 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Shares node-side log filters among the event subscriptions of an adapter.
+ * <p>
+ * All subscriptions to events of the same contract share a single filter ({@code eth_newFilter}) matching any of the
+ * subscribed event signatures, unless they restrict the values of indexed event parameters differently: subscriptions
+ * with the same restrictions share a filter that includes them as topics. The changes of all filters are fetched once per new head reported by the
+ * {@link ChainHeadFollower}, in a single JSON-RPC batch, and are handed to the subscribers of the filter and event
+ * signature of each log using a hash index.
+ * <p>
+ * Subscribing to a new event of a contract replaces the filter the subscription shares only. The old filter is polled one last
+ * time before it is uninstalled, and logs reported by both filters are delivered once. Unsubscribing never replaces a
+ * filter: the logs of events without subscribers are ignored until the last subscription of the contract is cancelled.
+ * <p>
+ * The filters are not polled for new heads whose blocks cannot contain matching logs according to their {@link LogsBloom}s,
+ * e.g., on chains where the subscribed contracts are rarely used. The node keeps the changes of its filters, so they
+ * are fetched with the next head that might contain matching logs, or at the latest when the filters need to be kept alive.
+ */
+public class LogFilterMultiplexer implements ChainHeadFollower.Listener {
+    private static final Logger log = LoggerFactory.getLogger(LogFilterMultiplexer.class);
+    // the number of recently delivered logs per contract remembered to avoid delivering them twice
+    private static final int MAX_REMEMBERED_LOGS = 1_000;
+    // the longest time the filters are not polled, since nodes uninstall filters that are not polled for a while
+    // (e.g., five minutes in geth)
+    private static final long MAX_POLL_INTERVAL_MILLIS = 60_000;
+    private final Web3j web3j;
+    private final ChainHeadFollower headFollower;
+    private final Runnable flushRequests;
+    // contract address + indexed topics -> the filter shared by the subscriptions to events of the contract
+    private final Map<String, ContractFilter> filters = new HashMap<>();
+    // filter key + ":" + event signature -> the subscribers receiving the matching logs
+    private final Map<String, Set<LogSubscriber>> subscribers = new ConcurrentHashMap<>();
+    private long filterInstallCount;
+    // the highest block whose logs were fetched or skipped (-1 if unknown, e.g., after a reorganization)
+    private long lastCheckedNumber = -1;
+    private long lastPollMillis;
+    private long skippedBlockCount;
+    private long fetchedBlockCount;
+
+    /**
+     * @param flushRequests invoked after all requests of a block-processing cycle are issued, e.g., to send them as a
+     *                      single JSON-RPC batch.
+     */
+    public LogFilterMultiplexer(Web3j web3j, ChainHeadFollower headFollower, Runnable flushRequests) {
+        this.web3j = web3j;
+        this.headFollower = headFollower;
+        this.flushRequests = flushRequests;
+        // the logs of the replaced blocks are reported as removed by the next poll
+        this.headFollower.addReorganizationHandler(fromNumber -> this.resetCheckedBlocks());
+    }
+
+    /**
+     * @param contractAddress the address of the contract emitting the event
+     * @param eventSignature  the encoded signature of the event, i.e., the first topic of its logs
+     * @return the logs of the given event emitted from now on.
+     */
+    public Flowable<Log> logFlowable(String contractAddress, String eventSignature) {
+        return this.logFlowable(contractAddress, eventSignature, Collections.emptyList());
+    }
+
+    /**
+     * @param indexedTopics the alternative values of the topics following the event signature (null matches any value)
+     * @return the logs of the given event emitted from now on whose topics match the given ones.
+     */
+    public Flowable<Log> logFlowable(String contractAddress, String eventSignature, List<List<String>> indexedTopics) {
+        return Flowable.create(emitter -> {
+            final LogSubscriber subscriber = new LogSubscriber(contractAddress.toLowerCase(), eventSignature.toLowerCase(),
+                    normalize(indexedTopics), emitter);
+            emitter.setCancellable(() -> this.unregister(subscriber));
+            this.register(subscriber);
+        }, BackpressureStrategy.BUFFER);
+    }
+
+    /**
+     * @return the number of node-side filters currently used.
+     */
+    public synchronized int getFilterCount() {
+        return filters.size();
+    }
+
+    /**
+     * @return the number of node-side filters installed so far.
+     */
+    public synchronized long getFilterInstallCount() {
+        return filterInstallCount;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * @return the number of blocks whose logs were not fetched, since their logs blooms matched no filter.
+     */
+    public synchronized long getSkippedBlockCount() {
+        return skippedBlockCount;
+    }
+
+    /**
+     * @return the number of blocks whose logs were fetched.
+     */
+    public synchronized long getFetchedBlockCount() {
+        return fetchedBlockCount;
+    }
+
+    @Override
+    public void onNewHead(EthBlock.Block head) {
+        final List<ContractFilter> polled;
+        final List<ContractFilter> toInstall = new ArrayList<>();
+        final Map<ContractFilter, List<BigInteger>> retired = new HashMap<>();
+
+        synchronized (this) {
+            polled = new ArrayList<>(filters.values());
+
+            for (ContractFilter filter : polled) {
+                retired.put(filter, new ArrayList<>(filter.retiredFilterIds));
+                filter.retiredFilterIds.clear();
+
+                if (filter.needsInstall) {
+                    filter.needsInstall = false;
+                    toInstall.add(filter);
+                }
+            }
+
+            final long blocks = this.countNewBlocks(head);
+
+            if (toInstall.isEmpty() && retired.values().stream().allMatch(List::isEmpty) && this.cannotMatch(head, polled)) {
+                skippedBlockCount += blocks;
+                lastCheckedNumber = head.getNumber().longValue();
+
+                return;
+            }
+
+            fetchedBlockCount += blocks;
+            lastCheckedNumber = head.getNumberRaw() == null ? -1 : head.getNumber().longValue();
+            lastPollMillis = System.currentTimeMillis();
+        }
+
+        toInstall.forEach(this::install);
+        final List<CompletableFuture<Void>> polls = new ArrayList<>();
+
+        for (ContractFilter filter : polled) {
+            // the retired filters are polled first, so their logs are handled before the ones of their successor
+            for (BigInteger filterId : retired.get(filter)) {
+                polls.add(this.poll(filter, filterId).thenRun(() -> web3j.ethUninstallFilter(filterId).sendAsync()));
+            }
+
+            final BigInteger filterId = filter.filterId;
+
+            if (filterId != null) {
+                polls.add(this.poll(filter, filterId));
+            }
+        }
+
+        flushRequests.run();
+        // heads are processed one after the other
+        CompletableFuture.allOf(polls.toArray(new CompletableFuture[0])).join();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        for (Set<LogSubscriber> eventSubscribers : subscribers.values()) {
+            eventSubscribers.forEach(subscriber -> subscriber.emitter.onError(error));
+        }
+    }
+
+    private synchronized void resetCheckedBlocks() {
+        lastCheckedNumber = -1;
+    }
+
+    private long countNewBlocks(EthBlock.Block head) {
+        if (head.getNumberRaw() == null || lastCheckedNumber < 0) {
+            return 1;
+        }
+
+        return Math.max(1, head.getNumber().longValue() - lastCheckedNumber);
+    }
+
+    /**
+     * @return true if none of the blocks since the last checked one can contain logs matching the given filters.
+     */
+    private boolean cannotMatch(EthBlock.Block head, List<ContractFilter> polled) {
+        if (head.getNumberRaw() == null || lastCheckedNumber < 0 ||
+                System.currentTimeMillis() - lastPollMillis >= MAX_POLL_INTERVAL_MILLIS) {
+            return false;
+        }
+
+        final long headNumber = head.getNumber().longValue();
+
+        if (headNumber <= lastCheckedNumber) {
+            return false;
+        }
+
+        for (long number = lastCheckedNumber + 1; number <= headNumber; number++) {
+            final HeaderChain.Header header = number == headNumber ? null : headFollower.getHeaderChain().getHeader(number);
+            final LogsBloom bloom = LogsBloom.parse(number == headNumber ? head.getLogsBloom() :
+                    header == null ? null : header.getLogsBloom());
+
+            if (bloom == null || polled.stream().anyMatch(filter -> filter.mightMatch(bloom))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void register(LogSubscriber subscriber) {
+        final ContractFilter toInstall;
+
+        synchronized (this) {
+            subscribers.computeIfAbsent(subscriber.getKey(), key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+            final ContractFilter filter = filters.computeIfAbsent(subscriber.filterKey,
+                    key -> new ContractFilter(key, subscriber.contractAddress, subscriber.indexedTopics));
+            filter.subscribedSignatures.add(subscriber.eventSignature);
+            // the filter is only replaced if it does not match the event yet
+            toInstall = filter.eventSignatures.add(subscriber.eventSignature) ? filter : null;
+            headFollower.addListener(this);
+        }
+
+        if (toInstall != null) {
+            this.install(toInstall);
+            flushRequests.run();
+        }
+    }
+
+    private void unregister(LogSubscriber subscriber) {
+        final List<BigInteger> toUninstall = new ArrayList<>();
+
+        synchronized (this) {
+            final Set<LogSubscriber> eventSubscribers = subscribers.get(subscriber.getKey());
+
+            if (eventSubscribers == null || !eventSubscribers.remove(subscriber)) {
+                return;
+            }
+
+            if (eventSubscribers.isEmpty()) {
+                subscribers.remove(subscriber.getKey());
+                final ContractFilter filter = filters.get(subscriber.filterKey);
+                filter.subscribedSignatures.remove(subscriber.eventSignature);
+
+                if (filter.subscribedSignatures.isEmpty()) {
+                    filters.remove(subscriber.filterKey);
+                    filter.removed = true;
+                    toUninstall.addAll(filter.retiredFilterIds);
+
+                    if (filter.filterId != null) {
+                        toUninstall.add(filter.filterId);
+                    }
+                }
+            }
+
+            if (filters.isEmpty()) {
+                headFollower.removeListener(this);
+            }
+        }
+
+        toUninstall.forEach(filterId -> web3j.ethUninstallFilter(filterId).sendAsync());
+    }
+
+    private void install(ContractFilter filter) {
+        final String[] eventSignatures;
+        final long generation;
+
+        synchronized (this) {
+            eventSignatures = filter.eventSignatures.toArray(new String[0]);
+            generation = ++filter.requestedGeneration;
+            filterInstallCount++;
+        }
+
+        EthFilter request = new EthFilter(DefaultBlockParameterName.LATEST, DefaultBlockParameterName.LATEST,
+                Collections.singletonList(filter.contractAddress))
+                .addOptionalTopics(eventSignatures);
+
+        for (List<String> topic : filter.indexedTopics) {
+            request = topic == null ? request.addNullTopic() : request.addOptionalTopics(topic.toArray(new String[0]));
+        }
+
+        web3j.ethNewFilter(request)
+                .sendAsync()
+                .whenComplete((installed, error) -> {
+                    if (error != null || installed.hasError()) {
+                        log.error("Failed to install the log filter of contract {}. Retrying with the next head. Reason: {}",
+                                filter.contractAddress, error != null ? error.getMessage() : installed.getError().getMessage());
+
+                        synchronized (this) {
+                            filter.needsInstall = true;
+                        }
+
+                        return;
+                    }
+
+                    final BigInteger filterId = installed.getFilterId();
+                    // a filter installed later for more events might already be in use
+                    final boolean obsolete;
+
+                    synchronized (this) {
+                        obsolete = filter.removed || generation < filter.adoptedGeneration;
+
+                        if (!obsolete) {
+                            if (filter.filterId != null) {
+                                filter.retiredFilterIds.add(filter.filterId);
+                            }
+
+                            filter.filterId = filterId;
+                            filter.adoptedGeneration = generation;
+                        }
+                    }
+
+                    if (obsolete) {
+                        web3j.ethUninstallFilter(filterId).sendAsync();
+                    }
+                });
+    }
+
+    private CompletableFuture<Void> poll(ContractFilter filter, BigInteger filterId) {
+        return web3j.ethGetFilterChanges(filterId)
+                .sendAsync()
+                .handle((changes, error) -> {
+                    if (error != null) {
+                        log.warn("Failed to fetch the logs of contract {}. Reason: {}", filter.contractAddress, error.getMessage());
+                    } else if (changes.hasError()) {
+                        // the node dropped the filter, e.g., since it was restarted
+                        log.warn("The log filter of contract {} is gone. Installing a new one. Reason: {}",
+                                filter.contractAddress, changes.getError().getMessage());
+
+                        synchronized (this) {
+                            if (filterId.equals(filter.filterId)) {
+                                filter.needsInstall = true;
+                            }
+                        }
+                    } else if (changes.getLogs() != null) {
+                        for (EthLog.LogResult<?> result : changes.getLogs()) {
+                            if (result instanceof EthLog.LogObject) {
+                                this.deliver(filter, ((EthLog.LogObject) result).get());
+                            }
+                        }
+                    }
+
+                    return null;
+                });
+    }
+
+    private void deliver(ContractFilter filter, Log changed) {
+        if (changed.getTopics() == null || changed.getTopics().isEmpty()) {
+            return;
+        }
+
+        synchronized (filter.delivered) {
+            final String logId = changed.getBlockHash() + ":" + changed.getLogIndexRaw() + ":" + changed.isRemoved();
+
+            // the old and the new filter of a contract report the same logs for a while
+            if (filter.delivered.put(logId, Boolean.TRUE) != null) {
+                return;
+            }
+        }
+
+        final String key = filter.key + ":" + changed.getTopics().get(0).toLowerCase();
+        final Set<LogSubscriber> eventSubscribers = subscribers.get(key);
+
+        if (eventSubscribers != null) {
+            eventSubscribers.forEach(subscriber -> subscriber.emitter.onNext(changed));
+        }
+    }
+
+    private static List<List<String>> normalize(List<List<String>> indexedTopics) {
+        final List<List<String>> result = new ArrayList<>();
+
+        for (List<String> topic : indexedTopics) {
+            if (topic == null) {
+                result.add(null);
+            } else {
+                final List<String> values = new ArrayList<>();
+                topic.forEach(value -> values.add(value.toLowerCase()));
+                Collections.sort(values);
+                result.add(values);
+            }
+        }
+
+        return result;
+    }
+
+    private static class ContractFilter {
+        private final String key;
+        private final String contractAddress;
+        private final List<List<String>> indexedTopics;
+        // the logs bloom bits of the contract address and of the alternative values of the indexed topics
+        private final int[] addressBits;
+        private final List<List<int[]>> indexedTopicBits = new ArrayList<>();
+        // event signature -> its logs bloom bits
+        private final Map<String, int[]> signatureBits = new HashMap<>();
+        // the event signatures matched by the newest filter
+        private final Set<String> eventSignatures = new LinkedHashSet<>();
+        // the event signatures that have subscribers
+        private final Set<String> subscribedSignatures = new LinkedHashSet<>();
+        // the filters replaced by a newer one that are polled and uninstalled with the next head
+        private final List<BigInteger> retiredFilterIds = new ArrayList<>();
+        private final Map<String, Boolean> delivered = new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_REMEMBERED_LOGS;
+            }
+        };
+        private volatile BigInteger filterId;
+        // the filters of a contract are numbered in the order they are requested
+        private long requestedGeneration;
+        private long adoptedGeneration;
+        private boolean needsInstall;
+        private boolean removed;
+
+        private ContractFilter(String key, String contractAddress, List<List<String>> indexedTopics) {
+            this.key = key;
+            this.contractAddress = contractAddress;
+            this.indexedTopics = indexedTopics;
+            this.addressBits = LogsBloom.bitsOf(contractAddress);
+
+            for (List<String> topic : indexedTopics) {
+                if (topic == null) {
+                    indexedTopicBits.add(null);
+                } else {
+                    final List<int[]> alternatives = new ArrayList<>();
+                    topic.forEach(value -> alternatives.add(LogsBloom.bitsOf(value)));
+                    indexedTopicBits.add(alternatives);
+                }
+            }
+        }
+
+        /**
+         * @return true if the block of the given logs bloom might contain logs of subscribed events matching the filter.
+         */
+        private boolean mightMatch(LogsBloom bloom) {
+            if (!bloom.mightContain(addressBits)) {
+                return false;
+            }
+
+            final List<int[]> signatures = new ArrayList<>();
+            subscribedSignatures.forEach(signature -> signatures.add(signatureBits.computeIfAbsent(signature, LogsBloom::bitsOf)));
+
+            if (!bloom.mightContainAny(signatures)) {
+                return false;
+            }
+
+            return indexedTopicBits.stream().allMatch(alternatives -> alternatives == null || bloom.mightContainAny(alternatives));
+        }
+    }
+
+    private static class LogSubscriber {
+        private final String contractAddress;
+        private final String eventSignature;
+        private final List<List<String>> indexedTopics;
+        // subscribers with the same key share a filter
+        private final String filterKey;
+        private final FlowableEmitter<Log> emitter;
+
+        private LogSubscriber(String contractAddress, String eventSignature, List<List<String>> indexedTopics,
+                              FlowableEmitter<Log> emitter) {
+            this.contractAddress = contractAddress;
+            this.eventSignature = eventSignature;
+            this.indexedTopics = indexedTopics;
+            this.filterKey = contractAddress + indexedTopics;
+            this.emitter = emitter;
+        }
+
+        private String getKey() {
+            return filterKey + ":" + eventSignature;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Retrieves the logs of a (potentially huge) block range by splitting it into chunks that are fetched with bounded
+ * parallelism. The chunk size adapts to the density of the logs: a chunk the node refuses to answer (e.g., because it
+ * would return too many results or take too long) is split in half and retried, and chunks that come back sparse let
+ * the following chunks grow. The logs are passed to the consumer in (block number, log index) order.
+ * <p>
+ * At most {@code parallelism} fetched chunks wait for the chunks below them before no new chunks are requested, so
+ * the memory needed by a scan does not depend on the size of the range, and a slow consumer slows the scan down.
+ * <p>
+ * The consumer is called by the given executor rather than by the thread completing a request, since it might block
+ * (e.g., writing the results to a client), and one chunk at a time per scan, so a scan never has more than one task
+ * queued in the executor. A consumer can return a future to delay the next chunk until it completes, e.g., to fetch
+ * the data needed to process the logs without blocking.
+ */
+public class LogRangeScanner {
+    private static final long MAX_CHUNK_SIZE = 100_000;
+    // chunks returning fewer logs than this let the following chunks grow
+    private static final int SPARSE_CHUNK_LOGS = 500;
+    private static final String[] OVERSIZED_RANGE_HINTS = {"more than", "too many", "limit exceeded", "range too large",
+            "range is too large", "response size", "timeout", "timed out", "query returned"};
+    private static final Logger log = LoggerFactory.getLogger(LogRangeScanner.class);
+    private static final Comparator<Log> LOG_ORDER = Comparator
+            .comparing(Log::getBlockNumber)
+            .thenComparing(Log::getLogIndex);
+    private final Web3j web3j;
+    private final Runnable flushRequests;
+    private final Executor consumerExecutor;
+    private final long initialChunkSize;
+    private final int parallelism;
+
+    /**
+     * Creates a scanner that calls the consumers on the threads completing the chunk requests.
+     *
+     * @param flushRequests invoked after a group of chunk requests is issued, e.g., to send them as a single JSON-RPC
+     *                      batch.
+     */
+    public LogRangeScanner(Web3j web3j, Runnable flushRequests, long initialChunkSize, int parallelism) {
+        this(web3j, flushRequests, initialChunkSize, parallelism, Runnable::run);
+    }
+
+    /**
+     * @param flushRequests    invoked after a group of chunk requests is issued, e.g., to send them as a single
+     *                         JSON-RPC batch.
+     * @param consumerExecutor calls the consumers of the scans
+     */
+    public LogRangeScanner(Web3j web3j, Runnable flushRequests, long initialChunkSize, int parallelism, Executor consumerExecutor) {
+        this.web3j = web3j;
+        this.flushRequests = flushRequests;
+        this.consumerExecutor = consumerExecutor;
+        this.initialChunkSize = Math.max(1, initialChunkSize);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Scans the logs of the blocks [fromBlock, toBlock].
+     *
+     * @param filterFactory creates the filter of a chunk given its first and last block numbers
+     * @param consumer      receives the logs in (block number, log index) order
+     * @return a future that completes when all logs are passed to the consumer
+     */
+    public CompletableFuture<Void> scan(BiFunction<Long, Long, EthFilter> filterFactory, long fromBlock, long toBlock,
+                                        Consumer<Log> consumer) {
+        return scanChunks(filterFactory, fromBlock, toBlock, logs -> logs.forEach(consumer));
+    }
+
+    /**
+     * Scans the logs of the blocks [fromBlock, toBlock], and passes them to the consumer a chunk at a time, e.g., to
+     * process the logs of a chunk together.
+     *
+     * @param filterFactory creates the filter of a chunk given its first and last block numbers
+     * @param consumer      receives the (possibly empty) logs of consecutive chunks in (block number, log index) order
+     * @return a future that completes when all logs are passed to the consumer
+     */
+    public CompletableFuture<Void> scanChunks(BiFunction<Long, Long, EthFilter> filterFactory, long fromBlock, long toBlock,
+                                              Consumer<List<Log>> consumer) {
+        return scanChunksAsync(filterFactory, fromBlock, toBlock, logs -> {
+            consumer.accept(logs);
+
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Scans the logs of the blocks [fromBlock, toBlock], and passes them to the consumer a chunk at a time. The next
+     * chunk is passed once the future returned for the previous one completes.
+     *
+     * @param filterFactory creates the filter of a chunk given its first and last block numbers
+     * @param consumer      receives the (possibly empty) logs of consecutive chunks in (block number, log index) order,
+     *                      and returns a future that completes when they are processed
+     * @return a future that completes when all logs are processed by the consumer
+     */
+    public CompletableFuture<Void> scanChunksAsync(BiFunction<Long, Long, EthFilter> filterFactory, long fromBlock, long toBlock,
+                                                   Function<List<Log>, CompletionStage<?>> consumer) {
+        final Scan scan = new Scan(filterFactory, fromBlock, toBlock, consumer);
+        scan.pump();
+
+        return scan.result;
+    }
+
+    static boolean isOversizedRangeError(String message) {
+        if (message == null) {
+            return false;
+        }
+
+        final String lowerCase = message.toLowerCase();
+
+        for (String hint : OVERSIZED_RANGE_HINTS) {
+            if (lowerCase.contains(hint)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The state of a single scan. All methods except the ones passing chunks to the consumer are called while holding
+     * its lock.
+     */
+    private class Scan {
+        private final BiFunction<Long, Long, EthFilter> filterFactory;
+        private final long toBlock;
+        private final Function<List<Log>, CompletionStage<?>> consumer;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        // chunks that have to be fetched again after being split
+        private final Deque<long[]> retries = new ArrayDeque<>();
+        // the logs of fetched chunks that cannot be emitted yet, by the first block number of the chunk
+        private final NavigableMap<Long, Chunk> fetched = new TreeMap<>();
+        private long nextFromBlock;
+        private long nextBlockToEmit;
+        private long chunkSize;
+        private int inFlight;
+        // whether a chunk is passed to the consumer
+        private boolean emitting;
+
+        private Scan(BiFunction<Long, Long, EthFilter> filterFactory, long fromBlock, long toBlock,
+                     Function<List<Log>, CompletionStage<?>> consumer) {
+            this.filterFactory = filterFactory;
+            this.toBlock = toBlock;
+            this.consumer = consumer;
+            this.nextFromBlock = fromBlock;
+            this.nextBlockToEmit = fromBlock;
+            this.chunkSize = initialChunkSize;
+        }
+
+        private synchronized void pump() {
+            if (result.isDone()) {
+                return;
+            }
+
+            if (inFlight == 0 && retries.isEmpty() && nextFromBlock > toBlock && fetched.isEmpty() && !emitting) {
+                result.complete(null);
+
+                return;
+            }
+
+            boolean issued = false;
+
+            // retries are always issued since the chunks waiting to be emitted might depend on them
+            while (inFlight < parallelism && (!retries.isEmpty() || nextFromBlock <= toBlock && fetched.size() < parallelism)) {
+                final long[] range;
+
+                if (!retries.isEmpty()) {
+                    range = retries.pollFirst();
+                } else {
+                    range = new long[]{nextFromBlock, Math.min(toBlock, nextFromBlock + chunkSize - 1)};
+                    nextFromBlock = range[1] + 1;
+                }
+
+                inFlight++;
+                issued = true;
+                fetch(range[0], range[1]);
+            }
+
+            if (issued) {
+                flushRequests.run();
+            }
+        }
+
+        private void fetch(long from, long to) {
+            web3j.ethGetLogs(filterFactory.apply(from, to))
+                    .sendAsync()
+                    .whenComplete((ethLog, error) -> {
+                        if (error != null) {
+                            final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                            onFailure(from, to, cause.getMessage(), cause instanceof IOException ? (IOException) cause : new IOException(cause));
+                        } else if (ethLog.hasError()) {
+                            final String message = ethLog.getError().getMessage();
+                            onFailure(from, to, message, new IOException(message));
+                        } else {
+                            onSuccess(from, to, ethLog);
+                        }
+
+                        emitNext();
+                        pump();
+                    });
+        }
+
+        private synchronized void onSuccess(long from, long to, EthLog ethLog) {
+            inFlight--;
+            final List<Log> logs = ethLog.getLogs()
+                    .stream()
+                    .map(logResult -> (Log) logResult.get())
+                    .sorted(LOG_ORDER)
+                    .collect(Collectors.toList());
+
+            if (logs.size() < SPARSE_CHUNK_LOGS && to - from + 1 >= chunkSize) {
+                chunkSize = Math.min(MAX_CHUNK_SIZE, chunkSize * 2);
+            }
+
+            fetched.put(from, new Chunk(to, logs));
+        }
+
+        private synchronized void onFailure(long from, long to, String message, IOException error) {
+            inFlight--;
+
+            if (from < to && isOversizedRangeError(message)) {
+                final long middle = from + (to - from) / 2;
+                chunkSize = Math.max(1, Math.min(chunkSize, middle - from + 1));
+                log.debug("The node refused the logs of blocks [{}, {}]. Splitting the range. Reason: {}", from, to, message);
+                // the lower half is fetched first
+                retries.addFirst(new long[]{middle + 1, to});
+                retries.addFirst(new long[]{from, middle});
+            } else {
+                log.error("Retrieving the logs of blocks [{}, {}] failed. Reason: {}", from, to, message);
+                result.completeExceptionally(error);
+            }
+        }
+
+        /**
+         * Passes the next chunk to the consumer if it is fetched and no other chunk is being passed.
+         */
+        private void emitNext() {
+            final Chunk next;
+
+            synchronized (this) {
+                if (result.isDone() || emitting || (next = fetched.remove(nextBlockToEmit)) == null) {
+                    return;
+                }
+
+                emitting = true;
+            }
+
+            try {
+                consumerExecutor.execute(() -> emit(next));
+            } catch (RejectedExecutionException e) {
+                onEmitted(next, e);
+            }
+        }
+
+        private void emit(Chunk chunk) {
+            CompletionStage<?> processed;
+
+            try {
+                processed = consumer.apply(chunk.logs);
+            } catch (RuntimeException e) {
+                processed = failedFuture(e);
+            }
+
+            processed.whenComplete((done, error) -> {
+                onEmitted(chunk, error);
+                emitNext();
+                pump();
+            });
+        }
+
+        private synchronized void onEmitted(Chunk chunk, Throwable error) {
+            emitting = false;
+            nextBlockToEmit = chunk.toBlock + 1;
+
+            if (error != null) {
+                result.completeExceptionally(error);
+            }
+        }
+    }
+
+    private static CompletableFuture<Void> failedFuture(Throwable error) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+
+        return result;
+    }
+
+    private static class Chunk {
+        private final long toBlock;
+        private final List<Log> logs;
+
+        private Chunk(long toBlock, List<Log> logs) {
+            this.toBlock = toBlock;
+            this.logs = logs;
+        }
+    }
+}
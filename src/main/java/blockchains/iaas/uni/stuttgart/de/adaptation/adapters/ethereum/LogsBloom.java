@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.Collection;
+
+import org.web3j.crypto.Hash;
+import org.web3j.utils.Numeric;
+
+/**
+ * The bloom filter of the logs of a block (its {@code logsBloom}). Every log sets three of its 2048 bits for the address
+ * of the emitting contract and for each of its topics. If one of the bits of a value is not set, the block contains no
+ * log with this value, so its logs do not need to be fetched.
+ */
+public class LogsBloom {
+    private static final int BYTES = 256;
+    private final byte[] bloom;
+
+    private LogsBloom(byte[] bloom) {
+        this.bloom = bloom;
+    }
+
+    /**
+     * @param hex the hex-encoded logs bloom of a block
+     * @return the logs bloom, or null if the given value is missing or malformed.
+     */
+    public static LogsBloom parse(String hex) {
+        if (hex == null) {
+            return null;
+        }
+
+        try {
+            final byte[] bloom = Numeric.hexStringToByteArray(hex);
+
+            return bloom.length == BYTES ? new LogsBloom(bloom) : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param value a hex-encoded contract address or topic
+     * @return the indices of the bits the value sets in a logs bloom.
+     */
+    public static int[] bitsOf(String value) {
+        final byte[] hash = Hash.sha3(Numeric.hexStringToByteArray(value));
+        final int[] result = new int[3];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((hash[2 * i] & 0xff) << 8 | (hash[2 * i + 1] & 0xff)) & 2047;
+        }
+
+        return result;
+    }
+
+    /**
+     * @param bits the bits of a value (see {@link #bitsOf(String)})
+     * @return false if the block contains no log with the value, true if it might contain one.
+     */
+    public boolean mightContain(int[] bits) {
+        for (int bit : bits) {
+            if ((bloom[BYTES - 1 - bit / 8] & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if the block might contain a log with any of the given values.
+     */
+    public boolean mightContainAny(Collection<int[]> alternatives) {
+        return alternatives.stream().anyMatch(this::mightContain);
+    }
+}
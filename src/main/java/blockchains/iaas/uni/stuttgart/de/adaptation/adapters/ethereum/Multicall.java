@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.web3j.crypto.Hash;
+import org.web3j.utils.Numeric;
+
+/**
+ * Encodes calls of the {@code tryBlockAndAggregate(bool,(address,bytes)[])} function of a Multicall contract (Multicall2
+ * and Multicall3 provide it), and decodes its result {@code (uint256,bytes32,(bool,bytes)[])}. The function executes
+ * many calls within a single {@code eth_call}, hence on the same block, and reports the number of the block and whether
+ * each call succeeded.
+ * <p>
+ * The ABI encoding is written by hand, since the structs of the function are not supported by the web3j version used.
+ */
+final class Multicall {
+    static final String TRY_BLOCK_AND_AGGREGATE = Hash.sha3String("tryBlockAndAggregate(bool,(address,bytes)[])").substring(0, 10);
+    private static final int WORD = 32;
+
+    private Multicall() {
+    }
+
+    /**
+     * Encodes a call that executes the given calls without requiring them to succeed.
+     *
+     * @param targets  the addresses of the called contracts
+     * @param callData the encoded function calls (hex strings)
+     * @return the encoded call of the Multicall contract
+     */
+    static String encodeTryBlockAndAggregate(List<String> targets, List<String> callData) {
+        final int count = targets.size();
+        final byte[][] data = new byte[count][];
+        int size = 3 * WORD + count * WORD;
+
+        for (int i = 0; i < count; i++) {
+            data[i] = Numeric.hexStringToByteArray(callData.get(i));
+            size += 3 * WORD + padded(data[i].length);
+        }
+
+        final byte[] result = new byte[size];
+        // requireSuccess is false, and the array follows the two head words
+        writeWord(result, WORD, 2 * WORD);
+        writeWord(result, 2 * WORD, count);
+        final int elements = 3 * WORD;
+        int tuple = count * WORD;
+
+        for (int i = 0; i < count; i++) {
+            writeWord(result, elements + i * WORD, tuple);
+            final byte[] address = Numeric.hexStringToByteArray(targets.get(i));
+
+            if (address.length != 20) {
+                throw new IllegalArgumentException("Malformed Ethereum address: " + targets.get(i));
+            }
+
+            System.arraycopy(address, 0, result, elements + tuple + WORD - 20, 20);
+            writeWord(result, elements + tuple + WORD, 2 * WORD);
+            writeWord(result, elements + tuple + 2 * WORD, data[i].length);
+            System.arraycopy(data[i], 0, result, elements + tuple + 3 * WORD, data[i].length);
+            tuple += 3 * WORD + padded(data[i].length);
+        }
+
+        return TRY_BLOCK_AND_AGGREGATE + Numeric.toHexStringNoPrefix(result);
+    }
+
+    /**
+     * @param returnData the hex encoded result of {@code tryBlockAndAggregate}
+     * @throws IllegalArgumentException if the result is malformed, e.g., since no Multicall contract is deployed at
+     *                                  the called address
+     */
+    static Result decodeTryBlockAndAggregate(String returnData) {
+        final byte[] data = returnData == null ? new byte[0] : Numeric.hexStringToByteArray(returnData);
+        final BigInteger blockNumber = readWord(data, 0);
+
+        if (blockNumber.bitLength() > 63) {
+            throw new IllegalArgumentException("The result of the Multicall contract is malformed!");
+        }
+
+        final int array = readOffset(data, 2 * WORD);
+        final int count = readOffset(data, array);
+        final int elements = array + WORD;
+        final boolean[] success = new boolean[count];
+        final List<String> values = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int tuple = elements + readOffset(data, elements + i * WORD);
+            success[i] = readWord(data, tuple).signum() != 0;
+            final int bytes = tuple + readOffset(data, tuple + WORD);
+            final int length = readOffset(data, bytes);
+
+            if (bytes + WORD + length > data.length) {
+                throw new IllegalArgumentException("The result of the Multicall contract is malformed!");
+            }
+
+            values.add(Numeric.toHexString(Arrays.copyOfRange(data, bytes + WORD, bytes + WORD + length)));
+        }
+
+        return new Result(blockNumber.longValue(), success, values);
+    }
+
+    private static int padded(int length) {
+        return (length + WORD - 1) / WORD * WORD;
+    }
+
+    private static void writeWord(byte[] target, int position, long value) {
+        for (int i = 0; i < 8; i++) {
+            target[position + WORD - 1 - i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static BigInteger readWord(byte[] data, int position) {
+        if (position < 0 || position + WORD > data.length) {
+            throw new IllegalArgumentException("The result of the Multicall contract is malformed!");
+        }
+
+        return new BigInteger(1, Arrays.copyOfRange(data, position, position + WORD));
+    }
+
+    private static int readOffset(byte[] data, int position) {
+        final BigInteger offset = readWord(data, position);
+
+        if (offset.bitLength() > 31 || offset.intValue() > data.length) {
+            throw new IllegalArgumentException("The result of the Multicall contract is malformed!");
+        }
+
+        return offset.intValue();
+    }
+
+    static class Result {
+        private final long blockNumber;
+        private final boolean[] success;
+        private final List<String> returnData;
+
+        Result(long blockNumber, boolean[] success, List<String> returnData) {
+            this.blockNumber = blockNumber;
+            this.success = success;
+            this.returnData = returnData;
+        }
+
+        long getBlockNumber() {
+            return blockNumber;
+        }
+
+        int size() {
+            return returnData.size();
+        }
+
+        boolean isSuccess(int index) {
+            return success[index];
+        }
+
+        String getReturnData(int index) {
+            return returnData.get(index);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthGetTransactionCount;
+
+/**
+ * Allocates the nonces of the transactions sent from local accounts, so that concurrent submissions neither query the
+ * node for every transaction nor get the same nonce. The nonces of an account are seeded once from the transaction
+ * count of the node (including pending transactions) and are handed out locally afterwards.
+ * <p>
+ * Every allocated nonce has to be reported back: {@link #markSent(String, BigInteger)} if the node accepted the
+ * transaction, {@link #release(String, BigInteger)} if the node rejected it for a reason unrelated to its nonce (the
+ * nonce is then reused by the next allocation, so that the gap does not block the following transactions), and
+ * {@link #resynchronize(String)} after errors indicating that the local state does not match the node anymore, e.g.,
+ * because the account was used by another client. A resynchronization keeps the nonces whose sending is still in
+ * progress, and treats the other nonces the node does not know as gaps to be filled.
+ */
+public class NonceManager {
+    private static final String[] NONCE_ERROR_HINTS = {"nonce too low", "nonce too high", "invalid nonce",
+            "already known", "known transaction", "replacement transaction underpriced", "same nonce",
+            "nonce has already been used"};
+    private static final Logger log = LoggerFactory.getLogger(NonceManager.class);
+    private final Web3j web3j;
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    public NonceManager(Web3j web3j) {
+        this.web3j = web3j;
+    }
+
+    /**
+     * @return a future that completes with a nonce no other pending allocation of the account has.
+     */
+    public CompletableFuture<BigInteger> allocate(String address) {
+        return getAccount(address).allocate();
+    }
+
+    /**
+     * Reports that the node accepted the transaction with the given nonce.
+     */
+    public void markSent(String address, BigInteger nonce) {
+        getAccount(address).markSent(nonce.longValueExact());
+    }
+
+    /**
+     * Reports that the transaction with the given nonce was not accepted by the node, so that the nonce can be reused.
+     */
+    public void release(String address, BigInteger nonce) {
+        getAccount(address).release(nonce.longValueExact());
+    }
+
+    /**
+     * Retrieves the transaction count of the account again. Concurrent calls share a single request.
+     *
+     * @return a future that completes when the allocations are based on the new transaction count.
+     */
+    public CompletableFuture<Void> resynchronize(String address) {
+        return getAccount(address).synchronize(true);
+    }
+
+    /**
+     * @return the number of allocated nonces of the account whose transactions are not reported to be sent yet.
+     */
+    public int getOutstandingCount(String address) {
+        return getAccount(address).getOutstandingCount();
+    }
+
+    /**
+     * @return the number of nonces below the next fresh nonce of the account that will be allocated first.
+     */
+    public int getGapCount(String address) {
+        return getAccount(address).getGapCount();
+    }
+
+    /**
+     * @return true if the given error returned by the node when sending a transaction indicates that its nonce
+     * conflicts with another transaction, or that the nonces of the account are out of sync.
+     */
+    public static boolean isNonceError(String message) {
+        if (message == null) {
+            return false;
+        }
+
+        final String lowerCase = message.toLowerCase();
+
+        for (String hint : NONCE_ERROR_HINTS) {
+            if (lowerCase.contains(hint)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Account getAccount(String address) {
+        return accounts.computeIfAbsent(address.toLowerCase(), Account::new);
+    }
+
+    private class Account {
+        private final String address;
+        // released nonces and nonces the node does not know after a resynchronization
+        private final NavigableSet<Long> gaps = new TreeSet<>();
+        // allocated nonces whose sending is in progress
+        private final Set<Long> outstanding = new HashSet<>();
+        // the next nonce that was never allocated, or -1 if the account is not seeded yet
+        private long next = -1;
+        // the transaction count at the last synchronization. Lower nonces are used already.
+        private long floor;
+        private CompletableFuture<Void> synchronization;
+
+        private Account(String address) {
+            this.address = address;
+        }
+
+        private CompletableFuture<BigInteger> allocate() {
+            synchronized (this) {
+                if (next >= 0 && synchronization == null) {
+                    final Long gap = gaps.pollFirst();
+                    final long nonce = gap != null ? gap : next++;
+                    outstanding.add(nonce);
+
+                    return CompletableFuture.completedFuture(BigInteger.valueOf(nonce));
+                }
+            }
+
+            return synchronize(false).thenCompose(done -> allocate());
+        }
+
+        private synchronized void markSent(long nonce) {
+            outstanding.remove(nonce);
+        }
+
+        private synchronized void release(long nonce) {
+            if (outstanding.remove(nonce) && nonce >= floor) {
+                gaps.add(nonce);
+            }
+        }
+
+        private synchronized int getOutstandingCount() {
+            return outstanding.size();
+        }
+
+        private synchronized int getGapCount() {
+            return gaps.size();
+        }
+
+        private synchronized CompletableFuture<Void> synchronize(boolean force) {
+            if (synchronization != null) {
+                return synchronization;
+            }
+
+            if (!force && next >= 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            final CompletableFuture<Void> result = new CompletableFuture<>();
+            synchronization = result;
+            web3j.ethGetTransactionCount(address, DefaultBlockParameterName.PENDING)
+                    .sendAsync()
+                    .whenComplete((count, error) -> onSynchronized(result, count, error));
+
+            return result;
+        }
+
+        private void onSynchronized(CompletableFuture<Void> result, EthGetTransactionCount count, Throwable error) {
+            synchronized (this) {
+                synchronization = null;
+
+                if (error == null && !count.hasError()) {
+                    this.update(count.getTransactionCount().longValueExact());
+                }
+            }
+
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else if (count.hasError()) {
+                result.completeExceptionally(new IOException(count.getError().getMessage()));
+            } else {
+                result.complete(null);
+            }
+        }
+
+        private void update(long transactionCount) {
+            floor = transactionCount;
+
+            if (transactionCount >= next) {
+                // the account is new to us, or it was used by another client
+                next = transactionCount;
+                gaps.clear();
+            } else {
+                // the nonces the node does not know, and that are not being sent right now, have to be filled
+                gaps.headSet(transactionCount).clear();
+
+                for (long nonce = transactionCount; nonce < next; nonce++) {
+                    if (!outstanding.contains(nonce)) {
+                        gaps.add(nonce);
+                    }
+                }
+
+                if (!gaps.isEmpty()) {
+                    log.info("The node does not know the nonces {} of the account {}. They will be reused.", gaps, address);
+                }
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@
 
 package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
 
+import java.lang.reflect.Constructor;
 import java.math.BigInteger;
 
 import javax.xml.bind.DatatypeConverter;
@@ -27,39 +28,57 @@ import org.web3j.abi.datatypes.Uint;
 import org.web3j.abi.datatypes.Utf8String;
 
 public class ParameterEncoder {
+    // the constructors of the generated integer and byte array types, which are only looked up once per type
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+            try {
+                return type.getDeclaredConstructor(type.getSuperclass() == Bytes.class ? byte[].class : BigInteger.class);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+    };
+
     public static Type encode(Parameter parameter) throws ParameterException {
-        Class<? extends Type> typeClass = EthereumTypeMapper.getEthereumType(parameter.getType());
+        return encode(EthereumTypeMapper.getEthereumType(parameter.getType()), parameter.getValue());
+    }
+
+    /**
+     * Encodes a value of an already resolved type, so the JSON schema of the type is not parsed again.
+     */
+    public static Type encode(Class<? extends Type> typeClass, String value) throws ParameterException {
         try {
             if (typeClass == Bool.class) {
-                return new Bool(Boolean.parseBoolean(parameter.getValue()));
+                return new Bool(Boolean.parseBoolean(value));
             }
 
             if (typeClass == Address.class) {
-                return new Address(parameter.getValue());
+                return new Address(value);
             }
 
             if (typeClass == Utf8String.class) {
-                return new Utf8String(parameter.getValue());
+                return new Utf8String(value);
             }
 
             if (typeClass == DynamicBytes.class) {
-                return new DynamicBytes(DatatypeConverter.parseHexBinary(parameter.getValue()));
+                return new DynamicBytes(DatatypeConverter.parseHexBinary(value));
             }
 
             if (typeClass.getSuperclass() == Int.class) {
-                return typeClass.getDeclaredConstructor(BigInteger.class)
-                        .newInstance(new BigInteger(parameter.getValue(), 10));
+                return (Type) CONSTRUCTORS.get(typeClass)
+                        .newInstance(new BigInteger(value, 10));
             }
 
             if (typeClass.getSuperclass() == Uint.class) {
-                return typeClass.getDeclaredConstructor(BigInteger.class)
-                        .newInstance(new BigInteger(parameter.getValue(), 10));
+                return (Type) CONSTRUCTORS.get(typeClass)
+                        .newInstance(new BigInteger(value, 10));
             }
 
             if (typeClass.getSuperclass() == Bytes.class) {
-                byte[] value = DatatypeConverter.parseHexBinary(parameter.getValue());
-                return typeClass.getDeclaredConstructor(value.getClass())
-                        .newInstance((Object) value);
+                byte[] bytes = DatatypeConverter.parseHexBinary(value);
+                return (Type) CONSTRUCTORS.get(typeClass)
+                        .newInstance((Object) bytes);
             }
 
             throw new ParameterException("Unrecognized parameter type!");
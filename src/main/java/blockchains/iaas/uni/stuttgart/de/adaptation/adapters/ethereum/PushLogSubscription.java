@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.request.Filter;
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Delivers the logs matching a filter as the node pushes them ({@code eth_subscribe} to {@code logs}). After the
+ * connection to the node was re-established, the logs of the blocks mined in the meantime are retrieved with a
+ * {@link LogRangeScanner} and delivered before the logs pushed after the reconnect, so no log is lost or delivered twice.
+ * If the missed logs cannot be retrieved, the subscription fails instead of silently skipping them.
+ */
+public class PushLogSubscription {
+    private static final Logger log = LoggerFactory.getLogger(PushLogSubscription.class);
+    private static final ObjectMapper mapper = ObjectMapperFactory.getObjectMapper();
+    // how often the retrieval of missed logs is attempted before the subscription fails
+    private static final int MAX_BACKFILL_ATTEMPTS = 5;
+    private static final long MIN_BACKFILL_RETRY_DELAY_MILLIS = 500;
+    private final PushSubscriptionClient client;
+    private final Web3j web3j;
+    private final LogRangeScanner scanner;
+    private final BiFunction<Long, Long, EthFilter> filterFactory;
+    private final Consumer<Log> consumer;
+    private final Consumer<Throwable> errorConsumer;
+    // the logs pushed while missed logs are being retrieved
+    private final List<Log> pushedDuringBackfill = new ArrayList<>();
+    // the position of the last delivered log. A log index of Long.MAX_VALUE means that the whole block is delivered.
+    private long deliveredBlock = -1;
+    private long deliveredLogIndex = Long.MAX_VALUE;
+    private boolean backfilling;
+    private boolean cancelled;
+    private PushSubscriptionClient.Subscription subscription;
+
+    /**
+     * @param filterFactory creates the filter of the subscription given the first and last block numbers to consider
+     * @param errorConsumer receives the error if logs missed while disconnected cannot be retrieved, which ends the
+     *                      subscription
+     */
+    public PushLogSubscription(PushSubscriptionClient client, Web3j web3j, LogRangeScanner scanner,
+                               BiFunction<Long, Long, EthFilter> filterFactory, Consumer<Log> consumer,
+                               Consumer<Throwable> errorConsumer) {
+        this.client = client;
+        this.web3j = web3j;
+        this.scanner = scanner;
+        this.filterFactory = filterFactory;
+        this.consumer = consumer;
+        this.errorConsumer = errorConsumer;
+    }
+
+    public void start() {
+        final EthFilter filter = filterFactory.apply(0L, 0L);
+        subscription = client.subscribe("logs", toSubscriptionParams(filter), this::onPushed, this::onResubscribed);
+        // the logs of the current head are not considered missed if the connection drops before any log is pushed
+        web3j.ethBlockNumber().sendAsync().thenAccept(head -> {
+            if (!head.hasError()) {
+                synchronized (this) {
+                    if (head.getBlockNumber().longValue() > deliveredBlock) {
+                        deliveredBlock = head.getBlockNumber().longValue();
+                        deliveredLogIndex = Long.MAX_VALUE;
+                    }
+                }
+            }
+        });
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * @return the parameters of a logs subscription with the addresses and topics of the given filter.
+     */
+    static Map<String, Object> toSubscriptionParams(EthFilter filter) {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("address", filter.getAddress());
+        result.put("topics", filter.getTopics()
+                .stream()
+                .map(Filter.FilterTopic::getValue)
+                .collect(Collectors.toList()));
+
+        return result;
+    }
+
+    private void onPushed(JsonNode result) {
+        final Log pushed;
+
+        try {
+            pushed = mapper.treeToValue(result, Log.class);
+        } catch (JsonProcessingException e) {
+            log.error("Received a malformed log notification. Reason: {}", e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            if (backfilling) {
+                pushedDuringBackfill.add(pushed);
+                return;
+            }
+
+            // logs removed by a reorganization and re-included ones can be older than the delivered ones
+            this.deliver(pushed);
+        }
+    }
+
+    private void onResubscribed() {
+        synchronized (this) {
+            if (cancelled || backfilling || deliveredBlock < 0) {
+                return;
+            }
+
+            backfilling = true;
+        }
+
+        this.backfill(0);
+    }
+
+    /**
+     * Retrieves the logs missed since the last delivered one. Failed attempts are retried with an exponential backoff,
+     * starting after the last log delivered meanwhile. If all attempts fail, the subscription is cancelled and the error
+     * is reported, since the missed logs cannot be delivered anymore.
+     */
+    private void backfill(int failedAttempts) {
+        final long fromBlock;
+
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+
+            fromBlock = deliveredBlock;
+        }
+
+        web3j.ethBlockNumber()
+                .sendAsync()
+                .thenCompose(head -> {
+                    if (head.hasError()) {
+                        throw new CompletionException(new IOException(head.getError().getMessage()));
+                    }
+
+                    final long toBlock = head.getBlockNumber().longValue();
+                    log.info("Retrieving the logs of blocks [{}, {}] that were missed while disconnected", fromBlock, toBlock);
+
+                    return scanner.scan(filterFactory, fromBlock, toBlock, this::deliverIfMissed);
+                })
+                .whenComplete((done, error) -> {
+                    if (error == null) {
+                        synchronized (this) {
+                            pushedDuringBackfill.forEach(this::deliverIfMissed);
+                            pushedDuringBackfill.clear();
+                            backfilling = false;
+                        }
+
+                        return;
+                    }
+
+                    final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+                    if (failedAttempts + 1 < MAX_BACKFILL_ATTEMPTS) {
+                        final long delay = MIN_BACKFILL_RETRY_DELAY_MILLIS << failedAttempts;
+                        log.warn("Failed to retrieve the missed logs. Retrying in {} ms. Reason: {}", delay, cause.getMessage());
+
+                        try {
+                            client.schedule(() -> this.backfill(failedAttempts + 1), delay);
+
+                            return;
+                        } catch (RejectedExecutionException e) {
+                            // the client is closed
+                        }
+                    }
+
+                    log.error("Failed to retrieve the missed logs. Reason: {}", cause.getMessage());
+                    this.fail(cause);
+                });
+    }
+
+    private void fail(Throwable error) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+
+            pushedDuringBackfill.clear();
+            backfilling = false;
+        }
+
+        this.cancel();
+        errorConsumer.accept(error);
+    }
+
+    private synchronized void deliverIfMissed(Log missed) {
+        final long block = missed.getBlockNumber().longValue();
+        final long logIndex = missed.getLogIndex().longValue();
+
+        if (!cancelled && (block > deliveredBlock || block == deliveredBlock && logIndex > deliveredLogIndex)) {
+            this.deliver(missed);
+        }
+    }
+
+    private void deliver(Log delivered) {
+        if (cancelled) {
+            return;
+        }
+
+        final BigInteger block = delivered.getBlockNumber();
+
+        if (block != null && !delivered.isRemoved()) {
+            final long number = block.longValue();
+            final long logIndex = delivered.getLogIndex().longValue();
+
+            if (number > deliveredBlock || number == deliveredBlock && (deliveredLogIndex == Long.MAX_VALUE || logIndex > deliveredLogIndex)) {
+                deliveredBlock = number;
+                deliveredLogIndex = logIndex;
+            }
+        }
+
+        consumer.accept(delivered);
+    }
+}
@@ -0,0 +1,591 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.ObjectMapperFactory;
+
+/**
+ * Receives notifications the node pushes for {@code eth_subscribe} subscriptions (e.g., {@code newHeads} and
+ * {@code logs}) over a WebSocket connection ({@code ws://} and {@code wss://} endpoints) or a Unix domain socket (any
+ * other endpoint is treated as the path of the IPC socket of the node).
+ * <p>
+ * The connection is re-established automatically with an exponential backoff when it is lost. After a reconnect, all
+ * active subscriptions are renewed, and their resubscription handlers are invoked so that they can retrieve what they
+ * missed while the connection was down. A subscription the node refuses is requested again with an exponential backoff,
+ * and its resubscription handler is invoked once it succeeds. Notifications are handled one at a time on a dedicated thread, in the order
+ * they are received.
+ */
+public class PushSubscriptionClient implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PushSubscriptionClient.class);
+    private static final ObjectMapper mapper = ObjectMapperFactory.getObjectMapper();
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 100;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000;
+    private final String endpoint;
+    private final ScheduledExecutorService connector;
+    private final ExecutorService dispatcher;
+    private final AtomicLong requestIds = new AtomicLong();
+    private final Map<Long, CompletableFuture<JsonNode>> pendingRequests = new ConcurrentHashMap<>();
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    // the subscriptions of the current connection by the identifiers the node assigned to them
+    private final Map<String, Subscription> subscriptionsById = new ConcurrentHashMap<>();
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private Connection connection;
+    private boolean closed;
+    private boolean everConnected;
+    private int failedAttempts;
+
+    public PushSubscriptionClient(String endpoint) {
+        this.endpoint = endpoint;
+        this.connector = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("eth-push-connector-%d").setDaemon(true).build());
+        this.dispatcher = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("eth-push-dispatcher-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @return true if the given endpoint is one this client can connect to, i.e., not an HTTP endpoint.
+     */
+    public static boolean isPushEndpoint(String endpoint) {
+        return endpoint != null && !endpoint.isEmpty() && !endpoint.startsWith("http://") && !endpoint.startsWith("https://");
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Starts connecting to the node in the background.
+     */
+    public void start() {
+        connector.execute(this::connect);
+    }
+
+    public synchronized boolean isConnected() {
+        return connection != null;
+    }
+
+    /**
+     * @return the number of times the connection was re-established after it was lost.
+     */
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    /**
+     * Runs a task after the given delay, e.g., to retry work a subscription does after being renewed.
+     *
+     * @throws RejectedExecutionException if the client is closed
+     */
+    void schedule(Runnable task, long delayMillis) {
+        connector.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Subscribes to notifications of the given type. If the client is not connected, the subscription is requested as
+     * soon as it is.
+     *
+     * @param type           the subscription type, e.g., newHeads or logs
+     * @param params         the parameters of the subscription, or null
+     * @param onNotification receives the result of every notification
+     * @param onResubscribed invoked after the subscription was renewed following a reconnect
+     */
+    public Subscription subscribe(String type, Object params, Consumer<JsonNode> onNotification, Runnable onResubscribed) {
+        final Subscription subscription = new Subscription(type, params, onNotification, onResubscribed);
+        subscriptions.add(subscription);
+        final Connection current;
+
+        synchronized (this) {
+            current = connection;
+        }
+
+        if (current != null) {
+            this.request(current, subscription);
+        }
+
+        return subscription;
+    }
+
+    @Override
+    public void close() {
+        final Connection current;
+
+        synchronized (this) {
+            closed = true;
+            current = connection;
+            connection = null;
+        }
+
+        if (current != null) {
+            current.close();
+        }
+
+        connector.shutdownNow();
+        dispatcher.shutdownNow();
+    }
+
+    private void connect() {
+        synchronized (this) {
+            if (closed || connection != null) {
+                return;
+            }
+        }
+
+        final Connection opened;
+
+        try {
+            opened = openConnection(endpoint, new ConnectionListener());
+        } catch (IOException | RuntimeException e) {
+            final long delay = this.nextReconnectDelay();
+            log.warn("Failed to connect to {}. Retrying in {} ms. Reason: {}", endpoint, delay, e.getMessage());
+            connector.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+
+            return;
+        }
+
+        final boolean reconnected;
+
+        synchronized (this) {
+            if (closed) {
+                opened.close();
+
+                return;
+            }
+
+            connection = opened;
+            reconnected = everConnected;
+            everConnected = true;
+            failedAttempts = 0;
+        }
+
+        // the connection might have been lost before it was registered
+        if (!opened.isOpen()) {
+            this.onConnectionLost(opened, new IOException("The connection was closed right after it was opened"));
+
+            return;
+        }
+
+        log.info("Connected to {}", endpoint);
+
+        if (reconnected) {
+            reconnectCount.incrementAndGet();
+        }
+
+        for (Subscription subscription : subscriptions) {
+            this.request(opened, subscription).thenAccept(subscribed -> {
+                if (subscribed && reconnected && subscription.onResubscribed != null) {
+                    dispatcher.execute(subscription.onResubscribed);
+                }
+            });
+        }
+    }
+
+    private synchronized long nextReconnectDelay() {
+        final long delay = MIN_RECONNECT_DELAY_MILLIS << Math.min(failedAttempts, 16);
+        failedAttempts++;
+
+        return Math.min(MAX_RECONNECT_DELAY_MILLIS, delay);
+    }
+
+    private void onConnectionLost(Connection lost, Throwable reason) {
+        synchronized (this) {
+            if (connection != lost) {
+                return;
+            }
+
+            connection = null;
+        }
+
+        log.warn("The connection to {} was lost. Reconnecting. Reason: {}", endpoint, reason.getMessage());
+        subscriptionsById.clear();
+        pendingRequests.values().forEach(request -> request.completeExceptionally(reason));
+        pendingRequests.clear();
+        connector.schedule(this::connect, this.nextReconnectDelay(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a future that completes with true if the subscription was established, and with false if it failed (it
+     * is then requested again later) or is requested by a concurrent invocation.
+     */
+    private CompletableFuture<Boolean> request(Connection target, Subscription subscription) {
+        synchronized (subscription) {
+            // the subscription might be requested by subscribe() and connect() at the same time
+            if (subscription.connection == target) {
+                return CompletableFuture.completedFuture(false);
+            }
+
+            subscription.connection = target;
+        }
+
+        final List<Object> params = new ArrayList<>();
+        params.add(subscription.type);
+
+        if (subscription.params != null) {
+            params.add(subscription.params);
+        }
+
+        return this.send(target, "eth_subscribe", params)
+                .thenApply(result -> {
+                    final String id = result.asText();
+                    subscriptionsById.put(id, subscription);
+                    subscription.id = id;
+
+                    synchronized (subscription) {
+                        subscription.failedAttempts = 0;
+                    }
+
+                    // the subscription was cancelled while it was being requested
+                    if (!subscriptions.contains(subscription)) {
+                        this.unsubscribe(subscription);
+                    }
+
+                    return true;
+                })
+                .exceptionally(e -> {
+                    this.onSubscribeFailed(target, subscription, e);
+
+                    return false;
+                });
+    }
+
+    /**
+     * Requests the subscription again after a backoff, unless the connection is lost meanwhile (all subscriptions are
+     * requested again after reconnecting) or the subscription is cancelled.
+     */
+    private void onSubscribeFailed(Connection target, Subscription subscription, Throwable reason) {
+        final long delay;
+
+        synchronized (subscription) {
+            if (subscription.connection == target) {
+                subscription.connection = null;
+            }
+
+            delay = Math.min(MAX_RECONNECT_DELAY_MILLIS, MIN_RECONNECT_DELAY_MILLIS << Math.min(subscription.failedAttempts, 16));
+            subscription.failedAttempts++;
+        }
+
+        log.error("Failed to subscribe to {} notifications. Retrying in {} ms. Reason: {}", subscription.type, delay,
+                reason.getMessage());
+
+        try {
+            connector.schedule(() -> {
+                final Connection current;
+
+                synchronized (this) {
+                    current = connection;
+                }
+
+                if (current == target && subscriptions.contains(subscription)) {
+                    // notifications might have been missed until the subscription is established
+                    this.request(target, subscription).thenAccept(subscribed -> {
+                        if (subscribed && subscription.onResubscribed != null) {
+                            dispatcher.execute(subscription.onResubscribed);
+                        }
+                    });
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the client is closed
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        final String id = subscription.id;
+        final Connection current;
+
+        synchronized (this) {
+            current = connection;
+        }
+
+        if (id != null && subscriptionsById.remove(id) != null && current != null) {
+            this.send(current, "eth_unsubscribe", Collections.singletonList(id));
+        }
+    }
+
+    private CompletableFuture<JsonNode> send(Connection target, String method, List<?> params) {
+        final long id = requestIds.incrementAndGet();
+        final CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        pendingRequests.put(id, result);
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("jsonrpc", "2.0");
+        request.put("id", id);
+        request.put("method", method);
+        request.set("params", mapper.valueToTree(params));
+
+        try {
+            target.send(mapper.writeValueAsString(request));
+        } catch (IOException e) {
+            pendingRequests.remove(id);
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    private void onMessage(JsonNode message) {
+        if (message.has("id") && !message.get("id").isNull()) {
+            final CompletableFuture<JsonNode> request = pendingRequests.remove(message.get("id").asLong());
+
+            if (request != null) {
+                if (message.hasNonNull("error")) {
+                    request.completeExceptionally(new IOException(message.get("error").path("message").asText()));
+                } else {
+                    request.complete(message.get("result"));
+                }
+            }
+        } else if ("eth_subscription".equals(message.path("method").asText())) {
+            final JsonNode params = message.get("params");
+            final Subscription subscription = subscriptionsById.get(params.path("subscription").asText());
+
+            if (subscription != null) {
+                dispatcher.execute(() -> {
+                    try {
+                        subscription.onNotification.accept(params.get("result"));
+                    } catch (Exception e) {
+                        log.error("Failed to handle a {} notification. Reason: {}", subscription.type, e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    private static Connection openConnection(String endpoint, ConnectionListener listener) throws IOException {
+        if (endpoint.startsWith("ws://") || endpoint.startsWith("wss://")) {
+            return WebSocketConnection.open(endpoint, listener);
+        }
+
+        return IpcConnection.open(endpoint, listener);
+    }
+
+    /**
+     * An active subscription. It is renewed after reconnects until it is cancelled.
+     */
+    public class Subscription {
+        private final String type;
+        private final Object params;
+        private final Consumer<JsonNode> onNotification;
+        private final Runnable onResubscribed;
+        private volatile String id;
+        private Connection connection;
+        // the number of consecutive failed requests of the subscription
+        private int failedAttempts;
+
+        private Subscription(String type, Object params, Consumer<JsonNode> onNotification, Runnable onResubscribed) {
+            this.type = type;
+            this.params = params;
+            this.onNotification = onNotification;
+            this.onResubscribed = onResubscribed;
+        }
+
+        public void cancel() {
+            if (subscriptions.remove(this)) {
+                unsubscribe(this);
+            }
+        }
+    }
+
+    private class ConnectionListener {
+        private Connection connection;
+
+        private void onMessage(JsonNode message) {
+            PushSubscriptionClient.this.onMessage(message);
+        }
+
+        private void onClosed(Throwable reason) {
+            onConnectionLost(connection, reason);
+        }
+    }
+
+    private interface Connection {
+        void send(String message) throws IOException;
+
+        boolean isOpen();
+
+        void close();
+    }
+
+    private static class WebSocketConnection implements Connection {
+        private final WebSocketClient client;
+
+        private WebSocketConnection(WebSocketClient client) {
+            this.client = client;
+        }
+
+        private static Connection open(String endpoint, ConnectionListener listener) throws IOException {
+            final WebSocketClient client = new WebSocketClient(URI.create(endpoint)) {
+                private boolean opened;
+
+                @Override
+                public void onOpen(ServerHandshake handshake) {
+                    opened = true;
+                }
+
+                @Override
+                public void onMessage(String message) {
+                    try {
+                        listener.onMessage(mapper.readTree(message));
+                    } catch (IOException e) {
+                        log.error("Received a malformed message from {}. Reason: {}", endpoint, e.getMessage());
+                    }
+                }
+
+                @Override
+                public void onClose(int code, String reason, boolean remote) {
+                    // failed connection attempts are reported by connectBlocking()
+                    if (opened) {
+                        listener.onClosed(new IOException("The WebSocket connection was closed (" + code + "): " + reason));
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    log.debug("WebSocket error on {}. Reason: {}", endpoint, e.getMessage());
+                }
+            };
+            final WebSocketConnection connection = new WebSocketConnection(client);
+            listener.connection = connection;
+
+            try {
+                if (!client.connectBlocking()) {
+                    throw new IOException("Could not open a WebSocket connection to " + endpoint);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+
+            return connection;
+        }
+
+        @Override
+        public void send(String message) throws IOException {
+            try {
+                client.send(message);
+            } catch (RuntimeException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return client.isOpen();
+        }
+
+        @Override
+        public void close() {
+            client.close();
+        }
+    }
+
+    private static class IpcConnection implements Connection {
+        private final UnixSocketChannel channel;
+
+        private IpcConnection(UnixSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private static Connection open(String path, ConnectionListener listener) throws IOException {
+            final UnixSocketChannel channel = UnixSocketChannel.open(new UnixSocketAddress(new File(path)));
+            final IpcConnection connection = new IpcConnection(channel);
+            listener.connection = connection;
+            final Thread reader = new Thread(() -> connection.read(listener), "eth-push-ipc-reader");
+            reader.setDaemon(true);
+            reader.start();
+
+            return connection;
+        }
+
+        private void read(ConnectionListener listener) {
+            // reads and writes use the channel directly, since the stream adapters of the JDK serialize them
+            final InputStream input = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    final byte[] single = new byte[1];
+
+                    return this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    return channel.read(ByteBuffer.wrap(buffer, offset, length));
+                }
+            };
+
+            // the node writes the messages as consecutive JSON documents
+            try (MappingIterator<JsonNode> messages = mapper.readerFor(JsonNode.class).readValues(input)) {
+                while (messages.hasNextValue()) {
+                    listener.onMessage(messages.nextValue());
+                }
+
+                this.close();
+                listener.onClosed(new IOException("The IPC connection was closed by the node"));
+            } catch (IOException | RuntimeException e) {
+                this.close();
+                listener.onClosed(e);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public synchronized void send(String message) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the IPC connection. Reason: {}", e.getMessage());
+            }
+        }
+    }
+}
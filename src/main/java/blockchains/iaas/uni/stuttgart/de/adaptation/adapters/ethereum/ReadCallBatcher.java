@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.InvokeSmartContractFunctionFailure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.methods.request.Transaction;
+
+/**
+ * Executes read-only function calls ({@code eth_call}) in batches whose calls are all executed on the same block.
+ * <p>
+ * Explicit batches ({@link #callAll(List)}) are executed right away. Single calls ({@link #call(String, String, String)})
+ * are coalesced: the calls arriving while a batch of single calls is executed wait for it and form the next batch. So a
+ * call is not delayed if no other calls are executed, and concurrent calls share their round trips to the node.
+ * <p>
+ * A batch is executed as a JSON-RPC batch of {@code eth_call} requests for the block number retrieved first. If the
+ * address of a Multicall contract is configured, explicit batches are executed as a single call of the contract
+ * instead, which reports the number of the block it is executed on (see {@link Multicall}). The called contracts then
+ * see the Multicall contract as the sender, so functions depending on the sender return different results. Coalesced
+ * single calls are therefore always executed as JSON-RPC batches: their results must not depend on the calls that
+ * happen to be executed concurrently. A batch the Multicall contract fails to execute (e.g., since it is not deployed
+ * on the chain or the batch exceeds the gas limit of calls) is executed as a JSON-RPC batch.
+ */
+public class ReadCallBatcher {
+    private static final Logger log = LoggerFactory.getLogger(ReadCallBatcher.class);
+    private final Web3j web3j;
+    private final Runnable flushRequests;
+    private final String multicallAddress;
+    // the single calls waiting for the batch being executed
+    private List<Call> pending = new ArrayList<>();
+    private boolean executing;
+    private long batchCount;
+    private long callCount;
+    private long multicallCount;
+
+    /**
+     * @param flushRequests    invoked after the requests of a batch are issued, e.g., to send them as a single JSON-RPC
+     *                         batch.
+     * @param multicallAddress the address of a Multicall contract providing {@code tryBlockAndAggregate}, or null to
+     *                         execute batches as JSON-RPC batches.
+     */
+    public ReadCallBatcher(Web3j web3j, Runnable flushRequests, String multicallAddress) {
+        this.web3j = web3j;
+        this.flushRequests = flushRequests;
+        this.multicallAddress = multicallAddress;
+    }
+
+    /**
+     * Executes a call together with the concurrent ones.
+     *
+     * @return a future that completes with the return data of the call.
+     */
+    public CompletableFuture<String> call(String from, String contractAddress, String data) {
+        final Call call = new Call(from, contractAddress, data);
+        final boolean start;
+
+        synchronized (this) {
+            pending.add(call);
+            start = !executing;
+            executing = true;
+        }
+
+        if (start) {
+            this.executeNext();
+        }
+
+        return call.getResult();
+    }
+
+    /**
+     * Executes the given calls on the same block. The results of the calls complete individually. If a Multicall
+     * contract is configured, the called contracts see it as the sender of the calls.
+     *
+     * @return a future that completes with the number of the block once the results of all calls are complete.
+     */
+    public CompletableFuture<Long> callAll(List<Call> calls) {
+        return this.execute(calls, true, multicallAddress != null);
+    }
+
+    /**
+     * @return the address of the Multicall contract explicit batches are executed by, or null if there is none.
+     */
+    public String getMulticallAddress() {
+        return multicallAddress;
+    }
+
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    public synchronized long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return the number of batches executed by the Multicall contract.
+     */
+    public synchronized long getMulticallCount() {
+        return multicallCount;
+    }
+
+    private void executeNext() {
+        final List<Call> calls;
+
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                executing = false;
+
+                return;
+            }
+
+            calls = pending;
+            pending = new ArrayList<>();
+        }
+
+        // a single call is consistent by itself, so it does not wait for the block number
+        // the sender of single calls must not depend on the concurrent calls, so they are never sent via Multicall
+        this.execute(calls, calls.size() > 1, false).whenComplete((blockNumber, e) -> this.executeNext());
+    }
+
+    /**
+     * @param pinned       whether the calls must be executed on the same block, which is then reported
+     * @param viaMulticall whether the calls may be executed by the Multicall contract
+     */
+    private CompletableFuture<Long> execute(List<Call> calls, boolean pinned, boolean viaMulticall) {
+        synchronized (this) {
+            batchCount++;
+            callCount += calls.size();
+        }
+
+        CompletableFuture<Long> result;
+
+        try {
+            if (!pinned) {
+                result = this.send(calls, DefaultBlockParameterName.LATEST).thenApply(done -> null);
+            } else if (viaMulticall) {
+                result = this.executeWithMulticall(calls);
+            } else {
+                result = this.executeWithBatch(calls);
+            }
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        return result.whenComplete((blockNumber, e) -> {
+            if (e != null) {
+                calls.forEach(call -> call.getResult().completeExceptionally(e));
+            }
+        });
+    }
+
+    private CompletableFuture<Long> executeWithBatch(List<Call> calls) {
+        final CompletableFuture<Long> result = web3j.ethBlockNumber()
+                .sendAsync()
+                .thenCompose(response -> {
+                    final DefaultBlockParameterNumber block = new DefaultBlockParameterNumber(response.getBlockNumber());
+
+                    return this.send(calls, block).thenApply(done -> block.getBlockNumber().longValue());
+                });
+        flushRequests.run();
+
+        return result;
+    }
+
+    private CompletableFuture<Long> executeWithMulticall(List<Call> calls) {
+        final List<String> targets = new ArrayList<>(calls.size());
+        final List<String> data = new ArrayList<>(calls.size());
+
+        for (Call call : calls) {
+            targets.add(call.contractAddress);
+            data.add(call.data);
+        }
+
+        final Transaction transaction = Transaction.createEthCallTransaction(calls.get(0).from, multicallAddress,
+                Multicall.encodeTryBlockAndAggregate(targets, data));
+        final CompletableFuture<Long> result = web3j.ethCall(transaction, DefaultBlockParameterName.LATEST)
+                .sendAsync()
+                .thenApply(response -> {
+                    if (response.hasError()) {
+                        throw new CompletionException(new InvokeSmartContractFunctionFailure(response.getError().getMessage()));
+                    }
+
+                    final Multicall.Result decoded = Multicall.decodeTryBlockAndAggregate(response.getValue());
+
+                    if (decoded.size() != calls.size()) {
+                        throw new IllegalArgumentException("The Multicall contract returned " + decoded.size() +
+                                " results for " + calls.size() + " calls!");
+                    }
+
+                    synchronized (this) {
+                        multicallCount++;
+                    }
+
+                    for (int i = 0; i < calls.size(); i++) {
+                        calls.get(i).sender = multicallAddress;
+
+                        if (decoded.isSuccess(i)) {
+                            calls.get(i).getResult().complete(decoded.getReturnData(i));
+                        } else {
+                            calls.get(i).getResult().completeExceptionally(
+                                    new InvokeSmartContractFunctionFailure("The smart contract function reverted."));
+                        }
+                    }
+
+                    return decoded.getBlockNumber();
+                });
+        flushRequests.run();
+
+        return result
+                .handle((blockNumber, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(blockNumber);
+                    }
+
+                    log.warn("The Multicall contract at {} failed to execute a batch of {} calls. Using a JSON-RPC batch. Reason: {}",
+                            multicallAddress, calls.size(), e.getMessage());
+
+                    return this.executeWithBatch(calls);
+                })
+                .thenCompose(next -> next);
+    }
+
+    /**
+     * Sends the calls for the given block and flushes them.
+     *
+     * @return a future that completes once the results of all calls are complete.
+     */
+    private CompletableFuture<Void> send(List<Call> calls, DefaultBlockParameter block) {
+        final CompletableFuture<?>[] results = new CompletableFuture[calls.size()];
+
+        for (int i = 0; i < calls.size(); i++) {
+            final Call call = calls.get(i);
+            final Transaction transaction = Transaction.createEthCallTransaction(call.from, call.contractAddress, call.data);
+            web3j.ethCall(transaction, block)
+                    .sendAsync()
+                    .whenComplete((response, e) -> {
+                        if (e != null) {
+                            call.getResult().completeExceptionally(e);
+                        } else if (response.hasError()) {
+                            call.getResult().completeExceptionally(new InvokeSmartContractFunctionFailure(response.getError().getMessage()));
+                        } else {
+                            call.getResult().complete(response.getValue());
+                        }
+                    });
+            // the failures are reported by the results of the individual calls
+            results[i] = call.getResult().handle((value, e) -> null);
+        }
+
+        flushRequests.run();
+
+        return CompletableFuture.allOf(results);
+    }
+
+    /**
+     * A read-only function call.
+     */
+    public static class Call {
+        private final String from;
+        private final String contractAddress;
+        private final String data;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private volatile String sender;
+
+        /**
+         * @param from the address the call is sent from (may be null)
+         * @param data the encoded function call
+         */
+        public Call(String from, String contractAddress, String data) {
+            this.from = from;
+            this.contractAddress = contractAddress;
+            this.data = data;
+            this.sender = from;
+        }
+
+        public String getContractAddress() {
+            return contractAddress;
+        }
+
+        public String getData() {
+            return data;
+        }
+
+        /**
+         * @return the sender the called contract saw, i.e., the Multicall contract if the call was executed by it. It is
+         * known once the result is complete.
+         */
+        public String getSender() {
+            return sender;
+        }
+
+        /**
+         * @return a future that completes with the return data of the call.
+         */
+        public CompletableFuture<String> getResult() {
+            return result;
+        }
+    }
+}
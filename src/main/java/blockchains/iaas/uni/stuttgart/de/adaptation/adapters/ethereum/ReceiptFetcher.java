@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+
+/**
+ * Fetches the receipts of transactions contained in the same block. If several receipts of a block are needed, all
+ * receipts of the block are fetched with a single request ({@code eth_getBlockReceipts}). Nodes that do not support it
+ * are asked for every receipt ({@code eth_getTransactionReceipt}); these requests are issued together, so that they can
+ * share a JSON-RPC batch.
+ * <p>
+ * Receipts of blocks that are deeper than the reorganization window cannot change anymore, so they are cached.
+ */
+public class ReceiptFetcher {
+    private static final Logger log = LoggerFactory.getLogger(ReceiptFetcher.class);
+    // the number of receipts of a block needed to fetch all receipts of the block at once
+    private static final int MIN_BLOCK_RECEIPTS = 2;
+    // the JSON-RPC error code of unknown methods
+    private static final int METHOD_NOT_FOUND = -32601;
+    private final Web3j web3j;
+    private final Web3jService web3jService;
+    private final long reorganizationWindow;
+    // transaction hash -> the receipt of a transaction in a block deeper than the reorganization window
+    private final Map<String, TransactionReceipt> immutableReceipts;
+    private final AtomicLong blockRequestCount = new AtomicLong();
+    private final AtomicLong receiptRequestCount = new AtomicLong();
+    private volatile boolean blockReceiptsSupported;
+
+    /**
+     * @param web3jService         the service to send requests unknown to web3j to, or null to fetch every receipt on its own
+     * @param reorganizationWindow the number of blocks below the head that can still be reorganized
+     * @param cacheSize            the maximum number of immutable receipts kept
+     */
+    public ReceiptFetcher(Web3j web3j, Web3jService web3jService, long reorganizationWindow, int cacheSize) {
+        this.web3j = web3j;
+        this.web3jService = web3jService;
+        this.reorganizationWindow = reorganizationWindow;
+        this.blockReceiptsSupported = web3jService != null;
+        this.immutableReceipts = new LinkedHashMap<String, TransactionReceipt>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TransactionReceipt> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param blockHash   the hash of the block containing the transactions
+     * @param blockNumber the number of the block containing the transactions
+     * @param txHashes    the hashes of the transactions
+     * @param headNumber  the number of the current head
+     * @return a future that completes with the receipts of the transactions by their hashes (empty if a receipt is not
+     * available, e.g., since the block was reorganized meanwhile).
+     */
+    public CompletableFuture<Map<String, Optional<TransactionReceipt>>> getReceipts(String blockHash, long blockNumber,
+                                                                                    Collection<String> txHashes, long headNumber) {
+        final Map<String, Optional<TransactionReceipt>> result = new HashMap<>();
+        final List<String> missing = new ArrayList<>();
+
+        synchronized (immutableReceipts) {
+            for (String txHash : txHashes) {
+                final TransactionReceipt cached = immutableReceipts.get(txHash.toLowerCase());
+
+                if (cached != null) {
+                    result.put(txHash, Optional.of(cached));
+                } else {
+                    missing.add(txHash);
+                }
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        final CompletableFuture<Map<String, Optional<TransactionReceipt>>> fetched =
+                blockReceiptsSupported && missing.size() >= MIN_BLOCK_RECEIPTS ?
+                        this.fetchBlockReceipts(blockHash, missing) :
+                        this.fetchReceipts(missing);
+
+        return fetched.thenApply(receipts -> {
+            // blocks deeper than the window cannot be replaced anymore
+            if (blockNumber <= headNumber - reorganizationWindow) {
+                synchronized (immutableReceipts) {
+                    receipts.forEach((txHash, receipt) -> receipt
+                            .filter(present -> blockHash.equalsIgnoreCase(present.getBlockHash()))
+                            .ifPresent(present -> immutableReceipts.put(txHash.toLowerCase(), present)));
+                }
+            }
+
+            result.putAll(receipts);
+
+            return result;
+        });
+    }
+
+    /**
+     * @return the number of requests for all receipts of a block sent so far.
+     */
+    public long getBlockRequestCount() {
+        return blockRequestCount.get();
+    }
+
+    /**
+     * @return the number of requests for a single receipt sent so far.
+     */
+    public long getReceiptRequestCount() {
+        return receiptRequestCount.get();
+    }
+
+    public int getCachedReceiptCount() {
+        synchronized (immutableReceipts) {
+            return immutableReceipts.size();
+        }
+    }
+
+    public boolean isBlockReceiptsSupported() {
+        return blockReceiptsSupported;
+    }
+
+    private CompletableFuture<Map<String, Optional<TransactionReceipt>>> fetchBlockReceipts(String blockHash, List<String> txHashes) {
+        blockRequestCount.incrementAndGet();
+
+        return new Request<>(
+                "eth_getBlockReceipts",
+                Collections.singletonList(blockHash),
+                web3jService,
+                EthBlockReceipts.class)
+                .sendAsync()
+                .thenCompose(response -> {
+                    if (response.hasError()) {
+                        if (isMethodNotFound(response.getError())) {
+                            // the method is not available, and will not become available
+                            log.info("The node does not provide the receipts of whole blocks. Fetching them one by one. Reason: {}",
+                                    response.getError().getMessage());
+                            blockReceiptsSupported = false;
+                        } else {
+                            // e.g., a lagging node that does not know the block yet
+                            log.debug("Failed to fetch the receipts of block {}. Fetching them one by one. Reason: {}",
+                                    blockHash, response.getError().getMessage());
+                        }
+
+                        return this.fetchReceipts(txHashes);
+                    }
+
+                    final Map<String, TransactionReceipt> byHash = new HashMap<>();
+
+                    if (response.getResult() != null) {
+                        response.getResult().forEach(receipt -> byHash.put(receipt.getTransactionHash().toLowerCase(), receipt));
+                    }
+
+                    final Map<String, Optional<TransactionReceipt>> result = new HashMap<>();
+                    txHashes.forEach(txHash -> result.put(txHash, Optional.ofNullable(byHash.get(txHash.toLowerCase()))));
+
+                    return CompletableFuture.completedFuture(result);
+                });
+    }
+
+    private CompletableFuture<Map<String, Optional<TransactionReceipt>>> fetchReceipts(List<String> txHashes) {
+        final Map<String, CompletableFuture<EthGetTransactionReceipt>> requests = new LinkedHashMap<>();
+
+        for (String txHash : txHashes) {
+            receiptRequestCount.incrementAndGet();
+            requests.put(txHash, web3j.ethGetTransactionReceipt(txHash).sendAsync());
+        }
+
+        return CompletableFuture.allOf(requests.values().toArray(new CompletableFuture[0]))
+                .thenApply(done -> {
+                    final Map<String, Optional<TransactionReceipt>> result = new HashMap<>();
+                    requests.forEach((txHash, request) -> result.put(txHash, request.join().getTransactionReceipt()));
+
+                    return result;
+                });
+    }
+
+    private static boolean isMethodNotFound(Response.Error error) {
+        final String message = error.getMessage() == null ? "" : error.getMessage().toLowerCase();
+
+        return error.getCode() == METHOD_NOT_FOUND || message.contains("does not exist") ||
+                (message.contains("method") && message.contains("not found"));
+    }
+
+    public static class EthBlockReceipts extends Response<List<TransactionReceipt>> {
+    }
+}
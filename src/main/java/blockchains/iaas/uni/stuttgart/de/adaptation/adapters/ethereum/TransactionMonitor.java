@@ -0,0 +1,427 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.TimeoutException;
+import blockchains.iaas.uni.stuttgart.de.model.Block;
+import blockchains.iaas.uni.stuttgart.de.model.LinearChainTransaction;
+import blockchains.iaas.uni.stuttgart.de.model.Transaction;
+import blockchains.iaas.uni.stuttgart.de.model.TransactionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.EthTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+
+/**
+ * Keeps a registry of the transactions watched by an adapter and drives the state machine of each of them whenever the
+ * {@link ChainHeadFollower} reports a new head.
+ * <p>
+ * The status of a transaction is fetched (once for all of its watches) until it is contained in a block. After that, it
+ * is fetched again only if the containing block drops off the canonical chain according to the {@link HeaderChain}.
+ * Block-confirmations are computed from block heights: each watch is scheduled for the height at which its depth
+ * target is reached, and is only looked at again when the head reaches that height.
+ * <p>
+ * The receipts are only fetched for transactions that are contained in a block, using a {@link ReceiptFetcher}, so that
+ * the receipts of several transactions in the same block are fetched at once.
+ */
+public class TransactionMonitor implements ChainHeadFollower.Listener {
+    private static final Logger log = LoggerFactory.getLogger(TransactionMonitor.class);
+    private static final int DEFAULT_RECEIPT_CACHE_SIZE = 10_000;
+    private final Web3j web3j;
+    private final ChainHeadFollower headFollower;
+    private final HeaderChain headerChain;
+    private final Runnable flushRequests;
+    private final ReceiptFetcher receiptFetcher;
+    private final Map<String, TrackedTransaction> transactions = new ConcurrentHashMap<>();
+    // target block height -> the watches that reach their required depth at this height
+    private final NavigableMap<Long, Set<TransactionWatch>> confirmationSchedule = new ConcurrentSkipListMap<>();
+
+    public TransactionMonitor(Web3j web3j, ChainHeadFollower headFollower) {
+        this(web3j, headFollower, () -> {
+        });
+    }
+
+    /**
+     * @param flushRequests invoked after all requests of a block-processing cycle are issued, e.g., to send them as a
+     *                      single JSON-RPC batch.
+     */
+    public TransactionMonitor(Web3j web3j, ChainHeadFollower headFollower, Runnable flushRequests) {
+        this(web3j, headFollower, flushRequests, new ReceiptFetcher(web3j, null,
+                headFollower.getHeaderChain().getWindowSize(), DEFAULT_RECEIPT_CACHE_SIZE));
+    }
+
+    /**
+     * @param receiptFetcher fetches the receipts of the watched transactions
+     */
+    public TransactionMonitor(Web3j web3j, ChainHeadFollower headFollower, Runnable flushRequests, ReceiptFetcher receiptFetcher) {
+        this.web3j = web3j;
+        this.headFollower = headFollower;
+        this.headerChain = headFollower.getHeaderChain();
+        this.flushRequests = flushRequests;
+        this.receiptFetcher = receiptFetcher;
+    }
+
+    /**
+     * Watches a transaction which is assumed to having been mined before.
+     *
+     * @param txHash         the hash of the transaction to monitor
+     * @param waitFor        the number of block-confirmations to wait until the transaction is considered persisted (-1 if the
+     *                       transaction is never to be considered persisted)
+     * @param observedStates the set of states that will be reported to the calling method
+     * @return a future which is used to handle the subscription and receive the callback
+     */
+    public CompletableFuture<Transaction> watch(String txHash, long waitFor, TransactionState... observedStates) {
+        return register(new TransactionWatch(txHash, waitFor, observedStates, Phase.AWAITING_CONFIRMATION, Long.MAX_VALUE));
+    }
+
+    /**
+     * Watches a freshly sent transaction: first until it is mined (or the timeout is reached), and then until one of the
+     * observed states is detected.
+     *
+     * @param txHash         the hash of the transaction to monitor
+     * @param timeoutMillis  the number of milliseconds during which the transaction has to be mined
+     * @param waitFor        the number of block-confirmations to wait until the transaction is considered persisted
+     * @param observedStates the set of states that will be reported to the calling method
+     * @return a future which is used to handle the subscription and receive the callback
+     */
+    public CompletableFuture<Transaction> watchUntilMined(String txHash, long timeoutMillis, long waitFor, TransactionState... observedStates) {
+        final long now = System.currentTimeMillis();
+        final long deadlineMillis = timeoutMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutMillis;
+
+        return register(new TransactionWatch(txHash, waitFor, observedStates, Phase.AWAITING_MINING, deadlineMillis));
+    }
+
+    public int getWatchedTransactionCount() {
+        return transactions.size();
+    }
+
+    public int getScheduledWatchCount() {
+        return confirmationSchedule.values().stream().mapToInt(Set::size).sum();
+    }
+
+    @Override
+    public void onNewHead(EthBlock.Block head) {
+        final long headNumber = head.getNumber().longValue();
+        final List<TrackedTransaction> toCheck = new ArrayList<>();
+
+        for (TrackedTransaction tracked : transactions.values()) {
+            failTimedOutWatches(tracked);
+
+            if (tracked.isContainedInBlock() && !headerChain.isCanonical(tracked.getBlockNumber(), tracked.getBlockHash())) {
+                log.info("The block of the transaction {} is no longer canonical", tracked.txHash);
+                tracked.needsCheck = true;
+            }
+
+            if (tracked.needsCheck) {
+                toCheck.add(tracked);
+            }
+        }
+
+        // heads are processed one after the other
+        this.checkTransactions(toCheck, headNumber);
+
+        final NavigableMap<Long, Set<TransactionWatch>> due = confirmationSchedule.headMap(headNumber, true);
+
+        for (Set<TransactionWatch> dueWatches : due.values()) {
+            for (TransactionWatch watch : dueWatches) {
+                final TrackedTransaction tracked = transactions.get(watch.txHash);
+
+                if (tracked != null && !watch.future.isDone()) {
+                    evaluate(tracked, watch, headNumber);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        for (TrackedTransaction tracked : transactions.values()) {
+            tracked.watches.forEach(watch -> watch.future.completeExceptionally(error));
+        }
+    }
+
+    private CompletableFuture<Transaction> register(TransactionWatch watch) {
+        synchronized (this) {
+            final TrackedTransaction tracked = transactions.computeIfAbsent(watch.txHash, TrackedTransaction::new);
+            tracked.watches.add(watch);
+            // the new watch is evaluated against a fresh status of the transaction
+            tracked.needsCheck = true;
+            headFollower.addListener(this);
+        }
+
+        //remove the watch when the CompletableFuture completes (either when detecting an event, or manually)
+        watch.future.whenComplete((tx, e) -> unregister(watch));
+
+        return watch.future;
+    }
+
+    private synchronized void unregister(TransactionWatch watch) {
+        unschedule(watch);
+        transactions.computeIfPresent(watch.txHash, (hash, tracked) -> {
+            tracked.watches.remove(watch);
+            return tracked.watches.isEmpty() ? null : tracked;
+        });
+
+        if (transactions.isEmpty()) {
+            headFollower.removeListener(this);
+        }
+    }
+
+    /**
+     * Fetches the transactions first, and then the receipts of the ones contained in a block, grouped by block.
+     */
+    private void checkTransactions(List<TrackedTransaction> toCheck, long headNumber) {
+        final Map<TrackedTransaction, CompletableFuture<EthTransaction>> details = new LinkedHashMap<>();
+        // the requests of all transactions are issued together so that they can share a JSON-RPC batch
+        toCheck.forEach(tracked -> details.put(tracked, web3j.ethGetTransactionByHash(tracked.txHash).sendAsync()));
+        flushRequests.run();
+        // block hash -> the transactions contained in the block
+        final Map<String, List<TrackedTransaction>> byBlock = new LinkedHashMap<>();
+
+        details.forEach((tracked, request) -> {
+            final Optional<org.web3j.protocol.core.methods.response.Transaction> transaction;
+
+            try {
+                transaction = request.join().getTransaction();
+            } catch (CompletionException e) {
+                this.fail(tracked, e.getCause());
+
+                return;
+            }
+
+            final String blockHash = transaction.map(org.web3j.protocol.core.methods.response.Transaction::getBlockHash).orElse(null);
+
+            if (blockHash == null || blockHash.isEmpty()) {
+                // pending and unknown transactions have no receipt
+                this.update(tracked, transaction, Optional.empty(), headNumber);
+            } else {
+                tracked.pendingDetails = transaction;
+                byBlock.computeIfAbsent(blockHash, hash -> new ArrayList<>()).add(tracked);
+            }
+        });
+
+        final List<CompletableFuture<Void>> checks = new ArrayList<>();
+
+        byBlock.forEach((blockHash, contained) -> {
+            final long blockNumber = contained.get(0).pendingDetails.get().getBlockNumber().longValue();
+            final List<String> txHashes = new ArrayList<>();
+            contained.forEach(tracked -> txHashes.add(tracked.txHash));
+            checks.add(receiptFetcher.getReceipts(blockHash, blockNumber, txHashes, headNumber)
+                    .thenAccept(receipts -> contained.forEach(tracked -> this.update(tracked, tracked.pendingDetails,
+                            receipts.getOrDefault(tracked.txHash, Optional.empty()), headNumber)))
+                    .exceptionally(e -> {
+                        final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        contained.forEach(tracked -> this.fail(tracked, cause));
+
+                        return null;
+                    }));
+        });
+
+        flushRequests.run();
+        CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).join();
+    }
+
+    private void update(TrackedTransaction tracked, Optional<org.web3j.protocol.core.methods.response.Transaction> transaction,
+                        Optional<TransactionReceipt> receipt, long headNumber) {
+        tracked.details = transaction;
+        tracked.receipt = receipt;
+        // once the transaction is in a block, only a reorganization makes it necessary to check it again
+        tracked.needsCheck = !tracked.receipt.isPresent() || !tracked.isContainedInBlock();
+
+        for (TransactionWatch watch : tracked.watches) {
+            if (watch.future.isDone()) {
+                continue;
+            }
+
+            if (watch.phase == Phase.AWAITING_MINING) {
+                if (!tracked.receipt.isPresent()) {
+                    continue;
+                }
+
+                watch.phase = Phase.AWAITING_CONFIRMATION;
+            }
+
+            evaluate(tracked, watch, headNumber);
+        }
+    }
+
+    private void fail(TrackedTransaction tracked, Throwable cause) {
+        tracked.watches.forEach(watch -> watch.future.completeExceptionally(cause));
+    }
+
+    private static void failTimedOutWatches(TrackedTransaction tracked) {
+        for (TransactionWatch watch : tracked.watches) {
+            // if the time passed since we started is longer than the timeout
+            if (watch.phase == Phase.AWAITING_MINING && System.currentTimeMillis() >= watch.deadlineMillis) {
+                watch.future.completeExceptionally(
+                        new TimeoutException("Timeout is reached before transaction is mined!", tracked.txHash, 0.0));
+            }
+        }
+    }
+
+    /**
+     * Detects:
+     * (i) a transaction being not found anymore (invalidated): NOT_FOUND,
+     * (ii) not having a containing block (orphaned): PENDING,
+     * (iii) reporting an error although mined into a block (e.g., SC function threw an error): ERRORED
+     * (iv) having received enough block-confirmations (durably committed): CONFIRMED.
+     * A watch that still lacks block-confirmations is scheduled for the height at which it will have them.
+     */
+    private void evaluate(TrackedTransaction tracked, TransactionWatch watch, long headNumber) {
+        unschedule(watch);
+        final Optional<org.web3j.protocol.core.methods.response.Transaction> transaction = tracked.details;
+
+        // if the transaction does not exist, then it is either invalidated or did not exist in the first place
+        if (!transaction.isPresent()) {
+            log.info("The transaction of the hash {} is not found!", watch.txHash);
+            handleDetectedState(transaction, TransactionState.NOT_FOUND, watch);
+
+            return;
+        }
+
+        // determine if the transaction reported an error
+        if (tracked.receipt.isPresent() && !tracked.receipt.get().isStatusOK()) {
+            if (handleDetectedState(transaction, TransactionState.ERRORED, watch))
+                return;
+        }
+
+        // make sure the transaction is still contained in a block, i.e., it was not orphaned
+        if (!tracked.isContainedInBlock()) {
+            log.info("The transaction of the hash {} has no block (orphaned?)", watch.txHash);
+            handleDetectedState(transaction, TransactionState.PENDING, watch);
+
+            return;
+        }
+
+        // check if enough block-confirmations have occurred.
+        if (watch.waitFor >= 0) {
+            final long targetHeight = tracked.getBlockNumber() + watch.waitFor;
+
+            if (headNumber >= targetHeight) {
+                log.info("The transaction of the hash {} has been confirmed", watch.txHash);
+                handleDetectedState(transaction, TransactionState.CONFIRMED, watch);
+            } else {
+                schedule(watch, targetHeight);
+            }
+        }
+    }
+
+    private void schedule(TransactionWatch watch, long targetHeight) {
+        watch.scheduledHeight = targetHeight;
+        confirmationSchedule.computeIfAbsent(targetHeight, height -> ConcurrentHashMap.newKeySet()).add(watch);
+    }
+
+    private void unschedule(TransactionWatch watch) {
+        final long scheduledHeight = watch.scheduledHeight;
+
+        if (scheduledHeight >= 0) {
+            watch.scheduledHeight = -1;
+            confirmationSchedule.computeIfPresent(scheduledHeight, (height, scheduled) -> {
+                scheduled.remove(watch);
+                return scheduled.isEmpty() ? null : scheduled;
+            });
+        }
+    }
+
+    private static boolean handleDetectedState(final Optional<org.web3j.protocol.core.methods.response.Transaction> transactionDetails,
+                                               final TransactionState detectedState, final TransactionWatch watch) {
+        // Only complete the future if we are interested in this event
+        if (Arrays.asList(watch.observedStates).contains(detectedState)) {
+            final LinearChainTransaction result = new LinearChainTransaction();
+            result.setState(detectedState);
+            // it is important that this list is not null
+            result.setReturnValues(new ArrayList<>());
+
+            if (transactionDetails.isPresent()) {
+                result.setBlock(new Block(transactionDetails.get().getBlockNumber(), transactionDetails.get().getBlockHash()));
+                result.setFrom(transactionDetails.get().getFrom());
+                result.setTo(transactionDetails.get().getTo());
+                result.setTransactionHash(transactionDetails.get().getHash());
+                result.setValue(transactionDetails.get().getValue());
+            }
+
+            watch.future.complete(result);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private enum Phase {
+        AWAITING_MINING,
+        AWAITING_CONFIRMATION
+    }
+
+    /**
+     * The last known status of a watched transaction, shared by all of its watches.
+     */
+    private static class TrackedTransaction {
+        private final String txHash;
+        private final Set<TransactionWatch> watches = ConcurrentHashMap.newKeySet();
+        private volatile Optional<org.web3j.protocol.core.methods.response.Transaction> details = Optional.empty();
+        private volatile Optional<TransactionReceipt> receipt = Optional.empty();
+        // the transaction fetched by the current check while its receipt is fetched
+        private volatile Optional<org.web3j.protocol.core.methods.response.Transaction> pendingDetails = Optional.empty();
+        private volatile boolean needsCheck = true;
+
+        private TrackedTransaction(String txHash) {
+            this.txHash = txHash;
+        }
+
+        private boolean isContainedInBlock() {
+            final String blockHash = getBlockHash();
+
+            return blockHash != null && !blockHash.isEmpty();
+        }
+
+        private String getBlockHash() {
+            return details.map(org.web3j.protocol.core.methods.response.Transaction::getBlockHash).orElse(null);
+        }
+
+        private long getBlockNumber() {
+            return details.get().getBlockNumber().longValue();
+        }
+    }
+
+    private static class TransactionWatch {
+        private final String txHash;
+        private final long waitFor;
+        private final TransactionState[] observedStates;
+        private final long deadlineMillis;
+        private final CompletableFuture<Transaction> future = new CompletableFuture<>();
+        private volatile Phase phase;
+        private volatile long scheduledHeight = -1;
+
+        private TransactionWatch(String txHash, long waitFor, TransactionState[] observedStates, Phase phase, long deadlineMillis) {
+            this.txHash = txHash;
+            this.waitFor = waitFor;
+            this.observedStates = observedStates;
+            this.phase = phase;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+}
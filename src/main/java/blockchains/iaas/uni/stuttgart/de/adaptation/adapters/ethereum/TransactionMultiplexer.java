@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.Transaction;
+
+/**
+ * Shares a single stream of full blocks among the subscriptions to incoming transactions of an adapter.
+ * <p>
+ * Whenever the {@link ChainHeadFollower} reports a new head, the blocks since the previous head are fetched once with
+ * their transactions, in a single JSON-RPC batch, no matter how many subscriptions there are. The transactions are
+ * handed to the subscribers of their recipient, and optionally their sender, using a hash index, so the cost of a block
+ * does not grow with the number of subscriptions. Blocks are only fetched while there are subscriptions.
+ * <p>
+ * The blocks are fetched and delivered asynchronously, one head after the other, so the thread reporting the heads is
+ * never blocked. Heads reported meanwhile are merged into the latest one. After the node was unreachable for a while,
+ * the missed blocks are caught up in several rounds of at most {@link #MAX_BLOCKS_PER_HEAD} blocks.
+ * <p>
+ * If the chain is reorganized, the blocks of the new branch are fetched as well. Transactions included in both branches
+ * are delivered once.
+ */
+public class TransactionMultiplexer implements ChainHeadFollower.Listener {
+    private static final Logger log = LoggerFactory.getLogger(TransactionMultiplexer.class);
+    // the sender key of the subscribers receiving the transactions of any sender
+    private static final String ANY_SENDER = "";
+    // the maximum number of blocks fetched in a single round, e.g., after the node was unreachable for a while
+    static final int MAX_BLOCKS_PER_HEAD = 100;
+    // the number of recently delivered transactions remembered to avoid delivering them twice
+    private static final int MAX_REMEMBERED_TRANSACTIONS = 10_000;
+    private final Web3j web3j;
+    private final ChainHeadFollower headFollower;
+    private final Runnable flushRequests;
+    // recipient address -> sender address (or ANY_SENDER) -> the subscribers receiving the matching transactions
+    private final Map<String, Map<String, Set<TransactionSubscriber>>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> delivered = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_REMEMBERED_TRANSACTIONS;
+        }
+    };
+    private final AtomicLong fetchedBlockCount = new AtomicLong();
+    private int subscriberCount;
+    // the highest block whose transactions were delivered (-1 if no head was handled yet)
+    private long lastBlockNumber = -1;
+    // the latest head that is not handled yet (null if there is none)
+    private EthBlock.Block pendingHead;
+    // whether the blocks of a head are being fetched and delivered right now
+    private boolean processing;
+    // the lowest block reorganized while blocks were being delivered (Long.MAX_VALUE if there is none)
+    private long reorganizedFrom = Long.MAX_VALUE;
+
+    /**
+     * @param flushRequests invoked after all requests of a block-processing cycle are issued, e.g., to send them as a
+     *                      single JSON-RPC batch.
+     */
+    public TransactionMultiplexer(Web3j web3j, ChainHeadFollower headFollower, Runnable flushRequests) {
+        this.web3j = web3j;
+        this.headFollower = headFollower;
+        this.flushRequests = flushRequests;
+        this.headFollower.addReorganizationHandler(this::onReorganization);
+    }
+
+    /**
+     * @param recipient the address receiving the transactions
+     * @param sender    the address sending the transactions, or null to receive the transactions of any sender
+     * @return the transactions to the given recipient included in blocks from now on.
+     */
+    public Flowable<Transaction> transactionFlowable(String recipient, String sender) {
+        final String senderKey = sender == null || sender.trim().isEmpty() ? ANY_SENDER : sender.trim().toLowerCase();
+
+        return Flowable.create(emitter -> {
+            final TransactionSubscriber subscriber = new TransactionSubscriber(recipient.toLowerCase(), senderKey, emitter);
+            emitter.setCancellable(() -> this.unregister(subscriber));
+            this.register(subscriber);
+        }, BackpressureStrategy.BUFFER);
+    }
+
+    public synchronized int getSubscriberCount() {
+        return subscriberCount;
+    }
+
+    /**
+     * @return the number of full blocks fetched so far.
+     */
+    public long getFetchedBlockCount() {
+        return fetchedBlockCount.get();
+    }
+
+    @Override
+    public void onNewHead(EthBlock.Block head) {
+        synchronized (this) {
+            if (subscriberCount == 0) {
+                return;
+            }
+
+            pendingHead = head;
+
+            if (processing) {
+                // the head is handled when the current one is done
+                return;
+            }
+
+            processing = true;
+        }
+
+        this.processPendingHead();
+    }
+
+    /**
+     * Fetches and delivers the blocks up to the pending head, or the next {@link #MAX_BLOCKS_PER_HEAD} of them, and
+     * continues with the head pending then.
+     */
+    private void processPendingHead() {
+        final EthBlock.Block head;
+        final long from;
+        final long to;
+
+        synchronized (this) {
+            head = pendingHead;
+            pendingHead = null;
+
+            if (subscriberCount == 0 || head == null || head.getNumber().longValue() <= lastBlockNumber) {
+                processing = false;
+
+                return;
+            }
+
+            final long headNumber = head.getNumber().longValue();
+            from = lastBlockNumber < 0 ? headNumber : lastBlockNumber + 1;
+            to = Math.min(headNumber, from + MAX_BLOCKS_PER_HEAD - 1);
+            reorganizedFrom = Long.MAX_VALUE;
+        }
+
+        final List<CompletableFuture<EthBlock>> blocks = new ArrayList<>();
+
+        for (long number = from; number <= to; number++) {
+            if (number == head.getNumber().longValue()) {
+                // the head itself is fetched by its hash, so it cannot be replaced in the meantime
+                blocks.add(web3j.ethGetBlockByHash(head.getHash(), true).sendAsync());
+            } else {
+                blocks.add(web3j.ethGetBlockByNumber(new DefaultBlockParameterNumber(number), true).sendAsync());
+            }
+        }
+
+        flushRequests.run();
+
+        this.deliverInOrder(blocks, 0, from).whenComplete((handled, error) -> {
+            if (error != null) {
+                log.warn("Failed to deliver the transactions of blocks {} to {}. Retrying with the next head. Reason: {}", from, to, error.getMessage());
+            }
+
+            synchronized (this) {
+                // all subscribers might have gone meanwhile
+                if (subscriberCount > 0 && handled != null && handled >= from) {
+                    lastBlockNumber = Math.min(handled, reorganizedFrom - 1);
+                }
+
+                // the remaining blocks up to the head are caught up right away, unless fetching them failed
+                if (pendingHead == null && handled != null && handled == to && to < head.getNumber().longValue()) {
+                    pendingHead = head;
+                }
+            }
+
+            this.processPendingHead();
+        });
+    }
+
+    /**
+     * Delivers the transactions of the given blocks in order, until a block cannot be fetched.
+     *
+     * @param number the number of the block at the given index
+     * @return the number of the last block that was delivered
+     */
+    private CompletableFuture<Long> deliverInOrder(List<CompletableFuture<EthBlock>> blocks, int index, long number) {
+        if (index == blocks.size()) {
+            return CompletableFuture.completedFuture(number - 1);
+        }
+
+        return blocks.get(index).handle((response, error) -> {
+            if (error != null) {
+                log.warn("Failed to fetch block {}. Retrying with the next head. Reason: {}", number, error.getMessage());
+
+                return false;
+            }
+
+            if (response.getBlock() == null) {
+                log.warn("The node does not know block {} yet. Retrying with the next head.", number);
+
+                return false;
+            }
+
+            fetchedBlockCount.incrementAndGet();
+            this.deliver(response.getBlock());
+
+            return true;
+        }).thenCompose(delivered -> delivered ? this.deliverInOrder(blocks, index + 1, number + 1) :
+                CompletableFuture.completedFuture(number - 1));
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        for (Map<String, Set<TransactionSubscriber>> recipientSubscribers : subscribers.values()) {
+            recipientSubscribers.values().forEach(senderSubscribers ->
+                    senderSubscribers.forEach(subscriber -> subscriber.emitter.onError(error)));
+        }
+    }
+
+    private synchronized void onReorganization(long fromNumber) {
+        // the blocks of the new branch are fetched with the next head
+        if (lastBlockNumber >= fromNumber) {
+            lastBlockNumber = fromNumber - 1;
+        }
+
+        // blocks being delivered right now might belong to the old branch
+        reorganizedFrom = Math.min(reorganizedFrom, fromNumber);
+    }
+
+    private void register(TransactionSubscriber subscriber) {
+        synchronized (this) {
+            subscribers.computeIfAbsent(subscriber.recipient, key -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(subscriber.sender, key -> ConcurrentHashMap.newKeySet())
+                    .add(subscriber);
+            subscriberCount++;
+            headFollower.addListener(this);
+        }
+    }
+
+    private void unregister(TransactionSubscriber subscriber) {
+        synchronized (this) {
+            final Map<String, Set<TransactionSubscriber>> recipientSubscribers = subscribers.get(subscriber.recipient);
+            final Set<TransactionSubscriber> senderSubscribers = recipientSubscribers == null ? null :
+                    recipientSubscribers.get(subscriber.sender);
+
+            if (senderSubscribers == null || !senderSubscribers.remove(subscriber)) {
+                return;
+            }
+
+            if (senderSubscribers.isEmpty()) {
+                recipientSubscribers.remove(subscriber.sender);
+
+                if (recipientSubscribers.isEmpty()) {
+                    subscribers.remove(subscriber.recipient);
+                }
+            }
+
+            if (--subscriberCount == 0) {
+                lastBlockNumber = -1;
+                pendingHead = null;
+                headFollower.removeListener(this);
+            }
+        }
+    }
+
+    private void deliver(EthBlock.Block block) {
+        if (block.getTransactions() == null) {
+            return;
+        }
+
+        for (EthBlock.TransactionResult<?> result : block.getTransactions()) {
+            if (!(result instanceof EthBlock.TransactionObject)) {
+                continue;
+            }
+
+            final Transaction tx = ((EthBlock.TransactionObject) result).get();
+
+            // contract creations have no recipient
+            if (tx.getTo() == null) {
+                continue;
+            }
+
+            final Map<String, Set<TransactionSubscriber>> recipientSubscribers = subscribers.get(tx.getTo().toLowerCase());
+
+            if (recipientSubscribers == null) {
+                continue;
+            }
+
+            synchronized (delivered) {
+                // a transaction of a reorganized block might be included in the new branch again
+                if (delivered.put(tx.getHash(), Boolean.TRUE) != null) {
+                    continue;
+                }
+            }
+
+            this.emit(recipientSubscribers.get(ANY_SENDER), tx);
+
+            if (tx.getFrom() != null) {
+                this.emit(recipientSubscribers.get(tx.getFrom().toLowerCase()), tx);
+            }
+        }
+    }
+
+    private void emit(Set<TransactionSubscriber> senderSubscribers, Transaction tx) {
+        if (senderSubscribers != null) {
+            senderSubscribers.forEach(subscriber -> subscriber.emitter.onNext(tx));
+        }
+    }
+
+    private static class TransactionSubscriber {
+        private final String recipient;
+        private final String sender;
+        private final FlowableEmitter<Transaction> emitter;
+
+        private TransactionSubscriber(String recipient, String sender, FlowableEmitter<Transaction> emitter) {
+            this.recipient = recipient;
+            this.sender = sender;
+            this.emitter = emitter;
+        }
+    }
+}
@@ -10,19 +10,29 @@
  *******************************************************************************/
 package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.fabric;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 import blockchains.iaas.uni.stuttgart.de.adaptation.interfaces.BlockchainAdapter;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.BlockTimestampIndex;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.BlockTimestampSearch;
 import blockchains.iaas.uni.stuttgart.de.adaptation.utils.BooleanExpressionEvaluator;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.Bulkhead;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.Bulkheads;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.ReadResultCache;
 import blockchains.iaas.uni.stuttgart.de.adaptation.utils.SmartContractPathParser;
 import blockchains.iaas.uni.stuttgart.de.exceptions.BalException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.BlockchainNodeUnreachableException;
@@ -32,12 +42,16 @@ import blockchains.iaas.uni.stuttgart.de.exceptions.InvokeSmartContractFunctionF
 import blockchains.iaas.uni.stuttgart.de.exceptions.InvokeSmartContractFunctionRevoke;
 import blockchains.iaas.uni.stuttgart.de.exceptions.NotSupportedException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.ParameterException;
+import blockchains.iaas.uni.stuttgart.de.model.BatchInvocationResult;
+import blockchains.iaas.uni.stuttgart.de.model.InvocationResult;
 import blockchains.iaas.uni.stuttgart.de.model.Occurrence;
 import blockchains.iaas.uni.stuttgart.de.model.Parameter;
 import blockchains.iaas.uni.stuttgart.de.model.QueryResult;
+import blockchains.iaas.uni.stuttgart.de.model.SmartContractCall;
 import blockchains.iaas.uni.stuttgart.de.model.TimeFrame;
 import blockchains.iaas.uni.stuttgart.de.model.Transaction;
 import blockchains.iaas.uni.stuttgart.de.model.TransactionState;
+import com.google.common.io.BaseEncoding;
 import io.reactivex.Observable;
 import io.reactivex.subjects.PublishSubject;
 import lombok.AllArgsConstructor;
@@ -50,6 +64,7 @@ import org.hyperledger.fabric.gateway.Gateway;
 import org.hyperledger.fabric.gateway.Network;
 import org.hyperledger.fabric.gateway.impl.event.ContractEventImpl;
 import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockInfo;
 import org.hyperledger.fabric.sdk.ChaincodeEvent;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
@@ -59,6 +74,19 @@ import org.slf4j.LoggerFactory;
 @Builder
 public class FabricAdapter implements BlockchainAdapter {
     private String blockchainId;
+    // the directory of the persistent block timestamp indexes
+    @Builder.Default
+    private final Path timestampIndexDirectory = BlockTimestampIndex.DEFAULT_DIRECTORY;
+    // channel name -> persistent index of the block timestamps of the channel
+    @Builder.Default
+    private final Map<String, BlockTimestampIndex> timestampIndexes = new ConcurrentHashMap<>();
+    // channel name -> the results of read-only invocations since the latest block of the channel
+    @Builder.Default
+    private final Map<String, ReadResultCache> readResultCaches = new ConcurrentHashMap<>();
+    // the number of results of read-only invocations kept per channel
+    private static final int READ_RESULT_CACHE_SIZE = 10_000;
+    // transaction timestamps are set by the clients, so a block can be later than subsequent blocks by up to this skew
+    private static final long MAX_CLOCK_SKEW_SECONDS = 300;
     private static final Logger log = LoggerFactory.getLogger(FabricAdapter.class);
 
     @Override
@@ -101,29 +129,34 @@ public class FabricAdapter implements BlockchainAdapter {
             Contract contract = GatewayManager.getInstance().getContract(blockchainId, path.channel, path.chaincode);
             String[] params = inputs.stream().map(Parameter::getValue).toArray(String[]::new);
 
-            try {
-                byte[] resultAsBytes = contract.submitTransaction(functionIdentifier, params);
-                Transaction resultT = new Transaction();
-
-                if (outputs.size() == 1) {
-                    Parameter resultP = Parameter
-                            .builder()
-                            .name(outputs.get(0).getName())
-                            .value(new String(resultAsBytes, StandardCharsets.UTF_8))
-                            .build();
-                    resultT.setReturnValues(Collections.singletonList(resultP));
-                    log.info(resultP.getValue());
-                } else if (outputs.size() == 0) {
-                    log.info("Fabric transaction without a return value executed!");
-                    resultT.setReturnValues(Collections.emptyList());
-                }
+            // submitting waits until the transaction is committed, which must not block the threads of the caller
+            Bulkheads.getInstance().get(blockchainId, Bulkheads.Stage.RPC_IO).execute(() -> {
+                try {
+                    byte[] resultAsBytes = contract.submitTransaction(functionIdentifier, params);
+                    Transaction resultT = new Transaction();
+
+                    if (outputs.size() == 1) {
+                        Parameter resultP = Parameter
+                                .builder()
+                                .name(outputs.get(0).getName())
+                                .value(new String(resultAsBytes, StandardCharsets.UTF_8))
+                                .build();
+                        resultT.setReturnValues(Collections.singletonList(resultP));
+                        log.info(resultP.getValue());
+                    } else if (outputs.size() == 0) {
+                        log.info("Fabric transaction without a return value executed!");
+                        resultT.setReturnValues(Collections.emptyList());
+                    }
 
-                resultT.setState(TransactionState.RETURN_VALUE);
-                result.complete(resultT);
-            } catch (Exception e) {
-                // exceptions at this level are invocation exceptions. They should be sent asynchronously to the client app.
-                result.completeExceptionally(new InvokeSmartContractFunctionFailure(e.getMessage()));
-            }
+                    resultT.setState(TransactionState.RETURN_VALUE);
+                    result.complete(resultT);
+                } catch (Exception e) {
+                    // exceptions at this level are invocation exceptions. They should be sent asynchronously to the client app.
+                    result.completeExceptionally(new InvokeSmartContractFunctionFailure(e.getMessage()));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new BlockchainNodeUnreachableException("Too many invocations are waiting to be submitted to the network.");
         } catch (Exception e) {
             // this is a synchronous exception.
             throw new BlockchainNodeUnreachableException(e.getMessage());
@@ -132,6 +165,104 @@ public class FabricAdapter implements BlockchainAdapter {
         return result;
     }
 
+    @Override
+    public CompletableFuture<BatchInvocationResult> invokeSmartContracts(List<SmartContractCall> calls, boolean useCache) throws BalException {
+        final List<InvocationResult> results = new ArrayList<>();
+
+        for (SmartContractCall call : calls) {
+            try {
+                results.add(InvocationResult.success(this.evaluateFunction(call, useCache)));
+            } catch (BalException e) {
+                results.add(InvocationResult.failure(e));
+            }
+        }
+
+        // the peers evaluate the functions against their current world state, which is not tied to a block number
+        return CompletableFuture.completedFuture(BatchInvocationResult.builder().results(results).build());
+    }
+
+    /**
+     * Evaluates a chaincode function on a peer without submitting a transaction to the orderer. Evaluations since the
+     * latest block of the channel are answered from the {@link ReadResultCache} of the channel, unless the cache is not
+     * to be used.
+     *
+     * @return the return values of the function
+     */
+    private List<Parameter> evaluateFunction(SmartContractCall call, boolean useCache) throws BalException {
+        if (call.getOutputs().size() > 1) {
+            throw new ParameterException("Hyperledger Fabric supports only at most a single return value.");
+        }
+
+        final SmartContractPathElements path = this.parsePathElements(call.getSmartContractPath());
+        final Contract contract;
+        final ReadResultCache cache;
+
+        try {
+            contract = GatewayManager.getInstance().getContract(blockchainId, path.channel, path.chaincode);
+            cache = this.getReadResultCache(path.channel);
+        } catch (Exception e) {
+            throw new BlockchainNodeUnreachableException(e.getMessage());
+        }
+
+        final String[] params = call.getInputs().stream().map(Parameter::getValue).toArray(String[]::new);
+        final String callData = encodeCall(call.getFunctionIdentifier(), params);
+        final ReadResultCache.Entry cached = useCache ? cache.get(path.chaincode, callData) : null;
+        final String value;
+
+        if (cached != null) {
+            value = cached.getValue();
+        } else {
+            final long latestBlock = cache.getLatestBlock();
+
+            try {
+                value = new String(contract.evaluateTransaction(call.getFunctionIdentifier(), params), StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                throw new InvokeSmartContractFunctionFailure(e.getMessage());
+            }
+
+            cache.putLatest(path.chaincode, callData, latestBlock, value);
+        }
+
+        if (call.getOutputs().isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return Collections.singletonList(Parameter
+                .builder()
+                .name(call.getOutputs().get(0).getName())
+                .value(value)
+                .build());
+    }
+
+    /**
+     * @return the cache of the results of read-only invocations on the given channel, which is invalidated whenever the
+     * channel receives a new block.
+     */
+    private ReadResultCache getReadResultCache(String channel) {
+        return readResultCaches.computeIfAbsent(channel, name -> {
+            // the block listener reports every block, so results do not have to expire
+            final ReadResultCache cache = new ReadResultCache(READ_RESULT_CACHE_SIZE, 0);
+            GatewayManager.getInstance()
+                    .getChannel(blockchainId, name)
+                    .addBlockListener(blockEvent -> cache.onNewBlock(blockEvent.getBlockNumber()));
+
+            return cache;
+        });
+    }
+
+    /**
+     * @return the function and its arguments in an unambiguous form, e.g., to use them as a key
+     */
+    private static String encodeCall(String functionIdentifier, String[] params) {
+        final StringBuilder result = new StringBuilder(functionIdentifier);
+
+        for (String param : params) {
+            result.append('(').append(param == null ? -1 : param.length()).append(')').append(param);
+        }
+
+        return result.toString();
+    }
+
     @Override
     public Observable<Occurrence> subscribeToEvent(
             String smartContractAddress,
@@ -142,18 +273,30 @@ public class FabricAdapter implements BlockchainAdapter {
         SmartContractPathElements path = this.parsePathElements(smartContractAddress);
         Contract contract = GatewayManager.getInstance().getContract(blockchainId, path.channel, path.chaincode);
         final PublishSubject<Occurrence> result = PublishSubject.create();
+        final Bulkhead filterEvaluation = Bulkheads.getInstance().get(blockchainId, Bulkheads.Stage.FILTER_EVALUATION);
 
         Consumer<ContractEvent> consumer = contract.addContractListener(event -> {
             log.info(event.toString());
 
-            try {
-                Occurrence occurrence = this.handleEvent(event, outputParameters, filter);
+            final Runnable handler = () -> {
+                try {
+                    Occurrence occurrence = this.handleEvent(event, outputParameters, filter);
 
-                if (occurrence != null) {
-                    result.onNext(occurrence);
+                    if (occurrence != null) {
+                        result.onNext(occurrence);
+                    }
+                } catch (InvalidScipParameterException e) {
+                    result.onError(e);
                 }
-            } catch (InvalidScipParameterException e) {
-                result.onError(e);
+            };
+
+            try {
+                // the events of a subscription are handled in order, but not on the event threads of the network
+                filterEvaluation.execute(result, handler);
+            } catch (RejectedExecutionException e) {
+                // events must not be dropped, so the event thread is slowed down instead
+                log.warn("Too many events of {} are waiting to be handled. Handling the event right away.", smartContractAddress);
+                handler.run();
             }
         }, eventIdentifier);
 
@@ -174,12 +317,17 @@ public class FabricAdapter implements BlockchainAdapter {
             final CompletableFuture<QueryResult> result = new CompletableFuture<>();
             final QueryResult queryResult = QueryResult.builder().occurrences(new ArrayList<>()).build();
             log.info("latest Fabric block number: {}", latestBlockNumber);
+            final BlockTimestampIndex timestampIndex = this.getTimestampIndex(network, path.channel, latestBlockNumber);
+            final long startBlockNumber = fromDateTime == null ? 0 :
+                    this.findReplayStart(network, timestampIndex, fromDateTime, latestBlockNumber);
+            log.info("replaying Fabric blocks starting from block number: {}", startBlockNumber);
 
             // the listening is over either when the block number is past the latest block number at the time of invocation,
             // or when the "to" timestamp is exceeded by the transaction timestamp.
             // using the provided ContractListener does not work since we cannot tell when past events are done in the replay!
-            final Consumer<BlockEvent> consumer = network.addBlockListener(0, blockEvent -> {
+            final Consumer<BlockEvent> consumer = network.addBlockListener(startBlockNumber, blockEvent -> {
                 log.info("handling block no. {}", blockEvent.getBlockNumber());
+                this.indexBlock(timestampIndex, blockEvent);
 
                 blockEvent.getTransactionEvents().forEach(tE -> {
                     log.info("handling transaction hash: {}", tE.getTransactionID());
@@ -223,6 +371,121 @@ public class FabricAdapter implements BlockchainAdapter {
         }
     }
 
+    /**
+     * Finds the block from which the replay of a query has to start, so that older blocks are skipped. Since the
+     * timestamps of Fabric blocks are not monotonic, the search looks for the clock skew tolerated between blocks
+     * before the given date (see {@link BlockTimestampSearch}).
+     */
+    private long findReplayStart(Network network, BlockTimestampIndex timestampIndex, LocalDateTime fromDateTime, long latestBlockNumber) {
+        final BlockTimestampSearch search = new BlockTimestampSearch(number -> this.getBlockTimestamp(network, timestampIndex, number));
+
+        try {
+            final long firstBlockNumber = search.findFirstBlockAtOrAfter(
+                    fromDateTime.atZone(ZoneId.systemDefault()).toEpochSecond() - MAX_CLOCK_SKEW_SECONDS, latestBlockNumber);
+
+            return firstBlockNumber == Long.MAX_VALUE ? latestBlockNumber : firstBlockNumber;
+        } catch (IOException e) {
+            log.warn("Failed to find the first Fabric block after {}. Replaying from the genesis block. Reason: {}", fromDateTime, e.getMessage());
+
+            return 0;
+        }
+    }
+
+    /**
+     * @return the timestamp of a Fabric block (see {@link #getTimestamp(BlockInfo)})
+     */
+    private long getBlockTimestamp(Network network, BlockTimestampIndex timestampIndex, long blockNumber) throws IOException {
+        if (timestampIndex != null) {
+            final long indexed = timestampIndex.getTimestamp(blockNumber);
+
+            if (indexed >= 0) {
+                return indexed;
+            }
+        }
+
+        try {
+            final BlockInfo block = network.getChannel().queryBlockByNumber(blockNumber);
+            final long timestamp = getTimestamp(block);
+
+            // Fabric blocks are final, so they can be indexed right away
+            if (timestampIndex != null) {
+                timestampIndex.put(blockNumber, timestamp, getHash(block));
+            }
+
+            return timestamp;
+        } catch (ProposalException | InvalidArgumentException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void indexBlock(BlockTimestampIndex timestampIndex, BlockEvent blockEvent) {
+        if (timestampIndex == null || blockEvent.getEnvelopeCount() == 0 || timestampIndex.getTimestamp(blockEvent.getBlockNumber()) >= 0) {
+            return;
+        }
+
+        try {
+            timestampIndex.put(blockEvent.getBlockNumber(), getTimestamp(blockEvent), getHash(blockEvent));
+        } catch (IOException e) {
+            log.warn("Failed to index Fabric block no. {}. Reason: {}", blockEvent.getBlockNumber(), e.getMessage());
+        }
+    }
+
+    /**
+     * The timestamp of a Fabric block is the latest timestamp of its transactions (in seconds since the epoch), so
+     * that no transaction of the block is after it.
+     */
+    private static long getTimestamp(BlockInfo block) {
+        long timestamp = 0;
+
+        for (BlockInfo.EnvelopeInfo envelope : block.getEnvelopeInfos()) {
+            timestamp = Math.max(timestamp, envelope.getTimestamp().getTime() / 1000);
+        }
+
+        return timestamp;
+    }
+
+    /**
+     * Fabric blocks do not carry their own hash, so they are identified by the hash of their data, which differs
+     * between blocks of different channels even if they have the same name.
+     */
+    private static String getHash(BlockInfo block) {
+        return BaseEncoding.base16().lowerCase().encode(block.getDataHash());
+    }
+
+    /**
+     * Opens the persistent block timestamp index of a channel once, and validates it against the channel, so that the
+     * index of a channel that was recreated under the same name is cleared.
+     *
+     * @return the index, or null if it cannot be opened
+     */
+    private BlockTimestampIndex getTimestampIndex(Network network, String channel, long latestBlockNumber) {
+        return timestampIndexes.computeIfAbsent(channel, c -> {
+            try {
+                final BlockTimestampIndex index = BlockTimestampIndex.open(
+                        BlockTimestampIndex.getPath(timestampIndexDirectory, blockchainId + "-" + c));
+
+                // an index without an anchor hash cannot be validated
+                if (index.getAnchorNumber() >= 0 && index.getAnchorHash() == null) {
+                    index.clear();
+                }
+
+                index.validate(latestBlockNumber, number -> {
+                    try {
+                        return getHash(network.getChannel().queryBlockByNumber(number));
+                    } catch (ProposalException | InvalidArgumentException e) {
+                        throw new IOException(e);
+                    }
+                });
+
+                return index;
+            } catch (IOException e) {
+                log.warn("Failed to open the block timestamp index of channel {}. Reason: {}", c, e.getMessage());
+
+                return null;
+            }
+        });
+    }
+
     private Occurrence handleEvent(ContractEvent event, List<Parameter> outputParameters, String filter) throws InvalidScipParameterException {
         // todo try to parse the returned value according to the outputParameters
         List<Parameter> parameters = new ArrayList<>();
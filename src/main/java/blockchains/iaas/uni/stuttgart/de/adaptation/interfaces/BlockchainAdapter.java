@@ -16,13 +16,16 @@ import java.math.BigDecimal;
 import java.time.Period;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import blockchains.iaas.uni.stuttgart.de.exceptions.BalException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.InvalidTransactionException;
 import blockchains.iaas.uni.stuttgart.de.exceptions.NotSupportedException;
+import blockchains.iaas.uni.stuttgart.de.model.BatchInvocationResult;
 import blockchains.iaas.uni.stuttgart.de.model.Occurrence;
 import blockchains.iaas.uni.stuttgart.de.model.Parameter;
 import blockchains.iaas.uni.stuttgart.de.model.QueryResult;
+import blockchains.iaas.uni.stuttgart.de.model.SmartContractCall;
 import blockchains.iaas.uni.stuttgart.de.model.TimeFrame;
 import blockchains.iaas.uni.stuttgart.de.model.Transaction;
 import blockchains.iaas.uni.stuttgart.de.model.TransactionState;
@@ -96,6 +99,36 @@ public interface BlockchainAdapter {
             long timeoutMillis
     ) throws BalException;
 
+    /**
+     * invokes a smart contract function, optionally bypassing the cached results of read-only functions. Adapters that
+     * do not cache results fall back to {@link #invokeSmartContract(String, String, List, List, double, long)}.
+     *
+     * @param useCache whether the result of a read-only function may be taken from the results read at the latest block
+     */
+    default CompletableFuture<Transaction> invokeSmartContract(
+            String smartContractPath,
+            String functionIdentifier,
+            List<Parameter> inputs,
+            List<Parameter> outputs,
+            double requiredConfidence,
+            long timeoutMillis,
+            boolean useCache
+    ) throws BalException {
+        return invokeSmartContract(smartContractPath, functionIdentifier, inputs, outputs, requiredConfidence, timeoutMillis);
+    }
+
+    /**
+     * invokes many read-only smart contract functions at once, on the same block if the blockchain supports it
+     *
+     * @param calls    the invocations. Each has a smart contract path.
+     * @param useCache whether the results may be taken from the results read at the latest block
+     * @return a completable future that emits the results of the invocations in their order. An invocation that fails is
+     * reported in its result without affecting the others. The future should exceptionally complete with an exception
+     * of type BlockchainNodeUnreachableException if the blockchain node is not reachable.
+     * @throws NotSupportedException if the underlying blockchain system does not support smart contracts.
+     */
+    CompletableFuture<BatchInvocationResult> invokeSmartContracts(List<SmartContractCall> calls, boolean useCache) throws BalException;
+
     /**
      * Monitors the occurrences of a given blockchain event.
      *
@@ -123,10 +156,37 @@ public interface BlockchainAdapter {
      */
     CompletableFuture<QueryResult> queryEvents(String smartContractAddress, String eventIdentifier, List<Parameter> outputParameters,
                                                String filter, TimeFrame timeFrame) throws BalException;
+
+    /**
+     * Queries previous occurrences of a given blockchain event, and passes them to the consumer as soon as they are
+     * found instead of collecting them first. Adapters that do not retrieve occurrences incrementally fall back to
+     * {@link #queryEvents(String, String, List, String, TimeFrame)}.
+     *
+     * @param smartContractAddress the address of the smart contract that contains the event.
+     * @param eventIdentifier      the name of the event to be monitored.
+     * @param outputParameters     the list of output parameter names and types of the event to be monitored.
+     * @param filter               C-style filter for the events that uses the output parameters.
+     * @param timeFrame            The timeFrame in which to consider event occurrences.
+     * @param consumer             receives the matching occurrences in chronological order (one at a time).
+     * @return A completable future that completes when all matching occurrences are passed to the consumer.
+     */
+    default CompletableFuture<Void> queryEvents(String smartContractAddress, String eventIdentifier, List<Parameter> outputParameters,
+                                                String filter, TimeFrame timeFrame, Consumer<Occurrence> consumer) throws BalException {
+        return queryEvents(smartContractAddress, eventIdentifier, outputParameters, filter, timeFrame)
+                .thenAccept(result -> result.getOccurrences().forEach(consumer));
+    }
+
     /**
      * Tests the connection settings with the underlying blockchain
      *
      * @return true if the connection is successful, an error message otherwise.
      */
     String testConnection();
+
+    /**
+     * Releases the threads and connections of the adapter, e.g., when it is replaced by an adapter with an updated
+     * connection profile. The adapter cannot be used afterwards.
+     */
+    default void close() {
+    }
 }
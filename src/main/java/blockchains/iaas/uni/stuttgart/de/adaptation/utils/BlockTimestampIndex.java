@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent index of block timestamps of a single blockchain, stored in a memory-mapped file. The file holds a
+ * dense array with a slot per block number, which grows as higher blocks are added. Unknown slots can be filled lazily,
+ * e.g., by the probes of a {@link BlockTimestampSearch}, so that repeated searches are answered from the file only.
+ * <p>
+ * Only blocks that cannot be reorganized anymore should be added. The highest added block (the anchor) is stored
+ * together with its hash, so that {@link #validate(long, HashLookup)} can detect a reset or replaced chain when the
+ * process starts, in which case the index is cleared.
+ */
+public class BlockTimestampIndex implements Closeable {
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".bal", "indexes");
+    private static final Logger log = LoggerFactory.getLogger(BlockTimestampIndex.class);
+    private static final int MAGIC = 0x42414c54;
+    private static final int VERSION = 1;
+    private static final int MAX_HASH_LENGTH = 100;
+    // magic (4), version (4), anchor number (8), anchor hash length (4), anchor hash (MAX_HASH_LENGTH)
+    private static final int HEADER_SIZE = 128;
+    private static final int SLOT_SIZE = Long.BYTES;
+    private static final long INITIAL_SLOTS = 1 << 16;
+    private static final long MAX_SLOTS = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+    private final Path file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long anchorNumber;
+    private String anchorHash;
+
+    private BlockTimestampIndex(Path file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+
+        if (channel.size() >= HEADER_SIZE) {
+            this.map(channel.size());
+
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("The file " + file + " is not a block timestamp index");
+            }
+
+            this.anchorNumber = buffer.getLong(8);
+            final int hashLength = buffer.getInt(16);
+            final byte[] hash = new byte[hashLength];
+
+            for (int i = 0; i < hashLength; i++) {
+                hash[i] = buffer.get(20 + i);
+            }
+
+            this.anchorHash = hashLength == 0 ? null : new String(hash, StandardCharsets.US_ASCII);
+        } else {
+            this.map(HEADER_SIZE + INITIAL_SLOTS * SLOT_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            this.writeAnchor(-1, null);
+        }
+    }
+
+    /**
+     * Opens the index stored in the given file, or creates it if it does not exist.
+     */
+    public static BlockTimestampIndex open(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        final FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            return new BlockTimestampIndex(file, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the default location of the index of the given blockchain (and, e.g., channel) identifier.
+     */
+    public static Path getDefaultPath(String identifier) {
+        return getPath(DEFAULT_DIRECTORY, identifier);
+    }
+
+    /**
+     * @return the location of the index of the given blockchain (and, e.g., channel) identifier in the given directory.
+     */
+    public static Path getPath(Path directory, String identifier) {
+        return directory.resolve(identifier.replaceAll("[^A-Za-z0-9._-]", "_") + ".tsidx");
+    }
+
+    /**
+     * @return the timestamp of the given block, or -1 if the block is not indexed yet.
+     */
+    public synchronized long getTimestamp(long blockNumber) {
+        if (blockNumber < 0 || !isWithinFile(blockNumber)) {
+            return -1;
+        }
+
+        // slots store the timestamp plus one, so that zero-filled regions of the file read as unknown
+        return buffer.getLong(offsetOf(blockNumber)) - 1;
+    }
+
+    /**
+     * Adds the timestamp of a block that cannot be reorganized anymore. Blocks beyond the capacity of the file format
+     * are not indexed, so their timestamps keep being looked up on the chain.
+     *
+     * @param blockHash the hash of the block, or null if the blockchain does not need to validate the index by hash
+     */
+    public synchronized void put(long blockNumber, long timestamp, String blockHash) throws IOException {
+        if (blockNumber < 0) {
+            throw new IllegalArgumentException("The block number (" + blockNumber + ") cannot be indexed!");
+        }
+
+        if (blockNumber >= MAX_SLOTS) {
+            log.debug("Block {} is beyond the capacity of the block timestamp index {}. Not indexing it.", blockNumber, file);
+
+            return;
+        }
+
+        if (!isWithinFile(blockNumber)) {
+            final long slots = Math.min(MAX_SLOTS, Math.max(blockNumber + 1, 2 * this.getCapacity()));
+            this.map(HEADER_SIZE + slots * SLOT_SIZE);
+        }
+
+        buffer.putLong(offsetOf(blockNumber), timestamp + 1);
+
+        if (blockNumber > anchorNumber) {
+            this.writeAnchor(blockNumber, blockHash);
+        }
+    }
+
+    /**
+     * Checks that the indexed blocks still belong to the chain of the node, and clears the index otherwise.
+     *
+     * @param headNumber      the number of the current head of the chain
+     * @param canonicalHashes used to retrieve the current hash of the anchor block, or null if the blockchain does not
+     *                        validate by hash
+     * @return true if the index is still valid
+     */
+    public synchronized boolean validate(long headNumber, HashLookup canonicalHashes) throws IOException {
+        if (anchorNumber < 0) {
+            return true;
+        }
+
+        final boolean valid = anchorNumber <= headNumber &&
+                (canonicalHashes == null || anchorHash == null || anchorHash.equalsIgnoreCase(canonicalHashes.getHash(anchorNumber)));
+
+        if (!valid) {
+            log.warn("The block timestamp index {} does not match the chain of the node anymore. Clearing it.", file);
+            this.clear();
+        }
+
+        return valid;
+    }
+
+    public synchronized void clear() {
+        // the file is not truncated since it is still mapped
+        for (int offset = HEADER_SIZE; offset + SLOT_SIZE <= buffer.capacity(); offset += SLOT_SIZE) {
+            buffer.putLong(offset, 0);
+        }
+
+        this.writeAnchor(-1, null);
+    }
+
+    public synchronized long getAnchorNumber() {
+        return anchorNumber;
+    }
+
+    /**
+     * @return the hash of the anchor block, or null if there is no anchor or it was added without a hash.
+     */
+    public synchronized String getAnchorHash() {
+        return anchorHash;
+    }
+
+    /**
+     * @return the number of blocks the file currently has slots for.
+     */
+    public synchronized long getCapacity() {
+        return (buffer.capacity() - HEADER_SIZE) / SLOT_SIZE;
+    }
+
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private boolean isWithinFile(long blockNumber) {
+        return offsetOf(blockNumber) + SLOT_SIZE <= buffer.capacity();
+    }
+
+    private static int offsetOf(long blockNumber) {
+        return (int) (HEADER_SIZE + blockNumber * SLOT_SIZE);
+    }
+
+    private void map(long size) throws IOException {
+        // mapping beyond the end of the file extends it with zeros
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void writeAnchor(long number, String hash) {
+        final byte[] hashBytes = hash == null ? new byte[0] : hash.getBytes(StandardCharsets.US_ASCII);
+
+        if (hashBytes.length > MAX_HASH_LENGTH) {
+            throw new IllegalArgumentException("The block hash is too long to be indexed!");
+        }
+
+        buffer.putLong(8, number);
+        buffer.putInt(16, hashBytes.length);
+
+        for (int i = 0; i < hashBytes.length; i++) {
+            buffer.put(20 + i, hashBytes[i]);
+        }
+
+        this.anchorNumber = number;
+        this.anchorHash = hash;
+    }
+
+    @FunctionalInterface
+    public interface HashLookup {
+        String getHash(long blockNumber) throws IOException;
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.io.IOException;
+
+/**
+ * Finds the first block whose timestamp is not before a given point in time. Block timestamps are non-decreasing, so
+ * the search narrows an interval [low, high] with ts(low) &lt; target &lt;= ts(high). Each step probes the block
+ * estimated by interpolating between the timestamps of the interval ends, which converges quickly when block times
+ * are regular. Whenever an interpolation step fails to halve the interval, the next step bisects it instead, so at
+ * most about 2 * log2(n) timestamps are fetched even when block times are very irregular.
+ * <p>
+ * The interval invariant does not depend on the order of the timestamps, so the block preceding the result is always
+ * before the target. If timestamps are not monotonic, but a block is never more than s seconds later than any
+ * subsequent block, searching for target - s therefore yields a block at or before every block at or after the target.
+ */
+public class BlockTimestampSearch {
+    private final TimestampSource timestamps;
+
+    public BlockTimestampSearch(TimestampSource timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * @param targetTimestamp   the point in time in seconds since the epoch
+     * @param latestBlockNumber the number of the most recent block to consider
+     * @return the number of the first block whose timestamp is at or after the target, 0 if all blocks are, or
+     * {@link Long#MAX_VALUE} if none is.
+     * @throws IOException if a timestamp cannot be retrieved
+     */
+    public long findFirstBlockAtOrAfter(long targetTimestamp, long latestBlockNumber) throws IOException {
+        long low = 0;
+        long high = latestBlockNumber;
+        long lowTimestamp = timestamps.getTimestamp(low);
+
+        if (lowTimestamp >= targetTimestamp) {
+            return 0;
+        }
+
+        long highTimestamp = timestamps.getTimestamp(high);
+
+        if (highTimestamp < targetTimestamp) {
+            return Long.MAX_VALUE;
+        }
+
+        boolean bisect = false;
+
+        while (high - low > 1) {
+            final long previousWidth = high - low;
+            final long probe;
+
+            if (bisect) {
+                probe = low + previousWidth / 2;
+            } else {
+                // the fraction of the time span covered until the target (highTimestamp > lowTimestamp here)
+                final double fraction = (double) (targetTimestamp - lowTimestamp) / (highTimestamp - lowTimestamp);
+                probe = Math.min(high - 1, Math.max(low + 1, low + (long) (fraction * previousWidth)));
+            }
+
+            final long probeTimestamp = timestamps.getTimestamp(probe);
+
+            if (probeTimestamp < targetTimestamp) {
+                low = probe;
+                lowTimestamp = probeTimestamp;
+            } else {
+                high = probe;
+                highTimestamp = probeTimestamp;
+            }
+
+            bisect = high - low > previousWidth / 2;
+        }
+
+        return high;
+    }
+
+    @FunctionalInterface
+    public interface TimestampSource {
+        /**
+         * @return the timestamp of the block with the given number in seconds since the epoch
+         */
+        long getTimestamp(long blockNumber) throws IOException;
+    }
+}
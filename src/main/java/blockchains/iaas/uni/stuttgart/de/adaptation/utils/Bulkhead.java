@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A named executor with a bounded number of threads and a bounded queue. Work that is isolated in its own bulkhead can
+ * only exhaust the threads of that bulkhead, e.g., a slow node or callback endpoint cannot delay the work of other
+ * blockchains. If the queue is full, further tasks are rejected with a {@link RejectedExecutionException} instead of
+ * piling up.
+ * <p>
+ * Tasks can also be executed in the order they are submitted per key, e.g., the callbacks to the same endpoint. The
+ * tasks of a key occupy at most one thread at a time, and at most the capacity of the queue of them may be pending.
+ */
+public class Bulkhead implements Executor {
+    private static final Logger log = LoggerFactory.getLogger(Bulkhead.class);
+    // a warning is logged whenever the pending tasks of a key reach a multiple of this number
+    private static final int PENDING_WARNING_STEP = 1_000;
+    private final String name;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor executor;
+    // key -> the pending tasks of the key (present while a task of the key is queued or running)
+    private final Map<Object, Deque<Runnable>> keyedTasks = new HashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong pendingKeyedCount = new AtomicLong();
+
+    /**
+     * @param name          the name of the bulkhead, which prefixes the names of its threads
+     * @param threads       the maximum number of tasks executed at the same time
+     * @param queueCapacity the maximum number of tasks waiting for a thread
+     */
+    public Bulkhead(String name, int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("A bulkhead needs at least one thread and a queue capacity of at least one!");
+        }
+
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @throws RejectedExecutionException if the queue is full or the bulkhead is shut down
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            executor.execute(() -> this.run(task));
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            log.warn("The bulkhead {} rejected a task. Active: {}, queued: {}.", name, this.getActiveCount(), this.getQueueSize());
+
+            throw e;
+        }
+    }
+
+    /**
+     * Executes the task after the tasks previously submitted with the same key.
+     *
+     * @throws RejectedExecutionException if too many tasks of the key are pending, the queue is full, or the bulkhead
+     *                                    is shut down
+     */
+    public void execute(Object key, Runnable task) {
+        synchronized (keyedTasks) {
+            final Deque<Runnable> pending = keyedTasks.get(key);
+
+            if (pending != null) {
+                if (pending.size() >= queueCapacity) {
+                    rejectedCount.incrementAndGet();
+                    log.warn("The bulkhead {} rejected a task since {} tasks of {} are pending.", name, pending.size(), key);
+
+                    throw new RejectedExecutionException("Too many pending tasks of " + key + " in bulkhead " + name);
+                }
+
+                pending.addLast(task);
+                pendingKeyedCount.incrementAndGet();
+
+                if (pending.size() % PENDING_WARNING_STEP == 0) {
+                    log.warn("{} tasks of {} are pending in the bulkhead {}.", pending.size(), key, name);
+                }
+
+                return;
+            }
+
+            keyedTasks.put(key, new ArrayDeque<>());
+        }
+
+        try {
+            this.execute(() -> this.drain(key, task));
+        } catch (RejectedExecutionException e) {
+            synchronized (keyedTasks) {
+                keyedTasks.remove(key);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return an executor that executes tasks in this bulkhead, or on the calling thread if the bulkhead rejects them.
+     * Work that must not be dropped (e.g., the events of subscriptions) is thus slowed down instead, which also slows
+     * down the work submitting it.
+     */
+    public Executor callerRunsIfRejected() {
+        return task -> {
+            try {
+                this.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        };
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the maximum number of tasks executed at the same time.
+     */
+    public synchronized int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Changes the maximum number of tasks executed at the same time. Running tasks are not interrupted, so the number
+     * of threads shrinks as they finish.
+     */
+    public synchronized void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A bulkhead needs at least one thread!");
+        }
+
+        // the core pool size must never exceed the maximum pool size
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * @return the number of threads executing tasks right now.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread (the tasks waiting for a previous task of their key not included).
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of tasks waiting for a previous task of their key.
+     */
+    public long getPendingKeyedCount() {
+        return pendingKeyedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return the number of tasks that threw an exception.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Runs the given task of the key followed by the tasks of the key submitted meanwhile.
+     */
+    private void drain(Object key, Runnable first) {
+        Runnable task = first;
+
+        while (task != null) {
+            this.run(task);
+
+            synchronized (keyedTasks) {
+                final Deque<Runnable> pending = keyedTasks.get(key);
+                task = pending.pollFirst();
+
+                if (task == null) {
+                    keyedTasks.remove(key);
+                } else {
+                    pendingKeyedCount.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            log.error("A task of the bulkhead {} failed. Reason: {}", name, e.getMessage());
+        }
+    }
+}
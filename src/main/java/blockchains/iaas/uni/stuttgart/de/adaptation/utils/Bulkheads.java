@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link Bulkhead}s of the gateway: one per blockchain and stage of the processing of requests and events. Hence, a
+ * slow network or callback endpoint only exhausts the threads of its own blockchain and stage.
+ */
+public class Bulkheads {
+    // the maximum number of tasks of a bulkhead waiting for a thread
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    // the queue capacity of stages whose work must not be dropped
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    private static Bulkheads instance = null;
+    // "<blockchain id>-<stage>" -> bulkhead
+    private final Map<String, Bulkhead> bulkheads = new TreeMap<>();
+
+    public enum Stage {
+        // sending requests to the nodes of the blockchain and waiting for their responses
+        RPC_IO("rpc-io", 8, DEFAULT_QUEUE_CAPACITY),
+        // decoding the events received from the blockchain
+        DECODING("decoding", 2, DEFAULT_QUEUE_CAPACITY),
+        // evaluating the filters of the event subscriptions
+        FILTER_EVALUATION("filter", 2, DEFAULT_QUEUE_CAPACITY),
+        // sending the callbacks to the client applications, which are the only way clients learn about the results
+        CALLBACK_DISPATCH("callback", 4, UNBOUNDED);
+
+        private final String label;
+        private final int defaultThreads;
+        private final int queueCapacity;
+
+        Stage(String label, int defaultThreads, int queueCapacity) {
+            this.label = label;
+            this.defaultThreads = defaultThreads;
+            this.queueCapacity = queueCapacity;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public int getDefaultThreads() {
+            return defaultThreads;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+    }
+
+    private Bulkheads() {
+
+    }
+
+    public static synchronized Bulkheads getInstance() {
+        if (instance == null)
+            instance = new Bulkheads();
+
+        return instance;
+    }
+
+    /**
+     * @return the bulkhead of the given blockchain and stage, which is created with the default number of threads if
+     * it does not exist yet (an existing bulkhead keeps its number of threads).
+     */
+    public synchronized Bulkhead get(String blockchainId, Stage stage) {
+        final Bulkhead existing = bulkheads.get(getName(blockchainId, stage));
+
+        if (existing != null && !existing.isShutdown()) {
+            return existing;
+        }
+
+        return this.get(blockchainId, stage, stage.getDefaultThreads());
+    }
+
+    /**
+     * @param threads the number of threads of the bulkhead, to which an existing bulkhead is resized, e.g., when the
+     *                adapter of the blockchain is recreated with a new configuration
+     * @return the bulkhead of the given blockchain and stage.
+     */
+    public synchronized Bulkhead get(String blockchainId, Stage stage, int threads) {
+        final String name = getName(blockchainId, stage);
+        Bulkhead result = bulkheads.get(name);
+
+        if (result == null || result.isShutdown()) {
+            result = new Bulkhead(name, threads, stage.getQueueCapacity());
+            bulkheads.put(name, result);
+        } else if (result.getThreads() != threads) {
+            result.setThreads(threads);
+        }
+
+        return result;
+    }
+
+    private static String getName(String blockchainId, Stage stage) {
+        return blockchainId + "-" + stage.getLabel();
+    }
+
+    /**
+     * @return all bulkheads ordered by their names.
+     */
+    public synchronized List<Bulkhead> getAll() {
+        return new ArrayList<>(bulkheads.values());
+    }
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the results of read-only smart contract invocations of a single blockchain (or Fabric channel) while the block
+ * they were read at is the latest one. Results are keyed by the contract, the encoded call and the caller the contract
+ * saw (if calls can have different callers, since the result might depend on it), and are tagged with the
+ * number of the block they were read at, or, if the block is unknown (reads of the latest block), with the latest block
+ * reported when the read was issued. Only results with a known block can be combined with each other (see
+ * {@link #getAll(List, List)}).
+ * <p>
+ * Reporting a new block using {@link #onNewBlock(long)} removes the results read before it. A block with a number that
+ * is not higher than the latest one indicates a reorganization, and removes all results. If no blocks are reported
+ * (e.g., since the chain head is not followed), results are used for at most the configured maximum age.
+ */
+public class ReadResultCache {
+    private final int maxSize;
+    private final long maxAgeMillis;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private long latestBlock = -1;
+    private long latestBlockMillis;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxSize      the maximum number of results kept
+     * @param maxAgeMillis how long a result is used if no new blocks are reported (0 to use it until the next block)
+     */
+    public ReadResultCache(int maxSize, long maxAgeMillis) {
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return the number of the latest block reported, or -1 if none is. Reads of the latest block are tagged with the
+     * number returned when they are issued, so that results read before a new block is reported are not cached.
+     */
+    public synchronized long getLatestBlock() {
+        return latestBlock;
+    }
+
+    /**
+     * @return the cached result of the given call, or null if there is none.
+     */
+    public Entry get(String contract, String callData) {
+        return this.get(contract, null, callData);
+    }
+
+    /**
+     * @param caller the caller the contract sees, or null if all calls have the same caller
+     * @return the cached result of the given call, or null if there is none.
+     */
+    public synchronized Entry get(String contract, String caller, String callData) {
+        final Entry entry = this.lookup(key(contract, caller, callData), System.currentTimeMillis());
+
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Looks up the results of calls that have to be read at the same block.
+     *
+     * @return the results of all calls in their order, or null if some call has no cached result or the results were
+     * not all read at the same known block. In the latter case, every call counts as a miss.
+     */
+    public List<Entry> getAll(List<String> contracts, List<String> callData) {
+        return this.getAll(contracts, null, callData);
+    }
+
+    /**
+     * Looks up the results of calls of the same caller that have to be read at the same block (see
+     * {@link #getAll(List, List)}).
+     *
+     * @param caller the caller the contracts see, or null if all calls have the same caller
+     */
+    public synchronized List<Entry> getAll(List<String> contracts, String caller, List<String> callData) {
+        final long now = System.currentTimeMillis();
+        final List<Entry> result = new ArrayList<>(contracts.size());
+
+        for (int i = 0; i < contracts.size(); i++) {
+            final Entry entry = this.lookup(key(contracts.get(i), caller, callData.get(i)), now);
+
+            if (entry == null || entry.block < 0 || i > 0 && entry.block != result.get(0).block) {
+                missCount += contracts.size();
+
+                return null;
+            }
+
+            result.add(entry);
+        }
+
+        hitCount += contracts.size();
+
+        return result;
+    }
+
+    /**
+     * Caches the result of a call read at the given block.
+     */
+    public void put(String contract, String callData, long block, String value) {
+        this.put(contract, null, callData, block, value);
+    }
+
+    /**
+     * Caches the result of a call read at the given block.
+     *
+     * @param caller the caller the contract saw, or null if all calls have the same caller
+     */
+    public synchronized void put(String contract, String caller, String callData, long block, String value) {
+        this.store(key(contract, caller, callData), block, block, value);
+    }
+
+    /**
+     * Caches the result of a call read at the latest block.
+     *
+     * @param issuedAtBlock the latest block reported when the read was issued (see {@link #getLatestBlock()})
+     */
+    public void putLatest(String contract, String callData, long issuedAtBlock, String value) {
+        this.putLatest(contract, null, callData, issuedAtBlock, value);
+    }
+
+    /**
+     * Caches the result of a call read at the latest block.
+     *
+     * @param caller        the caller the contract saw, or null if all calls have the same caller
+     * @param issuedAtBlock the latest block reported when the read was issued (see {@link #getLatestBlock()})
+     */
+    public synchronized void putLatest(String contract, String caller, String callData, long issuedAtBlock, String value) {
+        this.store(key(contract, caller, callData), -1, issuedAtBlock, value);
+    }
+
+    public synchronized void onNewBlock(long blockNumber) {
+        if (blockNumber > latestBlock) {
+            entries.values().removeIf(entry -> entry.tag < blockNumber);
+        } else {
+            // the chain was reorganized
+            entries.clear();
+        }
+
+        latestBlock = blockNumber;
+        latestBlockMillis = System.currentTimeMillis();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the share of lookups answered from the cache (0 if there were no lookups).
+     */
+    public synchronized double getHitRatio() {
+        final long lookups = hitCount + missCount;
+
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    private void store(String key, long block, long tag, String value) {
+        if (tag > latestBlock) {
+            // the result tells about a block that is not reported yet
+            this.onNewBlock(tag);
+        } else if (tag < latestBlock) {
+            // a newer block was reported while the result was read
+            return;
+        }
+
+        entries.put(key, new Entry(value, block, tag, System.currentTimeMillis()));
+    }
+
+    private Entry lookup(String key, long now) {
+        final Entry entry = entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        // the age only matters if no blocks are reported
+        final boolean blocksReported = now - latestBlockMillis <= 2 * maxAgeMillis;
+
+        if (maxAgeMillis > 0 && !blocksReported && now - entry.createdMillis > maxAgeMillis) {
+            entries.remove(key);
+
+            return null;
+        }
+
+        return entry;
+    }
+
+    private static String key(String contract, String caller, String callData) {
+        return contract.toLowerCase() + ":" + (caller == null ? "" : caller.toLowerCase()) + ":" + callData;
+    }
+
+    public static class Entry {
+        private final String value;
+        private final long block;
+        // the block the result is valid for until a newer one is reported
+        private final long tag;
+        private final long createdMillis;
+
+        private Entry(String value, long block, long tag, long createdMillis) {
+            this.value = value;
+            this.block = block;
+            this.tag = tag;
+            this.createdMillis = createdMillis;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return the number of the block the result was read at, or -1 if it is unknown.
+         */
+        public long getBlock() {
+            return block;
+        }
+    }
+}
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package blockchains.iaas.uni.stuttgart.de.connectionprofiles.profiles;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import blockchains.iaas.uni.stuttgart.de.connectionprofiles.AbstractConnectionProfile;
@@ -17,13 +19,84 @@ import blockchains.iaas.uni.stuttgart.de.connectionprofiles.AbstractConnectionPr
 public class EthereumConnectionProfile extends AbstractConnectionProfile {
     private static final String PREFIX = "ethereum.";
     public static final String NODE_URL = PREFIX + "nodeUrl";
+    public static final String NODE_URLS = PREFIX + "nodeUrls";
+    public static final String ENDPOINT_PROBE_INTERVAL_MILLIS = PREFIX + "endpointProbeIntervalMillis";
+    public static final String MAX_ENDPOINT_LAG_BLOCKS = PREFIX + "maxEndpointLagBlocks";
+    public static final String MIN_POLL_INTERVAL_MILLIS = PREFIX + "minPollIntervalMillis";
+    public static final String PUSH_ENDPOINT = PREFIX + "pushEndpoint";
+    public static final String MULTICALL_ADDRESS = PREFIX + "multicallAddress";
+    public static final String TIMESTAMP_INDEX_DIRECTORY = PREFIX + "timestampIndexDirectory";
     public static final String KEYSTORE_PATH = PREFIX + "keystorePath";
     public static final String KEYSTORE_PASSWORD = PREFIX + "keystorePassword";
     public static final String BLOCK_TIME = PREFIX + "blockTimeSeconds";
+    public static final String MAX_BATCH_SIZE = PREFIX + "maxBatchSize";
+    public static final String BATCH_LINGER_MILLIS = PREFIX + "batchLingerMillis";
+    public static final String HEADER_CACHE_SIZE = PREFIX + "headerCacheSize";
+    public static final String LOG_QUERY_CHUNK_SIZE = PREFIX + "logQueryChunkSize";
+    public static final String LOG_QUERY_PARALLELISM = PREFIX + "logQueryParallelism";
+    public static final String GAS_PRICE_PERCENTILE = PREFIX + "gasPricePercentile";
+    public static final String GAS_LIMIT_MARGIN_PERCENT = PREFIX + "gasLimitMarginPercent";
+    public static final String CONNECTION_POOL_SIZE = PREFIX + "connectionPoolSize";
+    public static final String MAX_CONCURRENT_REQUESTS = PREFIX + "maxConcurrentRequests";
+    public static final String HTTP2_ENABLED = PREFIX + "http2Enabled";
+    public static final String CONNECT_TIMEOUT_MILLIS = PREFIX + "connectTimeoutMillis";
+    public static final String REQUEST_TIMEOUT_MILLIS = PREFIX + "requestTimeoutMillis";
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private static final long DEFAULT_BATCH_LINGER_MILLIS = 5;
+    private static final int DEFAULT_HEADER_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_LOG_QUERY_CHUNK_SIZE = 2_000;
+    private static final int DEFAULT_LOG_QUERY_PARALLELISM = 4;
+    private static final int DEFAULT_GAS_PRICE_PERCENTILE = 50;
+    private static final int DEFAULT_GAS_LIMIT_MARGIN_PERCENT = 20;
+    private static final int DEFAULT_CONNECTION_POOL_SIZE = 10;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+    private static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 60_000;
+    private static final long DEFAULT_ENDPOINT_PROBE_INTERVAL_MILLIS = 1_000;
+    private static final int DEFAULT_MAX_ENDPOINT_LAG_BLOCKS = 1;
+    private static final long DEFAULT_MIN_POLL_INTERVAL_MILLIS = 100;
     private String nodeUrl;
+    // further nodes of the same chain the requests are distributed to
+    private List<String> nodeUrls = new ArrayList<>();
+    // how often the nodes are probed for their head block and latency if there are several
+    private long endpointProbeIntervalMillis = DEFAULT_ENDPOINT_PROBE_INTERVAL_MILLIS;
+    // how many blocks a node may be behind the others to still receive requests
+    private int maxEndpointLagBlocks = DEFAULT_MAX_ENDPOINT_LAG_BLOCKS;
+    // a WebSocket url or IPC socket path the node pushes new heads and logs to (null to poll for them)
+    private String pushEndpoint;
+    // the address of a Multicall contract that executes batches of read-only calls in a single call (null to use JSON-RPC batches)
+    private String multicallAddress;
+    // the directory of the persistent block timestamp index (null to use .bal/indexes inside the user home directory)
+    private String timestampIndexDirectory;
     private String keystorePath;
     private String keystorePassword;
     private int pollingTimeSeconds;
+    // the minimum interval between polls for new blocks (the polls adapt to the block interval of the chain)
+    private long minPollIntervalMillis = DEFAULT_MIN_POLL_INTERVAL_MILLIS;
+    // the maximum number of JSON-RPC requests sent in a single batch (1 disables batching)
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    // how long a request may wait for other requests to share its batch
+    private long batchLingerMillis = DEFAULT_BATCH_LINGER_MILLIS;
+    // the maximum number of block headers kept in memory (e.g., to look up the timestamps of events)
+    private int headerCacheSize = DEFAULT_HEADER_CACHE_SIZE;
+    // the number of blocks whose logs are initially requested at once when querying events (adapted automatically)
+    private int logQueryChunkSize = DEFAULT_LOG_QUERY_CHUNK_SIZE;
+    // the maximum number of concurrent log requests of a single query
+    private int logQueryParallelism = DEFAULT_LOG_QUERY_PARALLELISM;
+    // the percentile of the priority fees paid in recent blocks that our transactions pay
+    private int gasPricePercentile = DEFAULT_GAS_PRICE_PERCENTILE;
+    // how much gas transactions may use above the estimate of the node
+    private int gasLimitMarginPercent = DEFAULT_GAS_LIMIT_MARGIN_PERCENT;
+    // the maximum number of idle connections to the node kept open for reuse
+    private int connectionPoolSize = DEFAULT_CONNECTION_POOL_SIZE;
+    // the maximum number of HTTP requests sent to the node at the same time (further requests are queued)
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    // whether requests to https urls may be multiplexed over a single HTTP/2 connection
+    private boolean http2Enabled = true;
+    // how long establishing a connection to the node may take
+    private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    // how long a single HTTP request to the node may take in total (0 means no deadline)
+    private long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
 
     public EthereumConnectionProfile() {
     }
@@ -43,6 +116,62 @@ public class EthereumConnectionProfile extends AbstractConnectionProfile {
         this.nodeUrl = nodeUrl;
     }
 
+    public List<String> getNodeUrls() {
+        return nodeUrls;
+    }
+
+    public void setNodeUrls(List<String> nodeUrls) {
+        this.nodeUrls = nodeUrls == null ? new ArrayList<>() : nodeUrls;
+    }
+
+    public long getEndpointProbeIntervalMillis() {
+        return endpointProbeIntervalMillis;
+    }
+
+    public void setEndpointProbeIntervalMillis(long endpointProbeIntervalMillis) {
+        if (endpointProbeIntervalMillis < 1) {
+            throw new IllegalArgumentException("The endpoint probe interval must be positive, but (" + endpointProbeIntervalMillis + ") is passed!");
+        }
+
+        this.endpointProbeIntervalMillis = endpointProbeIntervalMillis;
+    }
+
+    public int getMaxEndpointLagBlocks() {
+        return maxEndpointLagBlocks;
+    }
+
+    public void setMaxEndpointLagBlocks(int maxEndpointLagBlocks) {
+        if (maxEndpointLagBlocks < 0) {
+            throw new IllegalArgumentException("The maximum endpoint lag cannot be negative, but (" + maxEndpointLagBlocks + ") is passed!");
+        }
+
+        this.maxEndpointLagBlocks = maxEndpointLagBlocks;
+    }
+
+    public String getPushEndpoint() {
+        return pushEndpoint;
+    }
+
+    public void setPushEndpoint(String pushEndpoint) {
+        this.pushEndpoint = pushEndpoint;
+    }
+
+    public String getMulticallAddress() {
+        return multicallAddress;
+    }
+
+    public void setMulticallAddress(String multicallAddress) {
+        this.multicallAddress = multicallAddress;
+    }
+
+    public String getTimestampIndexDirectory() {
+        return timestampIndexDirectory;
+    }
+
+    public void setTimestampIndexDirectory(String timestampIndexDirectory) {
+        this.timestampIndexDirectory = timestampIndexDirectory;
+    }
+
     public String getKeystorePath() {
         return keystorePath;
     }
@@ -67,13 +196,194 @@ public class EthereumConnectionProfile extends AbstractConnectionProfile {
         this.pollingTimeSeconds = pollingTimeSeconds;
     }
 
+    public long getMinPollIntervalMillis() {
+        return minPollIntervalMillis;
+    }
+
+    public void setMinPollIntervalMillis(long minPollIntervalMillis) {
+        if (minPollIntervalMillis < 1) {
+            throw new IllegalArgumentException("The minimum poll interval must be positive, but (" + minPollIntervalMillis + ") is passed!");
+        }
+
+        this.minPollIntervalMillis = minPollIntervalMillis;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getBatchLingerMillis() {
+        return batchLingerMillis;
+    }
+
+    public void setBatchLingerMillis(long batchLingerMillis) {
+        if (batchLingerMillis < 0) {
+            throw new IllegalArgumentException("The batch linger time cannot be negative, but (" + batchLingerMillis + ") is passed!");
+        }
+
+        this.batchLingerMillis = batchLingerMillis;
+    }
+
+    public int getHeaderCacheSize() {
+        return headerCacheSize;
+    }
+
+    public void setHeaderCacheSize(int headerCacheSize) {
+        if (headerCacheSize < 1) {
+            throw new IllegalArgumentException("The header cache size must be positive, but (" + headerCacheSize + ") is passed!");
+        }
+
+        this.headerCacheSize = headerCacheSize;
+    }
+
+    public int getLogQueryChunkSize() {
+        return logQueryChunkSize;
+    }
+
+    public void setLogQueryChunkSize(int logQueryChunkSize) {
+        if (logQueryChunkSize < 1) {
+            throw new IllegalArgumentException("The log query chunk size must be positive, but (" + logQueryChunkSize + ") is passed!");
+        }
+
+        this.logQueryChunkSize = logQueryChunkSize;
+    }
+
+    public int getLogQueryParallelism() {
+        return logQueryParallelism;
+    }
+
+    public void setLogQueryParallelism(int logQueryParallelism) {
+        if (logQueryParallelism < 1) {
+            throw new IllegalArgumentException("The log query parallelism must be positive, but (" + logQueryParallelism + ") is passed!");
+        }
+
+        this.logQueryParallelism = logQueryParallelism;
+    }
+
+    public int getGasPricePercentile() {
+        return gasPricePercentile;
+    }
+
+    public void setGasPricePercentile(int gasPricePercentile) {
+        if (gasPricePercentile < 0 || gasPricePercentile > 100) {
+            throw new IllegalArgumentException("The gas price percentile must be between 0 and 100, but (" + gasPricePercentile + ") is passed!");
+        }
+
+        this.gasPricePercentile = gasPricePercentile;
+    }
+
+    public int getGasLimitMarginPercent() {
+        return gasLimitMarginPercent;
+    }
+
+    public void setGasLimitMarginPercent(int gasLimitMarginPercent) {
+        if (gasLimitMarginPercent < 0) {
+            throw new IllegalArgumentException("The gas limit margin cannot be negative, but (" + gasLimitMarginPercent + ") is passed!");
+        }
+
+        this.gasLimitMarginPercent = gasLimitMarginPercent;
+    }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        if (connectionPoolSize < 1) {
+            throw new IllegalArgumentException("The connection pool size must be positive, but (" + connectionPoolSize + ") is passed!");
+        }
+
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("The maximum number of concurrent requests must be positive, but (" + maxConcurrentRequests + ") is passed!");
+        }
+
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        if (connectTimeoutMillis < 1) {
+            throw new IllegalArgumentException("The connect timeout must be positive, but (" + connectTimeoutMillis + ") is passed!");
+        }
+
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+        if (requestTimeoutMillis < 0) {
+            throw new IllegalArgumentException("The request timeout cannot be negative, but (" + requestTimeoutMillis + ") is passed!");
+        }
+
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
     @Override
     public Properties getAsProperties() {
         final Properties result = super.getAsProperties();
         result.setProperty(NODE_URL, this.nodeUrl);
+
+        if (!this.nodeUrls.isEmpty()) {
+            result.setProperty(NODE_URLS, String.join(",", this.nodeUrls));
+        }
+
+        result.setProperty(ENDPOINT_PROBE_INTERVAL_MILLIS, String.valueOf(this.endpointProbeIntervalMillis));
+        result.setProperty(MAX_ENDPOINT_LAG_BLOCKS, String.valueOf(this.maxEndpointLagBlocks));
+
+        if (this.pushEndpoint != null) {
+            result.setProperty(PUSH_ENDPOINT, this.pushEndpoint);
+        }
+
+        if (this.multicallAddress != null) {
+            result.setProperty(MULTICALL_ADDRESS, this.multicallAddress);
+        }
+
+        if (this.timestampIndexDirectory != null) {
+            result.setProperty(TIMESTAMP_INDEX_DIRECTORY, this.timestampIndexDirectory);
+        }
+
         result.setProperty(KEYSTORE_PASSWORD, this.keystorePassword);
         result.setProperty(KEYSTORE_PATH, this.keystorePath);
         result.setProperty(BLOCK_TIME, String.valueOf(this.pollingTimeSeconds));
+        result.setProperty(MIN_POLL_INTERVAL_MILLIS, String.valueOf(this.minPollIntervalMillis));
+        result.setProperty(MAX_BATCH_SIZE, String.valueOf(this.maxBatchSize));
+        result.setProperty(BATCH_LINGER_MILLIS, String.valueOf(this.batchLingerMillis));
+        result.setProperty(HEADER_CACHE_SIZE, String.valueOf(this.headerCacheSize));
+        result.setProperty(LOG_QUERY_CHUNK_SIZE, String.valueOf(this.logQueryChunkSize));
+        result.setProperty(LOG_QUERY_PARALLELISM, String.valueOf(this.logQueryParallelism));
+        result.setProperty(GAS_PRICE_PERCENTILE, String.valueOf(this.gasPricePercentile));
+        result.setProperty(GAS_LIMIT_MARGIN_PERCENT, String.valueOf(this.gasLimitMarginPercent));
+        result.setProperty(CONNECTION_POOL_SIZE, String.valueOf(this.connectionPoolSize));
+        result.setProperty(MAX_CONCURRENT_REQUESTS, String.valueOf(this.maxConcurrentRequests));
+        result.setProperty(HTTP2_ENABLED, String.valueOf(this.http2Enabled));
+        result.setProperty(CONNECT_TIMEOUT_MILLIS, String.valueOf(this.connectTimeoutMillis));
+        result.setProperty(REQUEST_TIMEOUT_MILLIS, String.valueOf(this.requestTimeoutMillis));
 
         return result;
     }
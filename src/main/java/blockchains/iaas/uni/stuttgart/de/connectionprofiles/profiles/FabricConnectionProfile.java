@@ -19,9 +19,12 @@ public class FabricConnectionProfile extends AbstractConnectionProfile {
     private static final String WALLET_PATH = PREFIX + "walletPath";
     private static final String USER_NAME = PREFIX + "userName";
     private static final String CONNECTION_PROFILE_PATH = PREFIX + "connectionProfilePath";
+    private static final String TIMESTAMP_INDEX_DIRECTORY = PREFIX + "timestampIndexDirectory";
     private String walletPath;
     private String userName;
     private String connectionProfilePath;
+    // the directory of the persistent block timestamp indexes (null to use .bal/indexes inside the user home directory)
+    private String timestampIndexDirectory;
 
     public FabricConnectionProfile() {
     }
@@ -56,6 +59,14 @@ public class FabricConnectionProfile extends AbstractConnectionProfile {
         this.connectionProfilePath = connectionProfilePath;
     }
 
+    public String getTimestampIndexDirectory() {
+        return timestampIndexDirectory;
+    }
+
+    public void setTimestampIndexDirectory(String timestampIndexDirectory) {
+        this.timestampIndexDirectory = timestampIndexDirectory;
+    }
+
     @Override
     public Properties getAsProperties() {
         final Properties result = super.getAsProperties();
@@ -63,6 +74,10 @@ public class FabricConnectionProfile extends AbstractConnectionProfile {
         result.setProperty(USER_NAME, this.userName);
         result.setProperty(CONNECTION_PROFILE_PATH, this.connectionProfilePath);
 
+        if (this.timestampIndexDirectory != null) {
+            result.setProperty(TIMESTAMP_INDEX_DIRECTORY, this.timestampIndexDirectory);
+        }
+
         return result;
     }
 }
@@ -15,8 +15,10 @@ import java.util.List;
 
 import blockchains.iaas.uni.stuttgart.de.exceptions.InvalidScipParameterException;
 import blockchains.iaas.uni.stuttgart.de.management.BlockchainManager;
+import blockchains.iaas.uni.stuttgart.de.model.BatchInvocationResult;
 import blockchains.iaas.uni.stuttgart.de.model.Parameter;
 import blockchains.iaas.uni.stuttgart.de.model.QueryResult;
+import blockchains.iaas.uni.stuttgart.de.model.SmartContractCall;
 import blockchains.iaas.uni.stuttgart.de.model.TimeFrame;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcMethod;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcOptional;
@@ -44,16 +46,32 @@ public class BalService {
             @JsonRpcParam("callbackUrl") String callbackUrl,
             @JsonRpcParam("timeout") long timeoutMillis,
             @JsonRpcParam("correlationIdentifier") String correlationId,
-            @JsonRpcParam("signature") String signature
+            @JsonRpcParam("signature") String signature,
+            @JsonRpcOptional @JsonRpcParam("useCache") Boolean useCache
     ) {
         log.info("Invoke method is executed!");
         BlockchainManager manager = new BlockchainManager();
         manager.invokeSmartContractFunction(blockchainId, smartContractPath, functionIdentifier, inputs, outputs,
-                requiredConfidence, callbackUrl, timeoutMillis, correlationId, signature);
+                requiredConfidence, callbackUrl, timeoutMillis, correlationId, signature, useCache == null || useCache);
 
         return "OK";
     }
 
+    /**
+     * Invokes many read-only functions at once and returns their results synchronously. Invocations without a smart
+     * contract path use the one of the service. Results read since the latest block are reused unless {@code useCache}
+     * is false. If the blockchain is configured with a Multicall contract, the invoked functions see that contract as
+     * the sender.
+     */
+    @JsonRpcMethod
+    public BatchInvocationResult BatchInvoke(@JsonRpcParam("calls") List<SmartContractCall> calls,
+                                             @JsonRpcOptional @JsonRpcParam("useCache") Boolean useCache) {
+        log.info("BatchInvoke method is executed!");
+        BlockchainManager manager = new BlockchainManager();
+
+        return manager.invokeSmartContractFunctions(blockchainId, smartContractPath, calls, useCache == null || useCache);
+    }
+
     @JsonRpcMethod
     public String Subscribe(
             @JsonRpcOptional @JsonRpcParam("functionIdentifier") String functionIdentifier,
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package blockchains.iaas.uni.stuttgart.de.jsonrpc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.BalException;
+import blockchains.iaas.uni.stuttgart.de.management.BlockchainManager;
+import blockchains.iaas.uni.stuttgart.de.model.Occurrence;
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import blockchains.iaas.uni.stuttgart.de.model.TimeFrame;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcError;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers JSON-RPC event queries (the {@code Query} method of {@link BalService}) by writing every occurrence to the
+ * response as soon as the adapter finds it, using a streaming JSON generator. This way, the occurrences of a query are
+ * never kept in memory together, regardless of how many there are. The response has the same format as the one
+ * produced by the JSON-RPC server.
+ * <p>
+ * Errors that happen before the first occurrence is written are reported as JSON-RPC errors. Later errors abort the
+ * response, so that the client receives an incomplete JSON document.
+ */
+public class StreamingQueryHandler {
+    private static final Logger log = LoggerFactory.getLogger(StreamingQueryHandler.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private final String blockchainId;
+    private final String smartContractPath;
+
+    public StreamingQueryHandler(String blockchainId, String smartContractPath) {
+        this.blockchainId = blockchainId;
+        this.smartContractPath = smartContractPath;
+    }
+
+    /**
+     * @return the parsed request if it is a well-formed event query, or null if it has to be handled by the JSON-RPC
+     * server (which also reports malformed requests).
+     */
+    public static JsonNode parseEventQuery(String jsonRequest) {
+        final JsonNode request;
+
+        try {
+            request = mapper.readTree(jsonRequest);
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (request == null || !request.isObject() || !"Query".equals(request.path("method").asText())) {
+            return null;
+        }
+
+        final JsonNode params = request.path("params");
+        final boolean isEventQuery = params.isObject()
+                && params.path("eventIdentifier").isTextual()
+                && !Strings.isNullOrEmpty(params.path("eventIdentifier").asText())
+                && (!params.hasNonNull("functionIdentifier") || params.path("functionIdentifier").asText().isEmpty())
+                && params.path("parameters").isArray()
+                && (!params.hasNonNull("filter") || params.path("filter").isTextual())
+                && (!params.hasNonNull("timeframe") || params.path("timeframe").isObject());
+
+        return isEventQuery ? request : null;
+    }
+
+    /**
+     * @param request an event query returned by {@link #parseEventQuery(String)}
+     */
+    public StreamingOutput handle(JsonNode request) {
+        final JsonNode params = request.get("params");
+        final List<Parameter> outputParameters = mapper.convertValue(params.get("parameters"), new TypeReference<List<Parameter>>() {
+        });
+        final TimeFrame timeFrame = params.hasNonNull("timeframe") ? mapper.convertValue(params.get("timeframe"), TimeFrame.class) : null;
+        final String filter = params.hasNonNull("filter") ? params.get("filter").asText() : null;
+        final String eventIdentifier = params.get("eventIdentifier").asText();
+
+        return output -> {
+            final ResponseWriter writer = new ResponseWriter(output, request.get("id"));
+
+            try {
+                new BlockchainManager().queryEvents(blockchainId, smartContractPath, eventIdentifier, outputParameters,
+                        filter, timeFrame, writer::writeOccurrence);
+                writer.finish();
+            } catch (BalException e) {
+                // reported the same way as the JSON-RPC server reports it
+                final JsonRpcError error = e.getClass().getAnnotation(JsonRpcError.class);
+                writer.fail(error != null ? error.code() : e.getCode(), error != null ? error.message() : e.getMessage());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    /**
+     * Writes the response lazily, so that it can still become an error response until the first occurrence is found.
+     */
+    private static class ResponseWriter {
+        private final JsonGenerator generator;
+        private final JsonNode id;
+        private boolean started;
+
+        private ResponseWriter(OutputStream output, JsonNode id) throws IOException {
+            this.generator = mapper.getFactory().createGenerator(output);
+            this.id = id;
+        }
+
+        // called by the threads of the adapter, one occurrence at a time
+        private synchronized void writeOccurrence(Occurrence occurrence) {
+            try {
+                this.start();
+                generator.writeObject(occurrence);
+            } catch (IOException e) {
+                // e.g., the client closed the connection
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private synchronized void finish() throws IOException {
+            this.start();
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.close();
+        }
+
+        private synchronized void fail(int code, String message) throws IOException {
+            if (started) {
+                log.error("Querying events failed after the response was started: {}", message);
+                throw new IOException("The query failed after the response was started: " + message);
+            }
+
+            this.writeEnvelopeStart();
+            generator.writeObjectFieldStart("error");
+            generator.writeNumberField("code", code);
+            generator.writeStringField("message", message);
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.close();
+        }
+
+        private void start() throws IOException {
+            if (!started) {
+                started = true;
+                this.writeEnvelopeStart();
+                generator.writeObjectFieldStart("result");
+                generator.writeArrayFieldStart("occurrences");
+            }
+        }
+
+        private void writeEnvelopeStart() throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("jsonrpc", "2.0");
+            generator.writeFieldName("id");
+            generator.writeTree(id);
+        }
+    }
+}
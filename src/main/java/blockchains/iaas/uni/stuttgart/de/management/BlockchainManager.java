@@ -13,10 +13,13 @@ package blockchains.iaas.uni.stuttgart.de.management;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 import blockchains.iaas.uni.stuttgart.de.adaptation.AdapterManager;
 import blockchains.iaas.uni.stuttgart.de.adaptation.interfaces.BlockchainAdapter;
@@ -39,8 +42,11 @@ import blockchains.iaas.uni.stuttgart.de.management.model.ObservableSubscription
 import blockchains.iaas.uni.stuttgart.de.management.model.Subscription;
 import blockchains.iaas.uni.stuttgart.de.management.model.SubscriptionKey;
 import blockchains.iaas.uni.stuttgart.de.management.model.SubscriptionType;
+import blockchains.iaas.uni.stuttgart.de.model.BatchInvocationResult;
+import blockchains.iaas.uni.stuttgart.de.model.Occurrence;
 import blockchains.iaas.uni.stuttgart.de.model.Parameter;
 import blockchains.iaas.uni.stuttgart.de.model.QueryResult;
+import blockchains.iaas.uni.stuttgart.de.model.SmartContractCall;
 import blockchains.iaas.uni.stuttgart.de.model.TimeFrame;
 import blockchains.iaas.uni.stuttgart.de.model.Transaction;
 import blockchains.iaas.uni.stuttgart.de.model.TransactionState;
@@ -79,10 +85,10 @@ public class BlockchainManager {
                     thenAccept(tx -> {
                         if (tx != null) {
                             if (tx.getState() == TransactionState.CONFIRMED) {
-                                CallbackManager.getInstance().sendCallback(epUrl,
+                                CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                         CamundaMessageTranslator.convert(correlationId, tx, false));
                             } else {// it is NOT_FOUND
-                                CallbackManager.getInstance().sendCallback(epUrl,
+                                CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                         CamundaMessageTranslator.convert(correlationId, tx, true));
                             }
                         } else
@@ -91,10 +97,10 @@ public class BlockchainManager {
                     exceptionally((e) -> {
                         log.info("Failed to submit a transaction. Reason: {}", e.getMessage());
                         if (e.getCause() instanceof BlockchainNodeUnreachableException)
-                            CallbackManager.getInstance().sendCallback(epUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                     CamundaMessageTranslator.convert(correlationId, TransactionState.UNKNOWN, true, ((BlockchainNodeUnreachableException) e).getCode()));
                         else if (e.getCause() instanceof InvalidTransactionException)
-                            CallbackManager.getInstance().sendCallback(epUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                     CamundaMessageTranslator.convert(correlationId, TransactionState.INVALID, true, ((InvalidTransactionException) e).getCode()));
 
                         // ManualUnsubscriptionException is also captured here
@@ -110,11 +116,11 @@ public class BlockchainManager {
             SubscriptionManager.getInstance().createSubscription(correlationId, blockchainId, subscription);
         } catch (InvalidTransactionException e) {
             // This (should only) happen when something is wrong with the transaction data
-            CallbackManager.getInstance().sendCallbackAsync(epUrl,
+            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                     CamundaMessageTranslator.convert(correlationId, TransactionState.INVALID, true, e.getCode()));
         } catch (BlockchainIdNotFoundException | NotSupportedException e) {
             // This (should only) happen when the blockchainId is not found
-            CallbackManager.getInstance().sendCallbackAsync(epUrl,
+            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                     CamundaMessageTranslator.convert(correlationId, TransactionState.UNKNOWN, true, e.getCode()));
         }
     }
@@ -147,7 +153,7 @@ public class BlockchainManager {
                     .doOnError(throwable -> log.error("Failed to receive transaction. Reason:{}", throwable.getMessage()))
                     .subscribe(transaction -> {
                         if (transaction != null) {
-                            CallbackManager.getInstance().sendCallback(epUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                     CamundaMessageTranslator.convert(correlationId, transaction, false));
                         } else {
                             log.error("received transaction is null!");
@@ -196,7 +202,7 @@ public class BlockchainManager {
                         log.error("Failed to receive transaction. Reason: " + throwable.getMessage());
 
                         if (throwable instanceof BlockchainNodeUnreachableException || throwable.getCause() instanceof BlockchainNodeUnreachableException) {
-                            CallbackManager.getInstance().sendCallbackAsync(epUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                     CamundaMessageTranslator.convert(correlationId, TransactionState.UNKNOWN, true, (new BlockchainNodeUnreachableException()).getCode()));
                         } else {
                             log.error("Unhandled exception. Exception details: " + throwable.getMessage());
@@ -205,7 +211,7 @@ public class BlockchainManager {
                     .take(1)
                     .subscribe(transaction -> {
                         if (transaction != null) {
-                            CallbackManager.getInstance().sendCallback(epUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                     CamundaMessageTranslator.convert(correlationId, transaction, false));
                             log.info("usubscribing from receiveTransactions");
                         } else {
@@ -219,7 +225,7 @@ public class BlockchainManager {
         } catch (BlockchainIdNotFoundException | NotSupportedException e) {
             // This (should only) happen when the blockchainId is not found Or
             // if trying to receive a monetary transaction via, e.g., Fabric
-            CallbackManager.getInstance().sendCallbackAsync(epUrl,
+            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                     CamundaMessageTranslator.convert(correlationId, TransactionState.UNKNOWN, true, e.getCode()));
         }
     }
@@ -248,7 +254,7 @@ public class BlockchainManager {
             future.
                     thenAccept(txState -> {
                         if (txState != null) {
-                            CallbackManager.getInstance().sendCallback(epUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                     CamundaMessageTranslator.convert(correlationId, txState, false, 0));
                         } else // we should never reach here!
                             log.error("resulting transactionState is null");
@@ -257,7 +263,7 @@ public class BlockchainManager {
                         log.info("Failed to monitor a transaction. Reason: {}", e.getMessage());
                         // This happens when a communication error, or an error with the tx exist.
                         if (e.getCause() instanceof BlockchainNodeUnreachableException)
-                            CallbackManager.getInstance().sendCallback(epUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                     CamundaMessageTranslator.convert(correlationId, TransactionState.UNKNOWN, false, 0));
 
                         // ManualUnsubscriptionException is also captured here
@@ -273,7 +279,7 @@ public class BlockchainManager {
         } catch (BlockchainIdNotFoundException | NotSupportedException e) {
             // This (should only) happen when the blockchainId is not found Or
             // if trying to receive a monetary transaction via, e.g., Fabric
-            CallbackManager.getInstance().sendCallbackAsync(epUrl,
+            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                     CamundaMessageTranslator.convert(correlationId, TransactionState.UNKNOWN, false, 0));
         }
     }
@@ -305,10 +311,10 @@ public class BlockchainManager {
                     thenAccept(txState -> {
                         if (txState != null) {
                             if (txState == TransactionState.CONFIRMED)
-                                CallbackManager.getInstance().sendCallback(epUrl,
+                                CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                         CamundaMessageTranslator.convert(correlationId, txState, false, 0));
                             else
-                                CallbackManager.getInstance().sendCallback(epUrl,
+                                CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                         CamundaMessageTranslator.convert(correlationId, txState, true, 0));
                         } else // we should never reach here!
                             log.error("resulting transactionState is null");
@@ -317,7 +323,7 @@ public class BlockchainManager {
                         log.info("Failed to monitor a transaction. Reason: {}", e.getMessage());
                         // This happens when a communication error, or an error with the tx exist.
                         if (e.getCause() instanceof BlockchainNodeUnreachableException)
-                            CallbackManager.getInstance().sendCallback(epUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                                     CamundaMessageTranslator.convert(correlationId, TransactionState.UNKNOWN, true, ((BlockchainNodeUnreachableException) e.getCause()).getCode()));
 
                         // ManualUnsubscriptionException is also captured here
@@ -333,7 +339,7 @@ public class BlockchainManager {
         } catch (BlockchainIdNotFoundException | NotSupportedException e) {
             // This (should only) happen when the blockchainId is not found Or
             // if trying to monitor a monetary transaction via, e.g., Fabric
-            CallbackManager.getInstance().sendCallbackAsync(epUrl,
+            CallbackManager.getInstance().sendCallbackAsync(blockchainId, epUrl,
                     CamundaMessageTranslator.convert(correlationId, TransactionState.UNKNOWN, true, e.getCode()));
         }
     }
@@ -373,6 +379,29 @@ public class BlockchainManager {
             final long timeoutMillis,
             final String correlationId,
             final String signature) throws BalException {
+        this.invokeSmartContractFunction(blockchainIdentifier, smartContractPath, functionIdentifier, inputs, outputs,
+                requiredConfidence, callbackUrl, timeoutMillis, correlationId, signature, true);
+    }
+
+    /**
+     * Invokes a smart contract function like {@link #invokeSmartContractFunction(String, String, String, List, List,
+     * double, String, long, String, String)} does.
+     *
+     * @param useCache whether the result of a read-only function may be answered from the results read since the
+     *                 latest block
+     */
+    public void invokeSmartContractFunction(
+            final String blockchainIdentifier,
+            final String smartContractPath,
+            final String functionIdentifier,
+            final List<Parameter> inputs,
+            final List<Parameter> outputs,
+            final double requiredConfidence,
+            final String callbackUrl,
+            final long timeoutMillis,
+            final String correlationId,
+            final String signature,
+            final boolean useCache) throws BalException {
 
         // Validate scip parameters!
         if (Strings.isNullOrEmpty(blockchainIdentifier)
@@ -388,24 +417,24 @@ public class BlockchainManager {
         final double minimumConfidenceAsProbability = requiredConfidence / 100.0;
         final BlockchainAdapter adapter = adapterManager.getAdapter(blockchainIdentifier);
         final CompletableFuture<Transaction> future = adapter.invokeSmartContract(smartContractPath,
-                functionIdentifier, inputs, outputs, minimumConfidenceAsProbability, timeoutMillis);
+                functionIdentifier, inputs, outputs, minimumConfidenceAsProbability, timeoutMillis, useCache);
 
         future.
                 thenAccept(tx -> {
                     if (tx != null) {
                         if (tx.getState() == TransactionState.CONFIRMED || tx.getState() == TransactionState.RETURN_VALUE) {
-                            CallbackManager.getInstance().sendCallback(callbackUrl,
+                            CallbackManager.getInstance().sendCallbackAsync(blockchainIdentifier, callbackUrl,
                                     ScipMessageTranslator.getInvocationResponseMessage(
                                             correlationId,
                                             tx.getReturnValues()));
                         } else {// it is NOT_FOUND (it was dropped from the system due to invalidation) or ERRORED
                             if (tx.getState() == TransactionState.NOT_FOUND) {
-                                CallbackManager.getInstance().sendCallback(callbackUrl,
+                                CallbackManager.getInstance().sendCallbackAsync(blockchainIdentifier, callbackUrl,
                                         ScipMessageTranslator.getAsynchronousErrorResponseMessage(
                                                 correlationId,
                                                 new TransactionNotFoundException("The transaction associated with a function invocation is invalidated after it was mined.")));
                             } else {
-                                CallbackManager.getInstance().sendCallback(callbackUrl,
+                                CallbackManager.getInstance().sendCallbackAsync(blockchainIdentifier, callbackUrl,
                                         ScipMessageTranslator.getAsynchronousErrorResponseMessage(
                                                 correlationId,
                                                 new InvokeSmartContractFunctionFailure("The smart contract function invocation reported an error.")));
@@ -419,7 +448,7 @@ public class BlockchainManager {
                     log.info("Failed to invoke smart contract function. Reason: {}", e.getMessage());
                     // happens if the node is unreachable, or something goes wrong while trying to invoke the sc function.
                     if (e.getCause() instanceof BalException)
-                        CallbackManager.getInstance().sendCallback(callbackUrl,
+                        CallbackManager.getInstance().sendCallbackAsync(blockchainIdentifier, callbackUrl,
                                 ScipMessageTranslator.getAsynchronousErrorResponseMessage(correlationId, (BalException) e.getCause()));
 
                     // ManualUnsubscriptionException is also captured here
@@ -467,7 +496,7 @@ public class BlockchainManager {
                 .doOnError(throwable -> log.error("Failed to detect an occurrence. Reason:{}", throwable.getMessage()))
                 .subscribe(occurrence -> {
                     if (occurrence != null) {
-                        CallbackManager.getInstance().sendCallback(callbackUrl,
+                        CallbackManager.getInstance().sendCallbackAsync(blockchainIdentifier, callbackUrl,
                                 ScipMessageTranslator.getSubscriptionResponseMessage(correlationIdentifier, occurrence.getParameters(), occurrence.getIsoTimestamp()));
                     } else {
                         log.error("detected occurrence is null!");
@@ -479,6 +508,58 @@ public class BlockchainManager {
         SubscriptionManager.getInstance().createSubscription(correlationIdentifier, blockchainIdentifier, smartContractPath, subscription);
     }
 
+    /**
+     * Invokes many read-only smart contract functions at once, and waits for their results. The adapter executes the
+     * invocations on the same block if the blockchain supports it.
+     *
+     * @param smartContractPath the path of the smart contract of the invocations that do not specify one
+     * @param calls             the invocations. Each needs at least one output parameter.
+     * @param useCache          whether the results may be answered from the results read since the latest block
+     * @return the results of the invocations in their order
+     */
+    public BatchInvocationResult invokeSmartContractFunctions(final String blockchainIdentifier,
+                                                              final String smartContractPath,
+                                                              final List<SmartContractCall> calls,
+                                                              final boolean useCache) {
+        // Validate scip parameters!
+        if (Strings.isNullOrEmpty(blockchainIdentifier) || calls == null || calls.isEmpty()) {
+            throw new InvalidScipParameterException();
+        }
+
+        final List<SmartContractCall> resolvedCalls = new ArrayList<>();
+
+        for (SmartContractCall call : calls) {
+            final String path = Strings.isNullOrEmpty(call.getSmartContractPath()) ? smartContractPath : call.getSmartContractPath();
+
+            if (Strings.isNullOrEmpty(path)
+                    || Strings.isNullOrEmpty(call.getFunctionIdentifier())
+                    || call.getOutputs() == null
+                    || call.getOutputs().isEmpty()) {
+                throw new InvalidScipParameterException();
+            }
+
+            resolvedCalls.add(SmartContractCall.builder()
+                    .smartContractPath(path)
+                    .functionIdentifier(call.getFunctionIdentifier())
+                    .inputs(call.getInputs() == null ? Collections.emptyList() : call.getInputs())
+                    .outputs(call.getOutputs())
+                    .build());
+        }
+
+        try {
+            return AdapterManager.getInstance()
+                    .getAdapter(blockchainIdentifier)
+                    .invokeSmartContracts(resolvedCalls, useCache)
+                    .join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BalException)
+                throw (BalException) e.getCause();
+
+            log.error("caught a non-BALException! " + e.getCause().getClass().getName());
+            throw new UnknownException();
+        }
+    }
+
     public void cancelEventSubscriptions(String blockchainId, String smartContractId, String correlationId, String eventIdentifier, List<Parameter> parameters) {
         // Validate scip parameters!
         if (Strings.isNullOrEmpty(blockchainId) || Strings.isNullOrEmpty(smartContractId)) {
@@ -507,6 +588,25 @@ public class BlockchainManager {
                                    final List<Parameter> outputParameters,
                                    final String filter,
                                    final TimeFrame timeFrame) {
+        final List<Occurrence> occurrences = new ArrayList<>();
+        this.queryEvents(blockchainIdentifier, smartContractPath, eventIdentifier, outputParameters, filter, timeFrame,
+                occurrences::add);
+
+        return QueryResult.builder().occurrences(occurrences).build();
+    }
+
+    /**
+     * Queries previous occurrences of a given blockchain event, and passes them to the consumer as soon as the adapter
+     * finds them, so that the result does not have to be kept in memory.
+     * The method returns when all occurrences are passed to the consumer.
+     */
+    public void queryEvents(final String blockchainIdentifier,
+                            final String smartContractPath,
+                            final String eventIdentifier,
+                            final List<Parameter> outputParameters,
+                            final String filter,
+                            final TimeFrame timeFrame,
+                            final Consumer<Occurrence> consumer) {
         // Validate scip parameters!
         if (Strings.isNullOrEmpty(blockchainIdentifier)
                 || Strings.isNullOrEmpty(smartContractPath)
@@ -515,9 +615,9 @@ public class BlockchainManager {
         }
 
         try {
-            return AdapterManager.getInstance()
+            AdapterManager.getInstance()
                     .getAdapter(blockchainIdentifier)
-                    .queryEvents(smartContractPath, eventIdentifier, outputParameters, filter, timeFrame)
+                    .queryEvents(smartContractPath, eventIdentifier, outputParameters, filter, timeFrame, consumer)
                     .join();
         } catch (CompletionException e) {
             if (e.getCause() instanceof BalException)
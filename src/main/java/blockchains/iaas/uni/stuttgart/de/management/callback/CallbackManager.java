@@ -12,8 +12,7 @@
 package blockchains.iaas.uni.stuttgart.de.management.callback;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
@@ -23,6 +22,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import blockchains.iaas.uni.stuttgart.de.adaptation.BlockchainAdapterFactory;
+import blockchains.iaas.uni.stuttgart.de.adaptation.utils.Bulkheads;
 import blockchains.iaas.uni.stuttgart.de.config.ObjectMapperProvider;
 import blockchains.iaas.uni.stuttgart.de.exceptions.TimeoutException;
 import blockchains.iaas.uni.stuttgart.de.jsonrpc.model.ScipResponse;
@@ -46,7 +46,6 @@ import org.slf4j.LoggerFactory;
 public class CallbackManager {
     private static CallbackManager instance = null;
     private static final Logger log = LoggerFactory.getLogger(BlockchainAdapterFactory.class);
-    private ExecutorService executorService = Executors.newFixedThreadPool(2);
 
     private CallbackManager() {
 
@@ -128,7 +127,20 @@ public class CallbackManager {
         builder.execute();
     }
 
-    public void sendCallbackAsync(final String endpointUrl, final CallbackMessage responseBody) {
-        this.executorService.execute(() -> sendCallback(endpointUrl, responseBody));
+    /**
+     * Sends the callback using the callback bulkhead of the given blockchain, so that slow endpoints do not delay the
+     * processing of the blockchain and the callbacks of other blockchains. The callbacks to the same endpoint are sent
+     * in order. Callbacks are never dropped: the queue of the bulkhead is unbounded, and its backlog is reported by
+     * {@link blockchains.iaas.uni.stuttgart.de.adaptation.utils.Bulkhead#getPendingKeyedCount()}.
+     */
+    public void sendCallbackAsync(final String blockchainId, final String endpointUrl, final CallbackMessage responseBody) {
+        try {
+            Bulkheads.getInstance().get(blockchainId, Bulkheads.Stage.CALLBACK_DISPATCH)
+                    .execute(endpointUrl, () -> sendCallback(endpointUrl, responseBody));
+        } catch (RejectedExecutionException e) {
+            // e.g., the bulkhead is shut down
+            log.warn("Could not queue a callback to {}. Sending it right away. Reason: {}", endpointUrl, e.getMessage());
+            sendCallback(endpointUrl, responseBody);
+        }
     }
 }
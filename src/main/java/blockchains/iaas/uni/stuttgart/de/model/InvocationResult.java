@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.model;
+
+import java.util.List;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.BalException;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * The outcome of a single invocation of a batch: either its return values, or the error that made it fail.
+ */
+@Builder
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class InvocationResult {
+    private List<Parameter> returnValues;
+    private Integer errorCode;
+    private String errorMessage;
+
+    public static InvocationResult success(List<Parameter> returnValues) {
+        return InvocationResult.builder().returnValues(returnValues).build();
+    }
+
+    public static InvocationResult failure(BalException error) {
+        return InvocationResult.builder().errorCode(error.getCode()).errorMessage(error.getMessage()).build();
+    }
+}
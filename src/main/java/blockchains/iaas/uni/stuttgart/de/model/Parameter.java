@@ -17,6 +17,7 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -33,4 +34,7 @@ public class Parameter {
     private String name;
     private String type;
     private String value;
+    // whether the parameter is an indexed event parameter (only relevant for event parameters)
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean indexed;
 }
@@ -4,13 +4,16 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
 import blockchains.iaas.uni.stuttgart.de.jsonrpc.BalService;
+import blockchains.iaas.uni.stuttgart.de.jsonrpc.StreamingQueryHandler;
 import blockchains.iaas.uni.stuttgart.de.restapi.model.response.LinkCollectionResponse;
 import blockchains.iaas.uni.stuttgart.de.restapi.util.UriUtil;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.github.arteam.simplejsonrpc.server.JsonRpcServer;
 
 /********************************************************************************
@@ -36,6 +39,13 @@ public class RootController {
         final String blockchainId = queryParameters.getFirst("blockchain-id");
         final String smartContractAddress = queryParameters.getFirst("address");
 
+        // event queries are streamed, since their results can be arbitrarily large
+        final JsonNode eventQuery = StreamingQueryHandler.parseEventQuery(jsonRequest);
+
+        if (eventQuery != null) {
+            return Response.ok(new StreamingQueryHandler(blockchainId, smartContractAddress).handle(eventQuery), MediaType.APPLICATION_JSON).build();
+        }
+
         BalService service = new BalService(blockchainType, blockchainId, smartContractAddress);
         JsonRpcServer server = new JsonRpcServer();
         String response = server.handle(jsonRequest, service);
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Bytes32;
+import org.web3j.abi.datatypes.generated.Int64;
+import org.web3j.abi.datatypes.generated.Uint256;
+
+/**
+ * Compares {@link AbiCodec} with the web3j based encoding ({@link ParameterEncoder} and {@link FunctionEncoder}) and
+ * decoding ({@link FunctionReturnDecoder} and {@link ParameterDecoder}) of the arguments of a call and the values of a
+ * log. The GC profiler reports the allocation rate, and the allocated bytes per operation (gc.alloc.rate.norm), as
+ * secondary results.
+ * <p>
+ * Run with the main method from the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AbiCodecBenchmark {
+    private static final String SELECTOR = "0xa9059cbb";
+    private static final List<Class<? extends Type>> TYPES = Arrays.asList(Address.class, Uint256.class, Int64.class,
+            Bytes32.class, Utf8String.class);
+
+    private AbiCodec codec;
+    private List<Parameter> arguments;
+    private List<TypeReference<Type>> typeReferences;
+    private String encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        codec = new AbiCodec(TYPES);
+        typeReferences = codec.getTypeReferences();
+        arguments = Arrays.asList(
+                Parameter.builder().value("0x90645dc507225d61cb81cf83e7470f5a6aa1215a").build(),
+                Parameter.builder().value("1000000000000000000").build(),
+                Parameter.builder().value("-42").build(),
+                Parameter.builder().value("00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff").build(),
+                Parameter.builder().value("a memo of the transfer").build());
+        encoded = "0x" + codec.encodeCall(SELECTOR, arguments).substring(SELECTOR.length());
+    }
+
+    @Benchmark
+    public String encodeWithWeb3j() {
+        final List<Type> values = new ArrayList<>(arguments.size());
+
+        for (int i = 0; i < arguments.size(); i++) {
+            values.add(ParameterEncoder.encode(TYPES.get(i), arguments.get(i).getValue()));
+        }
+
+        return SELECTOR + FunctionEncoder.encodeConstructor(values);
+    }
+
+    @Benchmark
+    public String encodeWithCodec() {
+        return codec.encodeCall(SELECTOR, arguments);
+    }
+
+    @Benchmark
+    public List<String> decodeWithWeb3j() {
+        final List<Type> values = FunctionReturnDecoder.decode(encoded, typeReferences);
+        final List<String> result = new ArrayList<>(values.size());
+
+        for (Type value : values) {
+            result.add(ParameterDecoder.decode(value));
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public List<String> decodeWithCodec() {
+        return codec.decode(encoded);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AbiCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
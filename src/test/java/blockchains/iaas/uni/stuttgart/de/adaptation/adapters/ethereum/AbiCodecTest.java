@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.Utils;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Bytes1;
+import org.web3j.abi.datatypes.generated.Bytes32;
+import org.web3j.abi.datatypes.generated.Bytes4;
+import org.web3j.abi.datatypes.generated.Int256;
+import org.web3j.abi.datatypes.generated.Int64;
+import org.web3j.abi.datatypes.generated.Int8;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.abi.datatypes.generated.Uint64;
+import org.web3j.abi.datatypes.generated.Uint8;
+import org.web3j.utils.Numeric;
+
+class AbiCodecTest {
+    private static final String SELECTOR = "0xcafebabe";
+    private static final List<Class<? extends Type>> TYPES = Arrays.asList(Bool.class, Address.class, Uint8.class,
+            Uint64.class, Uint256.class, Int8.class, Int64.class, Int256.class, Bytes1.class, Bytes4.class, Bytes32.class,
+            DynamicBytes.class, Utf8String.class);
+    private final Random random = new Random(42);
+
+    @Test
+    void testEncodingMatchesTheWeb3jEncoder() throws Exception {
+        final AbiCodec codec = new AbiCodec(TYPES);
+
+        for (int i = 0; i < 500; i++) {
+            final List<Parameter> arguments = new ArrayList<>();
+
+            for (Class<? extends Type> type : TYPES) {
+                arguments.add(Parameter.builder().value(randomArgument(type)).build());
+            }
+
+            assertSameOutcome(() -> encodeWithWeb3j(arguments), () -> codec.encodeCall(SELECTOR, arguments));
+        }
+    }
+
+    @Test
+    void testMalformedArgumentsFailLikeWithWeb3j() throws Exception {
+        final String[][] arguments = {
+                {"Address", "0x" + repeat("1", 41)}, {"Address", "12ab"}, {"Address", "0x"}, {"Address", null},
+                {"Uint8", "256"}, {"Uint8", "-1"}, {"Uint8", "1.5"}, {"Uint64", "18446744073709551616"},
+                {"Int8", "-129"}, {"Int8", "128"}, {"Int8", "+7"}, {"Int256", "-" + repeat("9", 80)},
+                {"Bytes4", "cafe"}, {"Bytes4", "0xcafebabe"}, {"DynamicBytes", "abc"}, {"DynamicBytes", "zz"},
+                {"DynamicBytes", "١٢"}, {"Utf8String", null}};
+
+        for (String[] argument : arguments) {
+            final Class<? extends Type> type = TYPES.stream()
+                    .filter(candidate -> candidate.getSimpleName().equals(argument[0]))
+                    .findFirst()
+                    .orElseThrow(IllegalArgumentException::new);
+            final AbiCodec codec = new AbiCodec(Collections.singletonList(type));
+            final List<Parameter> parameters = Collections.singletonList(Parameter.builder().value(argument[1]).build());
+
+            assertSameOutcome(() -> encodeWithWeb3j(type, parameters), () -> codec.encodeCall(SELECTOR, parameters));
+        }
+    }
+
+    @Test
+    void testDecodingMatchesTheWeb3jDecoder() throws Exception {
+        final AbiCodec codec = new AbiCodec(TYPES);
+
+        for (int i = 0; i < 500; i++) {
+            final List<Parameter> arguments = new ArrayList<>();
+
+            for (Class<? extends Type> type : TYPES) {
+                arguments.add(Parameter.builder().value(randomArgument(type)).build());
+            }
+
+            final String encoded;
+
+            try {
+                encoded = "0x" + encodeWithWeb3j(arguments).substring(SELECTOR.length());
+            } catch (Exception e) {
+                continue;
+            }
+
+            assertSameOutcome(() -> decodeWithWeb3j(TYPES, encoded), () -> codec.decode(encoded));
+        }
+
+        Assertions.assertEquals(Collections.emptyList(), codec.decode("0x"));
+        Assertions.assertEquals(Collections.emptyList(), codec.decode(null));
+    }
+
+    @Test
+    void testDecodingArbitraryWordsMatchesTheWeb3jDecoder() throws Exception {
+        for (Class<? extends Type> type : TYPES) {
+            if (type == DynamicBytes.class || type == Utf8String.class) {
+                continue;
+            }
+
+            final AbiCodec codec = new AbiCodec(Collections.singletonList(type));
+
+            for (int i = 0; i < 200; i++) {
+                final String word = randomWord();
+
+                assertSameOutcome(() -> decodeWithWeb3j(Collections.singletonList(type), word), () -> codec.decode(word));
+                assertSameOutcome(() -> ParameterDecoder.decode(FunctionReturnDecoder.decodeIndexedValue(word, TypeReference.create(type))),
+                        () -> codec.decodeTopic(0, word));
+            }
+        }
+    }
+
+    @Test
+    void testMalformedEncodingsFailLikeWithWeb3j() throws Exception {
+        final AbiCodec codec = new AbiCodec(Arrays.asList(Uint256.class, Utf8String.class));
+        final String[] encodings = {
+                "0x2a", "0x" + repeat("0", 63), "0x" + repeat("0", 64) + repeat("f", 64),
+                "0x" + repeat("0", 63) + "1" + repeat("0", 62) + "40" + repeat("0", 63) + "5",
+                "0x" + repeat("0", 63) + "1" + repeat("0", 62) + "40" + repeat("0", 63) + "1" + "g" + repeat("0", 63),
+                "0x" + repeat("0", 63) + "1" + repeat("0", 62) + "40" + repeat("0", 63) + "2" + "68690" + repeat("0", 59)};
+
+        for (String encoding : encodings) {
+            assertSameOutcome(() -> decodeWithWeb3j(Arrays.asList(Uint256.class, Utf8String.class), encoding),
+                    () -> codec.decode(encoding));
+        }
+    }
+
+    private String randomArgument(Class<? extends Type> type) {
+        if (type == Bool.class) {
+            return String.valueOf(random.nextBoolean());
+        }
+
+        if (type == Address.class) {
+            return Numeric.toHexStringWithPrefixZeroPadded(new BigInteger(160, random), 40);
+        }
+
+        if (type == Utf8String.class) {
+            final StringBuilder result = new StringBuilder();
+
+            for (int i = random.nextInt(70); i > 0; i--) {
+                result.appendCodePoint(random.nextBoolean() ? 'a' + random.nextInt(26) : 0xa0 + random.nextInt(0xd800 - 0xa0));
+            }
+
+            return result.toString();
+        }
+
+        if (type == DynamicBytes.class) {
+            return randomHex(random.nextInt(70));
+        }
+
+        if (type.getSimpleName().startsWith("Bytes")) {
+            return randomHex(Integer.parseInt(type.getSimpleName().substring("Bytes".length())));
+        }
+
+        final boolean signed = type.getSimpleName().startsWith("Int");
+        final int bits = Integer.parseInt(type.getSimpleName().substring(signed ? 3 : 4));
+        // small and large numbers, and occasionally ones out of the range of the type
+        final BigInteger value = new BigInteger(random.nextInt(bits + 2), random);
+
+        return (signed && random.nextBoolean() ? value.negate() : value).toString();
+    }
+
+    private String randomHex(int bytes) {
+        final byte[] result = new byte[bytes];
+        random.nextBytes(result);
+
+        // leading zeros and sign bits matter when the bytes are decoded into a number
+        if (bytes > 1 && random.nextInt(4) == 0) {
+            result[0] = 0;
+        }
+
+        return Numeric.toHexStringNoPrefix(result);
+    }
+
+    /**
+     * @return a word with one of the patterns the decoders of web3j treat differently
+     */
+    private String randomWord() {
+        final byte[] word = new byte[32];
+        random.nextBytes(word);
+        final int zeros = random.nextInt(33);
+
+        for (int i = 0; i < zeros; i++) {
+            word[i] = random.nextInt(3) == 0 ? (byte) 0xff : 0;
+        }
+
+        if (random.nextInt(4) == 0) {
+            Arrays.fill(word, 0, 31, (byte) 0);
+            word[31] = (byte) random.nextInt(3);
+        }
+
+        return Numeric.toHexString(word);
+    }
+
+    private static String encodeWithWeb3j(List<Parameter> arguments) {
+        final List<Type> values = new ArrayList<>();
+
+        for (int i = 0; i < arguments.size(); i++) {
+            values.add(ParameterEncoder.encode(TYPES.get(i), arguments.get(i).getValue()));
+        }
+
+        return SELECTOR + FunctionEncoder.encodeConstructor(values);
+    }
+
+    private static String encodeWithWeb3j(Class<? extends Type> type, List<Parameter> arguments) {
+        return SELECTOR + FunctionEncoder.encodeConstructor(
+                Collections.singletonList(ParameterEncoder.encode(type, arguments.get(0).getValue())));
+    }
+
+    private static List<String> decodeWithWeb3j(List<Class<? extends Type>> types, String encoded) {
+        final List<TypeReference<?>> references = new ArrayList<>();
+        types.forEach(type -> references.add(TypeReference.create(type)));
+        final List<String> result = new ArrayList<>();
+
+        for (Type value : FunctionReturnDecoder.decode(encoded, Utils.convert(references))) {
+            result.add(ParameterDecoder.decode(value));
+        }
+
+        return result;
+    }
+
+    /**
+     * Asserts that both computations return the same result or throw the same type of exception.
+     */
+    private static <T> void assertSameOutcome(Callable<T> expected, Callable<T> actual) {
+        T expectedResult = null;
+        Exception expectedError = null;
+
+        try {
+            expectedResult = expected.call();
+        } catch (Exception e) {
+            expectedError = e;
+        }
+
+        if (expectedError != null) {
+            final Class<? extends Exception> errorType = expectedError.getClass();
+            Assertions.assertThrows(errorType, actual::call);
+        } else {
+            try {
+                Assertions.assertEquals(expectedResult, actual.call());
+            } catch (Exception e) {
+                Assertions.fail("Expected " + expectedResult + " but got " + e);
+            }
+        }
+    }
+
+    private static String repeat(String value, int count) {
+        final StringBuilder result = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            result.append(value);
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.utils.Numeric;
+
+class AdaptivePollSchedulerTest {
+
+    @Test
+    void testBlockIntervalIsLearned() {
+        final AdaptivePollScheduler scheduler = new AdaptivePollScheduler(15_000, 100);
+
+        for (int i = 0; i < 50; i++) {
+            Assertions.assertTrue(scheduler.onPolled(block(i, 2 * i), i * 2_000L));
+        }
+
+        Assertions.assertEquals(2_000, scheduler.getBlockIntervalMillis(), 50);
+        // the same block again is not new
+        Assertions.assertFalse(scheduler.onPolled(block(49, 98), 99_000));
+    }
+
+    @Test
+    void testPollsAreFrequentWhenTheNextBlockIsExpected() {
+        final AdaptivePollScheduler scheduler = new AdaptivePollScheduler(2_000, 100);
+        scheduler.onPolled(block(1, 2), 10_000);
+
+        // right after a block, the next poll is shortly before the next block is expected
+        Assertions.assertEquals(1_600, scheduler.nextDelayMillis(10_200));
+        Assertions.assertEquals(200, scheduler.nextDelayMillis(11_800));
+        Assertions.assertEquals(200, scheduler.nextDelayMillis(12_100));
+    }
+
+    @Test
+    void testPollsBackOffWhileTheBlockIsOverdue() {
+        final AdaptivePollScheduler scheduler = new AdaptivePollScheduler(2_000, 100);
+        scheduler.onPolled(block(1, 2), 0);
+        long now = 2_000;
+
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertFalse(scheduler.onPolled(block(1, 2), now));
+            now += 200;
+        }
+
+        Assertions.assertEquals(200, scheduler.nextDelayMillis(now));
+        scheduler.onPolled(block(1, 2), now);
+        Assertions.assertEquals(400, scheduler.nextDelayMillis(now));
+
+        for (int i = 0; i < 10; i++) {
+            scheduler.onPolled(null, now);
+        }
+
+        // at most twice the block interval
+        Assertions.assertEquals(4_000, scheduler.nextDelayMillis(now));
+
+        // a new block resets the back-off
+        Assertions.assertTrue(scheduler.onPolled(block(2, 4), now));
+        Assertions.assertEquals(1_800, scheduler.nextDelayMillis(now));
+    }
+
+    @Test
+    void testHeadsArePolledOnlyWhileFollowed() throws InterruptedException {
+        final StubEthereumNode node = new StubEthereumNode();
+        final Web3j web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        final AdaptivePollScheduler scheduler = new AdaptivePollScheduler(100, 10);
+        final ChainHeadFollower headFollower = new ChainHeadFollower(web3j,
+                new HeaderChain(web3j, HeaderChain.DEFAULT_WINDOW_SIZE), null, scheduler);
+        final List<Long> heads = new CopyOnWriteArrayList<>();
+        final ChainHeadFollower.Listener listener = new ChainHeadFollower.Listener() {
+            @Override
+            public void onNewHead(EthBlock.Block head) {
+                heads.add(head.getNumber().longValue());
+            }
+
+            @Override
+            public void onError(Throwable error) {
+            }
+        };
+
+        Thread.sleep(50);
+        Assertions.assertEquals(0, scheduler.getPollCount());
+        headFollower.addListener(listener);
+
+        for (int i = 1; i <= 3; i++) {
+            node.mineBlock(i);
+            final long deadline = System.currentTimeMillis() + 5_000;
+
+            while (!heads.contains((long) i) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+
+        Assertions.assertTrue(heads.contains(3L));
+        Assertions.assertTrue(scheduler.getEffectivePollsPerMinute() > 0);
+
+        headFollower.removeListener(listener);
+        Assertions.assertFalse(scheduler.isActive());
+        Thread.sleep(50);
+        final int polls = node.getCallCount("eth_getBlockByNumber");
+        Thread.sleep(200);
+        Assertions.assertEquals(polls, node.getCallCount("eth_getBlockByNumber"));
+        web3j.shutdown();
+    }
+
+    private static EthBlock.Block block(long number, long timestamp) {
+        final EthBlock.Block block = new EthBlock.Block();
+        block.setNumber(Numeric.encodeQuantity(BigInteger.valueOf(number)));
+        block.setTimestamp(Numeric.encodeQuantity(BigInteger.valueOf(timestamp)));
+        block.setHash(StubEthereumNode.hash(number, "block"));
+
+        return block;
+    }
+}
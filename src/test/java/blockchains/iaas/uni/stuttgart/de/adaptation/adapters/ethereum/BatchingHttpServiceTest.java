@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import blockchains.iaas.uni.stuttgart.de.connectionprofiles.profiles.EthereumConnectionProfile;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.methods.response.EthBlock;
+
+class BatchingHttpServiceTest {
+    private StubEthereumNode node;
+    private String url;
+
+    @BeforeEach
+    void init() throws IOException {
+        node = new StubEthereumNode();
+
+        for (int i = 1; i <= 20; i++) {
+            node.mineBlock(i * 10);
+        }
+
+        url = node.startHttpServer();
+    }
+
+    @AfterEach
+    void tearDown() {
+        node.stopHttpServer();
+    }
+
+    @Test
+    void testConcurrentRequestsShareBatches() throws Exception {
+        final BatchingHttpService service = new BatchingHttpService(url, new OkHttpClient(), 8, 50);
+        final Web3j web3j = Web3j.build(service);
+        final List<CompletableFuture<EthBlock>> futures = new ArrayList<>();
+
+        for (int i = 1; i <= 20; i++) {
+            futures.add(web3j.ethGetBlockByNumber(new DefaultBlockParameterNumber(i), false).sendAsync());
+        }
+
+        service.flush();
+
+        for (int i = 1; i <= 20; i++) {
+            // every caller receives the response of its own request
+            Assertions.assertEquals(i * 10, futures.get(i - 1).get().getBlock().getTimestamp().longValue());
+        }
+
+        Assertions.assertEquals(20, service.getBatchedRequestCount());
+        Assertions.assertEquals(3, service.getBatchCount());
+        Assertions.assertEquals(8, service.getLargestBatchSize());
+        Assertions.assertEquals(3, node.getHttpCallCount());
+        web3j.shutdown();
+    }
+
+    @Test
+    void testSynchronousRequestIsSentAfterLinger() throws IOException {
+        final BatchingHttpService service = new BatchingHttpService(url, new OkHttpClient(), 8, 5);
+        final Web3j web3j = Web3j.build(service);
+
+        Assertions.assertEquals(20, web3j.ethBlockNumber().send().getBlockNumber().longValue());
+        Assertions.assertEquals(1, service.getBatchCount());
+        web3j.shutdown();
+    }
+
+    @Test
+    void testBatchingCanBeDisabled() throws IOException {
+        final BatchingHttpService service = new BatchingHttpService(url, new OkHttpClient(), 1, 5);
+        final Web3j web3j = Web3j.build(service);
+
+        Assertions.assertEquals(20, web3j.ethBlockNumber().send().getBlockNumber().longValue());
+        Assertions.assertEquals(0, service.getBatchCount());
+        web3j.shutdown();
+    }
+
+    @Test
+    void testConcurrentRequestsAreLimited() throws Exception {
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        node.onMethod("eth_blockNumber", params -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+
+            return StubEthereumNode.quantity(20);
+        });
+        final BatchingHttpService service = new BatchingHttpService(url, new OkHttpClient(), 1, 5, 2);
+        final Web3j web3j = Web3j.build(service);
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            futures.add(web3j.ethBlockNumber().sendAsync());
+        }
+
+        Assertions.assertTrue(service.getQueuedRequestCount() > 0);
+        Assertions.assertTrue(service.getInFlightRequestCount() <= 2);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+
+        waitUntilIdle(service);
+
+        Assertions.assertEquals(2, maxConcurrent.get());
+        Assertions.assertEquals(0, service.getQueuedRequestCount());
+        web3j.shutdown();
+    }
+
+    @Test
+    void testHangingRequestsFailAfterTheDeadline() {
+        node.onMethod("eth_blockNumber", params -> {
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return StubEthereumNode.quantity(20);
+        });
+        final EthereumConnectionProfile profile = new EthereumConnectionProfile(url, null, null, 1);
+        profile.setRequestTimeoutMillis(200);
+        final BatchingHttpService service = new BatchingHttpService(url, EthereumAdapter.createHttpClient(profile), 8, 5);
+        final Web3j web3j = Web3j.build(service);
+        final long start = System.currentTimeMillis();
+
+        final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> web3j.ethBlockNumber().sendAsync().get());
+        Assertions.assertTrue(e.getCause() instanceof IOException);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 2_000);
+        web3j.shutdown();
+    }
+
+    private static void waitUntilIdle(BatchingHttpService service) throws InterruptedException {
+        // the counters are updated right after the responses are handed over
+        for (int i = 0; i < 100 && service.getInFlightRequestCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+
+        Assertions.assertEquals(0, service.getInFlightRequestCount());
+    }
+}
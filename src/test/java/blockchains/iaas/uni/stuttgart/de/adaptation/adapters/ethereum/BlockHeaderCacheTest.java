@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.utils.Numeric;
+
+class BlockHeaderCacheTest {
+    private StubEthereumNode node;
+    private Web3j web3j;
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+
+        for (int i = 1; i <= 10; i++) {
+            node.mineBlock(i * 15);
+        }
+
+        web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    @Test
+    void testConcurrentMissesShareOneRequest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        node.onMethod("eth_getBlockByNumber", params -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return node.getBlock(Numeric.decodeQuantity(params.get(0).asText()).longValue()).toJson();
+        });
+        final BlockHeaderCache cache = new BlockHeaderCache(web3j, 100);
+        final List<CompletableFuture<HeaderChain.Header>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            futures.add(cache.getByNumber(5));
+        }
+
+        release.countDown();
+
+        for (CompletableFuture<HeaderChain.Header> future : futures) {
+            Assertions.assertEquals(75, future.get(5, TimeUnit.SECONDS).getTimestamp());
+        }
+
+        Assertions.assertEquals(1, node.getCallCount("eth_getBlockByNumber"));
+        Assertions.assertEquals(1, cache.getMissCount());
+        Assertions.assertEquals(9, cache.getCoalescedMissCount());
+    }
+
+    @Test
+    void testConcurrentSynchronousMissesShareOneRequest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        node.onMethod("eth_getBlockByNumber", params -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return node.getBlock(Numeric.decodeQuantity(params.get(0).asText()).longValue()).toJson();
+        });
+        final BlockHeaderCache cache = new BlockHeaderCache(web3j, 100);
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        final List<Future<Long>> timestamps = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            timestamps.add(executor.submit(() -> cache.getTimestamp(5)));
+        }
+
+        // the lookups wait for the first one
+        Thread.sleep(200);
+        release.countDown();
+
+        for (Future<Long> timestamp : timestamps) {
+            Assertions.assertEquals(75, timestamp.get(5, TimeUnit.SECONDS));
+        }
+
+        executor.shutdown();
+        Assertions.assertEquals(1, node.getCallCount("eth_getBlockByNumber"));
+        Assertions.assertEquals(1, cache.getMissCount());
+        Assertions.assertEquals(4, cache.getCoalescedMissCount());
+    }
+
+    @Test
+    void testHeadersLookedUpByHashAreNotUsedByNumber() throws IOException {
+        final BlockHeaderCache cache = new BlockHeaderCache(web3j, 100);
+        final String orphanedHash = node.getBlock(3).hash;
+        cache.getTimestamp(orphanedHash);
+        node.reorganize(2, 1);
+
+        Assertions.assertEquals(node.getBlock(3).timestamp, cache.getTimestamp(3));
+        Assertions.assertEquals(1, node.getCallCount("eth_getBlockByNumber"));
+        Assertions.assertEquals(node.getBlock(3).hash, cache.getHeader(3).getHash());
+    }
+
+    @Test
+    void testSynchronousLookupsOnIoThreadsDoNotWaitForBatches() throws Exception {
+        // a single thread sends the requests, and batches are only sent after a while
+        final BatchingHttpService service = new BatchingHttpService(node.startHttpServer(), new OkHttpClient(), 10, 50, 1);
+        final Web3j batchingWeb3j = Web3j.build(service);
+        final BlockHeaderCache cache = new BlockHeaderCache(batchingWeb3j, 100);
+
+        try {
+            final CompletableFuture<Long> timestamp = batchingWeb3j.ethBlockNumber().sendAsync().thenApply(head -> {
+                try {
+                    return cache.getTimestamp(node.getBlock(3).hash);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+
+            Assertions.assertEquals(45, timestamp.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(45, cache.getTimestampAsync(node.getBlock(3).hash).get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, node.getCallCount("eth_getBlockByHash"));
+        } finally {
+            batchingWeb3j.shutdown();
+            node.stopHttpServer();
+        }
+    }
+
+    @Test
+    void testHeadersAreSharedByHashAndNumber() throws IOException {
+        final BlockHeaderCache cache = new BlockHeaderCache(web3j, 100);
+
+        Assertions.assertEquals(45, cache.getTimestamp(3));
+        Assertions.assertEquals(45, cache.getTimestamp(node.getBlock(3).hash));
+        Assertions.assertEquals(45, cache.getTimestamp(3));
+        Assertions.assertEquals(1, node.getCallCount("eth_getBlockByNumber"));
+        Assertions.assertEquals(0, node.getCallCount("eth_getBlockByHash"));
+        Assertions.assertEquals(2.0 / 3, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    void testCapacityAndInvalidation() throws IOException {
+        final BlockHeaderCache cache = new BlockHeaderCache(web3j, 5);
+
+        for (int i = 0; i <= 10; i++) {
+            cache.getTimestamp(i);
+        }
+
+        Assertions.assertEquals(5, cache.size());
+        cache.getTimestamp(10);
+        Assertions.assertEquals(11, node.getCallCount("eth_getBlockByNumber"));
+
+        // the competing branch has other timestamps
+        node.reorganize(7, 3);
+        cache.invalidateFrom(8);
+
+        Assertions.assertEquals(node.getBlock(10).timestamp, cache.getTimestamp(10));
+        Assertions.assertEquals(12, node.getCallCount("eth_getBlockByNumber"));
+        Assertions.assertThrows(IOException.class, () -> cache.getTimestamp(11));
+    }
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.Transaction;
+
+class EndpointPoolTest {
+    private static final String ACCOUNT = "0x90645dc507225d61cb81cf83e7470f5a6aa1215a";
+    private static final String OTHER_ACCOUNT = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    private final List<StubEthereumNode> nodes = new ArrayList<>();
+    private final List<String> urls = new ArrayList<>();
+    private EndpointPool pool;
+    private Web3j web3j;
+
+    @BeforeEach
+    void init() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            final StubEthereumNode node = new StubEthereumNode();
+
+            for (int j = 1; j <= 20; j++) {
+                node.mineBlock(j * 10);
+            }
+
+            // the transaction count tells which node answered
+            final int index = i;
+            node.onMethod("eth_getTransactionCount", params -> StubEthereumNode.quantity(index));
+            node.onMethod("eth_call", params -> StubEthereumNode.quantity(index));
+            node.onMethod("eth_sendTransaction", params -> StubEthereumNode.quantity(index));
+            nodes.add(node);
+            urls.add(node.startHttpServer());
+        }
+
+        // the nodes are only probed by the tests
+        pool = new EndpointPool(urls, new OkHttpClient(), 0, 1);
+        web3j = Web3j.build(new BatchingHttpService(pool, new OkHttpClient(), 1, 0, 4));
+    }
+
+    @AfterEach
+    void tearDown() {
+        web3j.shutdown();
+        nodes.forEach(StubEthereumNode::stopHttpServer);
+    }
+
+    @Test
+    void testReadsGoToTheFastestNodeInSync() throws IOException {
+        nodes.get(0).setLatencyMillis(100);
+        // the second node is as fast as the third one, but lags behind
+        nodes.get(1).reorganize(5, 0);
+        pool.probe();
+
+        Assertions.assertEquals(5, pool.getEndpoints().get(1).getHeadNumber());
+        Assertions.assertEquals(20, pool.getEndpoints().get(2).getHeadNumber());
+        Assertions.assertEquals(urls.get(2), pool.getReadEndpoint().getUrl());
+        Assertions.assertEquals(2, readTransactionCount(ACCOUNT));
+    }
+
+    @Test
+    void testReadsFailOverToTheNextNode() throws IOException {
+        nodes.get(1).setLatencyMillis(50);
+        nodes.get(2).setLatencyMillis(100);
+        pool.probe();
+        nodes.get(0).setAvailable(false);
+
+        Assertions.assertEquals(1, readTransactionCount(ACCOUNT));
+        Assertions.assertEquals(1, pool.getFailoverCount());
+        Assertions.assertFalse(pool.getEndpoints().get(0).isAvailable());
+
+        // the unavailable node is not tried again
+        Assertions.assertEquals(1, readTransactionCount(ACCOUNT));
+        Assertions.assertEquals(1, pool.getFailoverCount());
+
+        nodes.get(0).setAvailable(true);
+        pool.probe();
+        Assertions.assertEquals(0, readTransactionCount(ACCOUNT));
+    }
+
+    @Test
+    void testTransactionsArePinnedPerAccount() throws IOException {
+        nodes.get(1).setLatencyMillis(50);
+        nodes.get(2).setLatencyMillis(100);
+        pool.probe();
+        Assertions.assertEquals(0, pendingTransactionCount(ACCOUNT));
+        Assertions.assertEquals(urls.get(0), pool.getWriteEndpoint(ACCOUNT).getUrl());
+
+        // the second node becomes the fastest one
+        nodes.get(0).setLatencyMillis(200);
+        nodes.get(1).setLatencyMillis(0);
+        pool.probe();
+        pool.probe();
+
+        Assertions.assertEquals(1, readTransactionCount(ACCOUNT));
+        Assertions.assertEquals(0, pendingTransactionCount(ACCOUNT));
+        Assertions.assertEquals(1, pendingTransactionCount(OTHER_ACCOUNT));
+
+        // the account is pinned to another node if its node fails, and stays there
+        nodes.get(0).setAvailable(false);
+        Assertions.assertEquals(1, pendingTransactionCount(ACCOUNT));
+        nodes.get(0).setAvailable(true);
+        pool.probe();
+        Assertions.assertEquals(1, pendingTransactionCount(ACCOUNT));
+        Assertions.assertEquals(urls.get(1), pool.getWriteEndpoint(ACCOUNT).getUrl());
+    }
+
+    @Test
+    void testTheChainHeadIsReadFromOneNode() throws IOException {
+        // both nodes are in sync, but the second one is one block ahead
+        nodes.get(1).mineBlock(210);
+        nodes.get(1).setLatencyMillis(50);
+        nodes.get(2).setLatencyMillis(100);
+        pool.probe();
+        Assertions.assertEquals(20, latestBlockNumber());
+
+        // the second node becomes the fastest one
+        nodes.get(0).setLatencyMillis(200);
+        nodes.get(1).setLatencyMillis(0);
+        pool.probe();
+        pool.probe();
+
+        Assertions.assertEquals(1, readTransactionCount(ACCOUNT));
+        Assertions.assertEquals(20, latestBlockNumber());
+        Assertions.assertEquals(20, web3j.ethBlockNumber().send().getBlockNumber().longValue());
+        // the first transaction of an account goes to the node the chain head is read from
+        Assertions.assertEquals(0, pendingTransactionCount(ACCOUNT));
+
+        // the chain head is only read from another node if its node fails
+        nodes.get(0).setAvailable(false);
+        Assertions.assertEquals(21, latestBlockNumber());
+        nodes.get(0).setAvailable(true);
+        pool.probe();
+        Assertions.assertEquals(21, latestBlockNumber());
+    }
+
+    @Test
+    void testCallsAtABlockNumberAreSentToTheChainNode() throws IOException {
+        nodes.get(1).setLatencyMillis(50);
+        nodes.get(2).setLatencyMillis(100);
+        pool.probe();
+        Assertions.assertEquals(20, latestBlockNumber());
+
+        // the second node becomes the fastest one
+        nodes.get(0).setLatencyMillis(200);
+        nodes.get(1).setLatencyMillis(0);
+        pool.probe();
+        pool.probe();
+
+        Assertions.assertEquals("0x1", call(DefaultBlockParameterName.LATEST));
+        Assertions.assertEquals("0x0", call(DefaultBlockParameter.valueOf(BigInteger.valueOf(20))));
+    }
+
+    @Test
+    void testTransactionsDoNotFailOverOnceSent() throws IOException {
+        nodes.get(1).setLatencyMillis(50);
+        nodes.get(2).setLatencyMillis(100);
+        pool.probe();
+        Assertions.assertEquals("0x0", sendTransaction());
+
+        // the node fails after receiving the transaction
+        nodes.get(0).setAvailable(false);
+        Assertions.assertThrows(IOException.class, this::sendTransaction);
+        Assertions.assertEquals(0, pool.getFailoverCount());
+        Assertions.assertEquals(0, nodes.get(1).getCallCount("eth_sendTransaction"));
+        Assertions.assertEquals(0, nodes.get(2).getCallCount("eth_sendTransaction"));
+
+        // the transaction is sent to another node if the node cannot be connected to
+        nodes.get(0).stopHttpServer();
+        web3j.shutdown();
+        pool = new EndpointPool(urls, new OkHttpClient(), 0, 1);
+        web3j = Web3j.build(new BatchingHttpService(pool, new OkHttpClient(), 1, 0, 4));
+        Assertions.assertEquals("0x1", sendTransaction());
+        Assertions.assertEquals(1, pool.getFailoverCount());
+    }
+
+    @Test
+    void testRequestsFailIfAllNodesAreUnavailable() {
+        nodes.forEach(node -> node.setAvailable(false));
+
+        Assertions.assertThrows(IOException.class, () -> web3j.ethBlockNumber().send());
+        Assertions.assertEquals(2, pool.getFailoverCount());
+        pool.getEndpoints().forEach(endpoint -> Assertions.assertFalse(endpoint.isAvailable()));
+    }
+
+    private long readTransactionCount(String account) throws IOException {
+        return web3j.ethGetTransactionCount(account, DefaultBlockParameterName.LATEST).send().getTransactionCount().longValue();
+    }
+
+    private String call(DefaultBlockParameter block) throws IOException {
+        return web3j.ethCall(Transaction.createEthCallTransaction(ACCOUNT, OTHER_ACCOUNT, "0x"), block).send().getValue();
+    }
+
+    private String sendTransaction() throws IOException {
+        return web3j.ethSendTransaction(Transaction.createEtherTransaction(ACCOUNT, null, null, null, OTHER_ACCOUNT, BigInteger.ONE))
+                .send()
+                .getTransactionHash();
+    }
+
+    private long latestBlockNumber() throws IOException {
+        return web3j.ethGetBlockByNumber(DefaultBlockParameterName.LATEST, false).send().getBlock().getNumber().longValue();
+    }
+
+    private long pendingTransactionCount(String account) throws IOException {
+        return web3j.ethGetTransactionCount(account, DefaultBlockParameterName.PENDING).send().getTransactionCount().longValue();
+    }
+}
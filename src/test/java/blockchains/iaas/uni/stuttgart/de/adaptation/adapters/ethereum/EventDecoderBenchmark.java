@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.web3j.abi.EventValues;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.tx.Contract;
+
+/**
+ * Measures the number of logs decoded per millisecond, comparing {@link Contract#staticExtractEventParameters}, which
+ * hashes the signature of the event for every log (the former approach), with a cached {@link EventDecoder}. The
+ * decoder is used both directly, as for the logs of a subscription, and looked up in the cache for every log, which
+ * bounds the cost of a query or subscription returning a single log. {@code cachedDecoderValues} decodes the log into
+ * the string values of the parameters with {@link AbiCodec}, as the adapter does.
+ * <p>
+ * Run with the main method from the test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventDecoderBenchmark {
+    private List<Parameter> parameters;
+    private EventDecoder.Cache cache;
+    private EventDecoder decoder;
+    private Event event;
+    private Log log;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        parameters = EventDecoderTest.transferParameters("from", "to", "value", "memo");
+        cache = new EventDecoder.Cache(16);
+        decoder = cache.get("Transfer", parameters);
+        event = decoder.getEvent();
+        log = EventDecoderTest.transferLog(decoder.getTopic());
+    }
+
+    @Benchmark
+    public EventValues extractEventParameters() {
+        return Contract.staticExtractEventParameters(event, log);
+    }
+
+    @Benchmark
+    public List<Type> cachedDecoder() {
+        return decoder.decode(log);
+    }
+
+    @Benchmark
+    public List<String> cachedDecoderValues() {
+        return decoder.decodeValues(log);
+    }
+
+    @Benchmark
+    public List<Type> cacheLookupAndDecode() {
+        return cache.get("Transfer", parameters).decode(log);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EventDecoderBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.web3j.abi.EventValues;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.tx.Contract;
+
+class EventDecoderTest {
+    static final String ADDRESS_TYPE = "{\"type\": \"string\", \"pattern\": \"^0x[a-fA-F0-9]{40}$\"}";
+    static final String UINT256_TYPE = "{\"type\": \"integer\", \"minimum\": 0, " +
+            "\"maximum\": 115792089237316195423570985008687907853269984665640564039457584007913129639935}";
+    static final String STRING_TYPE = "{\"type\": \"string\"}";
+    private static final String ALICE_TOPIC = "0x00000000000000000000000090645dc507225d61cb81cf83e7470f5a6aa1215a";
+    private static final String BOB_TOPIC = "0x000000000000000000000000182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    // the values 42 and "hello"
+    private static final String DATA = "0x" +
+            "000000000000000000000000000000000000000000000000000000000000002a" +
+            "0000000000000000000000000000000000000000000000000000000000000040" +
+            "0000000000000000000000000000000000000000000000000000000000000005" +
+            "68656c6c6f000000000000000000000000000000000000000000000000000000";
+
+    @Test
+    void testDecodingMatchesTheWeb3jDecoder() throws Exception {
+        final EventDecoder decoder = new EventDecoder("Transfer", transferParameters("from", "to", "value", "memo"));
+        final Log log = transferLog(decoder.getTopic());
+        final EventValues expected = Contract.staticExtractEventParameters(decoder.getEvent(), log);
+        final List<Type> values = decoder.decode(log);
+
+        Assertions.assertEquals(Arrays.asList(expected.getIndexedValues().get(0), expected.getNonIndexedValues().get(0),
+                expected.getIndexedValues().get(1), expected.getNonIndexedValues().get(1)), values);
+        Assertions.assertEquals("hello", values.get(3).getValue());
+    }
+
+    @Test
+    void testValuesAreDecodedLikeByTheParameterDecoder() throws Exception {
+        final List<Parameter> parameters = new ArrayList<>(transferParameters("from", "to", "value", "memo"));
+        // the topic of an indexed string holds its hash
+        parameters.set(3, Parameter.builder().name("memo").type(STRING_TYPE).indexed(true).build());
+        final EventDecoder decoder = new EventDecoder("Transfer", parameters);
+        final Log log = transferLog(decoder.getTopic());
+        log.getTopics().add("0x1c8aff950685c2ed4bc3174f3472287b56d9517b9c948127319a09a7a36deac8");
+        log.setData(DATA.substring(0, 66));
+        final List<String> expected = new ArrayList<>();
+
+        for (Type value : decoder.decode(log)) {
+            expected.add(ParameterDecoder.decode(value));
+        }
+
+        Assertions.assertEquals(expected, decoder.decodeValues(log));
+        Assertions.assertEquals("42", decoder.decodeValues(log).get(1));
+        Assertions.assertNull(decoder.decodeValues(transferLog(StubEthereumNode.hash(1, "event"))));
+    }
+
+    @Test
+    void testLogsOfOtherEventsAreNotDecoded() throws Exception {
+        final EventDecoder decoder = new EventDecoder("Transfer", transferParameters("from", "to", "value", "memo"));
+        final EventDecoder other = new EventDecoder("Approval", transferParameters("from", "to", "value", "memo"));
+
+        Assertions.assertNotEquals(decoder.getTopic(), other.getTopic());
+        Assertions.assertNull(decoder.decode(transferLog(other.getTopic())));
+
+        final Log missingTopic = transferLog(decoder.getTopic());
+        missingTopic.setTopics(missingTopic.getTopics().subList(0, 2));
+        Assertions.assertNull(decoder.decode(missingTopic));
+    }
+
+    @Test
+    void testDecodersAreSharedByEventsWithTheSameTypes() throws Exception {
+        final EventDecoder.Cache cache = new EventDecoder.Cache(2);
+        final EventDecoder decoder = cache.get("Transfer", transferParameters("from", "to", "value", "memo"));
+
+        // the names of the parameters do not matter
+        Assertions.assertSame(decoder, cache.get("Transfer", transferParameters("a", "b", "c", "d")));
+        Assertions.assertEquals(1, cache.getHitCount());
+
+        final List<Parameter> notIndexed = new ArrayList<>(transferParameters("from", "to", "value", "memo"));
+        notIndexed.set(2, Parameter.builder().name("to").type(ADDRESS_TYPE).build());
+        Assertions.assertNotSame(decoder, cache.get("Transfer", notIndexed));
+        Assertions.assertNotSame(decoder, cache.get("Approval", transferParameters("from", "to", "value", "memo")));
+        Assertions.assertEquals(3, cache.getMissCount());
+        // the least recently used decoder was evicted
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertNotSame(decoder, cache.get("Transfer", transferParameters("from", "to", "value", "memo")));
+    }
+
+    /**
+     * @return the parameters of an event with two indexed addresses between which an integer and a string are declared
+     */
+    static List<Parameter> transferParameters(String from, String to, String value, String memo) {
+        return Arrays.asList(
+                Parameter.builder().name(from).type(ADDRESS_TYPE).indexed(true).build(),
+                Parameter.builder().name(value).type(UINT256_TYPE).build(),
+                Parameter.builder().name(to).type(ADDRESS_TYPE).indexed(true).build(),
+                Parameter.builder().name(memo).type(STRING_TYPE).build());
+    }
+
+    static Log transferLog(String topic) {
+        final Log log = new Log();
+        log.setTopics(new ArrayList<>(Arrays.asList(topic, ALICE_TOPIC, BOB_TOPIC)));
+        log.setData(DATA);
+        log.setAddress("0x182761ac584c0016cdb3f5c59e0242ef9834fef0");
+
+        return log;
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.tx.gas.DefaultGasProvider;
+
+class GasOracleTest {
+    private static final String ACCOUNT = "0x90645dc507225d61cb81cf83e7470f5a6aa1215a";
+    private static final String CONTRACT = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    private StubEthereumNode node;
+    private GasOracle oracle;
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+        final Web3j web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        oracle = new GasOracle(web3j, node, 50, 20, TimeUnit.MINUTES.toMillis(10));
+        node.onMethod("eth_feeHistory", params -> {
+            Assertions.assertEquals(50, params.get(2).get(0).asInt());
+            final ObjectNode result = JsonNodeFactory.instance.objectNode();
+            result.set("oldestBlock", StubEthereumNode.quantity(100));
+            final ArrayNode baseFees = result.putArray("baseFeePerGas");
+            baseFees.add(StubEthereumNode.quantity(900));
+            baseFees.add(StubEthereumNode.quantity(1_000));
+            final ArrayNode rewards = result.putArray("reward");
+            // the second block was empty
+            rewards.addArray().add(StubEthereumNode.quantity(30));
+            rewards.addArray().add(StubEthereumNode.quantity(0));
+            rewards.addArray().add(StubEthereumNode.quantity(10));
+            rewards.addArray().add(StubEthereumNode.quantity(20));
+
+            return result;
+        });
+        node.onMethod("eth_gasPrice", params -> StubEthereumNode.quantity(5_000));
+        node.onMethod("eth_estimateGas", params -> StubEthereumNode.quantity(50_000));
+    }
+
+    @Test
+    void testPriceIsDerivedFromTheFeeHistory() throws Exception {
+        // twice the base fee of the next block plus the median of the priority fees of non-empty blocks
+        Assertions.assertEquals(BigInteger.valueOf(2_020), oracle.getGasPrice().get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, node.getCallCount("eth_gasPrice"));
+    }
+
+    @Test
+    void testPriceIsRefreshedOncePerBlock() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            oracle.getGasPrice().get(5, TimeUnit.SECONDS);
+        }
+
+        Assertions.assertEquals(1, node.getCallCount("eth_feeHistory"));
+
+        oracle.onNewHead(new EthBlock.Block());
+
+        for (int i = 0; i < 10; i++) {
+            oracle.getGasPrice().get(5, TimeUnit.SECONDS);
+        }
+
+        Assertions.assertEquals(2, node.getCallCount("eth_feeHistory"));
+        Assertions.assertEquals(2, oracle.getPriceRefreshCount());
+    }
+
+    @Test
+    void testNodesWithoutFeeHistoryUseTheSuggestedPrice() throws Exception {
+        node.onMethod("eth_feeHistory", params -> {
+            throw new UnsupportedOperationException("the method eth_feeHistory does not exist/is not available");
+        });
+
+        Assertions.assertEquals(BigInteger.valueOf(5_000), oracle.getGasPrice().get(5, TimeUnit.SECONDS));
+        oracle.onNewHead(new EthBlock.Block());
+        Assertions.assertEquals(BigInteger.valueOf(5_000), oracle.getGasPrice().get(5, TimeUnit.SECONDS));
+        // the fee history is not requested again
+        Assertions.assertEquals(1, node.getCallCount("eth_feeHistory"));
+    }
+
+    @Test
+    void testEstimatesAreCachedPerFunction() throws Exception {
+        final String transfer = "0xa9059cbb000000000000000000000000000000000000000000000000000000000000000a";
+        final String otherTransfer = "0xa9059cbb000000000000000000000000000000000000000000000000000000000000000b";
+        final String approve = "0x095ea7b3000000000000000000000000000000000000000000000000000000000000000a";
+
+        Assertions.assertEquals(BigInteger.valueOf(60_000), oracle.getGasLimit(ACCOUNT, CONTRACT, transfer).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(BigInteger.valueOf(60_000), oracle.getGasLimit(ACCOUNT, CONTRACT, otherTransfer).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, node.getCallCount("eth_estimateGas"));
+
+        oracle.getGasLimit(ACCOUNT, CONTRACT, approve).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(2, node.getCallCount("eth_estimateGas"));
+        Assertions.assertEquals(2, oracle.getCachedEstimateCount());
+    }
+
+    @Test
+    void testFailedEstimatesUseTheDefaultLimit() throws Exception {
+        node.onMethod("eth_estimateGas", params -> {
+            throw new IllegalStateException("execution reverted");
+        });
+
+        Assertions.assertEquals(DefaultGasProvider.GAS_LIMIT, oracle.getGasLimit(ACCOUNT, CONTRACT, "0xa9059cbb").get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, oracle.getCachedEstimateCount());
+    }
+}
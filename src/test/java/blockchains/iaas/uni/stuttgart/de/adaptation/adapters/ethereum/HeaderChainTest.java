@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.utils.Numeric;
+
+class HeaderChainTest {
+    private static final int WINDOW = 10;
+    private StubEthereumNode node;
+    private Web3j web3j;
+    private HeaderChain headerChain;
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+        web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        headerChain = new HeaderChain(web3j, WINDOW);
+    }
+
+    @AfterEach
+    void tearDown() {
+        web3j.shutdown();
+    }
+
+    @Test
+    void testMissingParentsAreFetched() {
+        headerChain.update(head(node.getBlock(0))).join();
+
+        for (int i = 1; i <= 3; i++) {
+            node.mineBlock(i);
+        }
+
+        Assertions.assertEquals(-1, headerChain.update(head(node.getBlock(3))).join());
+        Assertions.assertEquals(2, node.getCallCount("eth_getBlockByHash"));
+        Assertions.assertNotNull(headerChain.getHeader(1));
+    }
+
+    @Test
+    void testHeadsFarAboveTheWindowStartANewWindow() {
+        headerChain.update(head(node.getBlock(0))).join();
+
+        for (int i = 1; i <= 3 * WINDOW; i++) {
+            node.mineBlock(i);
+        }
+
+        // the blocks within the new window were never verified
+        Assertions.assertEquals(2 * WINDOW + 1, headerChain.update(head(node.getBlock(3 * WINDOW))).join());
+        Assertions.assertEquals(0, node.getCallCount("eth_getBlockByHash"));
+        Assertions.assertEquals(3 * WINDOW, headerChain.getLowestNumber());
+    }
+
+    @Test
+    void testBlocksWithinTheWindowAreReorganizedWhenTheWindowWasCleared() {
+        for (int i = 1; i <= WINDOW; i++) {
+            node.mineBlock(i);
+        }
+
+        headerChain.update(head(node.getBlock(WINDOW))).join();
+        // e.g., since the chain head is not followed anymore
+        headerChain.clear();
+
+        Assertions.assertEquals(-1, headerChain.getHeadNumber());
+        // the blocks within the window of the next head could have been reorganized meanwhile
+        Assertions.assertEquals(2, headerChain.update(head(node.mineBlock(WINDOW + 1))).join());
+        Assertions.assertEquals(0, node.getCallCount("eth_getBlockByHash"));
+        // only once
+        Assertions.assertEquals(-1, headerChain.update(head(node.mineBlock(WINDOW + 2))).join());
+    }
+
+    private static EthBlock.Block head(StubEthereumNode.StubBlock block) {
+        final EthBlock.Block result = new EthBlock.Block();
+        result.setNumber(Numeric.encodeQuantity(BigInteger.valueOf(block.number)));
+        result.setHash(block.hash);
+        result.setParentHash(block.parentHash);
+        result.setTimestamp(Numeric.encodeQuantity(BigInteger.valueOf(block.timestamp)));
+
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.ParameterException;
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.web3j.crypto.Hash;
+
+class IndexedTopicFilterTest {
+    private static final String ADDRESS_TYPE = "{\"type\": \"string\", \"pattern\": \"^0x[a-fA-F0-9]{40}$\"}";
+    private static final String UINT256_TYPE = "{\"type\": \"integer\", \"minimum\": 0, " +
+            "\"maximum\": 115792089237316195423570985008687907853269984665640564039457584007913129639935}";
+    private static final String STRING_TYPE = "{\"type\": \"string\"}";
+    private static final String ALICE = "0x90645dc507225d61cb81cf83e7470f5a6aa1215a";
+    private static final String BOB = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    private static final String ALICE_TOPIC = "0x00000000000000000000000090645dc507225d61cb81cf83e7470f5a6aa1215a";
+    private static final String BOB_TOPIC = "0x000000000000000000000000182761ac584c0016cdb3f5c59e0242ef9834fef0";
+
+    @Test
+    void testDisjunctionsOfEqualitiesAreRecognized() {
+        Assertions.assertEquals(Collections.singletonMap("from", setOf(ALICE, BOB)),
+                texts(IndexedTopicFilter.parseConditions("from == '" + ALICE + "' || \"" + BOB + "\" === from")));
+        Assertions.assertEquals(Collections.singletonMap("from", setOf(ALICE)),
+                texts(IndexedTopicFilter.parseConditions("(from == '" + ALICE + "') && value > 10")));
+        Assertions.assertEquals(setOf("from", "to"),
+                IndexedTopicFilter.parseConditions("(from == '" + ALICE + "' || from == '" + BOB + "') && to == '" + BOB + "'").keySet());
+        // the common parameter of all alternatives is restricted to the values of all of them
+        Assertions.assertEquals(Collections.singletonMap("from", setOf(ALICE, BOB)),
+                texts(IndexedTopicFilter.parseConditions("from == '" + ALICE + "' && to == '" + BOB + "' || from == '" + BOB + "'")));
+    }
+
+    @Test
+    void testConditionsThatNeedNotHoldAreIgnored() {
+        Assertions.assertTrue(IndexedTopicFilter.parseConditions("from == '" + ALICE + "' || to == '" + BOB + "'").isEmpty());
+        Assertions.assertTrue(IndexedTopicFilter.parseConditions("!(from == '" + ALICE + "')").isEmpty());
+        Assertions.assertTrue(IndexedTopicFilter.parseConditions("from != '" + ALICE + "'").isEmpty());
+        Assertions.assertTrue(IndexedTopicFilter.parseConditions("from == '" + ALICE + "' && to == '" + BOB + "', true").isEmpty());
+        Assertions.assertTrue(IndexedTopicFilter.parseConditions("from == '" + ALICE + "' ? false : true").isEmpty());
+        Assertions.assertTrue(IndexedTopicFilter.parseConditions("from == 'it\\'s'").isEmpty());
+        Assertions.assertTrue(IndexedTopicFilter.parseConditions(null).isEmpty());
+    }
+
+    @Test
+    void testIndexedParametersBecomeTopics() {
+        final List<Parameter> parameters = Arrays.asList(
+                Parameter.builder().name("from").type(ADDRESS_TYPE).indexed(true).build(),
+                Parameter.builder().name("to").type(ADDRESS_TYPE).indexed(true).value(BOB).build(),
+                Parameter.builder().name("value").type(UINT256_TYPE).build());
+
+        final List<List<String>> topics = IndexedTopicFilter.build(parameters,
+                "(from == '" + ALICE + "' || from == '" + BOB + "') && value > 5");
+
+        Assertions.assertEquals(Arrays.asList(Arrays.asList(ALICE_TOPIC, BOB_TOPIC), Collections.singletonList(BOB_TOPIC)), topics);
+    }
+
+    @Test
+    void testUnrestrictedTrailingParametersAreLeftOut() {
+        final List<Parameter> parameters = Arrays.asList(
+                Parameter.builder().name("from").type(ADDRESS_TYPE).indexed(true).build(),
+                Parameter.builder().name("id").type(UINT256_TYPE).indexed(true).build(),
+                Parameter.builder().name("name").type(STRING_TYPE).indexed(true).build());
+
+        Assertions.assertEquals(Arrays.asList(null, Collections.singletonList(
+                        "0x000000000000000000000000000000000000000000000000000000000000002a")),
+                IndexedTopicFilter.build(parameters, "id == 42 && name == 'alice'"));
+        Assertions.assertTrue(IndexedTopicFilter.build(parameters, "id == 42 || from == '" + ALICE + "'").isEmpty());
+        // a literal that is not exactly an integer in the script environment is not translated
+        Assertions.assertTrue(IndexedTopicFilter.build(parameters, "id == 42 || id == 4.2").isEmpty());
+        // the script reads 010 as the octal number 8
+        Assertions.assertTrue(IndexedTopicFilter.build(parameters, "id == 010").isEmpty());
+        Assertions.assertTrue(IndexedTopicFilter.build(parameters, "id == 0x2a").isEmpty());
+        Assertions.assertTrue(IndexedTopicFilter.build(parameters, "id == 42e0").isEmpty());
+        Assertions.assertEquals(Arrays.asList(null, Collections.singletonList(
+                        "0x0000000000000000000000000000000000000000000000000000000000000000")),
+                IndexedTopicFilter.build(parameters, "id == 0"));
+    }
+
+    @Test
+    void testPassedValuesOfDynamicTypesAreHashed() {
+        final Parameter name = Parameter.builder().name("name").type(STRING_TYPE).indexed(true).value("alice").build();
+
+        Assertions.assertEquals(Collections.singletonList(Collections.singletonList(Hash.sha3String("alice"))),
+                IndexedTopicFilter.build(Collections.singletonList(name), null));
+    }
+
+    @Test
+    void testAtMostThreeParametersCanBeIndexed() {
+        final Parameter indexed = Parameter.builder().name("id").type(UINT256_TYPE).indexed(true).build();
+
+        Assertions.assertThrows(ParameterException.class,
+                () -> IndexedTopicFilter.build(Arrays.asList(indexed, indexed, indexed, indexed), null));
+    }
+
+    private static Set<String> setOf(String... values) {
+        return Arrays.stream(values).collect(Collectors.toSet());
+    }
+
+    private static Map<String, Set<String>> texts(Map<String, Set<IndexedTopicFilter.Literal>> conditions) {
+        return conditions.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
+                entry -> entry.getValue().stream().map(IndexedTopicFilter.Literal::getText).collect(Collectors.toSet())));
+    }
+}
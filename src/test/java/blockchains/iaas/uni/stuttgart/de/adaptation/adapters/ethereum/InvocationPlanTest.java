@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.SmartContractNotFoundException;
+import blockchains.iaas.uni.stuttgart.de.model.Parameter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+
+class InvocationPlanTest {
+    private static final String CONTRACT = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    private static final String BOOL_TYPE = "{\"type\": \"boolean\"}";
+    private static final String INT8_TYPE = "{\"type\": \"integer\", \"minimum\": -128, \"maximum\": 127}";
+    private static final String BYTES_TYPE = "{\"type\": \"array\", \"items\": {\"type\": \"string\", \"pattern\": \"^[a-fA-F0-9]{2}$\"}}";
+    private static final String BYTES4_TYPE = "{\"type\": \"array\", \"maxItems\": 4, " +
+            "\"items\": {\"type\": \"string\", \"pattern\": \"^[a-fA-F0-9]{2}$\"}}";
+
+    @Test
+    void testEncodingMatchesTheWeb3jEncoder() throws Exception {
+        final List<Parameter> inputs = Arrays.asList(
+                input(EventDecoderTest.ADDRESS_TYPE, "0x90645dc507225d61cb81cf83e7470f5a6aa1215a"),
+                input(EventDecoderTest.UINT256_TYPE, "42"),
+                input(EventDecoderTest.STRING_TYPE, "hello"),
+                input(BOOL_TYPE, "true"),
+                input(INT8_TYPE, "-5"),
+                input(BYTES_TYPE, "0102030405"),
+                input(BYTES4_TYPE, "cafebabe"));
+        final InvocationPlan plan = new InvocationPlan(CONTRACT, "store", inputs, Collections.emptyList());
+        final List<Type> values = new ArrayList<>();
+
+        for (Parameter input : inputs) {
+            values.add(ParameterEncoder.encode(input));
+        }
+
+        Assertions.assertEquals(FunctionEncoder.encode(new Function("store", values, Collections.emptyList())),
+                plan.encode(inputs));
+        Assertions.assertEquals(CONTRACT, plan.getContractAddress());
+        Assertions.assertFalse(plan.isReadOnly());
+    }
+
+    @Test
+    void testPlansAreSharedByInvocationsWithTheSameTypes() throws Exception {
+        final InvocationPlan.Cache cache = new InvocationPlan.Cache(10);
+        final List<Parameter> outputs = Collections.singletonList(
+                Parameter.builder().name("balance").type(EventDecoderTest.UINT256_TYPE).build());
+        final InvocationPlan plan = cache.get(CONTRACT, "balanceOf",
+                Collections.singletonList(input(EventDecoderTest.ADDRESS_TYPE, CONTRACT)), outputs);
+
+        Assertions.assertTrue(plan.isReadOnly());
+        Assertions.assertEquals(1, plan.getOutputTypes().size());
+        Assertions.assertSame(plan, cache.get(CONTRACT, "balanceOf",
+                Collections.singletonList(input(EventDecoderTest.ADDRESS_TYPE, "0x90645dc507225d61cb81cf83e7470f5a6aa1215a")), outputs));
+        Assertions.assertNotSame(plan, cache.get(CONTRACT, "balanceOf",
+                Collections.singletonList(input(EventDecoderTest.ADDRESS_TYPE, CONTRACT)), Collections.emptyList()));
+        Assertions.assertEquals(1, cache.getHitCount());
+        Assertions.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void testMalformedPathsAreRejected() {
+        final InvocationPlan.Cache cache = new InvocationPlan.Cache(10);
+
+        Assertions.assertThrows(SmartContractNotFoundException.class,
+                () -> cache.get(CONTRACT + "/" + CONTRACT, "f", Collections.emptyList(), Collections.emptyList()));
+        Assertions.assertThrows(SmartContractNotFoundException.class,
+                () -> cache.get("0x1234", "f", Collections.emptyList(), Collections.emptyList()));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    private static Parameter input(String type, String value) {
+        return Parameter.builder().name("input").type(type).value(value).build();
+    }
+}
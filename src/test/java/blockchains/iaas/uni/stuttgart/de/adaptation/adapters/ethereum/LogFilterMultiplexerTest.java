@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.reactivex.disposables.Disposable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+class LogFilterMultiplexerTest {
+    private static final String CONTRACT_1 = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    private static final String CONTRACT_2 = "0x90645dc507225d61cb81cf83e7470f5a6aa1215a";
+    private static final String EVENT_A = StubEthereumNode.hash(1, "event");
+    private static final String EVENT_B = StubEthereumNode.hash(2, "event");
+    private StubEthereumNode node;
+    private ChainHeadFollower headFollower;
+    private LogFilterMultiplexer multiplexer;
+    // the log filters installed on the node: filter id -> the filter parameters
+    private final Map<String, JsonNode> logFilters = new ConcurrentHashMap<>();
+    // the changes of the log filters not fetched yet
+    private final Map<String, ArrayNode> pendingChanges = new ConcurrentHashMap<>();
+    private final AtomicInteger logFilterCounter = new AtomicInteger(1_000);
+    private final AtomicInteger logFilterPolls = new AtomicInteger();
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+        final Web3j web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        headFollower = new ChainHeadFollower(web3j, new HeaderChain(web3j, HeaderChain.DEFAULT_WINDOW_SIZE));
+        multiplexer = new LogFilterMultiplexer(web3j, headFollower, () -> {
+        });
+        node.onMethod("eth_newFilter", params -> {
+            final String filterId = StubEthereumNode.quantity(logFilterCounter.incrementAndGet()).asText();
+            logFilters.put(filterId, params.get(0));
+            pendingChanges.put(filterId, JsonNodeFactory.instance.arrayNode());
+
+            return JsonNodeFactory.instance.textNode(filterId);
+        });
+        node.onMethod("eth_uninstallFilter", params -> {
+            pendingChanges.remove(params.get(0).asText());
+
+            return JsonNodeFactory.instance.booleanNode(true);
+        });
+        node.onMethod("eth_getFilterChanges", params -> {
+            final String filterId = params.get(0).asText();
+
+            if (!logFilters.containsKey(filterId)) {
+                // the block filter of the chain head follower: no new blocks
+                return JsonNodeFactory.instance.arrayNode();
+            }
+
+            logFilterPolls.incrementAndGet();
+            final ArrayNode changes = pendingChanges.replace(filterId, JsonNodeFactory.instance.arrayNode());
+
+            if (changes == null) {
+                throw new IllegalStateException("filter not found");
+            }
+
+            return changes;
+        });
+    }
+
+    @Test
+    void testSubscriptionsOfAContractShareOneFilter() throws Exception {
+        final List<List<Log>> receivedA1 = subscribe(CONTRACT_1, EVENT_A, 10);
+        final List<List<Log>> receivedB1 = subscribe(CONTRACT_1, EVENT_B, 10);
+        final List<List<Log>> receivedA2 = subscribe(CONTRACT_2, EVENT_A, 10);
+        waitFor(() -> node.getCallCount("eth_newFilter") == 3, false);
+
+        emit(CONTRACT_1, EVENT_A, 0);
+        emit(CONTRACT_1, EVENT_B, 1);
+        emit(CONTRACT_2, EVENT_A, 2);
+        waitFor(() -> all(receivedA1, 1) && all(receivedB1, 1) && all(receivedA2, 1), true);
+        multiplexer.onNewHead(new EthBlock.Block());
+
+        // every subscriber received the log of its event exactly once, although two filters of contract 1 reported it
+        Assertions.assertTrue(all(receivedA1, 1) && all(receivedB1, 1) && all(receivedA2, 1));
+        Assertions.assertEquals(EVENT_B, receivedB1.get(0).get(0).getTopics().get(0));
+        Assertions.assertEquals(2, multiplexer.getFilterCount());
+        Assertions.assertEquals(30, multiplexer.getSubscriberCount());
+        // the first filter of contract 1 was replaced by the one matching both events
+        waitFor(() -> node.getCallCount("eth_uninstallFilter") == 1, false);
+
+        final int polls = logFilterPolls.get();
+        multiplexer.onNewHead(new EthBlock.Block());
+        Assertions.assertEquals(polls + 2, logFilterPolls.get());
+    }
+
+    @Test
+    void testUnsubscribingKeepsUnrelatedFilters() throws Exception {
+        final List<Log> receivedA1 = new CopyOnWriteArrayList<>();
+        final List<Log> receivedB1 = new CopyOnWriteArrayList<>();
+        final Disposable subscriptionA1 = multiplexer.logFlowable(CONTRACT_1, EVENT_A).subscribe(receivedA1::add);
+        final Disposable subscriptionB1 = multiplexer.logFlowable(CONTRACT_1, EVENT_B).subscribe(receivedB1::add);
+        final Disposable subscriptionA2 = multiplexer.logFlowable(CONTRACT_2, EVENT_A).subscribe(log -> {
+        });
+        waitFor(() -> node.getCallCount("eth_newFilter") == 3, false);
+        Assertions.assertEquals(1, headFollower.getListenerCount());
+
+        subscriptionB1.dispose();
+        emit(CONTRACT_1, EVENT_B, 0);
+        emit(CONTRACT_1, EVENT_A, 1);
+        waitFor(() -> receivedA1.size() == 1, true);
+
+        Assertions.assertEquals(0, receivedB1.size());
+        Assertions.assertEquals(3, node.getCallCount("eth_newFilter"));
+
+        subscriptionA2.dispose();
+        Assertions.assertEquals(1, multiplexer.getFilterCount());
+        subscriptionA1.dispose();
+        Assertions.assertEquals(0, multiplexer.getFilterCount());
+        Assertions.assertEquals(0, headFollower.getListenerCount());
+        waitFor(() -> pendingChanges.isEmpty(), false);
+    }
+
+    @Test
+    void testDroppedFiltersAreReinstalled() throws Exception {
+        final List<List<Log>> received = subscribe(CONTRACT_1, EVENT_A, 1);
+        waitFor(() -> node.getCallCount("eth_newFilter") == 1, false);
+
+        // the node forgets its filters, e.g., since it was restarted
+        pendingChanges.clear();
+        waitFor(() -> node.getCallCount("eth_newFilter") == 2, true);
+        emit(CONTRACT_1, EVENT_A, 0);
+        waitFor(() -> all(received, 1), true);
+
+        Assertions.assertEquals(2, multiplexer.getFilterInstallCount());
+    }
+
+    @Test
+    void testBlocksWhoseBloomsDoNotMatchAreSkipped() throws Exception {
+        final List<List<Log>> received = subscribe(CONTRACT_1, EVENT_A, 1);
+        waitFor(() -> logFilterPolls.get() > 0, true);
+        final int polls = logFilterPolls.get();
+
+        // the first head with a number is the starting point
+        multiplexer.onNewHead(head(1, CONTRACT_2, EVENT_A));
+        Assertions.assertEquals(polls + 1, logFilterPolls.get());
+
+        multiplexer.onNewHead(head(2, CONTRACT_2, EVENT_A));
+        multiplexer.onNewHead(head(3, CONTRACT_1, EVENT_B));
+        Assertions.assertEquals(polls + 1, logFilterPolls.get());
+        Assertions.assertEquals(2, multiplexer.getSkippedBlockCount());
+
+        emit(CONTRACT_1, EVENT_A, 0);
+        multiplexer.onNewHead(head(4, CONTRACT_2, EVENT_B, CONTRACT_1, EVENT_A));
+        Assertions.assertEquals(polls + 2, logFilterPolls.get());
+        Assertions.assertTrue(all(received, 1));
+
+        // the bloom of block 5 is not known
+        multiplexer.onNewHead(head(6, CONTRACT_2, EVENT_A));
+        Assertions.assertEquals(polls + 3, logFilterPolls.get());
+        Assertions.assertEquals(2, multiplexer.getSkippedBlockCount());
+    }
+
+    private static EthBlock.Block head(long number, String... values) {
+        final byte[] bloom = new byte[256];
+
+        for (String value : values) {
+            for (int bit : LogsBloom.bitsOf(value)) {
+                bloom[255 - bit / 8] |= 1 << (bit % 8);
+            }
+        }
+
+        final EthBlock.Block result = new EthBlock.Block();
+        result.setNumber(StubEthereumNode.quantity(number).asText());
+        result.setHash(StubEthereumNode.hash(number, "head"));
+        result.setLogsBloom(Numeric.toHexString(bloom));
+
+        return result;
+    }
+
+    private List<List<Log>> subscribe(String contractAddress, String eventSignature, int count) {
+        final List<List<Log>> result = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            final List<Log> received = new CopyOnWriteArrayList<>();
+            multiplexer.logFlowable(contractAddress, eventSignature).subscribe(received::add);
+            result.add(received);
+        }
+
+        return result;
+    }
+
+    private static boolean all(List<List<Log>> received, int count) {
+        return received.stream().allMatch(logs -> logs.size() == count);
+    }
+
+    /**
+     * Adds a log to the changes of all installed filters that match it.
+     */
+    private void emit(String contractAddress, String eventSignature, int logIndex) {
+        final ObjectNode log = JsonNodeFactory.instance.objectNode();
+        log.put("removed", false);
+        log.set("logIndex", StubEthereumNode.quantity(logIndex));
+        log.set("transactionIndex", StubEthereumNode.quantity(0));
+        log.put("transactionHash", StubEthereumNode.hash(1, "tx"));
+        log.put("blockHash", StubEthereumNode.hash(1, "block"));
+        log.set("blockNumber", StubEthereumNode.quantity(1));
+        log.put("address", contractAddress);
+        log.put("data", "0x");
+        log.putArray("topics").add(eventSignature);
+
+        pendingChanges.forEach((filterId, changes) -> {
+            final JsonNode filter = logFilters.get(filterId);
+            boolean matches = false;
+
+            for (JsonNode topic : filter.get("topics").get(0)) {
+                matches |= topic.asText().equals(eventSignature);
+            }
+
+            if (matches && filter.get("address").get(0).asText().equals(contractAddress)) {
+                synchronized (changes) {
+                    changes.add(log);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until the condition is met, optionally reporting a new head after each unsuccessful check.
+     */
+    private void waitFor(BooleanSupplier condition, boolean reportHeads) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            if (reportHeads) {
+                multiplexer.onNewHead(new EthBlock.Block());
+            }
+
+            Thread.sleep(20);
+        }
+
+        Assertions.assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+class LogRangeScannerTest {
+    private static final int MAX_RESULTS = 1_000;
+    private static final int PARALLELISM = 3;
+    private StubEthereumNode node;
+    private Web3j web3j;
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+        web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        // a dense region (3 logs per block) between sparse regions (1 log every 100 blocks)
+        node.onMethod("eth_getLogs", params -> {
+            final int concurrent = concurrentRequests.incrementAndGet();
+            maxConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+
+            try {
+                Thread.sleep(2);
+                final long from = Numeric.decodeQuantity(params.get(0).get("fromBlock").asText()).longValue();
+                final long to = Numeric.decodeQuantity(params.get(0).get("toBlock").asText()).longValue();
+                final ArrayNode result = JsonNodeFactory.instance.arrayNode();
+
+                // the logs of a block are returned in reverse order to check the sorting
+                for (long block = from; block <= to; block++) {
+                    for (int logIndex = logsPerBlock(block) - 1; logIndex >= 0; logIndex--) {
+                        result.add(logJson(block, logIndex));
+                    }
+                }
+
+                if (result.size() > MAX_RESULTS) {
+                    throw new IllegalStateException("query returned more than " + MAX_RESULTS + " results");
+                }
+
+                return result;
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                concurrentRequests.decrementAndGet();
+            }
+        });
+    }
+
+    @Test
+    void testLogsAreComplete() throws Exception {
+        final LogRangeScanner scanner = new LogRangeScanner(web3j, () -> {
+        }, 100, PARALLELISM);
+        final List<Log> logs = new ArrayList<>();
+        scanner.scan(LogRangeScannerTest::filter, 0, 30_000, logs::add).get(30, TimeUnit.SECONDS);
+
+        long expectedCount = 0;
+
+        for (long block = 0; block <= 30_000; block++) {
+            expectedCount += logsPerBlock(block);
+        }
+
+        Assertions.assertEquals(expectedCount, logs.size());
+
+        for (int i = 1; i < logs.size(); i++) {
+            final Log previous = logs.get(i - 1);
+            final Log current = logs.get(i);
+            final int order = previous.getBlockNumber().compareTo(current.getBlockNumber());
+            Assertions.assertTrue(order < 0 || order == 0 && previous.getLogIndex().compareTo(current.getLogIndex()) < 0);
+        }
+
+        Assertions.assertTrue(maxConcurrentRequests.get() <= PARALLELISM);
+        // the sparse regions are scanned with chunks that are much larger than the initial one
+        Assertions.assertTrue(node.getCallCount("eth_getLogs") < 300, "needed " + node.getCallCount("eth_getLogs") + " requests");
+    }
+
+    @Test
+    void testSlowChunksLimitTheBufferedChunks() throws Exception {
+        final CountDownLatch firstChunkReleased = new CountDownLatch(1);
+        node.onMethod("eth_getLogs", params -> {
+            final long from = Numeric.decodeQuantity(params.get(0).get("fromBlock").asText()).longValue();
+
+            try {
+                // the following chunks cannot be emitted before the first one
+                if (from == 0 && !firstChunkReleased.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("the first chunk was not released");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return JsonNodeFactory.instance.arrayNode();
+        });
+        final LogRangeScanner scanner = new LogRangeScanner(web3j, () -> {
+        }, 100, PARALLELISM);
+        final AtomicInteger chunks = new AtomicInteger();
+        final CompletableFuture<Void> result = scanner.scanChunks(LogRangeScannerTest::filter, 0, 30_000,
+                logs -> chunks.incrementAndGet());
+
+        Thread.sleep(300);
+        // the first chunk, plus at most PARALLELISM chunks waiting for it, plus the chunks being fetched
+        Assertions.assertTrue(node.getCallCount("eth_getLogs") <= 2 * PARALLELISM);
+        Assertions.assertEquals(0, chunks.get());
+
+        firstChunkReleased.countDown();
+        result.get(30, TimeUnit.SECONDS);
+        Assertions.assertEquals(node.getCallCount("eth_getLogs"), chunks.get());
+    }
+
+    @Test
+    void testConsumersDoNotBlockTheThreadsSendingRequests() throws Exception {
+        // a single thread sends the requests, and more scans than that wait for further requests in their consumers
+        final BatchingHttpService service = new BatchingHttpService(node.startHttpServer(), new OkHttpClient(), 10, 1, 1);
+        final Web3j batchingWeb3j = Web3j.build(service);
+        final ExecutorService consumerExecutor = Executors.newFixedThreadPool(2);
+        final LogRangeScanner scanner = new LogRangeScanner(batchingWeb3j, service::flush, 100, PARALLELISM, consumerExecutor);
+        final AtomicInteger logCount = new AtomicInteger();
+
+        try {
+            final List<CompletableFuture<Void>> scans = new ArrayList<>();
+
+            for (int i = 0; i < 4; i++) {
+                scans.add(scanner.scanChunks(LogRangeScannerTest::filter, 0, 2_000, logs -> {
+                    batchingWeb3j.ethBlockNumber().sendAsync().join();
+                    logCount.addAndGet(logs.size());
+                }));
+            }
+
+            CompletableFuture.allOf(scans.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            // a log every 100 blocks
+            Assertions.assertEquals(4 * 21, logCount.get());
+        } finally {
+            batchingWeb3j.shutdown();
+            consumerExecutor.shutdown();
+            node.stopHttpServer();
+        }
+    }
+
+    @Test
+    void testEmptyRange() throws Exception {
+        final LogRangeScanner scanner = new LogRangeScanner(web3j, () -> {
+        }, 100, PARALLELISM);
+        final List<Log> logs = new ArrayList<>();
+        scanner.scan(LogRangeScannerTest::filter, 10, 9, logs::add).get(5, TimeUnit.SECONDS);
+
+        Assertions.assertTrue(logs.isEmpty());
+        Assertions.assertEquals(0, node.getCallCount("eth_getLogs"));
+    }
+
+    @Test
+    void testOtherErrorsFailTheScan() {
+        node.onMethod("eth_getLogs", params -> {
+            throw new IllegalStateException("unknown block");
+        });
+        final LogRangeScanner scanner = new LogRangeScanner(web3j, () -> {
+        }, 100, PARALLELISM);
+
+        Assertions.assertThrows(ExecutionException.class,
+                () -> scanner.scan(LogRangeScannerTest::filter, 0, 1_000, log -> {
+                }).get(5, TimeUnit.SECONDS));
+    }
+
+    private static int logsPerBlock(long block) {
+        if (block >= 10_000 && block < 10_500) {
+            return 3;
+        }
+
+        return block % 100 == 0 ? 1 : 0;
+    }
+
+    private static EthFilter filter(long from, long to) {
+        return new EthFilter(new DefaultBlockParameterNumber(from), new DefaultBlockParameterNumber(to),
+                "0x182761ac584c0016cdb3f5c59e0242ef9834fef0");
+    }
+
+    private static JsonNode logJson(long block, int logIndex) {
+        final ObjectNode result = JsonNodeFactory.instance.objectNode();
+        result.put("removed", false);
+        result.set("logIndex", StubEthereumNode.quantity(logIndex));
+        result.set("transactionIndex", StubEthereumNode.quantity(0));
+        result.put("transactionHash", StubEthereumNode.hash(block, "tx"));
+        result.put("blockHash", StubEthereumNode.hash(block, "block"));
+        result.set("blockNumber", StubEthereumNode.quantity(block));
+        result.put("address", "0x182761ac584c0016cdb3f5c59e0242ef9834fef0");
+        result.put("data", "0x");
+        result.putArray("topics");
+
+        return result;
+    }
+}
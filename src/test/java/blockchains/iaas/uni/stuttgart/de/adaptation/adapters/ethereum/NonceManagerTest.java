@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+
+class NonceManagerTest {
+    private static final String ACCOUNT = "0x90645Dc507225d61cB81cF83e7470F5a6AA1215A";
+    private StubEthereumNode node;
+    private NonceManager nonceManager;
+    private final AtomicLong transactionCount = new AtomicLong(5);
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+        node.onMethod("eth_getTransactionCount", params -> {
+            Assertions.assertEquals("pending", params.get(1).asText());
+
+            return StubEthereumNode.quantity(transactionCount.get());
+        });
+        final Web3j web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        nonceManager = new NonceManager(web3j);
+    }
+
+    @Test
+    void testConcurrentAllocationsGetDistinctNonces() throws Exception {
+        final List<CompletableFuture<BigInteger>> allocations = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            allocations.add(CompletableFuture.supplyAsync(() -> nonceManager.allocate(ACCOUNT))
+                    .thenCompose(allocation -> allocation));
+        }
+
+        final Set<Long> nonces = new HashSet<>();
+
+        for (CompletableFuture<BigInteger> allocation : allocations) {
+            nonces.add(allocation.get(10, TimeUnit.SECONDS).longValueExact());
+        }
+
+        Assertions.assertEquals(500, nonces.size());
+        Assertions.assertEquals(5, nonces.stream().mapToLong(Long::longValue).min().getAsLong());
+        Assertions.assertEquals(504, nonces.stream().mapToLong(Long::longValue).max().getAsLong());
+        // the account is seeded once
+        Assertions.assertEquals(1, node.getCallCount("eth_getTransactionCount"));
+        Assertions.assertEquals(500, nonceManager.getOutstandingCount(ACCOUNT));
+    }
+
+    @Test
+    void testReleasedNoncesAreReused() throws Exception {
+        final BigInteger first = allocate();
+        final BigInteger second = allocate();
+        final BigInteger third = allocate();
+        nonceManager.markSent(ACCOUNT, first);
+        nonceManager.release(ACCOUNT, second);
+        nonceManager.markSent(ACCOUNT, third);
+
+        Assertions.assertEquals(1, nonceManager.getGapCount(ACCOUNT));
+        Assertions.assertEquals(second, allocate());
+        Assertions.assertEquals(BigInteger.valueOf(8), allocate());
+    }
+
+    @Test
+    void testResynchronizationFillsUnknownNonces() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            nonceManager.markSent(ACCOUNT, allocate());
+        }
+
+        // 5..9 are allocated, the node only knows 5 and 6, and 10 is being sent
+        final BigInteger sending = allocate();
+        transactionCount.set(7);
+        nonceManager.resynchronize(ACCOUNT).get(5, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(3, nonceManager.getGapCount(ACCOUNT));
+        Assertions.assertEquals(BigInteger.valueOf(7), allocate());
+        Assertions.assertEquals(BigInteger.valueOf(8), allocate());
+        Assertions.assertEquals(BigInteger.valueOf(9), allocate());
+        Assertions.assertEquals(BigInteger.valueOf(11), allocate());
+        Assertions.assertEquals(BigInteger.valueOf(10), sending);
+    }
+
+    @Test
+    void testResynchronizationFollowsOtherClients() throws Exception {
+        final BigInteger nonce = allocate();
+        // another client sent transactions from the same account
+        transactionCount.set(20);
+        nonceManager.resynchronize(ACCOUNT).get(5, TimeUnit.SECONDS);
+        // the rejected transaction must not be sent with its old nonce again
+        nonceManager.release(ACCOUNT, nonce);
+
+        Assertions.assertEquals(0, nonceManager.getGapCount(ACCOUNT));
+        Assertions.assertEquals(BigInteger.valueOf(20), allocate());
+    }
+
+    @Test
+    void testNonceErrors() {
+        Assertions.assertTrue(NonceManager.isNonceError("nonce too low"));
+        Assertions.assertTrue(NonceManager.isNonceError("Nonce too low"));
+        Assertions.assertTrue(NonceManager.isNonceError("replacement transaction underpriced"));
+        Assertions.assertTrue(NonceManager.isNonceError("already known"));
+        Assertions.assertFalse(NonceManager.isNonceError("insufficient funds for gas * price + value"));
+        Assertions.assertFalse(NonceManager.isNonceError(null));
+    }
+
+    private BigInteger allocate() throws Exception {
+        return nonceManager.allocate(ACCOUNT).get(5, TimeUnit.SECONDS);
+    }
+}
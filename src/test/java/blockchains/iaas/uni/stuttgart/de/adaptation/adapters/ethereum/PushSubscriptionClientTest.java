@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+class PushSubscriptionClientTest {
+    private static final String CONTRACT = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    private StubPushServer server;
+    private PushSubscriptionClient client;
+
+    @BeforeEach
+    void init() throws Exception {
+        server = StubPushServer.startNew();
+        client = new PushSubscriptionClient(server.getUrl());
+        client.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        server.stop(1_000);
+    }
+
+    @Test
+    void testNotificationsAreDelivered() throws Exception {
+        final BlockingQueue<JsonNode> received = new LinkedBlockingQueue<>();
+        client.subscribe("newHeads", null, received::add, () -> {
+        });
+        waitFor(() -> server.getSubscriptionCount() == 1);
+
+        server.publish("newHeads", head(7));
+        server.publish("newHeads", head(8));
+
+        Assertions.assertEquals("0x7", received.poll(5, TimeUnit.SECONDS).get("number").asText());
+        Assertions.assertEquals("0x8", received.poll(5, TimeUnit.SECONDS).get("number").asText());
+    }
+
+    @Test
+    void testSubscriptionsAreRenewedAfterReconnecting() throws Exception {
+        final BlockingQueue<JsonNode> received = new LinkedBlockingQueue<>();
+        final AtomicInteger resubscribed = new AtomicInteger();
+        client.subscribe("newHeads", null, received::add, resubscribed::incrementAndGet);
+        waitFor(() -> server.getSubscriptionCount() == 1);
+
+        server.disconnectAll();
+        waitFor(() -> server.getSubscriptionCount() == 1 && resubscribed.get() == 1);
+        server.publish("newHeads", head(9));
+
+        Assertions.assertEquals("0x9", received.poll(5, TimeUnit.SECONDS).get("number").asText());
+        Assertions.assertEquals(1, client.getReconnectCount());
+        Assertions.assertEquals(2, server.getSubscribeCallCount());
+    }
+
+    @Test
+    void testRefusedSubscriptionsAreRetried() throws Exception {
+        final BlockingQueue<JsonNode> received = new LinkedBlockingQueue<>();
+        final AtomicInteger resubscribed = new AtomicInteger();
+        waitFor(() -> client.isConnected());
+        server.refuseSubscribes(2);
+        client.subscribe("newHeads", null, received::add, resubscribed::incrementAndGet);
+        waitFor(() -> server.getSubscriptionCount() == 1 && resubscribed.get() == 1);
+        server.publish("newHeads", head(10));
+
+        Assertions.assertEquals("0xa", received.poll(5, TimeUnit.SECONDS).get("number").asText());
+        Assertions.assertEquals(3, server.getSubscribeCallCount());
+        Assertions.assertEquals(0, client.getReconnectCount());
+    }
+
+    @Test
+    void testCancelledSubscriptionsAreNotRenewed() throws Exception {
+        final PushSubscriptionClient.Subscription subscription = client.subscribe("newHeads", null, head -> {
+        }, () -> {
+        });
+        waitFor(() -> server.getSubscriptionCount() == 1);
+
+        subscription.cancel();
+        waitFor(() -> server.getSubscriptionCount() == 0);
+        server.disconnectAll();
+        waitFor(() -> client.getReconnectCount() == 1 && client.isConnected());
+
+        Assertions.assertEquals(1, server.getSubscribeCallCount());
+    }
+
+    @Test
+    void testLogsMissedWhileDisconnectedAreBackfilled() throws Exception {
+        // every block contains two logs of the contract
+        final StubEthereumNode node = new StubEthereumNode();
+        final AtomicLong head = new AtomicLong(10);
+        node.onMethod("eth_blockNumber", params -> StubEthereumNode.quantity(head.get()));
+        node.onMethod("eth_getLogs", params -> {
+            final long from = Numeric.decodeQuantity(params.get(0).get("fromBlock").asText()).longValue();
+            final long to = Numeric.decodeQuantity(params.get(0).get("toBlock").asText()).longValue();
+            final ArrayNode result = JsonNodeFactory.instance.arrayNode();
+
+            for (long block = from; block <= to; block++) {
+                result.add(logJson(block, 0));
+                result.add(logJson(block, 1));
+            }
+
+            return result;
+        });
+        final Web3j web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        final LogRangeScanner scanner = new LogRangeScanner(web3j, () -> {
+        }, 100, 2);
+        final List<Log> delivered = new CopyOnWriteArrayList<>();
+        final PushLogSubscription subscription = new PushLogSubscription(client, web3j, scanner,
+                (from, to) -> new EthFilter(new DefaultBlockParameterNumber(from), new DefaultBlockParameterNumber(to),
+                        Collections.singletonList(CONTRACT)),
+                delivered::add, error -> Assertions.fail(error));
+        subscription.start();
+        waitFor(() -> server.getSubscriptionCount() == 1 && node.getCallCount("eth_blockNumber") == 1);
+
+        server.publish("logs", logJson(11, 0));
+        waitFor(() -> delivered.size() == 1);
+        server.disconnectAll();
+        head.set(13);
+        // the backfill starts once the subscription was renewed
+        waitFor(() -> server.getSubscriptionCount() == 1 && node.getCallCount("eth_blockNumber") == 2);
+        server.publish("logs", logJson(14, 0));
+        waitFor(() -> delivered.size() == 7);
+
+        Assertions.assertEquals(
+                "11:0, 11:1, 12:0, 12:1, 13:0, 13:1, 14:0",
+                delivered.stream()
+                        .map(log -> log.getBlockNumber() + ":" + log.getLogIndex())
+                        .collect(Collectors.joining(", ")));
+        subscription.cancel();
+    }
+
+    @Test
+    void testFailedBackfillsAreRetried() throws Exception {
+        final StubEthereumNode node = new StubEthereumNode();
+        final AtomicLong head = new AtomicLong(10);
+        final AtomicBoolean failing = new AtomicBoolean();
+        node.onMethod("eth_blockNumber", params -> {
+            if (failing.getAndSet(false)) {
+                throw new IllegalStateException("the node is syncing");
+            }
+
+            return StubEthereumNode.quantity(head.get());
+        });
+        node.onMethod("eth_getLogs", params -> {
+            final long from = Numeric.decodeQuantity(params.get(0).get("fromBlock").asText()).longValue();
+            final long to = Numeric.decodeQuantity(params.get(0).get("toBlock").asText()).longValue();
+            final ArrayNode result = JsonNodeFactory.instance.arrayNode();
+
+            for (long block = from; block <= to; block++) {
+                result.add(logJson(block, 0));
+            }
+
+            return result;
+        });
+        final Web3j web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        final LogRangeScanner scanner = new LogRangeScanner(web3j, () -> {
+        }, 100, 2);
+        final List<Log> delivered = new CopyOnWriteArrayList<>();
+        final PushLogSubscription subscription = new PushLogSubscription(client, web3j, scanner,
+                (from, to) -> new EthFilter(new DefaultBlockParameterNumber(from), new DefaultBlockParameterNumber(to),
+                        Collections.singletonList(CONTRACT)),
+                delivered::add, error -> Assertions.fail(error));
+        subscription.start();
+        waitFor(() -> server.getSubscriptionCount() == 1 && node.getCallCount("eth_blockNumber") == 1);
+
+        server.publish("logs", logJson(11, 0));
+        waitFor(() -> delivered.size() == 1);
+        // the head cannot be retrieved at the first attempt
+        failing.set(true);
+        server.disconnectAll();
+        head.set(13);
+        waitFor(() -> delivered.size() == 3);
+
+        Assertions.assertEquals(3, node.getCallCount("eth_blockNumber"));
+        Assertions.assertEquals("11:0, 12:0, 13:0", delivered.stream()
+                .map(log -> log.getBlockNumber() + ":" + log.getLogIndex())
+                .collect(Collectors.joining(", ")));
+        subscription.cancel();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5_000;
+
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assertions.fail("the condition was not met in time");
+            }
+
+            Thread.sleep(10);
+        }
+    }
+
+    private static JsonNode head(long number) {
+        final ObjectNode result = JsonNodeFactory.instance.objectNode();
+        result.set("number", StubEthereumNode.quantity(number));
+        result.put("hash", StubEthereumNode.hash(number, "block"));
+        result.put("parentHash", StubEthereumNode.hash(number - 1, "block"));
+
+        return result;
+    }
+
+    private static JsonNode logJson(long block, int logIndex) {
+        final ObjectNode result = JsonNodeFactory.instance.objectNode();
+        result.put("removed", false);
+        result.set("logIndex", StubEthereumNode.quantity(logIndex));
+        result.set("transactionIndex", StubEthereumNode.quantity(0));
+        result.put("transactionHash", StubEthereumNode.hash(block, "tx"));
+        result.put("blockHash", StubEthereumNode.hash(block, "block"));
+        result.set("blockNumber", StubEthereumNode.quantity(block));
+        result.put("address", CONTRACT);
+        result.put("data", "0x");
+        result.putArray("topics");
+
+        return result;
+    }
+}
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.InvokeSmartContractFunctionFailure;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.utils.Numeric;
+
+class ReadCallBatcherTest {
+    private static final String ACCOUNT = "0x90645dc507225d61cb81cf83e7470f5a6aa1215a";
+    private static final String CONTRACT = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    private static final String FAILING_CONTRACT = "0x00000000000000000000000000000000000000ff";
+    private static final String MULTICALL = "0xca11bde05977b3631167028862be2a173976ca11";
+    private static final String SELECTOR = "0x70a08231";
+    private final Set<String> calledBlocks = ConcurrentHashMap.newKeySet();
+    private StubEthereumNode node;
+    private BatchingHttpService service;
+    private Web3j web3j;
+
+    @BeforeEach
+    void init() throws IOException {
+        node = new StubEthereumNode();
+
+        for (int i = 1; i <= 20; i++) {
+            node.mineBlock(i * 10);
+        }
+
+        // requests are only sent when they are flushed
+        service = new BatchingHttpService(node.startHttpServer(), new OkHttpClient(), 100, 10_000);
+        web3j = Web3j.build(service);
+        // the contracts return the argument they are called with
+        node.onMethod("eth_call", params -> {
+            calledBlocks.add(params.get(1).asText());
+
+            if (FAILING_CONTRACT.equals(params.get(0).get("to").asText())) {
+                throw new IllegalStateException("execution reverted");
+            }
+
+            return JsonNodeFactory.instance.textNode("0x" + params.get(0).get("data").asText().substring(SELECTOR.length()));
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        web3j.shutdown();
+        node.stopHttpServer();
+    }
+
+    @Test
+    void testBatchIsExecutedOnOneBlockInOneJsonRpcBatch() throws Exception {
+        final ReadCallBatcher batcher = new ReadCallBatcher(web3j, service::flush, null);
+        final List<ReadCallBatcher.Call> calls = createCalls(CONTRACT, 50);
+
+        Assertions.assertEquals(20, batcher.callAll(calls).get(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < calls.size(); i++) {
+            Assertions.assertEquals(argument(i), calls.get(i).getResult().get());
+        }
+
+        Assertions.assertEquals(Collections.singleton("0x14"), calledBlocks);
+        Assertions.assertEquals(50, node.getCallCount("eth_call"));
+        // the block number, then the calls
+        Assertions.assertEquals(2, node.getHttpCallCount());
+    }
+
+    @Test
+    void testFailedCallsDoNotFailTheBatch() throws Exception {
+        final ReadCallBatcher batcher = new ReadCallBatcher(web3j, service::flush, null);
+        final List<ReadCallBatcher.Call> calls = createCalls(CONTRACT, 2);
+        calls.add(1, new ReadCallBatcher.Call(ACCOUNT, FAILING_CONTRACT, SELECTOR + argument(7).substring(2)));
+
+        Assertions.assertEquals(20, batcher.callAll(calls).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(argument(0), calls.get(0).getResult().get());
+        Assertions.assertEquals(argument(1), calls.get(2).getResult().get());
+
+        final ExecutionException error = Assertions.assertThrows(ExecutionException.class, () -> calls.get(1).getResult().get());
+        Assertions.assertTrue(error.getCause() instanceof InvokeSmartContractFunctionFailure);
+    }
+
+    @Test
+    void testConcurrentCallsAreCoalesced() throws Exception {
+        final CountDownLatch firstCallReceived = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ReadCallBatcher batcher = new ReadCallBatcher(web3j, service::flush, null);
+        node.onMethod("eth_call", params -> {
+            calledBlocks.add(params.get(1).asText());
+            firstCallReceived.countDown();
+
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return JsonNodeFactory.instance.textNode("0x" + params.get(0).get("data").asText().substring(SELECTOR.length()));
+        });
+
+        final CompletableFuture<String> first = batcher.call(ACCOUNT, CONTRACT, SELECTOR + argument(0).substring(2));
+        Assertions.assertTrue(firstCallReceived.await(5, TimeUnit.SECONDS));
+        final List<CompletableFuture<String>> others = new ArrayList<>();
+
+        for (int i = 1; i <= 10; i++) {
+            others.add(batcher.call(ACCOUNT, CONTRACT, SELECTOR + argument(i).substring(2)));
+        }
+
+        release.countDown();
+        Assertions.assertEquals(argument(0), first.get(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 10; i++) {
+            Assertions.assertEquals(argument(i), others.get(i - 1).get(5, TimeUnit.SECONDS));
+        }
+
+        // the single call is executed on the latest block, the ten waiting calls on the same block
+        Assertions.assertEquals(2, batcher.getBatchCount());
+        Assertions.assertEquals(11, batcher.getCallCount());
+        Assertions.assertEquals(1, node.getCallCount("eth_blockNumber"));
+        Assertions.assertTrue(calledBlocks.contains("latest"));
+        Assertions.assertTrue(calledBlocks.contains("0x14"));
+    }
+
+    @Test
+    void testCoalescedCallsAreNotSentViaMulticall() throws Exception {
+        final CountDownLatch firstCallReceived = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> targets = new CopyOnWriteArrayList<>();
+        final ReadCallBatcher batcher = new ReadCallBatcher(web3j, service::flush, MULTICALL);
+        node.onMethod("eth_call", params -> {
+            targets.add(params.get(0).get("to").asText());
+            firstCallReceived.countDown();
+
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return JsonNodeFactory.instance.textNode("0x" + params.get(0).get("data").asText().substring(SELECTOR.length()));
+        });
+
+        final CompletableFuture<String> first = batcher.call(ACCOUNT, CONTRACT, SELECTOR + argument(0).substring(2));
+        Assertions.assertTrue(firstCallReceived.await(5, TimeUnit.SECONDS));
+        final List<CompletableFuture<String>> others = new ArrayList<>();
+
+        for (int i = 1; i <= 3; i++) {
+            others.add(batcher.call(ACCOUNT, CONTRACT, SELECTOR + argument(i).substring(2)));
+        }
+
+        release.countDown();
+        Assertions.assertEquals(argument(0), first.get(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 3; i++) {
+            Assertions.assertEquals(argument(i), others.get(i - 1).get(5, TimeUnit.SECONDS));
+        }
+
+        // the contract sees the account as the sender of every call
+        Assertions.assertEquals(4, targets.size());
+        Assertions.assertTrue(targets.stream().allMatch(CONTRACT::equals));
+        Assertions.assertEquals(0, batcher.getMulticallCount());
+    }
+
+    @Test
+    void testMulticallExecutesTheBatchInOneCall() throws Exception {
+        final ReadCallBatcher batcher = new ReadCallBatcher(web3j, service::flush, MULTICALL);
+        node.onMethod("eth_call", params -> {
+            Assertions.assertEquals(MULTICALL, params.get(0).get("to").asText());
+            final String data = params.get(0).get("data").asText();
+            Assertions.assertTrue(data.startsWith(Multicall.TRY_BLOCK_AND_AGGREGATE));
+            final int count = Numeric.toBigInt(data.substring(10 + 2 * 64, 10 + 3 * 64)).intValue();
+            final List<Boolean> success = new ArrayList<>();
+            final List<String> returnData = new ArrayList<>();
+
+            for (int i = 0; i < count; i++) {
+                // the second call reverts
+                success.add(i != 1);
+                returnData.add(argument(i));
+            }
+
+            return JsonNodeFactory.instance.textNode(encodeMulticallResult(17, success, returnData));
+        });
+        final List<ReadCallBatcher.Call> calls = createCalls(CONTRACT, 3);
+
+        Assertions.assertEquals(17, batcher.callAll(calls).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(argument(0), calls.get(0).getResult().get());
+        Assertions.assertThrows(ExecutionException.class, () -> calls.get(1).getResult().get());
+        Assertions.assertEquals(argument(2), calls.get(2).getResult().get());
+        Assertions.assertEquals(MULTICALL, calls.get(0).getSender());
+        Assertions.assertEquals(1, node.getCallCount("eth_call"));
+        Assertions.assertEquals(0, node.getCallCount("eth_blockNumber"));
+        Assertions.assertEquals(1, batcher.getMulticallCount());
+    }
+
+    @Test
+    void testBatchFallsBackToJsonRpcIfTheMulticallContractIsMissing() throws Exception {
+        final ReadCallBatcher batcher = new ReadCallBatcher(web3j, service::flush, MULTICALL);
+        final List<ReadCallBatcher.Call> calls = createCalls(CONTRACT, 5);
+
+        // calls to addresses without code return no data
+        node.onMethod("eth_call", params -> {
+            calledBlocks.add(params.get(1).asText());
+            final String data = params.get(0).get("data").asText();
+
+            return JsonNodeFactory.instance.textNode(MULTICALL.equals(params.get(0).get("to").asText()) ?
+                    "0x" : "0x" + data.substring(SELECTOR.length()));
+        });
+
+        Assertions.assertEquals(20, batcher.callAll(calls).get(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < calls.size(); i++) {
+            Assertions.assertEquals(argument(i), calls.get(i).getResult().get());
+            Assertions.assertEquals(ACCOUNT, calls.get(i).getSender());
+        }
+
+        Assertions.assertEquals(0, batcher.getMulticallCount());
+    }
+
+    @Test
+    void testMulticallEncoding() {
+        final String expected = Multicall.TRY_BLOCK_AND_AGGREGATE +
+                word(0) + word(0x40) + word(1) + word(0x20) +
+                "000000000000000000000000" + CONTRACT.substring(2) + word(0x40) + word(4) +
+                "12345678" + repeat("0", 56);
+
+        Assertions.assertEquals(expected, Multicall.encodeTryBlockAndAggregate(
+                Collections.singletonList(CONTRACT), Collections.singletonList("0x12345678")));
+    }
+
+    @Test
+    void testMalformedMulticallResultsAreRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Multicall.decodeTryBlockAndAggregate("0x"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Multicall.decodeTryBlockAndAggregate(
+                "0x" + word(1) + word(0) + word(0x60) + word(1_000)));
+    }
+
+    private static List<ReadCallBatcher.Call> createCalls(String contract, int count) {
+        final List<ReadCallBatcher.Call> calls = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            calls.add(new ReadCallBatcher.Call(ACCOUNT, contract, SELECTOR + argument(i).substring(2)));
+        }
+
+        return calls;
+    }
+
+    private static String argument(int index) {
+        return "0x" + word(1_000 + index);
+    }
+
+    private static String encodeMulticallResult(long blockNumber, List<Boolean> success, List<String> returnData) {
+        final StringBuilder tuples = new StringBuilder();
+        final StringBuilder offsets = new StringBuilder();
+        int offset = returnData.size() * 32;
+
+        for (int i = 0; i < returnData.size(); i++) {
+            final String data = returnData.get(i).substring(2);
+            offsets.append(word(offset));
+            tuples.append(word(success.get(i) ? 1 : 0)).append(word(0x40)).append(word(data.length() / 2)).append(data);
+            offset += 3 * 32 + data.length() / 2;
+        }
+
+        return "0x" + word(blockNumber) + repeat("ab", 32) + word(0x60) + word(returnData.size()) + offsets + tuples;
+    }
+
+    private static String word(long value) {
+        return Numeric.toHexStringNoPrefixZeroPadded(BigInteger.valueOf(value), 64);
+    }
+
+    private static String repeat(String value, int count) {
+        final StringBuilder result = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            result.append(value);
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+
+class ReceiptFetcherTest {
+    private static final int WINDOW = 10;
+    private StubEthereumNode node;
+    private Web3j web3j;
+    private StubEthereumNode.StubBlock block;
+    private List<String> txHashes;
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+        web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        txHashes = Arrays.asList(StubEthereumNode.hash(1, "tx"), StubEthereumNode.hash(2, "tx"), StubEthereumNode.hash(3, "tx"));
+        block = node.mineBlock(1, txHashes.toArray(new String[0]));
+    }
+
+    @AfterEach
+    void tearDown() {
+        web3j.shutdown();
+    }
+
+    @Test
+    void testReceiptsOfABlockAreFetchedAtOnce() {
+        final ReceiptFetcher fetcher = new ReceiptFetcher(web3j, node, WINDOW, 100);
+        final Map<String, Optional<TransactionReceipt>> receipts = fetcher
+                .getReceipts(block.hash, block.number, txHashes, node.getHeadNumber()).join();
+
+        Assertions.assertEquals(3, receipts.size());
+        txHashes.forEach(txHash -> Assertions.assertEquals(txHash, receipts.get(txHash).get().getTransactionHash()));
+        Assertions.assertEquals(1, node.getCallCount("eth_getBlockReceipts"));
+        Assertions.assertEquals(0, node.getCallCount("eth_getTransactionReceipt"));
+        // the block can still be reorganized
+        Assertions.assertEquals(0, fetcher.getCachedReceiptCount());
+    }
+
+    @Test
+    void testSingleReceiptsAreFetchedIfTheNodeLacksBlockReceipts() {
+        node.onMethod("eth_getBlockReceipts", params -> {
+            throw new UnsupportedOperationException("the method eth_getBlockReceipts does not exist/is not available");
+        });
+        final ReceiptFetcher fetcher = new ReceiptFetcher(web3j, node, WINDOW, 100);
+        final Map<String, Optional<TransactionReceipt>> receipts = fetcher
+                .getReceipts(block.hash, block.number, txHashes, node.getHeadNumber()).join();
+
+        Assertions.assertEquals(3, receipts.values().stream().filter(Optional::isPresent).count());
+        Assertions.assertFalse(fetcher.isBlockReceiptsSupported());
+        Assertions.assertEquals(3, node.getCallCount("eth_getTransactionReceipt"));
+
+        // the unsupported method is not asked for again
+        fetcher.getReceipts(block.hash, block.number, txHashes, node.getHeadNumber()).join();
+        Assertions.assertEquals(1, node.getCallCount("eth_getBlockReceipts"));
+        Assertions.assertEquals(6, node.getCallCount("eth_getTransactionReceipt"));
+    }
+
+    @Test
+    void testOtherErrorsOnlyAffectTheFailedRequest() {
+        node.onMethod("eth_getBlockReceipts", params -> {
+            throw new IllegalStateException("unknown block");
+        });
+        final ReceiptFetcher fetcher = new ReceiptFetcher(web3j, node, WINDOW, 100);
+        final Map<String, Optional<TransactionReceipt>> receipts = fetcher
+                .getReceipts(block.hash, block.number, txHashes, node.getHeadNumber()).join();
+
+        Assertions.assertEquals(3, receipts.values().stream().filter(Optional::isPresent).count());
+        Assertions.assertTrue(fetcher.isBlockReceiptsSupported());
+        Assertions.assertEquals(3, node.getCallCount("eth_getTransactionReceipt"));
+
+        fetcher.getReceipts(block.hash, block.number, txHashes, node.getHeadNumber()).join();
+        Assertions.assertEquals(2, node.getCallCount("eth_getBlockReceipts"));
+    }
+
+    @Test
+    void testReceiptsOfDeepBlocksAreCached() {
+        for (int i = 0; i < WINDOW; i++) {
+            node.mineBlock(2 + i);
+        }
+
+        final ReceiptFetcher fetcher = new ReceiptFetcher(web3j, node, WINDOW, 100);
+        fetcher.getReceipts(block.hash, block.number, txHashes, node.getHeadNumber()).join();
+        final Map<String, Optional<TransactionReceipt>> receipts = fetcher
+                .getReceipts(block.hash, block.number, txHashes, node.getHeadNumber()).join();
+
+        Assertions.assertEquals(3, receipts.values().stream().filter(Optional::isPresent).count());
+        Assertions.assertEquals(3, fetcher.getCachedReceiptCount());
+        Assertions.assertEquals(1, fetcher.getBlockRequestCount());
+        Assertions.assertEquals(1, node.getCallCount("eth_getBlockReceipts"));
+    }
+}
@@ -0,0 +1,406 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Service;
+import org.web3j.utils.Numeric;
+
+/**
+ * An in-memory stand-in for an Ethereum node that answers JSON-RPC requests (single and batched) about a simulated
+ * chain. It counts the calls per method so tests can assert the RPC load caused by a component.
+ */
+class StubEthereumNode extends Service {
+    private static final JsonNodeFactory FACTORY = JsonNodeFactory.instance;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<StubBlock> chain = new ArrayList<>();
+    private final Map<String, StubTransaction> transactions = new HashMap<>();
+    private final Map<String, Integer> blockFilters = new HashMap<>();
+    private final Map<String, AtomicInteger> callCounts = new ConcurrentHashMap<>();
+    private final Map<String, Function<JsonNode, JsonNode>> customMethods = new ConcurrentHashMap<>();
+    private final AtomicInteger httpCalls = new AtomicInteger();
+    private final AtomicInteger filterCounter = new AtomicInteger();
+    private HttpServer httpServer;
+    private ExecutorService httpExecutor;
+    private volatile long latencyMillis;
+    private volatile boolean available = true;
+
+    StubEthereumNode() {
+        super(false);
+        this.mineBlock(0);
+    }
+
+    synchronized StubBlock mineBlock(long timestamp, String... txHashes) {
+        final long number = chain.size();
+        final String parentHash = number == 0 ? hash(0, "genesis") : chain.get(chain.size() - 1).hash;
+        final StubBlock block = new StubBlock(number, hash(number, parentHash), parentHash, timestamp);
+
+        for (String txHash : txHashes) {
+            block.transactions.add(txHash);
+            transactions.computeIfAbsent(txHash, StubTransaction::new);
+            transactions.get(txHash).blockHash = block.hash;
+            transactions.get(txHash).blockNumber = number;
+        }
+
+        chain.add(block);
+
+        return block;
+    }
+
+    /**
+     * Replaces the blocks above the given height by a competing branch without the transactions of the dropped blocks.
+     */
+    synchronized void reorganize(long keepUpToNumber, long newBlocks) {
+        while (chain.size() > keepUpToNumber + 1) {
+            final StubBlock dropped = chain.remove(chain.size() - 1);
+            dropped.transactions.forEach(txHash -> {
+                transactions.get(txHash).blockHash = null;
+                transactions.get(txHash).blockNumber = -1;
+            });
+        }
+
+        for (int i = 0; i < newBlocks; i++) {
+            final StubBlock head = chain.get(chain.size() - 1);
+            final long number = chain.size();
+            chain.add(new StubBlock(number, hash(number, head.hash + "-fork"), head.hash, head.timestamp + 1));
+        }
+    }
+
+    synchronized void addPendingTransaction(String txHash) {
+        transactions.computeIfAbsent(txHash, StubTransaction::new);
+    }
+
+    /**
+     * Sets the sender and recipient of a transaction (by default, all transactions are sent between the same accounts).
+     */
+    synchronized void setParties(String txHash, String from, String to) {
+        transactions.computeIfAbsent(txHash, StubTransaction::new);
+        transactions.get(txHash).from = from;
+        transactions.get(txHash).to = to;
+    }
+
+    synchronized void failTransaction(String txHash) {
+        transactions.get(txHash).statusOk = false;
+    }
+
+    synchronized long getHeadNumber() {
+        return chain.size() - 1;
+    }
+
+    synchronized StubBlock getBlock(long number) {
+        return chain.get((int) number);
+    }
+
+    void onMethod(String method, Function<JsonNode, JsonNode> handler) {
+        customMethods.put(method, handler);
+    }
+
+    int getCallCount(String method) {
+        final AtomicInteger count = callCounts.get(method);
+
+        return count == null ? 0 : count.get();
+    }
+
+    int getHttpCallCount() {
+        return httpCalls.get();
+    }
+
+    /**
+     * Delays the answers to HTTP requests.
+     */
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Simulates an outage: HTTP requests are answered with status 503 while the node is unavailable.
+     */
+    void setAvailable(boolean available) {
+        this.available = available;
+    }
+
+    static String hash(long number, String seed) {
+        return Numeric.toHexString(Hash.sha3((number + ":" + seed).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Serves the simulated chain over HTTP on a random local port.
+     *
+     * @return the url of the node
+     */
+    String startHttpServer() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.createContext("/", exchange -> {
+            final String payload = new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (!available) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+
+                return;
+            }
+
+            final byte[] response = ByteStreams.toByteArray(performIO(payload));
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response);
+            }
+        });
+        // requests are answered concurrently like by a real node
+        httpExecutor = Executors.newCachedThreadPool();
+        httpServer.setExecutor(httpExecutor);
+        httpServer.start();
+
+        return "http://127.0.0.1:" + httpServer.getAddress().getPort();
+    }
+
+    void stopHttpServer() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpExecutor.shutdownNow();
+            httpServer = null;
+        }
+    }
+
+    @Override
+    protected InputStream performIO(String payload) throws IOException {
+        httpCalls.incrementAndGet();
+        final JsonNode request = mapper.readTree(payload);
+        final JsonNode response;
+
+        if (request.isArray()) {
+            final ArrayNode responses = FACTORY.arrayNode();
+            request.forEach(single -> responses.add(answer(single)));
+            response = responses;
+        } else {
+            response = answer(request);
+        }
+
+        return new ByteArrayInputStream(mapper.writeValueAsBytes(response));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private ObjectNode answer(JsonNode request) {
+        final String method = request.get("method").asText();
+        final JsonNode params = request.get("params");
+        callCounts.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+        final ObjectNode response = FACTORY.objectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("id", request.get("id"));
+
+        try {
+            final Function<JsonNode, JsonNode> custom = customMethods.get(method);
+            response.set("result", custom != null ? custom.apply(params) : answer(method, params));
+        } catch (RuntimeException e) {
+            final ObjectNode error = FACTORY.objectNode();
+            error.put("code", -32000);
+            error.put("message", e.getMessage());
+            response.set("error", error);
+        }
+
+        return response;
+    }
+
+    private synchronized JsonNode answer(String method, JsonNode params) {
+        switch (method) {
+            case "web3_clientVersion":
+                return FACTORY.textNode("StubEthereumNode/v1");
+            case "eth_blockNumber":
+                return quantity(getHeadNumber());
+            case "eth_newBlockFilter":
+                final String filterId = quantity(filterCounter.incrementAndGet()).asText();
+                blockFilters.put(filterId, chain.size());
+                return FACTORY.textNode(filterId);
+            case "eth_getFilterChanges":
+                return filterChanges(params.get(0).asText());
+            case "eth_uninstallFilter":
+                return FACTORY.booleanNode(blockFilters.remove(params.get(0).asText()) != null);
+            case "eth_getBlockByHash":
+                return chain.stream()
+                        .filter(block -> block.hash.equals(params.get(0).asText()))
+                        .findFirst()
+                        .map(block -> blockJson(block, params.path(1).asBoolean()))
+                        .orElse(FACTORY.nullNode());
+            case "eth_getBlockByNumber":
+                final String tag = params.get(0).asText();
+                final long number = "latest".equals(tag) ? getHeadNumber() : Numeric.decodeQuantity(tag).longValue();
+                return number < chain.size() ? blockJson(chain.get((int) number), params.path(1).asBoolean()) : FACTORY.nullNode();
+            case "eth_getTransactionByHash":
+                return transactionJson(params.get(0).asText());
+            case "eth_getTransactionReceipt":
+                return receiptJson(params.get(0).asText());
+            case "eth_getBlockReceipts":
+                return chain.stream()
+                        .filter(block -> block.hash.equals(params.get(0).asText()))
+                        .findFirst()
+                        .map(this::blockReceiptsJson)
+                        .orElse(FACTORY.nullNode());
+            default:
+                throw new UnsupportedOperationException("the method " + method + " does not exist/is not available");
+        }
+    }
+
+    private JsonNode filterChanges(String filterId) {
+        final ArrayNode result = FACTORY.arrayNode();
+        final Integer seen = blockFilters.get(filterId);
+
+        if (seen != null) {
+            for (int i = seen; i < chain.size(); i++) {
+                result.add(chain.get(i).hash);
+            }
+
+            blockFilters.put(filterId, chain.size());
+        }
+
+        return result;
+    }
+
+    private JsonNode blockJson(StubBlock block, boolean fullTransactions) {
+        final ObjectNode result = (ObjectNode) block.toJson();
+
+        if (fullTransactions) {
+            final ArrayNode txs = result.putArray("transactions");
+            block.transactions.forEach(txHash -> txs.add(transactionJson(txHash)));
+        }
+
+        return result;
+    }
+
+    private JsonNode transactionJson(String txHash) {
+        final StubTransaction tx = transactions.get(txHash);
+
+        if (tx == null) {
+            return FACTORY.nullNode();
+        }
+
+        final ObjectNode result = FACTORY.objectNode();
+        result.put("hash", txHash);
+        result.put("from", tx.from);
+        result.put("to", tx.to);
+        result.put("value", "0x0");
+
+        if (tx.blockHash != null) {
+            result.put("blockHash", tx.blockHash);
+            result.set("blockNumber", quantity(tx.blockNumber));
+        } else {
+            result.putNull("blockHash");
+            result.putNull("blockNumber");
+        }
+
+        return result;
+    }
+
+    private JsonNode receiptJson(String txHash) {
+        final StubTransaction tx = transactions.get(txHash);
+
+        if (tx == null || tx.blockHash == null) {
+            return FACTORY.nullNode();
+        }
+
+        final ObjectNode result = FACTORY.objectNode();
+        result.put("transactionHash", txHash);
+        result.put("blockHash", tx.blockHash);
+        result.set("blockNumber", quantity(tx.blockNumber));
+        result.put("status", tx.statusOk ? "0x1" : "0x0");
+        result.set("logs", FACTORY.arrayNode());
+
+        return result;
+    }
+
+    private JsonNode blockReceiptsJson(StubBlock block) {
+        final ArrayNode result = FACTORY.arrayNode();
+        block.transactions.forEach(txHash -> result.add(receiptJson(txHash)));
+
+        return result;
+    }
+
+    static JsonNode quantity(long value) {
+        return FACTORY.textNode(Numeric.toHexStringWithPrefix(BigInteger.valueOf(value)));
+    }
+
+    static class StubBlock {
+        final long number;
+        final String hash;
+        final String parentHash;
+        final long timestamp;
+        final List<String> transactions = new ArrayList<>();
+
+        StubBlock(long number, String hash, String parentHash, long timestamp) {
+            this.number = number;
+            this.hash = hash;
+            this.parentHash = parentHash;
+            this.timestamp = timestamp;
+        }
+
+        JsonNode toJson() {
+            final ObjectNode result = FACTORY.objectNode();
+            result.set("number", quantity(number));
+            result.put("hash", hash);
+            result.put("parentHash", parentHash);
+            result.set("timestamp", quantity(timestamp));
+            final ArrayNode txs = result.putArray("transactions");
+            transactions.forEach(txs::add);
+
+            return result;
+        }
+    }
+
+    private static class StubTransaction {
+        final String hash;
+        String blockHash;
+        long blockNumber = -1;
+        boolean statusOk = true;
+        String from = "0x90645dc507225d61cb81cf83e7470f5a6aa1215a";
+        String to = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+
+        StubTransaction(String hash) {
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+/**
+ * A local stand-in for the WebSocket endpoint of an Ethereum node. It accepts eth_subscribe requests and pushes the
+ * notifications the test publishes to the matching subscriptions.
+ */
+class StubPushServer extends WebSocketServer {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int port;
+    // subscription id -> subscription type
+    private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, WebSocket> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriptionCounter = new AtomicInteger();
+    private final AtomicInteger subscribeCalls = new AtomicInteger();
+    private final AtomicInteger refusedSubscribes = new AtomicInteger();
+
+    private StubPushServer(int port) {
+        super(new InetSocketAddress("127.0.0.1", port));
+        this.port = port;
+        this.setReuseAddr(true);
+    }
+
+    static StubPushServer startNew() throws IOException, InterruptedException {
+        final int port;
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        final StubPushServer server = new StubPushServer(port);
+        server.start();
+        // the server is started asynchronously
+        Thread.sleep(200);
+
+        return server;
+    }
+
+    String getUrl() {
+        return "ws://127.0.0.1:" + port;
+    }
+
+    int getSubscribeCallCount() {
+        return subscribeCalls.get();
+    }
+
+    /**
+     * Makes the next eth_subscribe requests fail.
+     */
+    void refuseSubscribes(int count) {
+        refusedSubscribes.set(count);
+    }
+
+    int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Pushes the given result to all subscriptions of the given type.
+     */
+    void publish(String type, JsonNode result) {
+        subscriptions.forEach((id, subscriptionType) -> {
+            final WebSocket connection = connections.get(id);
+
+            if (subscriptionType.equals(type) && connection != null && connection.isOpen()) {
+                final ObjectNode notification = mapper.createObjectNode();
+                notification.put("jsonrpc", "2.0");
+                notification.put("method", "eth_subscription");
+                notification.putObject("params").put("subscription", id).set("result", result);
+                connection.send(notification.toString());
+            }
+        });
+    }
+
+    /**
+     * Drops all client connections together with their subscriptions.
+     */
+    void disconnectAll() {
+        subscriptions.clear();
+        connections.values().forEach(WebSocket::close);
+        connections.clear();
+    }
+
+    @Override
+    public void onOpen(WebSocket connection, ClientHandshake handshake) {
+    }
+
+    @Override
+    public void onClose(WebSocket connection, int code, String reason, boolean remote) {
+        connections.entrySet().removeIf(entry -> {
+            if (entry.getValue() == connection) {
+                subscriptions.remove(entry.getKey());
+
+                return true;
+            }
+
+            return false;
+        });
+    }
+
+    @Override
+    public void onMessage(WebSocket connection, String message) {
+        try {
+            final JsonNode request = mapper.readTree(message);
+            final ObjectNode response = mapper.createObjectNode();
+            response.put("jsonrpc", "2.0");
+            response.set("id", request.get("id"));
+
+            switch (request.get("method").asText()) {
+                case "eth_subscribe":
+                    subscribeCalls.incrementAndGet();
+
+                    if (refusedSubscribes.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                        response.putObject("error").put("code", -32000).put("message", "too many subscriptions");
+                        break;
+                    }
+
+                    final String id = "0x" + Integer.toHexString(subscriptionCounter.incrementAndGet());
+                    response.put("result", id);
+                    // notifications are only published after the client received the subscription id
+                    connection.send(response.toString());
+                    connections.put(id, connection);
+                    subscriptions.put(id, request.get("params").get(0).asText());
+                    return;
+                case "eth_unsubscribe":
+                    final String removed = request.get("params").get(0).asText();
+                    connections.remove(removed);
+                    response.put("result", subscriptions.remove(removed) != null);
+                    break;
+                default:
+                    response.putObject("error").put("code", -32601).put("message", "the method does not exist");
+            }
+
+            connection.send(response.toString());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void onError(WebSocket connection, Exception e) {
+    }
+
+    @Override
+    public void onStart() {
+    }
+}
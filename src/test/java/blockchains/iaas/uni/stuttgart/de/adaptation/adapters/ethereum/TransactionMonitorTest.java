@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import blockchains.iaas.uni.stuttgart.de.exceptions.TimeoutException;
+import blockchains.iaas.uni.stuttgart.de.model.Transaction;
+import blockchains.iaas.uni.stuttgart.de.model.TransactionState;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+
+class TransactionMonitorTest {
+    private static final String TX_HASH = StubEthereumNode.hash(1, "tx");
+    private StubEthereumNode node;
+    private ChainHeadFollower headFollower;
+    private TransactionMonitor monitor;
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+        final Web3j web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        headFollower = new ChainHeadFollower(web3j, new HeaderChain(web3j, HeaderChain.DEFAULT_WINDOW_SIZE));
+        monitor = new TransactionMonitor(web3j, headFollower);
+    }
+
+    @Test
+    void testConfirmationIsShared() throws Exception {
+        node.mineBlock(1, TX_HASH);
+        final List<CompletableFuture<Transaction>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            futures.add(monitor.watch(TX_HASH, 3, TransactionState.CONFIRMED));
+        }
+
+        Assertions.assertEquals(1, headFollower.getListenerCount());
+        mineUntilDone(futures.get(0));
+
+        for (CompletableFuture<Transaction> future : futures) {
+            Assertions.assertEquals(TransactionState.CONFIRMED, future.get(5, TimeUnit.SECONDS).getState());
+        }
+
+        // the status of the transaction is fetched once per head, not once per watch
+        Assertions.assertTrue(node.getCallCount("eth_getTransactionReceipt") <= node.getHeadNumber());
+        // completed watches are unregistered asynchronously to the waiting thread
+        for (int i = 0; i < 20 && headFollower.getListenerCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+
+        Assertions.assertEquals(0, monitor.getWatchedTransactionCount());
+        Assertions.assertEquals(0, headFollower.getListenerCount());
+    }
+
+    @Test
+    void testConfirmationsAreCountedFromBlockHeights() throws Exception {
+        node.mineBlock(1, TX_HASH);
+        final CompletableFuture<Transaction> future = monitor.watch(TX_HASH, 10, TransactionState.CONFIRMED);
+        mineUntilDone(future);
+
+        Assertions.assertEquals(TransactionState.CONFIRMED, future.get(5, TimeUnit.SECONDS).getState());
+        // the transaction is in a canonical block, so its status is not fetched again while waiting for confirmations
+        Assertions.assertEquals(1, node.getCallCount("eth_getTransactionReceipt"));
+        Assertions.assertEquals(0, monitor.getScheduledWatchCount());
+    }
+
+    @Test
+    void testReorganizationIsDetected() throws Exception {
+        node.mineBlock(1);
+        node.mineBlock(2, TX_HASH);
+        final CompletableFuture<Transaction> future = monitor.watch(TX_HASH, 100,
+                TransactionState.CONFIRMED, TransactionState.PENDING);
+
+        for (int i = 0; i < 20 && monitor.getScheduledWatchCount() == 0; i++) {
+            Thread.sleep(50);
+            node.mineBlock(node.getHeadNumber() + 1);
+        }
+
+        Assertions.assertEquals(1, monitor.getScheduledWatchCount());
+        final int receiptCalls = node.getCallCount("eth_getTransactionReceipt");
+        // the block of the transaction is replaced by a longer competing branch
+        node.reorganize(1, node.getHeadNumber() + 1);
+        mineUntilDone(future);
+
+        Assertions.assertEquals(TransactionState.PENDING, future.get(5, TimeUnit.SECONDS).getState());
+        Assertions.assertEquals(receiptCalls + 1, node.getCallCount("eth_getTransactionReceipt"));
+    }
+
+    @Test
+    void testMiningAndConfirmationPhases() throws Exception {
+        node.addPendingTransaction(TX_HASH);
+        final CompletableFuture<Transaction> future = monitor.watchUntilMined(TX_HASH, 60_000, 2,
+                TransactionState.CONFIRMED, TransactionState.NOT_FOUND, TransactionState.ERRORED);
+        node.mineBlock(1);
+        node.mineBlock(2, TX_HASH);
+        mineUntilDone(future);
+
+        final Transaction result = future.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(TransactionState.CONFIRMED, result.getState());
+    }
+
+    @Test
+    void testErroredTransaction() throws Exception {
+        node.mineBlock(1, TX_HASH);
+        node.failTransaction(TX_HASH);
+        final CompletableFuture<Transaction> future = monitor.watch(TX_HASH, 5,
+                TransactionState.CONFIRMED, TransactionState.ERRORED);
+        mineUntilDone(future);
+
+        Assertions.assertEquals(TransactionState.ERRORED, future.get(5, TimeUnit.SECONDS).getState());
+    }
+
+    @Test
+    void testTimeoutBeforeMining() throws InterruptedException {
+        node.addPendingTransaction(TX_HASH);
+        final CompletableFuture<Transaction> future = monitor.watchUntilMined(TX_HASH, 0, 2, TransactionState.CONFIRMED);
+        mineUntilDone(future);
+
+        final ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(exception.getCause() instanceof TimeoutException);
+    }
+
+    private void mineUntilDone(CompletableFuture<?> future) throws InterruptedException {
+        for (int i = 0; i < 50 && !future.isDone(); i++) {
+            Thread.sleep(50);
+            node.mineBlock(node.getHeadNumber() + 1);
+        }
+    }
+}
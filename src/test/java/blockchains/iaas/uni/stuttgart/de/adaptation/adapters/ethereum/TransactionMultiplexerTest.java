@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.adapters.ethereum;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import io.reactivex.disposables.Disposable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.Transaction;
+import org.web3j.utils.Numeric;
+
+class TransactionMultiplexerTest {
+    private static final String RECIPIENT = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+    private static final String SENDER_1 = "0x90645dc507225d61cb81cf83e7470f5a6aa1215a";
+    private static final String SENDER_2 = "0x5e1b5e0f3fb1ae7d1c8dbb1aeb4ad9b0c3f4c2e1";
+    private StubEthereumNode node;
+    private Web3j web3j;
+    private ChainHeadFollower headFollower;
+    private TransactionMultiplexer multiplexer;
+
+    @BeforeEach
+    void init() {
+        node = new StubEthereumNode();
+        web3j = Web3j.build(node, 10, Executors.newSingleThreadScheduledExecutor());
+        headFollower = new ChainHeadFollower(web3j, new HeaderChain(web3j, HeaderChain.DEFAULT_WINDOW_SIZE));
+        multiplexer = new TransactionMultiplexer(web3j, headFollower, () -> {
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        web3j.shutdown();
+    }
+
+    @Test
+    void testBlocksAreFetchedOnceForAllSubscriptions() throws InterruptedException {
+        final List<Transaction> received = new CopyOnWriteArrayList<>();
+        final List<Transaction> others = new CopyOnWriteArrayList<>();
+        final List<Disposable> subscriptions = new ArrayList<>();
+        subscriptions.add(multiplexer.transactionFlowable(RECIPIENT.toUpperCase().replace("0X", "0x"), null)
+                .subscribe(received::add));
+
+        for (int i = 0; i < 1_000; i++) {
+            subscriptions.add(multiplexer.transactionFlowable(StubEthereumNode.hash(i, "account").substring(0, 42), null)
+                    .subscribe(others::add));
+        }
+
+        Assertions.assertEquals(1_001, multiplexer.getSubscriberCount());
+        Assertions.assertEquals(1, headFollower.getListenerCount());
+
+        for (int i = 1; i <= 3; i++) {
+            node.setParties(StubEthereumNode.hash(i, "tx"), SENDER_1, RECIPIENT);
+            node.mineBlock(i, StubEthereumNode.hash(i, "tx"));
+            final int count = i;
+            waitUntil(() -> received.size() == count);
+        }
+
+        Assertions.assertEquals(3, received.size());
+        Assertions.assertEquals(StubEthereumNode.hash(3, "tx"), received.get(2).getHash());
+        Assertions.assertTrue(others.isEmpty());
+        Assertions.assertEquals(3, multiplexer.getFetchedBlockCount());
+
+        subscriptions.forEach(Disposable::dispose);
+        Assertions.assertEquals(0, multiplexer.getSubscriberCount());
+        Assertions.assertEquals(0, headFollower.getListenerCount());
+    }
+
+    @Test
+    void testTransactionsCanBeRestrictedToASender() throws InterruptedException {
+        final List<Transaction> fromAnySender = new CopyOnWriteArrayList<>();
+        final List<Transaction> fromSender2 = new CopyOnWriteArrayList<>();
+        final Disposable any = multiplexer.transactionFlowable(RECIPIENT, " ").subscribe(fromAnySender::add);
+        final Disposable restricted = multiplexer.transactionFlowable(RECIPIENT, SENDER_2.toUpperCase().replace("0X", "0x"))
+                .subscribe(fromSender2::add);
+
+        node.setParties(StubEthereumNode.hash(1, "tx"), SENDER_1, RECIPIENT);
+        node.setParties(StubEthereumNode.hash(2, "tx"), SENDER_2, RECIPIENT);
+        node.setParties(StubEthereumNode.hash(3, "tx"), SENDER_2, SENDER_1);
+        node.mineBlock(1, StubEthereumNode.hash(1, "tx"), StubEthereumNode.hash(2, "tx"), StubEthereumNode.hash(3, "tx"));
+        waitUntil(() -> fromAnySender.size() == 2);
+
+        Assertions.assertEquals(1, fromSender2.size());
+        Assertions.assertEquals(StubEthereumNode.hash(2, "tx"), fromSender2.get(0).getHash());
+
+        any.dispose();
+        restricted.dispose();
+    }
+
+    @Test
+    void testBlocksMinedBetweenHeadsAreFetched() throws InterruptedException {
+        // the latest block is polled once when the subscription starts, and the later heads are reported by the test
+        final ChainHeadFollower slowFollower = new ChainHeadFollower(web3j, new HeaderChain(web3j, HeaderChain.DEFAULT_WINDOW_SIZE),
+                null, new AdaptivePollScheduler(60_000, 60_000));
+        final TransactionMultiplexer slowMultiplexer = new TransactionMultiplexer(web3j, slowFollower, () -> {
+        });
+        final List<Transaction> received = new CopyOnWriteArrayList<>();
+        final Disposable subscription = slowMultiplexer.transactionFlowable(RECIPIENT, null).subscribe(received::add);
+        waitUntil(() -> slowMultiplexer.getFetchedBlockCount() == 1);
+
+        for (int i = 1; i <= 3; i++) {
+            node.mineBlock(i, StubEthereumNode.hash(i, "tx"));
+        }
+
+        slowMultiplexer.onNewHead(head(node.getBlock(3)));
+        waitUntil(() -> received.size() == 3);
+
+        Assertions.assertEquals(4, slowMultiplexer.getFetchedBlockCount());
+
+        for (int i = 1; i <= 3; i++) {
+            Assertions.assertEquals(StubEthereumNode.hash(i, "tx"), received.get(i - 1).getHash());
+        }
+
+        // a head that was handled already is ignored
+        slowMultiplexer.onNewHead(head(node.getBlock(3)));
+        Thread.sleep(50);
+        Assertions.assertEquals(4, slowMultiplexer.getFetchedBlockCount());
+
+        subscription.dispose();
+    }
+
+    @Test
+    void testBlocksMissedDuringAnOutageAreCaughtUp() throws InterruptedException {
+        final ChainHeadFollower slowFollower = new ChainHeadFollower(web3j, new HeaderChain(web3j, HeaderChain.DEFAULT_WINDOW_SIZE),
+                null, new AdaptivePollScheduler(60_000, 60_000));
+        final TransactionMultiplexer slowMultiplexer = new TransactionMultiplexer(web3j, slowFollower, () -> {
+        });
+        final List<Transaction> received = new CopyOnWriteArrayList<>();
+        final Disposable subscription = slowMultiplexer.transactionFlowable(RECIPIENT, null).subscribe(received::add);
+        waitUntil(() -> slowMultiplexer.getFetchedBlockCount() == 1);
+        final int missed = 2 * TransactionMultiplexer.MAX_BLOCKS_PER_HEAD + 50;
+
+        for (int i = 1; i <= missed; i++) {
+            node.setParties(StubEthereumNode.hash(i, "tx"), SENDER_1, RECIPIENT);
+            node.mineBlock(i, StubEthereumNode.hash(i, "tx"));
+        }
+
+        // a single head after the outage
+        slowMultiplexer.onNewHead(head(node.getBlock(missed)));
+        waitUntil(() -> received.size() == missed);
+
+        Assertions.assertEquals(missed + 1, slowMultiplexer.getFetchedBlockCount());
+
+        for (int i = 1; i <= missed; i++) {
+            Assertions.assertEquals(StubEthereumNode.hash(i, "tx"), received.get(i - 1).getHash());
+        }
+
+        subscription.dispose();
+    }
+
+    private static EthBlock.Block head(StubEthereumNode.StubBlock block) {
+        final EthBlock.Block result = new EthBlock.Block();
+        result.setNumber(Numeric.encodeQuantity(BigInteger.valueOf(block.number)));
+        result.setHash(block.hash);
+
+        return result;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5_000;
+
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        Assertions.assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlockTimestampIndexTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void testIndexSurvivesRestarts() throws IOException {
+        final Path file = directory.resolve("chain.tsidx");
+
+        try (BlockTimestampIndex index = BlockTimestampIndex.open(file)) {
+            index.put(0, 0, "0x00");
+            index.put(1, 15, "0x01");
+            // far beyond the initial capacity of the file
+            index.put(1_000_000, 15_000_000, "0x02");
+            Assertions.assertEquals(-1, index.getTimestamp(2));
+        }
+
+        try (BlockTimestampIndex index = BlockTimestampIndex.open(file)) {
+            Assertions.assertEquals(0, index.getTimestamp(0));
+            Assertions.assertEquals(15, index.getTimestamp(1));
+            Assertions.assertEquals(15_000_000, index.getTimestamp(1_000_000));
+            Assertions.assertEquals(-1, index.getTimestamp(2_000_000));
+            Assertions.assertEquals(1_000_000, index.getAnchorNumber());
+        }
+    }
+
+    @Test
+    void testBlocksBeyondTheCapacityAreNotIndexed() throws IOException {
+        try (BlockTimestampIndex index = BlockTimestampIndex.open(directory.resolve("long.tsidx"))) {
+            index.put(1, 15, "0x01");
+            index.put(1L << 40, 15_000_000, "0x02");
+
+            Assertions.assertEquals(-1, index.getTimestamp(1L << 40));
+            Assertions.assertEquals(1, index.getAnchorNumber());
+        }
+    }
+
+    @Test
+    void testValidationAgainstTheChain() throws IOException {
+        try (BlockTimestampIndex index = BlockTimestampIndex.open(directory.resolve("chain.tsidx"))) {
+            index.put(10, 150, "0xabc");
+
+            Assertions.assertTrue(index.validate(20, number -> "0xABC"));
+            Assertions.assertEquals(150, index.getTimestamp(10));
+
+            // the chain of the node was replaced
+            Assertions.assertFalse(index.validate(20, number -> "0xdef"));
+            Assertions.assertEquals(-1, index.getTimestamp(10));
+            Assertions.assertEquals(-1, index.getAnchorNumber());
+        }
+    }
+
+    @Test
+    void testValidationWithoutHashes() throws IOException {
+        try (BlockTimestampIndex index = BlockTimestampIndex.open(directory.resolve("channel.tsidx"))) {
+            index.put(10, 150, null);
+
+            Assertions.assertTrue(index.validate(10, null));
+            // the ledger was reset
+            Assertions.assertFalse(index.validate(5, null));
+            Assertions.assertEquals(-1, index.getTimestamp(10));
+        }
+    }
+
+    @Test
+    void testSearchIsAnsweredFromTheIndex() throws IOException {
+        try (BlockTimestampIndex index = BlockTimestampIndex.open(directory.resolve("chain.tsidx"))) {
+            for (int i = 0; i < 1_000; i++) {
+                index.put(i, 1_000 + i * 10, null);
+            }
+
+            final BlockTimestampSearch search = new BlockTimestampSearch(number -> {
+                final long timestamp = index.getTimestamp(number);
+                Assertions.assertTrue(timestamp >= 0);
+
+                return timestamp;
+            });
+
+            Assertions.assertEquals(500, search.findFirstBlockAtOrAfter(5_995, 999));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares resolving a date to a block number by walking from an estimate based on the average block time (the former
+ * approach) with {@link BlockTimestampSearch}, on a simulated chain with irregular block times. Besides the time per
+ * lookup, the number of fetched timestamps (i.e., RPC requests against a real node) is reported as a secondary result.
+ * <p>
+ * Run with the main method from the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlockTimestampSearchBenchmark {
+    private static final int AVERAGE_BLOCK_TIME_SECONDS = 15;
+
+    @Param({"100000", "1000000"})
+    public int chainLength;
+
+    private long[] timestamps;
+    private long[] targets;
+    private int nextTarget;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        timestamps = BlockTimestampSearchTest.simulateIrregularChain(chainLength, 42);
+        final Random random = new Random(7);
+        targets = new long[1024];
+
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = timestamps[0] + (long) (random.nextDouble() * (timestamps[chainLength - 1] - timestamps[0]));
+        }
+    }
+
+    @Benchmark
+    public long estimateAndWalk(FetchCounter counter) {
+        final long target = nextTarget();
+        final int latest = chainLength - 1;
+        final long estimatedLag = Math.max(0, (timestamps[latest] - target) / AVERAGE_BLOCK_TIME_SECONDS);
+        int blockNumber = (int) Math.max(0, latest - estimatedLag);
+        counter.fetches++;
+
+        if (timestamps[blockNumber] >= target) {
+            while (--blockNumber >= 0) {
+                counter.fetches++;
+
+                if (timestamps[blockNumber] < target) {
+                    return blockNumber + 1;
+                }
+            }
+
+            return 0;
+        }
+
+        while (++blockNumber <= latest) {
+            counter.fetches++;
+
+            if (timestamps[blockNumber] >= target) {
+                return blockNumber;
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    @Benchmark
+    public long interpolationSearch(FetchCounter counter) throws IOException {
+        final BlockTimestampSearch search = new BlockTimestampSearch(number -> {
+            counter.fetches++;
+            return timestamps[(int) number];
+        });
+
+        return search.findFirstBlockAtOrAfter(nextTarget(), chainLength - 1);
+    }
+
+    private long nextTarget() {
+        nextTarget = (nextTarget + 1) & (targets.length - 1);
+
+        return targets[nextTarget];
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class FetchCounter {
+        public long fetches;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            fetches = 0;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BlockTimestampSearchBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class BlockTimestampSearchTest {
+
+    /**
+     * Simulates a chain whose block times alternate between fast and very slow phases, and where several blocks can
+     * share the same timestamp.
+     */
+    static long[] simulateIrregularChain(int length, long seed) {
+        final Random random = new Random(seed);
+        final long[] timestamps = new long[length];
+        timestamps[0] = 1_500_000_000L;
+
+        for (int i = 1; i < length; i++) {
+            final boolean slowPhase = (i / 10_000) % 3 == 2;
+            final long blockTime = slowPhase ? 60 + random.nextInt(600) : random.nextInt(3);
+            timestamps[i] = timestamps[i - 1] + blockTime;
+        }
+
+        return timestamps;
+    }
+
+    @Test
+    void testMatchesLinearSearch() throws IOException {
+        final long[] timestamps = simulateIrregularChain(100_000, 42);
+        final BlockTimestampSearch search = new BlockTimestampSearch(number -> timestamps[(int) number]);
+        final Random random = new Random(7);
+
+        for (int i = 0; i < 1_000; i++) {
+            final long target = timestamps[0] + (long) (random.nextDouble() * (timestamps[timestamps.length - 1] - timestamps[0]));
+
+            Assertions.assertEquals(linearSearch(timestamps, target), search.findFirstBlockAtOrAfter(target, timestamps.length - 1));
+        }
+    }
+
+    @Test
+    void testBoundaries() throws IOException {
+        final long[] timestamps = simulateIrregularChain(1_000, 1);
+        final BlockTimestampSearch search = new BlockTimestampSearch(number -> timestamps[(int) number]);
+        final long latest = timestamps.length - 1;
+
+        Assertions.assertEquals(0, search.findFirstBlockAtOrAfter(timestamps[0] - 1, latest));
+        Assertions.assertEquals(0, search.findFirstBlockAtOrAfter(timestamps[0], latest));
+        Assertions.assertEquals(linearSearch(timestamps, timestamps[(int) latest]), search.findFirstBlockAtOrAfter(timestamps[(int) latest], latest));
+        Assertions.assertEquals(Long.MAX_VALUE, search.findFirstBlockAtOrAfter(timestamps[(int) latest] + 1, latest));
+    }
+
+    @Test
+    void testNumberOfFetchesIsLogarithmic() throws IOException {
+        final long[] timestamps = simulateIrregularChain(1_000_000, 3);
+        final AtomicInteger fetches = new AtomicInteger();
+        final BlockTimestampSearch search = new BlockTimestampSearch(number -> {
+            fetches.incrementAndGet();
+            return timestamps[(int) number];
+        });
+        final int bound = 2 * (64 - Long.numberOfLeadingZeros(timestamps.length)) + 2;
+        final Random random = new Random(11);
+
+        for (int i = 0; i < 1_000; i++) {
+            fetches.set(0);
+            final long target = timestamps[0] + (long) (random.nextDouble() * (timestamps[timestamps.length - 1] - timestamps[0]));
+            search.findFirstBlockAtOrAfter(target, timestamps.length - 1);
+
+            Assertions.assertTrue(fetches.get() <= bound, "needed " + fetches.get() + " fetches");
+        }
+    }
+
+    @Test
+    void testSearchingWithTheMaximumSkewIsConservative() throws IOException {
+        final long skew = 300;
+        final long[] timestamps = simulateIrregularChain(10_000, 5);
+        final Random random = new Random(13);
+
+        // every block can be up to the skew later than its successors
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] += random.nextInt((int) skew + 1);
+        }
+
+        final BlockTimestampSearch search = new BlockTimestampSearch(number -> timestamps[(int) number]);
+
+        for (int i = 0; i < 1_000; i++) {
+            final long target = timestamps[0] + (long) (random.nextDouble() * (timestamps[timestamps.length - 1] - timestamps[0]));
+            final long start = search.findFirstBlockAtOrAfter(target - skew, timestamps.length - 1);
+
+            for (int j = 0; j < timestamps.length && j < start; j++) {
+                Assertions.assertTrue(timestamps[j] < target, "block " + j + " skipped for target " + target);
+            }
+        }
+    }
+
+    private static long linearSearch(long[] timestamps, long target) {
+        for (int i = 0; i < timestamps.length; i++) {
+            if (timestamps[i] >= target) {
+                return i;
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+}
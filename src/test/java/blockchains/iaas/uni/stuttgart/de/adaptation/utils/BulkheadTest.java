@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class BulkheadTest {
+
+    @Test
+    void testTasksAreRejectedIfTheQueueIsFull() throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead("test-full", 1, 2);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+
+        bulkhead.execute(() -> {
+            await(blocked);
+            done.countDown();
+        });
+        bulkhead.execute(done::countDown);
+        bulkhead.execute(done::countDown);
+
+        Assertions.assertThrows(RejectedExecutionException.class, () -> bulkhead.execute(done::countDown));
+        Assertions.assertEquals(1, bulkhead.getRejectedCount());
+        Assertions.assertEquals(2, bulkhead.getQueueSize());
+
+        blocked.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void testRejectedTasksCanRunOnTheCaller() throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead("test-caller-runs", 1, 1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<String> threads = new CopyOnWriteArrayList<>();
+
+        bulkhead.execute(() -> await(blocked));
+        bulkhead.execute(() -> threads.add(Thread.currentThread().getName()));
+        bulkhead.callerRunsIfRejected().execute(() -> threads.add(Thread.currentThread().getName()));
+
+        Assertions.assertEquals(Collections.singletonList(Thread.currentThread().getName()), threads);
+        blocked.countDown();
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void testTasksOfAKeyRunInOrderOnASingleThread() throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead("test-keyed", 4, 100);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(21);
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        bulkhead.execute("slow", () -> {
+            await(blocked);
+            done.countDown();
+        });
+
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            bulkhead.execute("slow", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(index);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        // the tasks of other keys are not held up by the slow one
+        final CountDownLatch fast = new CountDownLatch(10);
+
+        for (int i = 0; i < 10; i++) {
+            bulkhead.execute("fast-" + i, () -> {
+                fast.countDown();
+                done.countDown();
+            });
+        }
+
+        Assertions.assertTrue(fast.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(order.isEmpty());
+
+        blocked.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, maxRunning.get());
+
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(i, order.get(i));
+        }
+
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void testFailingTasksDoNotStopTheTasksOfTheirKey() throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead("test-failing", 1, 10);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        bulkhead.execute("key", () -> {
+            throw new IllegalStateException("failed");
+        });
+        bulkhead.execute("key", done::countDown);
+
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, bulkhead.getFailedCount());
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void testBulkheadsAreSeparatedPerBlockchainAndStage() {
+        final Bulkheads bulkheads = Bulkheads.getInstance();
+        final Bulkhead callbacks = bulkheads.get("test-chain", Bulkheads.Stage.CALLBACK_DISPATCH);
+
+        Assertions.assertSame(callbacks, bulkheads.get("test-chain", Bulkheads.Stage.CALLBACK_DISPATCH));
+        Assertions.assertNotSame(callbacks, bulkheads.get("test-chain", Bulkheads.Stage.RPC_IO));
+        Assertions.assertNotSame(callbacks, bulkheads.get("other-chain", Bulkheads.Stage.CALLBACK_DISPATCH));
+        Assertions.assertEquals("test-chain-callback", callbacks.getName());
+        Assertions.assertTrue(bulkheads.getAll().contains(callbacks));
+    }
+
+    @Test
+    void testBulkheadsAreResizedWhenTheNumberOfThreadsChanges() throws InterruptedException {
+        final Bulkheads bulkheads = Bulkheads.getInstance();
+        final Bulkhead rpc = bulkheads.get("test-resized", Bulkheads.Stage.RPC_IO, 1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(3);
+
+        Assertions.assertSame(rpc, bulkheads.get("test-resized", Bulkheads.Stage.RPC_IO, 3));
+        Assertions.assertEquals(3, rpc.getThreads());
+        // looking up the bulkhead without a number of threads keeps the configured one
+        Assertions.assertSame(rpc, bulkheads.get("test-resized", Bulkheads.Stage.RPC_IO));
+        Assertions.assertEquals(3, rpc.getThreads());
+
+        for (int i = 0; i < 3; i++) {
+            rpc.execute(() -> {
+                started.countDown();
+                await(blocked);
+            });
+        }
+
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        blocked.countDown();
+
+        bulkheads.get("test-resized", Bulkheads.Stage.RPC_IO, 2);
+        Assertions.assertEquals(2, rpc.getThreads());
+        rpc.shutdown();
+    }
+
+    @Test
+    void testCallbacksAreNotRejected() throws InterruptedException {
+        final Bulkhead callbacks = Bulkheads.getInstance().get("test-unbounded", Bulkheads.Stage.CALLBACK_DISPATCH);
+        final int count = Bulkheads.DEFAULT_QUEUE_CAPACITY * 2;
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(count);
+
+        callbacks.execute("endpoint", () -> await(blocked));
+
+        for (int i = 0; i < count; i++) {
+            callbacks.execute("endpoint", done::countDown);
+        }
+
+        Assertions.assertEquals(count, callbacks.getPendingKeyedCount());
+        Assertions.assertEquals(0, callbacks.getRejectedCount());
+
+        blocked.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, callbacks.getPendingKeyedCount());
+        callbacks.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
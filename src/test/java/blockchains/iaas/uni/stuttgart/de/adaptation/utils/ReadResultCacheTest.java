@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2022 Institute for the Architecture of Application System - University of Stuttgart
+ * Author: Ghareeb Falazi
+ *
+ * This program and the accompanying materials are made available under the
+ * terms the Apache Software License 2.0
+ * which is available at https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package blockchains.iaas.uni.stuttgart.de.adaptation.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ReadResultCacheTest {
+    private static final String CONTRACT = "0x182761ac584c0016cdb3f5c59e0242ef9834fef0";
+
+    @Test
+    void testResultsAreUsedUntilTheNextBlock() {
+        final ReadResultCache cache = new ReadResultCache(100, 0);
+        cache.onNewBlock(10);
+        cache.putLatest(CONTRACT, "0x01", cache.getLatestBlock(), "0xaa");
+
+        Assertions.assertEquals("0xaa", cache.get(CONTRACT.toUpperCase().replace("0X", "0x"), "0x01").getValue());
+        Assertions.assertEquals(-1, cache.get(CONTRACT, "0x01").getBlock());
+        Assertions.assertNull(cache.get(CONTRACT, "0x02"));
+
+        cache.onNewBlock(11);
+        Assertions.assertNull(cache.get(CONTRACT, "0x01"));
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(2, cache.getHitCount());
+        Assertions.assertEquals(2, cache.getMissCount());
+        Assertions.assertEquals(0.5, cache.getHitRatio());
+    }
+
+    @Test
+    void testReorganizationsClearTheCache() {
+        final ReadResultCache cache = new ReadResultCache(100, 0);
+        cache.onNewBlock(10);
+        cache.put(CONTRACT, "0x01", 10, "0xaa");
+
+        cache.onNewBlock(10);
+        Assertions.assertNull(cache.get(CONTRACT, "0x01"));
+    }
+
+    @Test
+    void testResultsReadWhileANewBlockArrivesAreNotCached() {
+        final ReadResultCache cache = new ReadResultCache(100, 0);
+        cache.onNewBlock(10);
+        final long issuedAt = cache.getLatestBlock();
+        cache.onNewBlock(11);
+        cache.putLatest(CONTRACT, "0x01", issuedAt, "0xaa");
+
+        Assertions.assertNull(cache.get(CONTRACT, "0x01"));
+    }
+
+    @Test
+    void testResultsOfNewerBlocksAdvanceTheCache() {
+        final ReadResultCache cache = new ReadResultCache(100, 0);
+        cache.onNewBlock(10);
+        cache.putLatest(CONTRACT, "0x01", 10, "0xaa");
+        cache.put(CONTRACT, "0x02", 12, "0xbb");
+
+        Assertions.assertEquals(12, cache.getLatestBlock());
+        Assertions.assertNull(cache.get(CONTRACT, "0x01"));
+        Assertions.assertEquals(12, cache.get(CONTRACT, "0x02").getBlock());
+    }
+
+    @Test
+    void testBatchesAreOnlyAnsweredFromResultsOfTheSameBlock() {
+        final ReadResultCache cache = new ReadResultCache(100, 0);
+        final List<String> contracts = Arrays.asList(CONTRACT, CONTRACT);
+        final List<String> callData = Arrays.asList("0x01", "0x02");
+        cache.put(CONTRACT, "0x01", 10, "0xaa");
+        cache.putLatest(CONTRACT, "0x02", 10, "0xbb");
+
+        // the block of the second result is unknown
+        Assertions.assertNull(cache.getAll(contracts, callData));
+        Assertions.assertEquals(2, cache.getMissCount());
+
+        cache.put(CONTRACT, "0x02", 10, "0xcc");
+        final List<ReadResultCache.Entry> entries = cache.getAll(contracts, callData);
+        Assertions.assertEquals("0xaa", entries.get(0).getValue());
+        Assertions.assertEquals("0xcc", entries.get(1).getValue());
+        Assertions.assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    void testResultsAreCachedPerCaller() {
+        final ReadResultCache cache = new ReadResultCache(100, 0);
+        final String multicall = "0xcA11bde05977b3631167028862bE2a173976CA11";
+        final String account = "0x90645dc507225d61cb81cf83e7470f5a6aa1215a";
+        cache.put(CONTRACT, multicall, "0x01", 10, "0xaa");
+
+        Assertions.assertNull(cache.get(CONTRACT, account, "0x01"));
+        Assertions.assertEquals("0xaa", cache.get(CONTRACT, multicall.toLowerCase(), "0x01").getValue());
+        Assertions.assertNull(cache.getAll(Collections.singletonList(CONTRACT), account, Collections.singletonList("0x01")));
+    }
+
+    @Test
+    void testTheLeastRecentlyUsedResultsAreEvicted() {
+        final ReadResultCache cache = new ReadResultCache(2, 0);
+        cache.put(CONTRACT, "0x01", 10, "0xaa");
+        cache.put(CONTRACT, "0x02", 10, "0xbb");
+        cache.get(CONTRACT, "0x01");
+        cache.put(CONTRACT, "0x03", 10, "0xcc");
+
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertNotNull(cache.get(CONTRACT, "0x01"));
+        Assertions.assertNull(cache.get(CONTRACT, "0x02"));
+    }
+
+    @Test
+    void testResultsExpireIfNoBlocksAreReported() throws InterruptedException {
+        final ReadResultCache cache = new ReadResultCache(100, 1);
+        cache.putLatest(CONTRACT, "0x01", cache.getLatestBlock(), "0xaa");
+        Thread.sleep(10);
+
+        Assertions.assertNull(cache.get(CONTRACT, "0x01"));
+    }
+}